@@ -23,8 +23,12 @@ import java.io.FileWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
+import org.hortonmachine.dbs.compat.objects.BulkInsertResult;
 import org.hortonmachine.dbs.compat.objects.ForeignKey;
 import org.hortonmachine.dbs.compat.objects.Index;
 import org.hortonmachine.dbs.compat.objects.QueryResult;
@@ -50,8 +54,18 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
      * Defines if the connection should be pooled. True by default.
      */
     protected boolean makePooled = true;
+
+    /**
+     * The number of read only connections kept beside the writing one. 0 (the default) disables them.
+     */
+    protected int readPoolSize = 0;
     public boolean mPrintInfos = false;
 
+    /**
+     * The number of rows committed at once by {@link #insertBulk(SqlName, String[], Iterator)}.
+     */
+    protected int bulkInsertBatchSize = 10000;
+
     /**
      * Get the database type.
      * 
@@ -70,6 +84,33 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
         this.makePooled = makePooled;
     }
 
+    /**
+     * Set the number of read only connections used by {@link #execOnReadConnection(HMConnectionConsumer)}.
+     * 
+     * <p>Only databases that keep read connections beside the writing one use this (ex. the sqlite based
+     * ones, which need to switch file databases to WAL mode while open). By default reads use the
+     * normal connection.</p>
+     * 
+     * <p>To be called before the {@link #open(String)} method.</p>
+     * 
+     * @param readPoolSize the maximum number of read only connections, 0 to disable them.
+     */
+    public void setReadPoolSize( int readPoolSize ) {
+        this.readPoolSize = readPoolSize;
+    }
+
+    /**
+     * Set the number of rows committed at once by {@link #insertBulk(SqlName, String[], Iterator)}.
+     * 
+     * @param bulkInsertBatchSize the number of rows per batch, 10000 by default.
+     */
+    public void setBulkInsertBatchSize( int bulkInsertBatchSize ) {
+        if (bulkInsertBatchSize < 1) {
+            throw new IllegalArgumentException("The batch size needs to be positive: " + bulkInsertBatchSize);
+        }
+        this.bulkInsertBatchSize = bulkInsertBatchSize;
+    }
+
     /**
      * Open the connection to a database.
      * 
@@ -147,6 +188,20 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
      */
     public abstract IHMConnection getConnectionInternal() throws Exception;
 
+    /**
+     * Get a connection to be used only for reading.
+     *
+     * <p>Databases that keep read only connections beside the writing one
+     * override this to allow concurrent reads. By default this is the
+     * same as {@link #getConnectionInternal()}.</p>
+     *
+     * @return the connection to the database.
+     * @throws Exception
+     */
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        return getConnectionInternal();
+    }
+
     /**
      * Get database infos.
      * 
@@ -172,6 +227,28 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
         }
     }
 
+    /**
+     * Execute a read only operation on a database connection. This handles proper releasing of the connection.
+     *
+     * <p>The operation may run on a connection other than the one used for writing, so it
+     * must not modify the database.</p>
+     *
+     * @param consumer the operation to perform.
+     * @throws Exception
+     * @see #getReadConnectionInternal()
+     */
+    public <T> T execOnReadConnection( HMConnectionConsumer<IHMConnection, Exception, T> consumer ) throws Exception {
+        IHMConnection connection = getReadConnectionInternal();
+        if (connection == null) {
+            return null;
+        }
+        try {
+            return consumer.execOnConnection(connection);
+        } finally {
+            connection.release();
+        }
+    }
+
     /**
      * Execute an operation to get a resultset. This handles proper releasing of the resultset.
      * 
@@ -528,31 +605,91 @@ public abstract class ADb implements AutoCloseable, IVisitableDb {
         return execOnConnection(connection -> {
             try (IHMPreparedStatement stmt = connection.prepareStatement(sql)) {
                 for( int i = 0; i < objects.length; i++ ) {
-                    if (objects[i] instanceof Boolean) {
-                        stmt.setBoolean(i + 1, (boolean) objects[i]);
-                    } else if (objects[i] instanceof byte[]) {
-                        stmt.setBytes(i + 1, (byte[]) objects[i]);
-                    } else if (objects[i] instanceof Double) {
-                        stmt.setDouble(i + 1, (double) objects[i]);
-                    } else if (objects[i] instanceof Float) {
-                        stmt.setFloat(i + 1, (float) objects[i]);
-                    } else if (objects[i] instanceof Integer) {
-                        stmt.setInt(i + 1, (int) objects[i]);
-                    } else if (objects[i] instanceof Long) {
-                        stmt.setLong(i + 1, (long) objects[i]);
-                    } else if (objects[i] instanceof Short) {
-                        stmt.setShort(i + 1, (short) objects[i]);
-                    } else if (objects[i] instanceof String) {
-                        stmt.setString(i + 1, (String) objects[i]);
-                    } else {
-                        stmt.setObject(i + 1, objects[i]);
-                    }
+                    setObject(stmt, i + 1, objects[i]);
                 }
                 return stmt.executeUpdate();
             }
         });
     }
 
+    private static void setObject( IHMPreparedStatement stmt, int index, Object object ) throws Exception {
+        if (object instanceof Boolean) {
+            stmt.setBoolean(index, (boolean) object);
+        } else if (object instanceof byte[]) {
+            stmt.setBytes(index, (byte[]) object);
+        } else if (object instanceof Double) {
+            stmt.setDouble(index, (double) object);
+        } else if (object instanceof Float) {
+            stmt.setFloat(index, (float) object);
+        } else if (object instanceof Integer) {
+            stmt.setInt(index, (int) object);
+        } else if (object instanceof Long) {
+            stmt.setLong(index, (long) object);
+        } else if (object instanceof Short) {
+            stmt.setShort(index, (short) object);
+        } else if (object instanceof String) {
+            stmt.setString(index, (String) object);
+        } else {
+            stmt.setObject(index, object);
+        }
+    }
+
+    /**
+     * Insert a stream of rows into a table.
+     * 
+     * <p>The rows are added to batches of prepared statements and committed every
+     * {@link #setBulkInsertBatchSize(int) batch size} rows, so the rows are never all in memory. If an error occurs,
+     * the rows of the current batch are rolled back, the ones of previous batches stay.</p>
+     * 
+     * @param tableName the table to insert into.
+     * @param columns the names of the columns to fill.
+     * @param rows the rows, each with the values in the order of the columns.
+     * @return the insert result, with the number of rows and the speed.
+     * @throws Exception
+     */
+    public BulkInsertResult insertBulk( SqlName tableName, String[] columns, Iterator<Object[]> rows ) throws Exception {
+        long start = System.currentTimeMillis();
+        BulkInsertResult result = new BulkInsertResult();
+        String sql = "INSERT INTO " + tableName.fixedDoubleName + " (" + DbsUtilities.joinByComma(Arrays.asList(columns))
+                + ") VALUES (" + String.join(",", Collections.nCopies(columns.length, "?")) + ")";
+        execOnConnection(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (IHMPreparedStatement stmt = connection.prepareStatement(sql)) {
+                int batchCount = 0;
+                while( rows.hasNext() ) {
+                    Object[] row = rows.next();
+                    for( int i = 0; i < columns.length; i++ ) {
+                        setObject(stmt, i + 1, row[i]);
+                    }
+                    stmt.addBatch();
+                    batchCount++;
+                    if (batchCount == bulkInsertBatchSize) {
+                        stmt.executeBatch();
+                        connection.commit();
+                        result.rowsCount += batchCount;
+                        batchCount = 0;
+                        result.insertTimeMillis = System.currentTimeMillis() - start;
+                        logDebug(tableName + ": " + result);
+                    }
+                }
+                if (batchCount > 0) {
+                    stmt.executeBatch();
+                    connection.commit();
+                    result.rowsCount += batchCount;
+                }
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        result.insertTimeMillis = System.currentTimeMillis() - start;
+        return result;
+    }
+
     /**
      * Escape sql.
      * 
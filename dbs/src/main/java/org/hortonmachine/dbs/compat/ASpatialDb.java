@@ -20,8 +20,10 @@ package org.hortonmachine.dbs.compat;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
+import org.hortonmachine.dbs.compat.objects.BulkInsertResult;
 import org.hortonmachine.dbs.compat.objects.QueryResult;
 import org.hortonmachine.dbs.utils.DbsUtilities;
 import org.hortonmachine.dbs.utils.SqlName;
@@ -217,6 +219,72 @@ public abstract class ASpatialDb extends ADb implements AutoCloseable {
 
     }
 
+    /**
+     * Insert a stream of rows into a table.
+     * 
+     * <p>{@link Geometry} values are converted with the geometry parser of the database,
+     * so no WKT needs to be parsed by the database.</p>
+     * 
+     * @see ADb#insertBulk(SqlName, String[], Iterator)
+     */
+    @Override
+    public BulkInsertResult insertBulk( SqlName tableName, String[] columns, Iterator<Object[]> rows ) throws Exception {
+        IGeometryParser geometryParser = getType().getGeometryParser();
+        Iterator<Object[]> sqlRows = new Iterator<Object[]>(){
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                Object[] row = rows.next();
+                Object[] sqlRow = new Object[row.length];
+                for( int i = 0; i < row.length; i++ ) {
+                    if (row[i] instanceof Geometry) {
+                        try {
+                            sqlRow[i] = geometryParser.toSqlObject((Geometry) row[i]);
+                        } catch (Exception e) {
+                            throw new IllegalArgumentException("Unable to convert geometry: " + row[i], e);
+                        }
+                    } else {
+                        sqlRow[i] = row[i];
+                    }
+                }
+                return sqlRow;
+            }
+        };
+        return super.insertBulk(tableName, columns, sqlRows);
+    }
+
+    /**
+     * Insert a stream of rows into a spatial table and create the spatial index at the end.
+     * 
+     * <p>Creating the index once the data are in is much faster than updating it row by row,
+     * so the table should be created without index (see
+     * {@link #createSpatialTable(SqlName, int, String, String[], String[], boolean)}).</p>
+     * 
+     * @param tableName the table to insert into.
+     * @param columns the names of the columns to fill.
+     * @param rows the rows, each with the values in the order of the columns.
+     * @param createSpatialIndex if <code>true</code>, the spatial index is created after the insert, if missing.
+     * @return the insert result, with the number of rows and the speed.
+     * @throws Exception
+     */
+    public BulkInsertResult insertBulk( SqlName tableName, String[] columns, Iterator<Object[]> rows, boolean createSpatialIndex )
+            throws Exception {
+        long start = System.currentTimeMillis();
+        BulkInsertResult result = insertBulk(tableName, columns, rows);
+        if (createSpatialIndex) {
+            GeometryColumn gc = getGeometryColumnsForTable(tableName);
+            if (gc != null && gc.isSpatialIndexEnabled != 1) {
+                createSpatialIndex(tableName, gc.geometryColumnName);
+            }
+        }
+        result.insertTimeMillis = System.currentTimeMillis() - start;
+        return result;
+    }
+
     /**
      * Checks if a table is spatial.
      * 
@@ -317,7 +385,7 @@ public abstract class ASpatialDb extends ADb implements AutoCloseable {
 
         String _sql = sql;
         IGeometryParser geometryParser = getType().getGeometryParser();
-        return execOnConnection(connection -> {
+        return execOnReadConnection(connection -> {
             List<Geometry> geoms = new ArrayList<Geometry>();
             try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
@@ -382,7 +450,7 @@ public abstract class ASpatialDb extends ADb implements AutoCloseable {
 
         IGeometryParser geometryParser = getType().getGeometryParser();
         String _sql = sql;
-        return execOnConnection(connection -> {
+        return execOnReadConnection(connection -> {
             PreparedGeometry prepGeom = null;
             if (!supportsSpatialIndex) {
                 prepGeom = PreparedGeometryFactory.prepare(intersectionGeometry);
@@ -0,0 +1,47 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.compat.objects;
+
+/**
+ * The result of a bulk insert.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class BulkInsertResult {
+    /**
+     * The number of inserted rows.
+     */
+    public long rowsCount = 0;
+
+    /**
+     * The time taken to insert the rows, including the creation of deferred indexes.
+     */
+    public long insertTimeMillis = 0;
+
+    /**
+     * @return the insert speed in rows per second.
+     */
+    public double getRowsPerSecond() {
+        return rowsCount * 1000.0 / Math.max(1, insertTimeMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "Inserted " + rowsCount + " rows in " + insertTimeMillis + " ms (" + Math.round(getRowsPerSecond()) + " rows/s)";
+    }
+}
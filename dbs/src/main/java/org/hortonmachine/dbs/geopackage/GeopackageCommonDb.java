@@ -123,6 +123,8 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
 
     public boolean open( String dbPath ) throws Exception {
         sqliteDb.setCredentials(user, password);
+        sqliteDb.setMakePooled(makePooled);
+        sqliteDb.setReadPoolSize(readPoolSize);
         boolean dbExists = sqliteDb.open(dbPath);
 
         sqliteDb.getConnectionData().dbType = getType().getCode();
@@ -376,7 +378,7 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
         // ty = tmsTileXY[1];
         // }
         String sql = format(SELECTQUERY, tableName.fixedDoubleName);
-        return sqliteDb.execOnConnection(connection -> {
+        return sqliteDb.execOnReadConnection(connection -> {
             byte[] imageBytes = null;
             try (IHMPreparedStatement statement = connection.prepareStatement(sql)) {
                 statement.setInt(1, zoom);
@@ -660,6 +662,11 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
         return sqliteDb.getConnectionInternal();
     }
 
+    @Override
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        return sqliteDb.getReadConnectionInternal();
+    }
+
     public void close() throws Exception {
         sqliteDb.close();
     }
@@ -923,7 +930,7 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
 
         IGeometryParser gp = getType().getGeometryParser();
         String _sql = sql;
-        return execOnConnection(connection -> {
+        return execOnReadConnection(connection -> {
             long start = System.currentTimeMillis();
             try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
@@ -1492,20 +1499,9 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
      */
     public int addTilestable( SqlName tableName, String description, Envelope dataBounds3857, ITilesProducer tilesProducer )
             throws Exception {
-        String fixedTableName = tableName.fixedDoubleName;
         int insertedCount = 0;
 
-        TileEntry tileEntry = tile(tableName);
-        if (tileEntry == null) {
-            String createTableSql = format("CREATE TABLE %s (id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT,"
-                    + COL_TILES_ZOOM_LEVEL + " INTEGER NOT NULL, " + COL_TILES_TILE_COLUMN + " INTEGER NOT NULL,"
-                    + COL_TILES_TILE_ROW + " INTEGER NOT NULL, " + COL_TILES_TILE_DATA + " BLOB NOT NULL)", fixedTableName);
-            sqliteDb.executeInsertUpdateDeleteSql(createTableSql);
-            // update the metadata tables
-            addGeoPackageContentsEntry(DataType.Tile.value, tableName, MERCATOR_SRID, description, dataBounds3857);
-        } else {
-            updateGeoPackageContentsEntry(tableName, dataBounds3857);
-        }
+        TileEntry tileEntry = prepareTilestable(tableName, description, dataBounds3857);
 
         // insert the tiles
         double w = dataBounds3857.getMinX();
@@ -1589,29 +1585,7 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
             }
             tilesProducer.done();
 
-            String sql = format("INSERT or replace INTO %s (table_name, srs_id, min_x, min_y, max_x, max_y) VALUES (?,?,?,?,?,?)",
-                    TILE_MATRIX_SET);
-            sqliteDb.executeInsertUpdateDeletePreparedSql(sql, new Object[]{tableName.name, MERCATOR_SRID, levelBounds3857.getMinX(),
-                    levelBounds3857.getMinY(), levelBounds3857.getMaxX(), levelBounds3857.getMaxY()});
-
-            sql = format(
-                    "INSERT or replace INTO %s (table_name, zoom_level, matrix_width, matrix_height, tile_width, tile_height, pixel_x_size, pixel_y_size) VALUES (?,?,?,?,?,?,?,?)",
-                    TILE_MATRIX_METADATA);
-            if (tileEntry == null) {
-                sqliteDb.executeInsertUpdateDeletePreparedSql(sql, new Object[]{tableName.name, z, xTileCount, yTileCount, tileSize,
-                        tileSize, sampleTileBounds3857.getWidth() / tileSize, sampleTileBounds3857.getHeight() / tileSize});
-            } else {
-                List<TileMatrix> tileMatricies = tileEntry.getTileMatricies();
-                int _z = z;
-                Optional<TileMatrix> firstZ = tileMatricies.stream().filter(tm -> tm.getZoomLevel() == _z).findFirst();
-                if (firstZ.isPresent()) {
-                    TileMatrix tm = firstZ.get();
-                    sqliteDb.executeInsertUpdateDeletePreparedSql(sql,
-                            new Object[]{tableName.name, z, tm.matrixWidth + xTileCount, tm.matrixHeight + yTileCount, tileSize,
-                                    tileSize, sampleTileBounds3857.getWidth() / tileSize,
-                                    sampleTileBounds3857.getHeight() / tileSize});
-                }
-            }
+            putTileMatrix(tableName, tileEntry, z, levelBounds3857, xTileCount, yTileCount, tileSize, sampleTileBounds3857);
         }
 
         if (tilesList.size() > 0) {
@@ -1621,14 +1595,91 @@ public abstract class GeopackageCommonDb extends ASpatialDb implements IHmExtras
 
         // add index at the end
         if (tileEntry == null) {
-            String createIndexSql = format("create index idx%s_zyx_idx on %s(" + COL_TILES_ZOOM_LEVEL + ", "
-                    + COL_TILES_TILE_COLUMN + ", " + COL_TILES_TILE_ROW + ");", tableName.nameForIndex(), fixedTableName);
-            sqliteDb.executeInsertUpdateDeleteSql(createIndexSql);
+            createTilesIndex(tableName);
         }
 
         return insertedCount;
     }
 
+    /**
+     * Create a tiles table with its contents entry, or update the bounds of an existing one.
+     * 
+     * <p>This is the first step of {@link #addTilestable(SqlName, String, Envelope, ITilesProducer)}, 
+     * for writers that insert the tiles themselves through {@link #putTiles(SqlName, List)}.
+     * 
+     * @param tableName the tiles table.
+     * @param description the description of the table.
+     * @param dataBounds3857 the bounds of the data.
+     * @return the entry of the table if it already existed, else <code>null</code>.
+     * @throws Exception
+     */
+    public TileEntry prepareTilestable( SqlName tableName, String description, Envelope dataBounds3857 ) throws Exception {
+        TileEntry tileEntry = tile(tableName);
+        if (tileEntry == null) {
+            String createTableSql = format("CREATE TABLE %s (id INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT,"
+                    + COL_TILES_ZOOM_LEVEL + " INTEGER NOT NULL, " + COL_TILES_TILE_COLUMN + " INTEGER NOT NULL,"
+                    + COL_TILES_TILE_ROW + " INTEGER NOT NULL, " + COL_TILES_TILE_DATA + " BLOB NOT NULL)",
+                    tableName.fixedDoubleName);
+            sqliteDb.executeInsertUpdateDeleteSql(createTableSql);
+            // update the metadata tables
+            addGeoPackageContentsEntry(DataType.Tile.value, tableName, MERCATOR_SRID, description, dataBounds3857);
+        } else {
+            updateGeoPackageContentsEntry(tableName, dataBounds3857);
+        }
+        return tileEntry;
+    }
+
+    /**
+     * Register the tile matrix of a zoom level of a tiles table.
+     * 
+     * @param tableName the tiles table.
+     * @param tileEntry the entry of the table before the insert, as returned by 
+     *          {@link #prepareTilestable(SqlName, String, Envelope)}.
+     * @param z the zoom level.
+     * @param levelBounds3857 the bounds of the tiles of the level.
+     * @param xTileCount the number of tile columns inserted.
+     * @param yTileCount the number of tile rows inserted.
+     * @param tileSize the tile size in pixels.
+     * @param sampleTileBounds3857 the bounds of one tile of the level.
+     * @throws Exception
+     */
+    public void putTileMatrix( SqlName tableName, TileEntry tileEntry, int z, Envelope levelBounds3857, int xTileCount,
+            int yTileCount, int tileSize, Envelope sampleTileBounds3857 ) throws Exception {
+        String sql = format("INSERT or replace INTO %s (table_name, srs_id, min_x, min_y, max_x, max_y) VALUES (?,?,?,?,?,?)",
+                TILE_MATRIX_SET);
+        sqliteDb.executeInsertUpdateDeletePreparedSql(sql, new Object[]{tableName.name, MERCATOR_SRID, levelBounds3857.getMinX(),
+                levelBounds3857.getMinY(), levelBounds3857.getMaxX(), levelBounds3857.getMaxY()});
+
+        sql = format(
+                "INSERT or replace INTO %s (table_name, zoom_level, matrix_width, matrix_height, tile_width, tile_height, pixel_x_size, pixel_y_size) VALUES (?,?,?,?,?,?,?,?)",
+                TILE_MATRIX_METADATA);
+        if (tileEntry == null) {
+            sqliteDb.executeInsertUpdateDeletePreparedSql(sql, new Object[]{tableName.name, z, xTileCount, yTileCount, tileSize,
+                    tileSize, sampleTileBounds3857.getWidth() / tileSize, sampleTileBounds3857.getHeight() / tileSize});
+        } else {
+            List<TileMatrix> tileMatricies = tileEntry.getTileMatricies();
+            Optional<TileMatrix> firstZ = tileMatricies.stream().filter(tm -> tm.getZoomLevel() == z).findFirst();
+            if (firstZ.isPresent()) {
+                TileMatrix tm = firstZ.get();
+                sqliteDb.executeInsertUpdateDeletePreparedSql(sql,
+                        new Object[]{tableName.name, z, tm.matrixWidth + xTileCount, tm.matrixHeight + yTileCount, tileSize,
+                                tileSize, sampleTileBounds3857.getWidth() / tileSize, sampleTileBounds3857.getHeight() / tileSize});
+            }
+        }
+    }
+
+    /**
+     * Create the zoom, column, row index of a new tiles table.
+     * 
+     * @param tableName the tiles table.
+     * @throws Exception
+     */
+    public void createTilesIndex( SqlName tableName ) throws Exception {
+        String createIndexSql = format("create index idx%s_zyx_idx on %s(" + COL_TILES_ZOOM_LEVEL + ", " + COL_TILES_TILE_COLUMN
+                + ", " + COL_TILES_TILE_ROW + ");", tableName.nameForIndex(), tableName.fixedDoubleName);
+        sqliteDb.executeInsertUpdateDeleteSql(createIndexSql);
+    }
+
     /**
      * Add a tile to the geopackage.
      *
@@ -21,6 +21,7 @@ import java.sql.Connection;
 
 import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
 import org.hortonmachine.dbs.geopackage.geom.GeoPkgGeomReader;
+import org.hortonmachine.dbs.spatialite.hm.HMConnection;
 import org.hortonmachine.dbs.spatialite.hm.SqliteDb;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.sqlite.Function;
@@ -32,11 +33,20 @@ import org.sqlite.Function;
  */
 public class GeopackageDb extends GeopackageCommonDb {
     public GeopackageDb() {
-        sqliteDb = new SqliteDb();
+        SqliteDb db = new SqliteDb();
+        // the pooled read connections need the functions too
+        db.setReadConnectionInitializer(connection -> {
+            createFunctions(((HMConnection) connection).getOriginalConnection());
+            return null;
+        });
+        sqliteDb = db;
     }
 
     public void createFunctions() throws Exception {
-        Connection cx = sqliteDb.getJdbcConnection();
+        createFunctions(sqliteDb.getJdbcConnection());
+    }
+
+    private void createFunctions( Connection cx ) throws Exception {
         // minx
         Function.create(cx, "ST_MinX", new GeometryFunction(){
             @Override
@@ -18,9 +18,12 @@
 package org.hortonmachine.dbs.postgis;
 
 import java.sql.Clob;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
 import org.hortonmachine.dbs.compat.ASpatialDb;
@@ -37,18 +40,24 @@ import org.hortonmachine.dbs.compat.IHMResultSetMetaData;
 import org.hortonmachine.dbs.compat.IHMStatement;
 import org.hortonmachine.dbs.compat.IHmExtrasDb;
 import org.hortonmachine.dbs.compat.ISpatialTableNames;
+import org.hortonmachine.dbs.compat.objects.BulkInsertResult;
 import org.hortonmachine.dbs.compat.objects.ForeignKey;
 import org.hortonmachine.dbs.compat.objects.Index;
 import org.hortonmachine.dbs.compat.objects.QueryResult;
 import org.hortonmachine.dbs.datatypes.EGeometryType;
 import org.hortonmachine.dbs.datatypes.ESpatialiteGeometryType;
 import org.hortonmachine.dbs.log.Logger;
+import org.hortonmachine.dbs.spatialite.hm.HMConnection;
 import org.hortonmachine.dbs.utils.DbsUtilities;
 import org.hortonmachine.dbs.utils.SqlName;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.WKBWriter;
 import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import org.postgresql.util.PGobject;
 
 /**
@@ -64,6 +73,7 @@ import org.postgresql.util.PGobject;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class PostgisDb extends ASpatialDb implements IHmExtrasDb{
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
     private PGDb pgDb;
     private boolean wasInitialized = false;
     private ASqlTemplates sqlTemplates;
@@ -228,6 +238,95 @@ public class PostgisDb extends ASpatialDb implements IHmExtrasDb{
         }
     }
 
+    @Override
+    public void createSpatialIndex( SqlName tableName, String geomColumnName ) throws Exception {
+        if (geomColumnName == null) {
+            geomColumnName = DEFAULT_GEOM_FIELD_NAME;
+        }
+        String sql = sqlTemplates.createSpatialIndex(tableName, geomColumnName);
+        executeInsertUpdateDeleteSql(sql);
+    }
+
+    /**
+     * Insert a stream of rows through the postgres <code>COPY</code> protocol.
+     * 
+     * <p>The rows are streamed as csv, {@link Geometry} values as hex EWKB. Geometries
+     * without srid get the one of the table. The copy is a single statement, so with
+     * autocommit either all rows are inserted or none.</p>
+     * 
+     * @see ASpatialDb#insertBulk(SqlName, String[], Iterator)
+     */
+    @Override
+    public BulkInsertResult insertBulk( SqlName tableName, String[] columns, Iterator<Object[]> rows ) throws Exception {
+        long start = System.currentTimeMillis();
+        GeometryColumn gc = getGeometryColumnsForTable(tableName);
+        int tableSrid = gc != null ? gc.srid : 0;
+        WKBWriter wkbWriter2D = new WKBWriter(2, true);
+        WKBWriter wkbWriter3D = new WKBWriter(3, true);
+
+        BulkInsertResult result = new BulkInsertResult();
+        String sql = "COPY " + tableName.fixedDoubleName + " (" + DbsUtilities.joinByComma(Arrays.asList(columns))
+                + ") FROM STDIN (FORMAT csv)";
+        execOnConnection(connection -> {
+            Connection jdbcConnection = ((HMConnection) connection).getOriginalConnection();
+            CopyManager copyManager = jdbcConnection.unwrap(PGConnection.class).getCopyAPI();
+            CopyIn copyIn = copyManager.copyIn(sql);
+            try {
+                StringBuilder sb = new StringBuilder();
+                while( rows.hasNext() ) {
+                    Object[] row = rows.next();
+                    for( int i = 0; i < columns.length; i++ ) {
+                        if (i > 0) {
+                            sb.append(',');
+                        }
+                        Object value = row[i];
+                        if (value == null) {
+                            // an unquoted empty value is null
+                            continue;
+                        } else if (value instanceof Geometry) {
+                            Geometry geometry = (Geometry) value;
+                            if (geometry.getSRID() == 0 && tableSrid != 0) {
+                                // don't touch the caller's geometry
+                                geometry = geometry.copy();
+                                geometry.setSRID(tableSrid);
+                            }
+                            Coordinate coordinate = geometry.getCoordinate();
+                            boolean is3D = coordinate != null && !Double.isNaN(coordinate.getZ());
+                            sb.append(WKBWriter.toHex((is3D ? wkbWriter3D : wkbWriter2D).write(geometry)));
+                        } else if (value instanceof byte[]) {
+                            sb.append("\\x").append(WKBWriter.toHex((byte[]) value));
+                        } else if (value instanceof Number || value instanceof Boolean) {
+                            sb.append(value);
+                        } else {
+                            sb.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+                        }
+                    }
+                    sb.append('\n');
+                    result.rowsCount++;
+                    if (sb.length() > COPY_BUFFER_SIZE) {
+                        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                        copyIn.writeToCopy(bytes, 0, bytes.length);
+                        sb.setLength(0);
+                    }
+                    if (result.rowsCount % bulkInsertBatchSize == 0) {
+                        result.insertTimeMillis = System.currentTimeMillis() - start;
+                        logDebug(tableName + ": " + result);
+                    }
+                }
+                byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+                result.rowsCount = copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+            return null;
+        });
+        result.insertTimeMillis = System.currentTimeMillis() - start;
+        return result;
+    }
+
     public void createSpatialTable( SqlName tableName, int srid, String geometryFieldData, String[] fieldData,
             String[] foreignKeys, boolean avoidIndex ) throws Exception {
         StringBuilder sb = new StringBuilder();
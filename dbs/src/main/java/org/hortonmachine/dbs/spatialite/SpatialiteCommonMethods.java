@@ -286,7 +286,7 @@ public class SpatialiteCommonMethods {
         IGeometryParser gp = db.getType().getGeometryParser();
 
         String _sql = sql;
-        return db.execOnConnection(connection -> {
+        return db.execOnReadConnection(connection -> {
             long start = System.currentTimeMillis();
             try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(_sql)) {
                 while( rs.next() ) {
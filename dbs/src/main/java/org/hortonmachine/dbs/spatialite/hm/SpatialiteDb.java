@@ -61,6 +61,11 @@ public class SpatialiteDb extends ASpatialDb {
 
     public SpatialiteDb() {
         sqliteDb = new SqliteDb();
+        // the pooled read connections need spatialite too
+        sqliteDb.setReadConnectionInitializer(connection -> {
+            loadExtensions(connection);
+            return null;
+        });
     }
 
     @Override
@@ -86,13 +91,30 @@ public class SpatialiteDb extends ASpatialDb {
 
     public boolean open( String dbPath ) throws Exception {
         sqliteDb.setCredentials(user, password);
+        sqliteDb.setMakePooled(makePooled);
+        sqliteDb.setReadPoolSize(readPoolSize);
         boolean dbExists = sqliteDb.open(dbPath);
 
         sqliteDb.getConnectionData().dbType = getType().getCode();
 
         this.mDbPath = sqliteDb.getDatabasePath();
-        IHMConnection mConn = sqliteDb.getConnectionInternal();
-        try (IHMStatement stmt = mConn.createStatement()) {
+        loadExtensions(sqliteDb.getConnectionInternal());
+        if (mPrintInfos) {
+            String[] dbInfo = getDbInfo();
+            Logger.INSTANCE.insertInfo(null, "Spatialite Version: " + dbInfo[0]);
+            Logger.INSTANCE.insertInfo(null, "Spatialite Target CPU: " + dbInfo[1]);
+        }
+        return dbExists;
+    }
+
+    /**
+     * Load the spatialite extensions into a connection.
+     * 
+     * @param connection the connection to use.
+     * @throws Exception
+     */
+    private void loadExtensions( IHMConnection connection ) throws Exception {
+        try (IHMStatement stmt = connection.createStatement()) {
             // set timeout to 30 sec.
             stmt.setQueryTimeout(30);
             // load SpatiaLite
@@ -173,12 +195,6 @@ public class SpatialiteDb extends ASpatialDb {
                 // }
             }
         }
-        if (mPrintInfos) {
-            String[] dbInfo = getDbInfo();
-            Logger.INSTANCE.insertInfo(null, "Spatialite Version: " + dbInfo[0]);
-            Logger.INSTANCE.insertInfo(null, "Spatialite Target CPU: " + dbInfo[1]);
-        }
-        return dbExists;
     }
 
     @Override
@@ -195,6 +211,11 @@ public class SpatialiteDb extends ASpatialDb {
         return sqliteDb.getConnectionInternal();
     }
 
+    @Override
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        return sqliteDb.getReadConnectionInternal();
+    }
+
     public void close() throws Exception {
         sqliteDb.close();
     }
@@ -328,6 +349,20 @@ public class SpatialiteDb extends ASpatialDb {
         addGeometryXYColumnAndIndex(tableName, geomColName, geomType, epsg, false);
     }
 
+    @Override
+    public void createSpatialIndex( SqlName tableName, String geomColumnName ) throws Exception {
+        if (geomColumnName == null) {
+            geomColumnName = DEFAULT_GEOM_FIELD_NAME;
+        }
+        String sql = "SELECT CreateSpatialIndex('" + tableName.name + "', '" + geomColumnName + "');";
+        execOnConnection(connection -> {
+            try (IHMStatement stmt = connection.createStatement()) {
+                stmt.execute(sql);
+            }
+            return null;
+        });
+    }
+
     public QueryResult getTableRecordsMapFromRawSql( String sql, int limit ) throws Exception {
         QueryResult queryResult = new QueryResult();
         try (IHMStatement stmt = sqliteDb.getConnectionInternal().createStatement(); IHMResultSet rs = stmt.executeQuery(sql)) {
@@ -17,8 +17,10 @@
  */
 package org.hortonmachine.dbs.spatialite.hm;
 
+import java.util.Iterator;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.hortonmachine.dbs.compat.objects.BulkInsertResult;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.locationtech.jts.geom.Geometry;
 
@@ -78,6 +80,26 @@ public class SpatialiteThreadsafeDb extends SpatialiteDb {
         }
     }
 
+    public BulkInsertResult insertBulk( SqlName tableName, String[] columns, Iterator<Object[]> rows ) throws Exception {
+        try {
+            lockWrite("insertBulk");
+            return super.insertBulk(tableName, columns, rows);
+        } finally {
+            unlockWrite("insertBulk");
+        }
+    }
+
+    public BulkInsertResult insertBulk( SqlName tableName, String[] columns, Iterator<Object[]> rows, boolean createSpatialIndex )
+            throws Exception {
+        try {
+            // the index creation needs the lock too, the nested insert takes it again
+            lockWrite("insertBulk");
+            return super.insertBulk(tableName, columns, rows, createSpatialIndex);
+        } finally {
+            unlockWrite("insertBulk");
+        }
+    }
+
     public void createTable( SqlName tableName, String... fieldData ) throws Exception {
         long cm = System.currentTimeMillis();
         try {
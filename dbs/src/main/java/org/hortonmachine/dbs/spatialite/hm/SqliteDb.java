@@ -39,19 +39,30 @@ import org.hortonmachine.dbs.compat.objects.Index;
 import org.hortonmachine.dbs.log.Logger;
 import org.hortonmachine.dbs.spatialite.SpatialiteCommonMethods;
 import org.hortonmachine.dbs.utils.DbsUtilities;
+import org.hortonmachine.dbs.utils.HMConnectionConsumer;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.sqlite.SQLiteConfig;
 
 /**
  * A sqlite database.
  * 
+ * <p>If a read pool size is set (see {@link #setReadPoolSize(int)}), file databases are switched
+ * to WAL mode and reads done through {@link #execOnReadConnection(HMConnectionConsumer)} run on a
+ * pool of read only connections, concurrently to each other and to the single writing connection.
+ * The original journal mode is restored on close.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class SqliteDb extends ADb {
     private static final String DRIVER_CLASS = "org.sqlite.JDBC";
+    private static final String JOURNAL_MODE_WAL = "wal";
+
     private Connection jdbcConn;
     private HMConnection mConn;
     private ConnectionData connectionData;
+    private SqliteReadConnectionPool readPool;
+    private String originalJournalMode;
+    private HMConnectionConsumer<IHMConnection, Exception, Object> readConnectionInitializer;
 
     static {
         try {
@@ -76,6 +87,17 @@ public class SqliteDb extends ADb {
         return connectionData;
     }
 
+    /**
+     * Set an operation to run on every new read only connection, as for example loading extensions.
+     * 
+     * <p>To be called before the {@link #open(String)} method.</p>
+     * 
+     * @param readConnectionInitializer the operation to run.
+     */
+    public void setReadConnectionInitializer( HMConnectionConsumer<IHMConnection, Exception, Object> readConnectionInitializer ) {
+        this.readConnectionInitializer = readConnectionInitializer;
+    }
+
     @Override
     public boolean open( String dbPath, String user, String password ) throws Exception {
         setCredentials(user, password);
@@ -93,6 +115,7 @@ public class SqliteDb extends ADb {
         connectionData.dbType = getType().getCode();
 
         boolean dbExists = false;
+        boolean isFileDb = dbPath != null && !dbPath.startsWith(":memory:") && !dbPath.startsWith("file:");
         if (dbPath != null) {
             File dbFile = new File(dbPath);
             if (dbFile.exists()) {
@@ -113,8 +136,12 @@ public class SqliteDb extends ADb {
             properties.setProperty("user", user);
             properties.setProperty("password", password);
         }
-        jdbcConn = DriverManager.getConnection(EDb.SQLITE.getJdbcPrefix() + dbPath, properties);
+        String jdbcUrl = EDb.SQLITE.getJdbcPrefix() + dbPath;
+        jdbcConn = DriverManager.getConnection(jdbcUrl, properties);
         mConn = new HMConnection(jdbcConn, false);
+        if (isFileDb && readPoolSize > 0) {
+            openReadPool(jdbcUrl, properties);
+        }
         if (mPrintInfos) {
             String[] dbInfo = getDbInfo();
             Logger.INSTANCE.insertInfo(null, "SQLite Version: " + dbInfo[0]);
@@ -122,6 +149,50 @@ public class SqliteDb extends ADb {
         return dbExists;
     }
 
+    private void openReadPool( String jdbcUrl, Properties properties ) throws Exception {
+        String journalMode = setJournalMode(null);
+        if (!JOURNAL_MODE_WAL.equalsIgnoreCase(journalMode)) {
+            String newJournalMode = setJournalMode(JOURNAL_MODE_WAL);
+            if (!JOURNAL_MODE_WAL.equalsIgnoreCase(newJournalMode)) {
+                // for example read only files, stay with the single connection
+                if (mPrintInfos)
+                    Logger.INSTANCE.insertInfo(null, "Unable to switch to WAL mode, reads are not pooled.");
+                return;
+            }
+        }
+        originalJournalMode = journalMode;
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.enableLoadExtension(true);
+        readConfig.setReadOnly(true);
+        Properties readProperties = readConfig.toProperties();
+        if (properties.getProperty("user") != null) {
+            readProperties.setProperty("user", properties.getProperty("user"));
+            readProperties.setProperty("password", properties.getProperty("password"));
+        }
+        readPool = new SqliteReadConnectionPool(jdbcUrl, readProperties, readPoolSize, readConnectionInitializer);
+    }
+
+    /**
+     * Set the journal mode on the writing connection.
+     * 
+     * @param journalMode the mode to set or <code>null</code> to only query the current one.
+     * @return the journal mode in use.
+     * @throws Exception
+     */
+    private String setJournalMode( String journalMode ) throws Exception {
+        String sql = "PRAGMA journal_mode";
+        if (journalMode != null) {
+            sql += "=" + journalMode;
+        }
+        try (IHMStatement stmt = mConn.createStatement(); IHMResultSet rs = stmt.executeQuery(sql)) {
+            if (rs.next()) {
+                return rs.getString(1);
+            }
+            return null;
+        }
+    }
+
     @Override
     public String getJdbcUrlPre() {
         return EDb.SQLITE.getJdbcPrefix();
@@ -135,7 +206,29 @@ public class SqliteDb extends ADb {
         return mConn;
     }
 
+    @Override
+    public IHMConnection getReadConnectionInternal() throws Exception {
+        SqliteReadConnectionPool pool = readPool;
+        if (pool == null || mConn == null || !mConn.getAutoCommit()) {
+            // during a transaction reads need to see its uncommitted data
+            return mConn;
+        }
+        return pool.getConnection();
+    }
+
     public void close() throws Exception {
+        if (readPool != null) {
+            readPool.close();
+            readPool = null;
+            if (mConn != null && originalJournalMode != null && !JOURNAL_MODE_WAL.equalsIgnoreCase(originalJournalMode)) {
+                try {
+                    mConn.enableAutocommit(true);
+                    setJournalMode(originalJournalMode);
+                } catch (Exception e) {
+                    logWarn("Unable to restore the journal mode " + originalJournalMode + ": " + e.getMessage());
+                }
+            }
+        }
         if (mConn != null) {
             mConn.setAutoCommit(false);
             mConn.commit();
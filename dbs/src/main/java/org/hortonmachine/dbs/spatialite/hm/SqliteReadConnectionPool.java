@@ -0,0 +1,153 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.spatialite.hm;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hortonmachine.dbs.compat.IHMConnection;
+import org.hortonmachine.dbs.utils.HMConnectionConsumer;
+
+/**
+ * A pool of read only connections to a sqlite database in WAL mode.
+ *
+ * <p>Connections are created lazily up to the pool size and handed out
+ * as {@link HMConnection}s that return to the pool on {@link IHMConnection#release()}.
+ * If all connections are in use, the caller waits for one to be released.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+class SqliteReadConnectionPool implements AutoCloseable {
+    private final String jdbcUrl;
+    private final Properties properties;
+    private final HMConnectionConsumer<IHMConnection, Exception, Object> initializer;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+    private final List<Connection> allConnections = new ArrayList<>();
+    private volatile boolean isClosed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param jdbcUrl the url of the database.
+     * @param properties the properties to open the connections with, set to read only.
+     * @param size the maximum number of connections.
+     * @param initializer an optional operation to run on every new connection.
+     */
+    SqliteReadConnectionPool( String jdbcUrl, Properties properties, int size,
+            HMConnectionConsumer<IHMConnection, Exception, Object> initializer ) {
+        this.jdbcUrl = jdbcUrl;
+        this.properties = properties;
+        this.initializer = initializer;
+        permits = new Semaphore(size);
+    }
+
+    /**
+     * Get a connection from the pool, waiting if none is available.
+     *
+     * @return the connection, to be released after use.
+     * @throws Exception
+     */
+    IHMConnection getConnection() throws Exception {
+        permits.acquire();
+        try {
+            Connection connection = idleConnections.poll();
+            while( connection != null && connection.isClosed() ) {
+                connection = idleConnections.poll();
+            }
+            if (connection == null) {
+                connection = createConnection();
+            }
+            return new PooledConnection(connection);
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection createConnection() throws Exception {
+        Connection connection = DriverManager.getConnection(jdbcUrl, properties);
+        try {
+            if (initializer != null) {
+                initializer.execOnConnection(new HMConnection(connection, false));
+            }
+        } catch (Exception e) {
+            connection.close();
+            throw e;
+        }
+        synchronized (allConnections) {
+            if (isClosed) {
+                connection.close();
+                throw new IllegalStateException("The connection pool has been closed.");
+            }
+            allConnections.add(connection);
+        }
+        return connection;
+    }
+
+    private void returnConnection( Connection connection ) throws Exception {
+        if (isClosed) {
+            connection.close();
+        } else {
+            idleConnections.offer(connection);
+        }
+        permits.release();
+    }
+
+    @Override
+    public void close() throws Exception {
+        isClosed = true;
+        synchronized (allConnections) {
+            // connections still in use are closed under the feet of their users
+            for( Connection connection : allConnections ) {
+                connection.close();
+            }
+            allConnections.clear();
+        }
+        idleConnections.clear();
+    }
+
+    private class PooledConnection extends HMConnection {
+        private final Connection connection;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        PooledConnection( Connection connection ) {
+            super(connection, false);
+            this.connection = connection;
+        }
+
+        @Override
+        public void release() throws Exception {
+            if (isReleased.compareAndSet(false, true)) {
+                returnConnection(connection);
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            // the pool owns the connection
+            release();
+        }
+    }
+}
@@ -8,11 +8,20 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.net.URL;
 import java.util.Base64;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hortonmachine.dbs.compat.EDb;
 import org.hortonmachine.dbs.compat.GeometryColumn;
+import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.compat.objects.BulkInsertResult;
 import org.hortonmachine.dbs.geopackage.Entry;
 import org.hortonmachine.dbs.geopackage.FeatureEntry;
 import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
@@ -21,8 +30,10 @@ import org.hortonmachine.dbs.geopackage.TileEntry;
 import org.hortonmachine.dbs.geopackage.TileMatrix;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 
 /**
  * Main tests for geopackage
@@ -233,4 +244,115 @@ public class TestGeopackage {
         }
     }
 
+    @Test
+    public void testConcurrentReadsWhileWriting() throws Exception {
+        File gpkgFile = TestUtilities.createTmpFile(".gpkg");
+        gpkgFile.delete();
+        int insertsCount = 200;
+        try (GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb()) {
+            db.open(gpkgFile.getAbsolutePath());
+            db.initSpatialMetadata(null);
+            TestUtilities.createGeomTablesAndPopulate(db, false);
+            // no read pool by default, so the journal mode is not touched
+            assertEquals("delete", getJournalMode(db));
+        }
+        try (GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb()) {
+            db.setReadPoolSize(4);
+            db.open(gpkgFile.getAbsolutePath());
+            assertEquals("wal", getJournalMode(db));
+
+            AtomicBoolean isWriting = new AtomicBoolean(true);
+            ExecutorService readers = Executors.newFixedThreadPool(4);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for( int i = 0; i < 4; i++ ) {
+                futures.add(readers.submit(() -> {
+                    int previousCount = 0;
+                    while( isWriting.get() ) {
+                        int count = db.getGeometriesIn(TestUtilities.POINTS_TABLE, (Envelope) null).size();
+                        // committed inserts never disappear
+                        assertTrue(count >= previousCount);
+                        previousCount = count;
+                    }
+                    return previousCount;
+                }));
+            }
+            String sql = "INSERT INTO " + TestUtilities.POINTS_TABLE.fixedDoubleName + " (id, table1id, the_geom) VALUES(?, 1, ?);";
+            try {
+                for( int i = 0; i < insertsCount; i++ ) {
+                    db.executeInsertUpdateDeletePreparedSql(sql,
+                            new Object[]{100 + i, TestUtilities.sqlObjectFromWkt("POINT (" + i + " " + i + ")", db)});
+                }
+            } finally {
+                isWriting.set(false);
+                readers.shutdown();
+            }
+            for( Future<Integer> future : futures ) {
+                assertTrue(future.get() <= 3 + insertsCount);
+            }
+
+            List<Geometry> geometries = db.getGeometriesIn(TestUtilities.POINTS_TABLE, (Envelope) null);
+            assertEquals(3 + insertsCount, geometries.size());
+        }
+        // the original journal mode is restored on close
+        try (GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb()) {
+            db.open(gpkgFile.getAbsolutePath());
+            assertEquals("delete", getJournalMode(db));
+        } finally {
+            gpkgFile.delete();
+        }
+    }
+
+    @Test
+    public void testBulkInsert() throws Exception {
+        File gpkgFile = TestUtilities.createTmpFile(".gpkg");
+        gpkgFile.delete();
+        SqlName table = SqlName.m("bulkpoints");
+        int rowsCount = 25000;
+        try (GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb()) {
+            db.open(gpkgFile.getAbsolutePath());
+            db.initSpatialMetadata(null);
+            db.createSpatialTable(table, 4326, "the_geom POINT", new String[]{"id INTEGER PRIMARY KEY", "name TEXT"}, null,
+                    true);
+            assertFalse(db.hasSpatialIndex(table));
+
+            GeometryFactory gf = new GeometryFactory();
+            Iterator<Object[]> rows = new Iterator<Object[]>(){
+                int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < rowsCount;
+                }
+
+                @Override
+                public Object[] next() {
+                    Geometry point = gf.createPoint(new Coordinate(index % 100, index / 100));
+                    point.setSRID(4326);
+                    Object[] row = {index, "p" + index, point};
+                    index++;
+                    return row;
+                }
+            };
+            BulkInsertResult result = db.insertBulk(table, new String[]{"id", "name", "the_geom"}, rows, true);
+            assertEquals(rowsCount, result.rowsCount);
+            assertTrue(result.getRowsPerSecond() > 0);
+
+            assertTrue(db.hasSpatialIndex(table));
+            List<Geometry> geometries = db.getGeometriesIn(table, new Envelope(10.5, 20.5, 10.5, 20.5));
+            assertEquals(100, geometries.size());
+            assertEquals(rowsCount, db.getCount(table));
+        } finally {
+            gpkgFile.delete();
+        }
+    }
+
+    private String getJournalMode( GeopackageCommonDb db ) throws Exception {
+        return db.execOnConnection(connection -> {
+            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+                rs.next();
+                return rs.getString(1).toLowerCase();
+            }
+        });
+    }
+
 }
@@ -0,0 +1,152 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.dbs.geopackage.hm;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hortonmachine.dbs.compat.IGeometryParser;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Mixed read/write load on a geopackage: three threads query random bounding
+ * boxes while one thread inserts points.
+ *
+ * <p>With <code>pooled</code> the database is in WAL mode and the reads run on the
+ * read connection pool, else everything goes through the single connection.
+ * The score is in operations per second per benchmark method. Not a unit test,
+ * run it through its main method.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class GeopackageConcurrencyBenchmark {
+
+    private static final int POINTS = 100_000;
+    private static final double SIZE = 1000;
+    private static final SqlName TABLE = SqlName.m("points");
+
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    private File gpkgFile;
+    private GeopackageDb db;
+    private IGeometryParser geometryParser;
+    private String insertSql;
+    private final GeometryFactory gf = new GeometryFactory();
+    private final AtomicInteger nextId = new AtomicInteger(POINTS);
+
+    @Setup
+    public void setup() throws Exception {
+        gpkgFile = File.createTempFile("gpkgconcurrency", ".gpkg");
+        gpkgFile.delete();
+        db = new GeopackageDb();
+        db.setReadPoolSize(pooled ? Runtime.getRuntime().availableProcessors() : 0);
+        db.open(gpkgFile.getAbsolutePath());
+        db.initSpatialMetadata(null);
+        db.createSpatialTable(TABLE, 4326, "the_geom POINT", new String[]{"id INTEGER PRIMARY KEY", "value REAL"});
+
+        geometryParser = db.getType().getGeometryParser();
+        insertSql = "INSERT INTO " + TABLE.fixedDoubleName + " (id, value, the_geom) VALUES(?, ?, ?)";
+        db.execOnConnection(connection -> {
+            connection.enableAutocommit(false);
+            try (IHMPreparedStatement pstmt = connection.prepareStatement(insertSql)) {
+                for( int i = 0; i < POINTS; i++ ) {
+                    setPoint(pstmt, i);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            connection.commit();
+            connection.enableAutocommit(true);
+            return null;
+        });
+    }
+
+    private void setPoint( IHMPreparedStatement pstmt, int id ) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Geometry point = gf.createPoint(new Coordinate(random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+        point.setSRID(4326);
+        pstmt.setInt(1, id);
+        pstmt.setDouble(2, random.nextDouble());
+        pstmt.setObject(3, geometryParser.toSqlObject(point));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        gpkgFile.delete();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public List<Geometry> read() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double x = random.nextDouble() * (SIZE - 50);
+        double y = random.nextDouble() * (SIZE - 50);
+        return db.getGeometriesIn(TABLE, new Envelope(x, x + 50, y, y + 50));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int write() throws Exception {
+        return db.execOnConnection(connection -> {
+            try (IHMPreparedStatement pstmt = connection.prepareStatement(insertSql)) {
+                setPoint(pstmt, nextId.getAndIncrement());
+                return pstmt.executeUpdate();
+            }
+        });
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Options options = new OptionsBuilder().include(GeopackageConcurrencyBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
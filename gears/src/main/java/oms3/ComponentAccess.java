@@ -33,6 +33,7 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -71,6 +72,11 @@ public class ComponentAccess {
     Notification ens;
     /** Execute method. */
     final MethodInvoker exec;
+    // in and out accesses by kind, in exec() order, built on first exec
+    Access[] syncIns;
+    Access[] asyncIns;
+    Access[] asyncOuts;
+    Access[] syncOuts;
 
 //    public static int counter;
 //    static final Object lock = new Object();
@@ -89,7 +95,8 @@ public class ComponentAccess {
         this.ens = ens;
         
         Method execute = getMethodOfInterest(comp, Execute.class);
-        exec = Utils.reflective(comp, execute);
+        exec = Utils.handle(comp, execute);
+//        exec = Utils.reflective(comp, execute);
 //        exec = Utils.compiled(comp, execute);
         findAll(comp, ins, outs, ens);
     }
@@ -105,10 +112,12 @@ public class ComponentAccess {
 
     void setInput(String name, Access fa) {
         ins.put(name, fa);
+        syncIns = null;
     }
 
     void setOutput(String name, Access fa) {
         outs.put(name, fa);
+        syncIns = null;
     }
 
     /** 
@@ -148,35 +157,29 @@ public class ComponentAccess {
 
     final void exec() throws ComponentException {
         try {
+            if (syncIns == null) {
+                sortAccesses();
+            }
             ens.fireWait(this);
             // synchonized in()
-            for (Access a : ins.values()) {     // wait for all inputs to arrive
-                if (a.getClass() == FieldAccess.class) {
-                    a.in();
-                }
+            for (Access a : syncIns) {     // wait for all inputs to arrive
+                a.in();
             }
             // un synchonized in()
-            for (Access a : ins.values()) {     // wait for all inputs to arrive
-                if (a.getClass() == FieldObjectAccess.class || a.getClass() == FieldValueAccess.class
-                        || a.getClass() == AsyncFieldAccess.class) {
-                    a.in();            // not synchonized.
-                }
+            for (Access a : asyncIns) {
+                a.in();            // not synchonized.
             }
             ens.fireStart(this);
             exec.invoke();                           // execute the object's exec method
             ens.fireFinnish(this);
 
             // unsynchronized out
-            for (Access a : outs.values()) {    // notify for output.
-                if (a.getClass() == FieldObjectAccess.class || a.getClass() == AsyncFieldAccess.class) {
-                    a.out();
-                }
+            for (Access a : asyncOuts) {    // notify for output.
+                a.out();
             }
             // synchronized out
-            for (Access a : outs.values()) {    // notify for output.
-                if (a.getClass() == FieldAccess.class) {
-                    a.out();
-                }
+            for (Access a : syncOuts) {    // notify for output.
+                a.out();
             }
         } catch (InvocationTargetException ex) {
             throw new ComponentException(ex.getCause(), comp);
@@ -185,6 +188,36 @@ public class ComponentAccess {
         }
     }
 
+    /**
+     * Split the accesses by kind once, so that exec() doesn't check
+     * the access classes at every step.
+     */
+    private void sortAccesses() {
+        List<Access> si = new ArrayList<Access>();
+        List<Access> ai = new ArrayList<Access>();
+        for (Access a : ins.values()) {
+            if (a.getClass() == FieldAccess.class) {
+                si.add(a);
+            } else if (a.getClass() == FieldObjectAccess.class || a.getClass() == FieldValueAccess.class
+                    || a.getClass() == AsyncFieldAccess.class) {
+                ai.add(a);
+            }
+        }
+        List<Access> ao = new ArrayList<Access>();
+        List<Access> so = new ArrayList<Access>();
+        for (Access a : outs.values()) {
+            if (a.getClass() == FieldObjectAccess.class || a.getClass() == AsyncFieldAccess.class) {
+                ao.add(a);
+            } else if (a.getClass() == FieldAccess.class) {
+                so.add(a);
+            }
+        }
+        asyncIns = ai.toArray(new Access[ai.size()]);
+        asyncOuts = ao.toArray(new Access[ao.size()]);
+        syncOuts = so.toArray(new Access[so.size()]);
+        syncIns = si.toArray(new Access[si.size()]);
+    }
+
     void callAnnotatedMethod(Class<? extends Annotation> ann, boolean lazy) {
         try {
             getMethodOfInterest(comp, ann).invoke(comp);
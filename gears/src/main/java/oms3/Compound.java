@@ -63,6 +63,19 @@ public  class Compound {
         internalExec();
     }
 
+    /** Sets the max number of internal components executing at the
+     * same time. Components run as soon as all the components they are
+     * connected to are done, so independent components run concurrently.
+     * The default is the number of processors, or the
+     * 'oms.parallelism' system property.
+     *
+     * @param parallelism the max number of components, 1 to run them
+     *        one after the other in the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        controller.setParallelism(parallelism);
+    }
+
     /** Shutting down the execution service
      * 
      */
@@ -38,6 +38,8 @@ import oms3.util.Threads;
 class Controller {
 
     static boolean checkCircular = Boolean.getBoolean("oms.check.circular");
+    /* default max number of components executing at the same time */
+    static int defaultParallelism = Integer.getInteger("oms.parallelism", Runtime.getRuntime().availableProcessors());
     //
     private static final Logger log = Logger.getLogger("oms3.sim");
     /** Execution event Notification */
@@ -50,6 +52,10 @@ class Controller {
     ComponentAccess ca;
     // optional skipping the integrity checking.
     Validator validator;
+    /* component -> components that read its @Out, from connect() */
+    Map<Object, Set<Object>> dependents = new HashMap<Object, Set<Object>>();
+    /* max number of components executing at the same time */
+    int parallelism = defaultParallelism;
 
     Controller(Object compound) {
         if (checkCircular) {
@@ -68,6 +74,7 @@ class Controller {
         ComponentAccess w = oMap.get(cmd);
         if (w == null) {
             oMap.put(cmd, w = new ComponentAccess(cmd, ens));
+            schedule = null;
         }
         return w;
     }
@@ -244,6 +251,14 @@ class Controller {
         dataSet.add(data);
         to_access.setData(data);                       // connect the two
 
+        Set<Object> tos = dependents.get(from);
+        if (tos == null) {
+            tos = new LinkedHashSet<Object>();
+            dependents.put(from, tos);
+        }
+        tos.add(to);
+        schedule = null;
+
         if (checkCircular) {
             validator.addConnection(from, to);
             validator.checkCircular();
@@ -345,41 +360,82 @@ class Controller {
         Threads.e.shutdown();
     }
 
-    static private class Latch {
+    void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1");
+        }
+        this.parallelism = parallelism;
+    }
 
-        private int count;
-        final Object lock = new Object();
+    /**
+     * The components with the dependencies from the connect() calls.
+     * Feedback connections do not order the components, as they read
+     * the value of the previous run.
+     */
+    static private class Schedule {
 
-        void reload(int count) {
-            this.count = count;
-        }
+        ComponentAccess[] comps;
+        int[][] dependents;
+        int[] dependencies;
 
-        void open() {
-            synchronized (lock) {
-                count = 0;
-                lock.notify();
+        Schedule(Map<Object, ComponentAccess> oMap, Map<Object, Set<Object>> deps) {
+            int n = oMap.size();
+            comps = new ComponentAccess[n];
+            Map<Object, Integer> index = new HashMap<Object, Integer>();
+            int i = 0;
+            for (Map.Entry<Object, ComponentAccess> e : oMap.entrySet()) {
+                index.put(e.getKey(), i);
+                comps[i++] = e.getValue();
             }
-        }
-
-        void countDown() {
-            synchronized (lock) {
-                if (--count <= 0) {
-                    lock.notify();
+            dependents = new int[n][];
+            dependencies = new int[n];
+            for (i = 0; i < n; i++) {
+                Set<Object> tos = deps.get(comps[i].getComponent());
+                dependents[i] = new int[tos == null ? 0 : tos.size()];
+                if (tos != null) {
+                    int k = 0;
+                    for (Object to : tos) {
+                        int t = index.get(to);
+                        dependents[i][k++] = t;
+                        dependencies[t]++;
+                    }
                 }
             }
-        }
-
-        void await() throws InterruptedException {
-            synchronized (lock) {
-                while (count > 0) {
-                    lock.wait();
+            // check that all the components can be reached
+            int[] left = dependencies.clone();
+            ArrayDeque<Integer> ready = new ArrayDeque<Integer>();
+            for (i = 0; i < n; i++) {
+                if (left[i] == 0) {
+                    ready.add(i);
+                }
+            }
+            int count = 0;
+            while (!ready.isEmpty()) {
+                int c = ready.poll();
+                count++;
+                for (int t : dependents[c]) {
+                    if (--left[t] == 0) {
+                        ready.add(t);
+                    }
+                }
+            }
+            if (count < n) {
+                for (i = 0; i < n; i++) {
+                    if (left[i] > 0) {
+                        throw new ComponentException("Circular reference to: " + comps[i].getComponent());
+                    }
                 }
             }
         }
     }
-    Latch latch = new Latch();
-    Runnable[] rc;
+
+    Schedule schedule;
+    /* the state of a run, guarded by the run lock */
     final Object l = new Object();
+    ArrayDeque<Integer> ready = new ArrayDeque<Integer>();
+    int[] left;
+    int done;
+    int helpers;
 
     protected void internalExec() throws ComponentException {
         Collection<ComponentAccess> comps = oMap.values();
@@ -398,64 +454,25 @@ class Controller {
             dataRef.invalidate();
         }
 
-//        final CountDownLatch latch = new CountDownLatch(comps.size());
-        latch.reload(comps.size());
+        if (schedule == null) {
+            schedule = new Schedule(oMap, dependents);
+        }
         ens.fireStart(ca);
-        if (rc == null) {
-            rc = new Runnable[comps.size()];
-            int i = 0;
-            for (final ComponentAccess co : comps) {
-                rc[i++] = new Runnable() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            co.exec();
-                            latch.countDown();
-                        } catch (ComponentException ce) {
-                            synchronized (l) {
-                                if (E == null) {
-                                    E = ce;
-                                }
-                            }
-                            latch.open();
-                            executor.shutdownNow();
-                        }
+        synchronized (l) {
+            if (E == null) {
+                left = schedule.dependencies.clone();
+                done = 0;
+                ready.clear();
+                for (int i = 0; i < left.length; i++) {
+                    if (left[i] == 0) {
+                        ready.add(i);
                     }
-                };
-            }
-        }
-        for (Runnable r : rc) {
-            if (E != null) {
-                break;
+                }
             }
-            executor.execute(r);
-        }
-
-//        for (final ComponentAccess ca : comps) {
-//            executor.execute(new Runnable() {
-//
-//                @Override
-//                public void run() {
-//                    try {
-//                        ca.exec();
-//                    } catch (ComponentException ce) {
-//                        synchronized (E) {
-//                            if (E == null) {
-//                                E = ce;
-//                            }
-//                        }
-//                        executor.shutdownNow();
-//                    }
-//                    latch.countDown();
-//                }
-//            });
-//        }
-        try {
-            latch.await();
-        } catch (InterruptedException IE) {
-            // nothing to do here.
         }
+        // the calling thread runs components too, helpers are
+        // started only when more components are ready at once.
+        run(false);
 
         // some of the components left an
         // exception.
@@ -476,6 +493,89 @@ class Controller {
         }
     }
 
+    /**
+     * Run ready components until none is left. Every component is run
+     * once all the components it reads from are done.
+     *
+     * @param helper true if running in a helper thread, that leaves
+     *        as soon as nothing is ready.
+     */
+    private void run(boolean helper) {
+        int n = schedule.comps.length;
+        while (true) {
+            int c;
+            synchronized (l) {
+                while (ready.isEmpty() && done < n && E == null) {
+                    if (helper) {
+                        helpers--;
+                        return;
+                    }
+                    try {
+                        l.wait();
+                    } catch (InterruptedException IE) {
+                        Thread.currentThread().interrupt();
+                        E = new ComponentException(IE, ca.getComponent());
+                    }
+                }
+                if (done == n || E != null) {
+                    if (helper) {
+                        helpers--;
+                    } else {
+                        // let the helpers finish their components
+                        while (helpers > 0) {
+                            try {
+                                l.wait();
+                            } catch (InterruptedException IE) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                        }
+                    }
+                    l.notifyAll();
+                    return;
+                }
+                c = ready.poll();
+                while (ready.size() > 0 && helpers < parallelism - 1) {
+                    helpers++;
+                    try {
+                        executor.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                Controller.this.run(true);
+                            }
+                        });
+                    } catch (RejectedExecutionException ex) {
+                        // no helpers available, go on in this thread
+                        helpers--;
+                        break;
+                    }
+                }
+            }
+            ComponentException ce = null;
+            try {
+                schedule.comps[c].exec();
+            } catch (ComponentException ex) {
+                ce = ex;
+            }
+            synchronized (l) {
+                if (ce != null) {
+                    if (E == null) {
+                        E = ce;
+                    }
+                } else {
+                    done++;
+                    for (int t : schedule.dependents[c]) {
+                        if (--left[t] == 0) {
+                            ready.add(t);
+                        }
+                    }
+                }
+                l.notifyAll();
+            }
+        }
+    }
+
     /**
      * Call an annotated method.
      *
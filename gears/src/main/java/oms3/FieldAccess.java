@@ -1,5 +1,7 @@
 package oms3;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -18,6 +20,14 @@ class FieldAccess implements Access {
     Object comp;
     FieldContent data;
     private static final Logger log = Logger.getLogger("oms3.sim");
+    // accessors resolved at wiring time
+    final MethodHandle getter;
+    final MethodHandle setter;
+    // the field type, boxed if primitive
+    final Class<?> valueType;
+    // the last received immutable value and its conversion
+    Object lastIn;
+    Object lastConverted;
 
 //    Access access;
     
@@ -26,6 +36,9 @@ class FieldAccess implements Access {
         this.comp = target;
         this.ens = ens;
         field.setAccessible(true);   // just in case
+        getter = Utils.getter(target, field);
+        setter = Utils.setter(target, field);
+        valueType = MethodType.methodType(field.getType()).wrap().returnType();
 //        access = Utils.compiled(comp, field);
     }
 
@@ -82,18 +95,44 @@ class FieldAccess implements Access {
             val = e.getValue();
         }
         
-        // type conversion
-        
-        if (val != null && field.getType() != val.getClass() && !field.getType().isAssignableFrom(val.getClass())) {
+        // type conversion, boxed values of primitive fields are passed as they are
+        if (val != null && val.getClass() != valueType && !field.getType().isAssignableFrom(val.getClass())) {
+            if (val == lastIn) {
+                // unchanged immutable value, no need to convert again.
+                val = lastConverted;
+            } else {
+                Object in = val;
 //            // default type conversion fails, we need to convert.
 //            // this will use the Conversions SPI.
-            val = Conversions.convert(val, field.getType());
+                val = Conversions.convert(val, field.getType());
+                // only immutable values can be reused, a mutable one might
+                // have been changed since it was converted.
+                if (isImmutable(in) && isImmutable(val)) {
+                    lastIn = in;
+                    lastConverted = val;
+                } else {
+                    lastIn = null;
+                    lastConverted = null;
+                }
+            }
         }
 
 //        access.pass((Access) val);
         setFieldValue(val);
     }
 
+    /**
+     * Checks if a value can not change after it has been converted.
+     *
+     * @param val the value
+     * @return true for strings and boxed primitives.
+     */
+    static boolean isImmutable(Object val) {
+        return val instanceof String || val instanceof Boolean || val instanceof Character
+                || val instanceof Byte || val instanceof Short || val instanceof Integer
+                || val instanceof Long || val instanceof Float || val instanceof Double;
+    }
+
     /** 
      * a field is sending a new value (out)
      * 
@@ -144,7 +183,11 @@ class FieldAccess implements Access {
      */
     @Override
     final public Object getFieldValue() throws Exception {
-        return field.get(comp);
+        try {
+            return (Object) getter.invokeExact();
+        } catch (Throwable t) {
+            throw Utils.rethrow(t);
+        }
     }
 
     /**
@@ -155,7 +198,11 @@ class FieldAccess implements Access {
      */
     @Override
     final public void setFieldValue(Object o) throws Exception {
-        field.set(comp, o);
+        try {
+            setter.invokeExact(o);
+        } catch (Throwable t) {
+            throw Utils.rethrow(t);
+        }
     }
 
     @Override
@@ -22,6 +22,7 @@
  */
 package oms3;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 
 /**
@@ -37,18 +38,30 @@ public class FieldContent {
 
         Field field;
         Object obj;
+        MethodHandle getter;
+        MethodHandle setter;
 
         FA(Object obj, String name) throws Exception {
             this.obj = obj;
             field = obj.getClass().getField(name);
+            getter = Utils.getter(obj, field);
+            setter = Utils.setter(obj, field);
         }
 
         Object getFieldValue() throws Exception {
-            return field.get(obj);
+            try {
+                return (Object) getter.invokeExact();
+            } catch (Throwable t) {
+                throw Utils.rethrow(t);
+            }
         }
 
         void setFieldValue(Object o) throws Exception {
-            field.set(obj, o);
+            try {
+                setter.invokeExact(o);
+            } catch (Throwable t) {
+                throw Utils.rethrow(t);
+            }
         }
     }
 
@@ -6,7 +6,11 @@ package oms3;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.UndeclaredThrowableException;
 import oms3.gen.MethodInvoker;
 import oms3.compiler.Compiler;
 import java.lang.reflect.Method;
@@ -57,6 +61,83 @@ public class Utils {
         };
     }
 
+    /** Method handle invocation, resolved once at wiring time.
+     * Falls back to reflective invocation if the method cannot be
+     * looked up.
+     *
+     * @param target
+     * @param method
+     * @return
+     */
+    static MethodInvoker handle(final Object target, final Method method) {
+        final MethodHandle mh;
+        try {
+            method.setAccessible(true);
+            mh = MethodHandles.lookup().unreflect(method).bindTo(target).asType(MethodType.methodType(void.class));
+        } catch (Exception ex) {
+            return reflective(target, method);
+        }
+        return new MethodInvoker() {
+
+            @Override
+            public void invoke() throws Exception {
+                try {
+                    mh.invokeExact();
+                } catch (Throwable t) {
+                    throw rethrow(t);
+                }
+            }
+
+            @Override
+            public void setTarget(Object target) {
+            }
+        };
+    }
+
+    /** Getter handle of a field bound to the target, of type ()Object.
+     *
+     * @param target
+     * @param field an accessible field
+     * @return
+     */
+    static MethodHandle getter(Object target, Field field) {
+        try {
+            return MethodHandles.lookup().unreflectGetter(field).bindTo(target).asType(MethodType.methodType(Object.class));
+        } catch (IllegalAccessException ex) {
+            throw new ComponentException(ex, target);
+        }
+    }
+
+    /** Setter handle of a field bound to the target, of type (Object)void.
+     *
+     * @param target
+     * @param field an accessible field
+     * @return
+     */
+    static MethodHandle setter(Object target, Field field) {
+        try {
+            return MethodHandles.lookup().unreflectSetter(field).bindTo(target)
+                    .asType(MethodType.methodType(void.class, Object.class));
+        } catch (IllegalAccessException ex) {
+            throw new ComponentException(ex, target);
+        }
+    }
+
+    /** Rethrow what a method handle throws as an Exception.
+     *
+     * @param t
+     * @return
+     */
+    static Exception rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof Exception) {
+            return (Exception) t;
+        }
+        return new UndeclaredThrowableException(t);
+    }
+
     static MethodInvoker compiled(Object target, Method method) {
         try {
             Compiler tc = Compiler.singleton(null);
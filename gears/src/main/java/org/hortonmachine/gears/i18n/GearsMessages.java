@@ -833,6 +833,7 @@ public class GearsMessages {
     public static final String OMSSURFACEINTERPOLATOR_P_MODE_DESCRIPTION = "Interpolation mode.";
     public static final String OMSSURFACEINTERPOLATOR_P_BUFFER_DESCRIPTION = "The buffer to use for interpolation.";
     public static final String OMSSURFACEINTERPOLATOR_P_MAX_THREADS_DESCRIPTION = "Max threads to use.";
+    public static final String OMSSURFACEINTERPOLATOR_P_MAX_POINTS_DESCRIPTION = "The max number of nearest control points to use for every cell (0 uses all the points in the buffer).";
     public static final String OMSSURFACEINTERPOLATOR_OUT_RASTER_DESCRIPTION = "The interpolated raster";
 
     public static final String OMSDATETIME2VALUEMAPREADER_DESCRIPTION = "Utility class for reading data from csv file that have the form: time1 value1[] time2 value2[] ... timen valuen[].";
@@ -1156,6 +1157,8 @@ public class GearsMessages {
     public static final String OMSTIMESERIESITERATORREADER_T_START_DESCRIPTION = "The optional time at which start to read (format: yyyy-MM-dd HH:mm ).";
     public static final String OMSTIMESERIESITERATORREADER_T_END_DESCRIPTION = "The optional time at which end to read (format: yyyy-MM-dd HH:mm ).";
     public static final String OMSTIMESERIESITERATORREADER_T_TIMESTEP_DESCRIPTION = "The reading timestep in minutes.";
+    public static final String OMSTIMESERIESITERATORREADER_DO_COLUMNAR_DESCRIPTION = "Read the needed time range of the file at once into columns instead of parsing it row by row (the rows need to be in time order).";
+    public static final String OMSTIMESERIESITERATORREADER_DO_CACHE_DESCRIPTION = "In columnar mode, keep a binary copy of the file next to it to skip parsing in the following runs.";
 
     public static final String OMSPOINTDIRECTIONCALCULATOR_DESCRIPTION = "Calculates the direction of maximum slope for a source point on a dem.";
     public static final String OMSPOINTDIRECTIONCALCULATOR_DOCUMENTATION = "";
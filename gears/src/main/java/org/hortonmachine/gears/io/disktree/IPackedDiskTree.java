@@ -0,0 +1,101 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.disktree;
+
+/**
+ * Interface for the packed DiskTree I/O modules.
+ *
+ * <p>
+ * Unlike the {@link IDiskTree} format, no java serialization is involved, so the
+ * files don't depend on the JTS version. The binary file (big endian) is defined as follows:
+ *
+ * <ul>
+ *  <li>4 bytes containing the chars 'HMDT'</li>
+ *  <li>4 bytes for the format version</li>
+ *  <li>4 bytes for the node size of the tree</li>
+ *  <li>4 bytes for the number of stored geometries</li>
+ *  <li>8 bytes containing the address at which the index is stored</li>
+ *  <li>8 bytes containing the size of the stored index</li>
+ *  <li>then the geometry records are stored, each as:
+ *      <ul>
+ *          <li>4 bytes for the size of the rest of the record</li>
+ *          <li>1 byte for the type of the user data (see the <code>USERDATA_*</code> constants)</li>
+ *          <li>the user data, if any</li>
+ *          <li>the WKB of the geometry</li>
+ *      </ul>
+ *  </li>
+ *  <li>after the geometries, the index is stored</li>
+ * </ul>
+ *
+ * <p>The index is a packed Hilbert R-tree, stored flat:
+ *
+ * <ul>
+ *  <li>4 bytes for the number of levels</li>
+ *  <li>4 bytes per level for the index of the node that ends the level (exclusive)</li>
+ *  <li>then the nodes, leaves first and root last, each as 4 doubles for the
+ *      envelope (minx, miny, maxx, maxy) and 8 bytes for the pointer, which is the
+ *      address of the geometry record for leaves and the index of the first
+ *      child node for the other nodes</li>
+ * </ul>
+ *
+ * <p>The leaves are sorted by the hilbert value of the envelope centers and
+ * every node holds up to node size children. The index is memory mapped
+ * and queried in place, without building any object tree.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @see PackedDiskTreeWriter
+ * @see PackedDiskTreeReader
+ */
+public interface IPackedDiskTree {
+    /**
+     * The file signature.
+     */
+    String SIGNATURE = "HMDT";
+
+    /**
+     * The version of the format.
+     */
+    int VERSION = 1;
+
+    /**
+     * The default number of children of a node.
+     */
+    int DEFAULT_NODE_SIZE = 16;
+
+    /**
+     * Byte size of the header, after which the geometry records start.
+     */
+    long HEADER_SIZE = 32;
+
+    /**
+     * Position of the index address.
+     */
+    long INDEX_ADDRESS_POSITION = 16;
+
+    /**
+     * Byte size of a node of the index.
+     */
+    int NODE_BYTES = 40;
+
+    byte USERDATA_NONE = 0;
+    byte USERDATA_INTEGER = 1;
+    byte USERDATA_LONG = 2;
+    byte USERDATA_DOUBLE = 3;
+    byte USERDATA_STRING = 4;
+}
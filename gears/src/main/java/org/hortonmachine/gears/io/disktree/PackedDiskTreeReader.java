@@ -0,0 +1,297 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.disktree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+
+/**
+ * Reader for the packed Hilbert R-tree disk index.
+ *
+ * <p>The index is memory mapped and searched in place, the geometries are read
+ * through positional reads. Once opened, the reader can be used by many threads
+ * at the same time.</p>
+ *
+ * <p>Example usage:
+ * <pre>
+ * try (PackedDiskTreeReader reader = new PackedDiskTreeReader("/home/moovida/TMP/index.hmdt")) {
+ *     reader.open();
+ *     List&lt;Geometry&gt; geometries = reader.queryGeometries(envelope);
+ * }
+ * </pre>
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @see IPackedDiskTree
+ */
+public class PackedDiskTreeReader implements IPackedDiskTree, AutoCloseable {
+
+    private final String path;
+
+    private FileChannel channel;
+    private ByteBuffer index;
+    private int nodeSize;
+    private int count;
+    private int[] levelBounds;
+    private int nodesStart;
+    private int nodesCount;
+
+    /**
+     * Constructor.
+     *
+     * @param path the path from which to read.
+     */
+    public PackedDiskTreeReader( String path ) {
+        this.path = path;
+    }
+
+    /**
+     * Open the file and map the index.
+     *
+     * @throws IOException if the file is not a packed disktree.
+     */
+    public void open() throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate((int) HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+
+        byte[] signature = new byte[4];
+        header.get(signature);
+        if (!SIGNATURE.equals(new String(signature, StandardCharsets.US_ASCII))) {
+            close();
+            throw new IOException("The file is not a packed disktree: " + path);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            close();
+            throw new IOException("Unsupported packed disktree version: " + version);
+        }
+        nodeSize = header.getInt();
+        count = header.getInt();
+        long indexAddress = header.getLong();
+        long indexSize = header.getLong();
+        if (indexSize > Integer.MAX_VALUE) {
+            close();
+            throw new IOException("The index is too large to be mapped: " + indexSize);
+        }
+
+        index = channel.map(MapMode.READ_ONLY, indexAddress, indexSize);
+        int levels = index.getInt(0);
+        levelBounds = new int[levels];
+        for( int i = 0; i < levels; i++ ) {
+            levelBounds[i] = index.getInt(4 + 4 * i);
+        }
+        nodesStart = 4 + 4 * levels;
+        nodesCount = levelBounds[levels - 1];
+    }
+
+    /**
+     * @return the number of geometries in the file.
+     */
+    public int getSize() {
+        return count;
+    }
+
+    /**
+     * @return the envelope of all the geometries, a null envelope if there are none.
+     */
+    public Envelope getBounds() {
+        if (nodesCount == 0) {
+            return new Envelope();
+        }
+        int p = nodesStart + (nodesCount - 1) * NODE_BYTES;
+        return new Envelope(index.getDouble(p), index.getDouble(p + 16), index.getDouble(p + 8), index.getDouble(p + 24));
+    }
+
+    /**
+     * Visit the addresses of the geometries whose envelope intersects a given envelope.
+     *
+     * @param envelope the envelope to query.
+     * @param visitor the consumer of the geometry addresses, to be used in {@link #pickGeometry(long)}.
+     */
+    public void query( Envelope envelope, LongConsumer visitor ) {
+        if (nodesCount == 0 || envelope.isNull()) {
+            return;
+        }
+        double qMinX = envelope.getMinX();
+        double qMinY = envelope.getMinY();
+        double qMaxX = envelope.getMaxX();
+        double qMaxY = envelope.getMaxY();
+
+        int levels = levelBounds.length;
+        int[] nodesStack = new int[levels * nodeSize + 1];
+        int[] levelsStack = new int[levels * nodeSize + 1];
+        int stackSize = 0;
+
+        // the root is the last node
+        int nodeIndex = nodesCount - 1;
+        int level = levels - 1;
+        while( true ) {
+            int end = Math.min(nodeIndex + nodeSize, levelBounds[level]);
+            for( int i = nodeIndex; i < end; i++ ) {
+                int p = nodesStart + i * NODE_BYTES;
+                if (qMaxX < index.getDouble(p) || qMaxY < index.getDouble(p + 8) || qMinX > index.getDouble(p + 16)
+                        || qMinY > index.getDouble(p + 24)) {
+                    continue;
+                }
+                long pointer = index.getLong(p + 32);
+                if (i < count) {
+                    visitor.accept(pointer);
+                } else {
+                    nodesStack[stackSize] = (int) pointer;
+                    levelsStack[stackSize] = level - 1;
+                    stackSize++;
+                }
+            }
+            if (stackSize == 0) {
+                break;
+            }
+            stackSize--;
+            nodeIndex = nodesStack[stackSize];
+            level = levelsStack[stackSize];
+        }
+    }
+
+    /**
+     * Get the addresses of the geometries whose envelope intersects a given envelope.
+     *
+     * @param envelope the envelope to query.
+     * @return the addresses, to be used in {@link #pickGeometry(long)}.
+     */
+    public long[] query( Envelope envelope ) {
+        long[][] holder = {new long[16]};
+        int[] size = {0};
+        query(envelope, address -> {
+            if (size[0] == holder[0].length) {
+                holder[0] = Arrays.copyOf(holder[0], size[0] * 2);
+            }
+            holder[0][size[0]++] = address;
+        });
+        return Arrays.copyOf(holder[0], size[0]);
+    }
+
+    /**
+     * Get the geometries whose envelope intersects a given envelope.
+     *
+     * @param envelope the envelope to query.
+     * @return the list of geometries, with their user data.
+     * @throws IOException
+     */
+    public List<Geometry> queryGeometries( Envelope envelope ) throws IOException {
+        long[] addresses = query(envelope);
+        // read in file order
+        Arrays.sort(addresses);
+        List<Geometry> geometries = new ArrayList<>(addresses.length);
+        for( long address : addresses ) {
+            geometries.add(pickGeometry(address));
+        }
+        return geometries;
+    }
+
+    /**
+     * Reads a single geometry.
+     *
+     * @param address the address of the geometry as returned by the queries.
+     * @return the read geometry, with its user data.
+     * @throws IOException
+     */
+    public Geometry pickGeometry( long address ) throws IOException {
+        ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+        readFully(sizeBuffer, address);
+        int size = sizeBuffer.getInt(0);
+        ByteBuffer record = ByteBuffer.allocate(size);
+        readFully(record, address + 4);
+        record.flip();
+
+        Object userData = null;
+        byte userDataType = record.get();
+        switch( userDataType ) {
+        case USERDATA_NONE:
+            break;
+        case USERDATA_INTEGER:
+            userData = record.getInt();
+            break;
+        case USERDATA_LONG:
+            userData = record.getLong();
+            break;
+        case USERDATA_DOUBLE:
+            userData = record.getDouble();
+            break;
+        case USERDATA_STRING:
+            byte[] bytes = new byte[record.getInt()];
+            record.get(bytes);
+            userData = new String(bytes, StandardCharsets.UTF_8);
+            break;
+        default:
+            throw new IOException("Unknown user data type: " + userDataType);
+        }
+
+        byte[] wkb = Arrays.copyOfRange(record.array(), record.position(), size);
+        try {
+            // the wkb reader is not thread safe, use one per call
+            Geometry geometry = new WKBReader(GeometryUtilities.gf()).read(wkb);
+            geometry.setUserData(userData);
+            return geometry;
+        } catch (ParseException e) {
+            throw new IOException("Unable to read geometry at address: " + address, e);
+        }
+    }
+
+    private void readFully( ByteBuffer buffer, long position ) throws IOException {
+        // positional reads don't change the channel state, so they are safe from many threads
+        while( buffer.hasRemaining() ) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at: " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Closes the filehandle.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        // the mapping is released once unreachable
+        index = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.disktree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * Writer for the packed Hilbert R-tree disk index.
+ *
+ * <p>Geometries are streamed to disk as they are added, only their envelopes
+ * are kept in memory until the index is written on {@link #close()}.</p>
+ *
+ * <p>Supported user data are {@link Integer}, {@link Long}, {@link Double} and
+ * {@link String}, any other object is stored through its <code>toString</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @see IPackedDiskTree
+ */
+public class PackedDiskTreeWriter implements IPackedDiskTree, AutoCloseable {
+
+    private final String path;
+    private final int nodeSize;
+
+    private DataOutputStream out;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private final WKBWriter wkbWriter2D = new WKBWriter(2);
+    private final WKBWriter wkbWriter3D = new WKBWriter(3);
+
+    private long address;
+    private int count = 0;
+    private double[] envelopes = new double[4 * 64];
+    private long[] addresses = new long[64];
+
+    /**
+     * Constructor.
+     *
+     * @param path the path to which the index will be written.
+     */
+    public PackedDiskTreeWriter( String path ) {
+        this(path, DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param path the path to which the index will be written.
+     * @param nodeSize the max number of children of a node of the tree.
+     */
+    public PackedDiskTreeWriter( String path, int nodeSize ) {
+        if (nodeSize < 2) {
+            throw new IllegalArgumentException("The node size needs to be at least 2.");
+        }
+        this.path = path;
+        this.nodeSize = nodeSize;
+    }
+
+    /**
+     * Open the file and write the header.
+     *
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.write(SIGNATURE.getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(VERSION);
+        out.writeInt(nodeSize);
+        // count, index address and size are set on close
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeLong(0);
+        address = HEADER_SIZE;
+    }
+
+    /**
+     * Add a geometry to the file.
+     *
+     * <p>Empty geometries are skipped.</p>
+     *
+     * @param geometry the geometry to add, with optional user data.
+     * @throws IOException
+     */
+    public void addGeometry( Geometry geometry ) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("The writer needs to be opened first.");
+        }
+        if (geometry.isEmpty()) {
+            return;
+        }
+        recordBytes.reset();
+        writeUserData(geometry.getUserData());
+        // the elevation is written only if the geometry has it
+        boolean hasZ = !Double.isNaN(geometry.getCoordinate().getZ());
+        recordOut.write(hasZ ? wkbWriter3D.write(geometry) : wkbWriter2D.write(geometry));
+        recordOut.flush();
+
+        out.writeInt(recordBytes.size());
+        recordBytes.writeTo(out);
+
+        if (count == addresses.length) {
+            addresses = Arrays.copyOf(addresses, count * 2);
+            envelopes = Arrays.copyOf(envelopes, count * 8);
+        }
+        Envelope envelope = geometry.getEnvelopeInternal();
+        envelopes[4 * count] = envelope.getMinX();
+        envelopes[4 * count + 1] = envelope.getMinY();
+        envelopes[4 * count + 2] = envelope.getMaxX();
+        envelopes[4 * count + 3] = envelope.getMaxY();
+        addresses[count] = address;
+        count++;
+        address = address + 4 + recordBytes.size();
+    }
+
+    private void writeUserData( Object userData ) throws IOException {
+        if (userData == null) {
+            recordOut.writeByte(USERDATA_NONE);
+        } else if (userData instanceof Integer) {
+            recordOut.writeByte(USERDATA_INTEGER);
+            recordOut.writeInt((Integer) userData);
+        } else if (userData instanceof Long) {
+            recordOut.writeByte(USERDATA_LONG);
+            recordOut.writeLong((Long) userData);
+        } else if (userData instanceof Double) {
+            recordOut.writeByte(USERDATA_DOUBLE);
+            recordOut.writeDouble((Double) userData);
+        } else {
+            byte[] bytes = userData.toString().getBytes(StandardCharsets.UTF_8);
+            recordOut.writeByte(USERDATA_STRING);
+            recordOut.writeInt(bytes.length);
+            recordOut.write(bytes);
+        }
+    }
+
+    /**
+     * Writes an array of {@link Geometry}s to the disk.
+     *
+     * @param geometries the array of geoms to write.
+     * @throws IOException
+     */
+    public void writeGeometries( Geometry[] geometries ) throws IOException {
+        open();
+        try {
+            for( Geometry geometry : geometries ) {
+                addGeometry(geometry);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Build and write the index and close the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (out == null) {
+            return;
+        }
+        long indexAddress = address;
+        long indexSize;
+        try {
+            indexSize = writeIndex();
+        } finally {
+            out.close();
+            out = null;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            raf.seek(12);
+            raf.writeInt(count);
+            raf.writeLong(indexAddress);
+            raf.writeLong(indexSize);
+        }
+    }
+
+    private long writeIndex() throws IOException {
+        /*
+         * sort the items by the hilbert value of their centers
+         */
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < count; i++ ) {
+            minX = Math.min(minX, envelopes[4 * i]);
+            minY = Math.min(minY, envelopes[4 * i + 1]);
+            maxX = Math.max(maxX, envelopes[4 * i + 2]);
+            maxY = Math.max(maxY, envelopes[4 * i + 3]);
+        }
+        double width = maxX - minX;
+        double height = maxY - minY;
+        long[] keys = new long[count];
+        for( int i = 0; i < count; i++ ) {
+            double cx = (envelopes[4 * i] + envelopes[4 * i + 2]) / 2.0;
+            double cy = (envelopes[4 * i + 1] + envelopes[4 * i + 3]) / 2.0;
+            int hx = width > 0 ? (int) Math.floor(0xFFFF * (cx - minX) / width) : 0;
+            int hy = height > 0 ? (int) Math.floor(0xFFFF * (cy - minY) / height) : 0;
+            keys[i] = (hilbert(hx, hy) << 31) | i;
+        }
+        Arrays.sort(keys);
+
+        /*
+         * count the nodes of every level
+         */
+        int levels = 1;
+        long nodesCount = count;
+        int levelCount = count;
+        while( levelCount > 1 ) {
+            levelCount = (levelCount + nodeSize - 1) / nodeSize;
+            nodesCount += levelCount;
+            levels++;
+        }
+        if (nodesCount > Integer.MAX_VALUE / 4) {
+            throw new IOException("Too many geometries for a single index: " + count);
+        }
+        int totalNodes = (int) nodesCount;
+        double[] boxes = new double[4 * totalNodes];
+        long[] pointers = new long[totalNodes];
+        int[] levelBounds = new int[levels];
+
+        for( int i = 0; i < count; i++ ) {
+            int item = (int) (keys[i] & 0x7FFFFFFFL);
+            System.arraycopy(envelopes, 4 * item, boxes, 4 * i, 4);
+            pointers[i] = addresses[item];
+        }
+        levelBounds[0] = count;
+
+        int levelStart = 0;
+        int levelEnd = count;
+        int level = 1;
+        int position = count;
+        while( level < levels ) {
+            for( int child = levelStart; child < levelEnd; child += nodeSize ) {
+                int childEnd = Math.min(child + nodeSize, levelEnd);
+                double nMinX = Double.POSITIVE_INFINITY;
+                double nMinY = Double.POSITIVE_INFINITY;
+                double nMaxX = Double.NEGATIVE_INFINITY;
+                double nMaxY = Double.NEGATIVE_INFINITY;
+                for( int c = child; c < childEnd; c++ ) {
+                    nMinX = Math.min(nMinX, boxes[4 * c]);
+                    nMinY = Math.min(nMinY, boxes[4 * c + 1]);
+                    nMaxX = Math.max(nMaxX, boxes[4 * c + 2]);
+                    nMaxY = Math.max(nMaxY, boxes[4 * c + 3]);
+                }
+                boxes[4 * position] = nMinX;
+                boxes[4 * position + 1] = nMinY;
+                boxes[4 * position + 2] = nMaxX;
+                boxes[4 * position + 3] = nMaxY;
+                pointers[position] = child;
+                position++;
+            }
+            levelStart = levelEnd;
+            levelEnd = position;
+            levelBounds[level] = levelEnd;
+            level++;
+        }
+
+        out.writeInt(levels);
+        for( int bound : levelBounds ) {
+            out.writeInt(bound);
+        }
+        for( int i = 0; i < totalNodes; i++ ) {
+            out.writeDouble(boxes[4 * i]);
+            out.writeDouble(boxes[4 * i + 1]);
+            out.writeDouble(boxes[4 * i + 2]);
+            out.writeDouble(boxes[4 * i + 3]);
+            out.writeLong(pointers[i]);
+        }
+        return 4 + 4L * levels + (long) NODE_BYTES * totalNodes;
+    }
+
+    /**
+     * Hilbert curve value of a position on a 2^16 x 2^16 grid.
+     *
+     * <p>Uses the branch free algorithm from http://threadlocalmutex.com/?p=126.</p>
+     *
+     * @param x the x position.
+     * @param y the y position.
+     * @return the unsigned 32 bit hilbert value.
+     */
+    static long hilbert( int x, int y ) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return ((i1 << 1) | i0) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Convert a file of the old serialized {@link IDiskTree} format to the packed format.
+     *
+     * @param legacyPath the path of the file in the old format.
+     * @param path the path of the new file.
+     * @throws Exception
+     */
+    @SuppressWarnings("rawtypes")
+    public static void convert( String legacyPath, String path ) throws Exception {
+        DiskTreeReader reader = new DiskTreeReader(legacyPath);
+        STRtree tree = reader.readIndex();
+        try (PackedDiskTreeWriter writer = new PackedDiskTreeWriter(path)) {
+            writer.open();
+            Envelope all = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
+            List items = tree.query(all);
+            for( Object item : items ) {
+                if (item instanceof long[]) {
+                    long[] posSize = (long[]) item;
+                    writer.addGeometry(reader.pickGeometry(posSize[0], posSize[1]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.gears.io.las.core.LasPointBatch;
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
@@ -139,6 +140,27 @@ public abstract class ALasDataManager implements AutoCloseable {
      */
     public abstract List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception;
 
+    /**
+     * Get points inside a given geometry boundary as a {@link LasPointBatch}.
+     *
+     * <p>The default implementation copies the result of {@link #getPointsInGeometry(Geometry, boolean)},
+     * data managers that can read the data in batches override it to avoid
+     * creating a {@link LasRecord} per point.</p>
+     *
+     * @param checkGeom the {@link org.locationtech.jts.geom.Geometry} to use to check.
+     * @param doOnlyEnvelope check for the geom envelope instead of a intersection with it.
+     * @return the batch of points contained in the supplied geometry.
+     * @throws Exception
+     */
+    public LasPointBatch getPointBatchInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        List<LasRecord> pointsList = getPointsInGeometry(checkGeom, doOnlyEnvelope);
+        LasPointBatch batch = new LasPointBatch(Math.max(1, pointsList.size()));
+        for( LasRecord lasRecord : pointsList ) {
+            batch.add(lasRecord);
+        }
+        return batch;
+    }
+
     /**
      * Retrieve all the trees envelopes that intersect the geometry.
      *
@@ -312,6 +334,53 @@ public abstract class ALasDataManager implements AutoCloseable {
         return true;
     }
 
+    /**
+     * Check a point of a batch for constraints.
+     *
+     * @param batch the batch.
+     * @param index the index of the point to check.
+     * @return <code>true</code> if the point is accepted.
+     * @see #doAccept(LasRecord)
+     */
+    protected boolean doAccept( LasPointBatch batch, int index ) {
+        if (!hasConstraint) {
+            return true;
+        }
+        if (intensityRange != null) {
+            short intensity = batch.intensity[index];
+            if (intensity < intensityRange[0] || intensity > intensityRange[1]) {
+                return false;
+            }
+        }
+        if (impulses != null) {
+            int impulse = batch.returnNumber[index];
+            boolean takeIt = false;
+            for( final double imp : impulses ) {
+                if (impulse == (int) imp) {
+                    takeIt = true;
+                    break;
+                }
+            }
+            if (!takeIt)
+                return false;
+        }
+        if (impulsesNum != -1) {
+            if (batch.numberOfReturns[index] != impulsesNum) {
+                return false;
+            }
+        }
+        if (classes != null) {
+            int classification = batch.classification[index];
+            for( final double classs : classes ) {
+                if (classification == (int) classs) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Extracts the points contained inside a vertical range from the supplied list of points.
      *
@@ -30,6 +30,8 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasPointBatch;
+import org.hortonmachine.gears.io.las.core.LasPointBatchIndex;
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
 import org.hortonmachine.gears.io.las.index.OmsLasIndexReader;
@@ -67,6 +69,7 @@ class LasFileDataManager extends ALasDataManager {
     private ILasHeader lasHeader;
     private boolean isOpen;
     private STRtree pointsTree;
+    private LasPointBatchIndex pointsIndex;
 
     /**
      * Constructor.
@@ -199,6 +202,65 @@ class LasFileDataManager extends ALasDataManager {
         return pointsListForTile;
     }
 
+    /**
+     * Get points inside a given geometry boundary as a {@link LasPointBatch}.
+     *
+     * <p>If the file has not yet been read by {@link #getPointsInGeometry(Geometry, boolean)},
+     * the first call reads it in batches and keeps the accepted points in a grid index, which
+     * is queried by the later calls.</p>
+     */
+    @Override
+    public synchronized LasPointBatch getPointBatchInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        if (pointsTree != null) {
+            return super.getPointBatchInGeometry(checkGeom, doOnlyEnvelope);
+        }
+        if (pointsIndex == null) {
+            checkOpen();
+            LasPointBatch readBatch = new LasPointBatch();
+            LasPointBatch acceptedPoints = new LasPointBatch(
+                    (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, lasHeader.getRecordsCount())));
+            while( lasReader.readNextPoints(readBatch) > 0 ) {
+                int size = readBatch.size();
+                for( int i = 0; i < size; i++ ) {
+                    if (doAccept(readBatch, i)) {
+                        acceptedPoints.add(readBatch, i);
+                    }
+                }
+            }
+            close();
+            pointsIndex = new LasPointBatchIndex(acceptedPoints);
+        }
+
+        LasPointBatch allPoints = pointsIndex.getBatch();
+        Envelope env = checkGeom.getEnvelopeInternal();
+        PreparedGeometry preparedGeometry = doOnlyEnvelope ? null : PreparedGeometryFactory.prepare(checkGeom);
+        LasPointBatch pointsForTile = new LasPointBatch(1024);
+        pointsIndex.query(env, i -> {
+            double x = allPoints.x[i];
+            double y = allPoints.y[i];
+            if (!env.contains(x, y)) {
+                return;
+            }
+            if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(new Coordinate(x, y)))) {
+                return;
+            }
+            if (inDem != null) {
+                double value = CoverageUtilities.getValue(inDem, x, y);
+                if (HMConstants.isNovalue(value)) {
+                    return;
+                }
+                double height = allPoints.z[i] - value;
+                if (height > elevThreshold) {
+                    pointsForTile.add(allPoints, i);
+                    pointsForTile.groundElevation[pointsForTile.size() - 1] = height;
+                }
+            } else {
+                pointsForTile.add(allPoints, i);
+            }
+        });
+        return pointsForTile;
+    }
+
     @Override
     public synchronized List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
             throws Exception {
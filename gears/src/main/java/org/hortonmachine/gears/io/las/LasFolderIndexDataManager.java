@@ -32,7 +32,9 @@ import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.util.WeakValueHashMap;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasPointBatch;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
 import org.hortonmachine.gears.io.las.index.OmsLasIndexReader;
 import org.hortonmachine.gears.io.las.index.strtree.STRtreeJGT;
@@ -138,10 +140,26 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
      * @throws Exception
      */
     @Override
+    public List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        LasPointBatch batch = getPointBatchInGeometry(checkGeom, doOnlyEnvelope);
+        int size = batch.size();
+        ArrayList<LasRecord> pointsListForTile = new ArrayList<LasRecord>(size);
+        for( int i = 0; i < size; i++ ) {
+            pointsListForTile.add(batch.getRecord(i, null));
+        }
+        return pointsListForTile;
+    }
+
+    /**
+     * Get points inside a given geometry boundary as a {@link LasPointBatch}.
+     *
+     * <p>Only the lookup of the readers and indexes is synchronized, the point
+     * data are read without locks, so many queries can run in parallel.</p>
+     */
+    @Override
     @SuppressWarnings("rawtypes")
-    public synchronized List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
-        checkOpen();
-        ArrayList<LasRecord> pointsListForTile = new ArrayList<LasRecord>();
+    public LasPointBatch getPointBatchInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        LasPointBatch pointsForTile = new LasPointBatch();
 
         Envelope env = checkGeom.getEnvelopeInternal();
         PreparedGeometry preparedGeometry = null;
@@ -149,73 +167,87 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
             preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
         }
 
-        List filesList = mainLasFolderIndex.query(env);
+        LasPointBatch readBatch = new LasPointBatch();
+        List filesList = queryFiles(env);
         for( Object fileName : filesList ) {
             if (fileName instanceof String) {
                 String name = (String) fileName;
 
-                Pair pair = fileName2LasReaderMap.get(name);
+                Pair pair = getPair(name);
                 if (pair == null) {
-                    File lasFile = new File(lasFolder, name);
-                    File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
-
-                    if (lasIndexFile.exists()) {
-                        pair = getIndexPair(lasFile);
-                        if (pair != null) {
-                            fileName2LasReaderMap.put(name, pair);
-                            fileName4LasReaderMapSupport.add(name);
-                        }
-                    } else {
-                        continue;
-                    }
+                    continue;
+                }
+                List addressesList;
+                synchronized (pair) {
+                    addressesList = pair.strTree.query(env);
                 }
-
-                List addressesList = pair.strTree.query(env);
                 for( Object obj : addressesList ) {
                     if (obj instanceof double[]) {
                         double[] addresses = (double[]) obj;
                         long from = (long) addresses[0];
                         long to = (long) addresses[1];
-                        for( long pointNum = from; pointNum < to; pointNum++ ) {
-                            LasRecord lasDot = pair.reader.getPointAt(pointNum);
-                            if (!doAccept(lasDot)) {
-                                continue;
+                        while( from < to ) {
+                            int count = (int) Math.min(to - from, readBatch.getCapacity());
+                            int read = pair.reader.readPointsAt(from, count, readBatch);
+                            if (read == 0) {
+                                break;
                             }
-                            if (inDem != null) {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
+                            from += read;
+                            for( int i = 0; i < read; i++ ) {
+                                if (!doAccept(readBatch, i)) {
+                                    continue;
+                                }
+                                double x = readBatch.x[i];
+                                double y = readBatch.y[i];
+                                if (!env.contains(x, y)) {
+                                    continue;
+                                }
+                                // check geom instead of only envelope?
+                                if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(new Coordinate(x, y)))) {
+                                    continue;
+                                }
+                                if (inDem != null) {
+                                    double value = CoverageUtilities.getValue(inDem, x, y);
                                     if (HMConstants.isNovalue(value)) {
                                         continue;
                                     }
-                                    double height = lasDot.z - value;
+                                    double height = readBatch.z[i] - value;
                                     if (height > elevThreshold) {
-                                        // lasDot.z = height;
-                                        lasDot.groundElevation = height;
-                                        pointsListForTile.add(lasDot);
+                                        pointsForTile.add(readBatch, i);
+                                        pointsForTile.groundElevation[pointsForTile.size() - 1] = height;
                                     }
-                                }
-                            } else {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    pointsListForTile.add(lasDot);
+                                } else {
+                                    pointsForTile.add(readBatch, i);
                                 }
                             }
-
                         }
                     }
                 }
             }
         }
-        return pointsListForTile;
+        return pointsForTile;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private synchronized List queryFiles( Envelope env ) throws Exception {
+        checkOpen();
+        return mainLasFolderIndex.query(env);
+    }
+
+    private synchronized Pair getPair( String name ) throws Exception {
+        Pair pair = fileName2LasReaderMap.get(name);
+        if (pair == null) {
+            File lasFile = new File(lasFolder, name);
+            File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
+            if (lasIndexFile.exists()) {
+                pair = getIndexPair(lasFile);
+                if (pair != null) {
+                    fileName2LasReaderMap.put(name, pair);
+                    fileName4LasReaderMapSupport.add(name);
+                }
+            }
+        }
+        return pair;
     }
 
     /**
@@ -422,6 +454,10 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
         if (lasIndexFile.exists()) {
             ALasReader reader = ALasReader.getReader(lasFile, crs);
+            if (reader instanceof LasReaderBuffered) {
+                // lock free random access for the range reads
+                ((LasReaderBuffered) reader).setMemoryMapped(true);
+            }
             reader.open();
             reader.getHeader();
             STRtreeJGT lasIndex = OmsLasIndexReader.readIndex(lasIndexFile.getAbsolutePath());
@@ -435,14 +471,14 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         return null;
     }
 
-    private void checkOpen() throws Exception {
+    private synchronized void checkOpen() throws Exception {
         if (mainLasFolderIndex == null) {
             open();
         }
     }
 
     @Override
-    public void close() throws Exception {
+    public synchronized void close() throws Exception {
         for( String key : fileName4LasReaderMapSupport ) {
             Pair pair = fileName2LasReaderMap.get(key);
             if (pair != null)
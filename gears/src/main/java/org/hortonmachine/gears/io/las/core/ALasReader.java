@@ -70,6 +70,49 @@ public abstract class ALasReader extends Las implements AutoCloseable{
      */
     public abstract LasRecord getNextPoint() throws IOException;
 
+    /**
+     * Read the next records into a reusable {@link LasPointBatch}.
+     *
+     * <p>The batch is cleared and filled with up to {@link LasPointBatch#getCapacity()}
+     * points. Readers override this to avoid creating a {@link LasRecord} per point.</p>
+     *
+     * @param batch the batch to fill.
+     * @return the number of points read, <code>0</code> if none are available anymore.
+     * @throws IOException
+     */
+    public int readNextPoints( LasPointBatch batch ) throws IOException {
+        batch.clear();
+        int capacity = batch.getCapacity();
+        while( batch.size() < capacity && hasNextPoint() ) {
+            batch.add(getNextPoint());
+        }
+        return batch.size();
+    }
+
+    /**
+     * Read a range of records by their position into a {@link LasPointBatch}.
+     *
+     * <p>The batch is cleared and grown if necessary. The default implementation
+     * reads through {@link #getPointAt(long)} holding the lock of the reader,
+     * readers that allow concurrent random access override it.</p>
+     *
+     * @param from the position of the first point to read.
+     * @param count the number of points to read.
+     * @param batch the batch to fill.
+     * @return the number of points read.
+     * @throws IOException
+     */
+    public int readPointsAt( long from, int count, LasPointBatch batch ) throws IOException {
+        batch.clear();
+        batch.ensureCapacity(count);
+        synchronized (this) {
+            for( long pointNumber = from; pointNumber < from + count; pointNumber++ ) {
+                batch.add(getPointAt(pointNumber));
+            }
+        }
+        return batch.size();
+    }
+
     /**
      * Rewind the iterator to start from scratch.
      * 
@@ -0,0 +1,223 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core;
+
+import java.util.Arrays;
+
+/**
+ * A batch of las points kept in primitive arrays (one array per attribute).
+ *
+ * <p>This is the allocation free counterpart of {@link LasRecord}: a batch is
+ * filled by {@link ALasReader#readNextPoints(LasPointBatch)} and can be reused
+ * for the whole file. The attributes have the same meaning as the ones of
+ * {@link LasRecord}, the valid points are the first {@link #size()}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasPointBatch {
+    /**
+     * The default number of points of a batch.
+     */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    public double[] x;
+    public double[] y;
+    public double[] z;
+    public short[] intensity;
+    public short[] returnNumber;
+    public short[] numberOfReturns;
+    public byte[] classification;
+    public double[] gpsTime;
+    public short[] red;
+    public short[] green;
+    public short[] blue;
+    /**
+     * The ground elevation (not contained in record and optional).
+     */
+    public double[] groundElevation;
+
+    private int size = 0;
+
+    /**
+     * Create a batch with the {@link #DEFAULT_CAPACITY}.
+     */
+    public LasPointBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a batch.
+     *
+     * @param capacity the number of points read by the readers in one call.
+     */
+    public LasPointBatch( int capacity ) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity needs to be positive.");
+        }
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        intensity = new short[capacity];
+        returnNumber = new short[capacity];
+        numberOfReturns = new short[capacity];
+        classification = new byte[capacity];
+        gpsTime = new double[capacity];
+        red = new short[capacity];
+        green = new short[capacity];
+        blue = new short[capacity];
+        groundElevation = new double[capacity];
+        Arrays.fill(groundElevation, Double.NaN);
+    }
+
+    /**
+     * @return the number of valid points in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of points the batch can hold without growing.
+     */
+    public int getCapacity() {
+        return x.length;
+    }
+
+    /**
+     * Set the number of valid points, used by the readers that fill the arrays directly.
+     *
+     * @param size the new size.
+     */
+    public void setSize( int size ) {
+        if (size < 0 || size > getCapacity()) {
+            throw new IllegalArgumentException("Size out of the batch capacity: " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Empty the batch, keeping the arrays.
+     */
+    public void clear() {
+        Arrays.fill(groundElevation, 0, size, Double.NaN);
+        size = 0;
+    }
+
+    /**
+     * Make sure the batch can hold a given number of points.
+     *
+     * @param minCapacity the needed capacity.
+     */
+    public void ensureCapacity( int minCapacity ) {
+        int capacity = getCapacity();
+        if (minCapacity <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        z = Arrays.copyOf(z, newCapacity);
+        intensity = Arrays.copyOf(intensity, newCapacity);
+        returnNumber = Arrays.copyOf(returnNumber, newCapacity);
+        numberOfReturns = Arrays.copyOf(numberOfReturns, newCapacity);
+        classification = Arrays.copyOf(classification, newCapacity);
+        gpsTime = Arrays.copyOf(gpsTime, newCapacity);
+        red = Arrays.copyOf(red, newCapacity);
+        green = Arrays.copyOf(green, newCapacity);
+        blue = Arrays.copyOf(blue, newCapacity);
+        groundElevation = Arrays.copyOf(groundElevation, newCapacity);
+        Arrays.fill(groundElevation, capacity, newCapacity, Double.NaN);
+    }
+
+    /**
+     * Append a point, growing the batch if necessary.
+     *
+     * @param record the point to add.
+     */
+    public void add( LasRecord record ) {
+        ensureCapacity(size + 1);
+        int i = size++;
+        x[i] = record.x;
+        y[i] = record.y;
+        z[i] = record.z;
+        intensity[i] = record.intensity;
+        returnNumber[i] = record.returnNumber;
+        numberOfReturns[i] = record.numberOfReturns;
+        classification[i] = record.classification;
+        gpsTime[i] = record.gpsTime;
+        red[i] = record.color[0];
+        green[i] = record.color[1];
+        blue[i] = record.color[2];
+        groundElevation[i] = record.groundElevation;
+    }
+
+    /**
+     * Append a point of another batch, growing the batch if necessary.
+     *
+     * @param other the batch to take the point from.
+     * @param index the index of the point in the other batch.
+     */
+    public void add( LasPointBatch other, int index ) {
+        ensureCapacity(size + 1);
+        int i = size++;
+        x[i] = other.x[index];
+        y[i] = other.y[index];
+        z[i] = other.z[index];
+        intensity[i] = other.intensity[index];
+        returnNumber[i] = other.returnNumber[index];
+        numberOfReturns[i] = other.numberOfReturns[index];
+        classification[i] = other.classification[index];
+        gpsTime[i] = other.gpsTime[index];
+        red[i] = other.red[index];
+        green[i] = other.green[index];
+        blue[i] = other.blue[index];
+        groundElevation[i] = other.groundElevation[index];
+    }
+
+    /**
+     * Copy a point of the batch into a record.
+     *
+     * @param index the index of the point.
+     * @param reuse the record to fill or <code>null</code> to create a new one.
+     * @return the filled record.
+     */
+    public LasRecord getRecord( int index, LasRecord reuse ) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " for batch of size " + size);
+        }
+        LasRecord record = reuse != null ? reuse : new LasRecord();
+        record.x = x[index];
+        record.y = y[index];
+        record.z = z[index];
+        record.intensity = intensity[index];
+        record.returnNumber = returnNumber[index];
+        record.numberOfReturns = numberOfReturns[index];
+        record.classification = classification[index];
+        record.gpsTime = gpsTime[index];
+        record.color[0] = red[index];
+        record.color[1] = green[index];
+        record.color[2] = blue[index];
+        record.groundElevation = groundElevation[index];
+        return record;
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core;
+
+import java.util.function.IntConsumer;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A regular grid index over the points of a {@link LasPointBatch}.
+ *
+ * <p>The point indexes are bucketed by cell in a single int array (cells are
+ * contiguous ranges of it), so the index costs two int arrays and no object
+ * per point. The batch must not be modified after the index has been built.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasPointBatchIndex {
+    /**
+     * The average number of points aimed for in a cell.
+     */
+    private static final int POINTS_PER_CELL = 16;
+
+    private final LasPointBatch batch;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private final int[] cellStarts;
+    private final int[] pointIndexes;
+
+    /**
+     * Build the index.
+     *
+     * @param batch the batch to index.
+     */
+    public LasPointBatchIndex( LasPointBatch batch ) {
+        this.batch = batch;
+        int size = batch.size();
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < size; i++ ) {
+            minX = Math.min(minX, batch.x[i]);
+            minY = Math.min(minY, batch.y[i]);
+            maxX = Math.max(maxX, batch.x[i]);
+            maxY = Math.max(maxY, batch.y[i]);
+        }
+        if (size == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        int cellsCount = Math.max(1, size / POINTS_PER_CELL);
+        double side = Math.sqrt(width * height / cellsCount);
+        if (!(side > 0)) {
+            // points on a line or a single position
+            side = Math.max(width, height) / cellsCount;
+        }
+        if (!(side > 0)) {
+            side = 1.0;
+        }
+        cellSize = side;
+        cols = (int) Math.min(Integer.MAX_VALUE / 2, Math.floor(width / cellSize) + 1);
+        rows = (int) Math.min(Integer.MAX_VALUE / 2 / cols, Math.floor(height / cellSize) + 1);
+
+        // counting sort of the points by cell
+        cellStarts = new int[cols * rows + 1];
+        int[] cells = new int[size];
+        for( int i = 0; i < size; i++ ) {
+            int cell = getCell(batch.x[i], batch.y[i]);
+            cells[i] = cell;
+            cellStarts[cell + 1]++;
+        }
+        for( int i = 1; i < cellStarts.length; i++ ) {
+            cellStarts[i] += cellStarts[i - 1];
+        }
+        pointIndexes = new int[size];
+        int[] fill = new int[cols * rows];
+        for( int i = 0; i < size; i++ ) {
+            int cell = cells[i];
+            pointIndexes[cellStarts[cell] + fill[cell]++] = i;
+        }
+    }
+
+    private int getCell( double x, double y ) {
+        int col = Math.min(cols - 1, (int) ((x - minX) / cellSize));
+        int row = Math.min(rows - 1, (int) ((y - minY) / cellSize));
+        return row * cols + col;
+    }
+
+    /**
+     * @return the indexed batch.
+     */
+    public LasPointBatch getBatch() {
+        return batch;
+    }
+
+    /**
+     * Visit the points that might be contained in an envelope.
+     *
+     * <p>All the points of the cells touched by the envelope are visited, so
+     * the visitor still needs to check the exact position.</p>
+     *
+     * @param envelope the envelope to query.
+     * @param visitor the consumer of the indexes of the points in the batch.
+     */
+    public void query( Envelope envelope, IntConsumer visitor ) {
+        if (envelope.isNull() || pointIndexes.length == 0 || envelope.getMaxX() < minX || envelope.getMinX() > maxX
+                || envelope.getMaxY() < minY || envelope.getMinY() > maxY) {
+            return;
+        }
+        int fromCol = (int) ((Math.max(envelope.getMinX(), minX) - minX) / cellSize);
+        int toCol = Math.min(cols - 1, (int) ((Math.min(envelope.getMaxX(), maxX) - minX) / cellSize));
+        int fromRow = (int) ((Math.max(envelope.getMinY(), minY) - minY) / cellSize);
+        int toRow = Math.min(rows - 1, (int) ((Math.min(envelope.getMaxY(), maxY) - minY) / cellSize));
+        for( int r = fromRow; r <= toRow; r++ ) {
+            int from = cellStarts[r * cols + fromCol];
+            int to = cellStarts[r * cols + toCol + 1];
+            for( int i = from; i < to; i++ ) {
+                visitor.accept(pointIndexes[i]);
+            }
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import java.util.Iterator;
 
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasPointBatch;
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -96,11 +97,37 @@ public class LaszipReader extends ALasReader {
         lr.numberOfReturns = next.getNumberOfReturns();
         lr.classification = next.getClassification();
         lr.gpsTime = next.getGPSTime();
-        lr.color = new short[]{(short) next.getRed(), (short) next.getGreen(), (short) next.getBlue()};
+        lr.color[0] = (short) next.getRed();
+        lr.color[1] = (short) next.getGreen();
+        lr.color[2] = (short) next.getBlue();
 
         return lr;
     }
 
+    @Override
+    public int readNextPoints( LasPointBatch batch ) throws IOException {
+        batch.clear();
+        int capacity = batch.getCapacity();
+        int n = 0;
+        while( n < capacity && hasNextPoint() ) {
+            LASPoint next = pointsIterator.next();
+            batch.x[n] = next.getX() * xyzScale[0] + xyzOffset[0];
+            batch.y[n] = next.getY() * xyzScale[1] + xyzOffset[1];
+            batch.z[n] = next.getZ() * xyzScale[2] + xyzOffset[2];
+            batch.intensity[n] = (short) next.getIntensity();
+            batch.returnNumber[n] = next.getReturnNumber();
+            batch.numberOfReturns[n] = next.getNumberOfReturns();
+            batch.classification[n] = next.getClassification();
+            batch.gpsTime[n] = next.getGPSTime();
+            batch.red[n] = (short) next.getRed();
+            batch.green[n] = (short) next.getGreen();
+            batch.blue[n] = (short) next.getBlue();
+            n++;
+        }
+        batch.setSize(n);
+        return n;
+    }
+
     public LasRecord getPointAtAddress( long address ) throws IOException {
         throw new RuntimeException("Not supported in laszip reader");
     }
@@ -22,10 +22,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasPointBatch;
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -33,9 +36,21 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 /**
  * Las record reader for las spec 1.0. 
  * 
+ * <p>If {@link #setMemoryMapped(boolean) memory mapped}, the point data records
+ * are mapped read-only in segments and {@link #getPointAt(long)} and
+ * {@link #readPointsAt(long, int, LasPointBatch)} don't touch any shared state,
+ * so that many threads can read at the same time.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class LasReaderBuffered extends ALasReader {
+    /**
+     * The max size of a mapped segment of point data.
+     * <p/>
+     * Set this to change the default.
+     */
+    public static long mappedSegmentBytes = Integer.MAX_VALUE;
+
     private final byte[] doubleDataArray = new byte[8];
     private final ByteBuffer doubleBb = ByteBuffer.wrap(doubleDataArray);
     private final byte[] longDataArray = new byte[4];
@@ -76,6 +91,10 @@ public class LasReaderBuffered extends ALasReader {
     private int bufferSizeInPointsNum;
     private int readBufferSize;
 
+    private boolean doMemoryMap = false;
+    private MappedByteBuffer[] mappedSegments;
+    private long segmentPoints;
+
     public LasReaderBuffered( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
         this(lasFile, 100000, crs);
     }
@@ -143,11 +162,47 @@ public class LasReaderBuffered extends ALasReader {
         readBufferSize = 0;
 
         parseHeader();
+        if (doMemoryMap) {
+            mapPointData();
+        }
         isOpen = true;
     }
 
+    /**
+     * Enable the read-only memory mapping of the point data.
+     * 
+     * <p>Takes effect at the next {@link #open()}.</p>
+     * 
+     * @param doMemoryMap if <code>true</code>, the point data are memory mapped.
+     */
+    public void setMemoryMapped( boolean doMemoryMap ) {
+        this.doMemoryMap = doMemoryMap;
+    }
+
+    public boolean isMemoryMapped() {
+        return mappedSegments != null;
+    }
+
+    private void mapPointData() throws IOException {
+        long available = Math.max(0, fc.size() - offset);
+        long dataRecords = Math.min(records, available / recordLength);
+        // segments hold whole records only
+        segmentPoints = Math.max(1, mappedSegmentBytes / recordLength);
+        int segmentsNum = (int) ((dataRecords + segmentPoints - 1) / segmentPoints);
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentsNum];
+        for( int i = 0; i < segmentsNum; i++ ) {
+            long firstPoint = i * segmentPoints;
+            long pointsNum = Math.min(segmentPoints, dataRecords - firstPoint);
+            segments[i] = fc.map(MapMode.READ_ONLY, offset + firstPoint * recordLength, pointsNum * recordLength);
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mappedSegments = segments;
+    }
+
     @Override
     public void close() throws Exception {
+        // the mappings are released once unreachable
+        mappedSegments = null;
         if (fc != null && fc.isOpen())
             fc.close();
         if (fis != null)
@@ -347,6 +402,84 @@ public class LasReaderBuffered extends ALasReader {
         return dot;
     }
 
+    @Override
+    public int readNextPoints( LasPointBatch batch ) throws IOException {
+        batch.clear();
+        final int capacity = batch.getCapacity();
+        final ByteBuffer bb = bufferedReadingBb;
+        int n = 0;
+        while( n < capacity && readRecords < records ) {
+            if (!bb.hasRemaining()) {
+                readDataBuffer();
+            }
+            final int p = bb.position();
+            decode(bb, p, header.pointDataFormat, batch, n);
+            bb.position(p + recordLength);
+            readRecords++;
+            n++;
+        }
+        batch.setSize(n);
+        return n;
+    }
+
+    /**
+     * Decode a record with absolute reads, the layout is the same as in {@link #getNextPoint()}.
+     */
+    private void decode( ByteBuffer bb, int p, byte format, LasPointBatch batch, int n ) {
+        batch.x[n] = bb.getInt(p) * xScale + xOffset;
+        batch.y[n] = bb.getInt(p + 4) * yScale + yOffset;
+        batch.z[n] = bb.getInt(p + 8) * zScale + zOffset;
+        batch.intensity[n] = bb.getShort(p + 12);
+        final byte b = bb.get(p + 14);
+        batch.returnNumber[n] = (short) (b & 0x07);
+        batch.numberOfReturns[n] = (short) ((b >> 3) & 0x07);
+        batch.classification[n] = bb.get(p + 15);
+        // 4 bytes of scan angle rank, file marker and point source id skipped
+        double gps = 0;
+        short red = 0;
+        short green = 0;
+        short blue = 0;
+        if (format == 1) {
+            gps = bb.getDouble(p + 20);
+        } else if (format == 2) {
+            red = bb.getShort(p + 20);
+            green = bb.getShort(p + 22);
+            blue = bb.getShort(p + 24);
+        } else if (format == 3) {
+            gps = bb.getDouble(p + 20);
+            red = bb.getShort(p + 28);
+            green = bb.getShort(p + 30);
+            blue = bb.getShort(p + 32);
+        }
+        batch.gpsTime[n] = gps;
+        batch.red[n] = red;
+        batch.green[n] = green;
+        batch.blue[n] = blue;
+    }
+
+    @Override
+    public int readPointsAt( long from, int count, LasPointBatch batch ) throws IOException {
+        MappedByteBuffer[] segments = mappedSegments;
+        if (segments == null) {
+            return super.readPointsAt(from, count, batch);
+        }
+        batch.clear();
+        long to = Math.min(from + count, segments.length * segmentPoints);
+        if (to > records) {
+            to = records;
+        }
+        int n = (int) Math.max(0, to - from);
+        batch.ensureCapacity(n);
+        final byte format = header.pointDataFormat;
+        for( int i = 0; i < n; i++ ) {
+            long pointNumber = from + i;
+            MappedByteBuffer segment = segments[(int) (pointNumber / segmentPoints)];
+            decode(segment, (int) (pointNumber % segmentPoints) * recordLength, format, batch, i);
+        }
+        batch.setSize(n);
+        return n;
+    }
+
     public LasRecord getPointAtAddress( long address ) throws IOException {
         fc.position(address);
         return getPoint();
@@ -354,6 +487,11 @@ public class LasReaderBuffered extends ALasReader {
 
     @Override
     public LasRecord getPointAt( long pointNumber ) throws IOException {
+        MappedByteBuffer[] segments = mappedSegments;
+        if (segments != null) {
+            MappedByteBuffer segment = segments[(int) (pointNumber / segmentPoints)];
+            return getPoint(segment, (int) (pointNumber % segmentPoints) * recordLength);
+        }
         fc.position(offset + pointNumber * recordLength);
         return getPoint();
     }
@@ -410,6 +548,31 @@ public class LasReaderBuffered extends ALasReader {
         return dot;
     }
 
+    private LasRecord getPoint( ByteBuffer bb, int p ) {
+        final LasRecord dot = new LasRecord();
+        dot.x = bb.getInt(p) * xScale + xOffset;
+        dot.y = bb.getInt(p + 4) * yScale + yOffset;
+        dot.z = bb.getInt(p + 8) * zScale + zOffset;
+        dot.intensity = bb.getShort(p + 12);
+        final byte b = bb.get(p + 14);
+        dot.returnNumber = getReturnNumber(b);
+        dot.numberOfReturns = getNumberOfReturns(b);
+        dot.classification = bb.get(p + 15);
+        if (header.pointDataFormat == 1) {
+            dot.gpsTime = bb.getDouble(p + 20);
+        } else if (header.pointDataFormat == 2) {
+            dot.color[0] = bb.getShort(p + 20);
+            dot.color[1] = bb.getShort(p + 22);
+            dot.color[2] = bb.getShort(p + 24);
+        } else if (header.pointDataFormat == 3) {
+            dot.gpsTime = bb.getDouble(p + 20);
+            dot.color[0] = bb.getShort(p + 28);
+            dot.color[1] = bb.getShort(p + 30);
+            dot.color[2] = bb.getShort(p + 32);
+        }
+        return dot;
+    }
+
     @Override
     public double[] readNextLasXYZAddress() throws IOException {
         long position = fc.position();
@@ -19,13 +19,15 @@ package org.hortonmachine.gears.io.las.databases;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.IGeometryParser;
-import org.hortonmachine.dbs.compat.IHMPreparedStatement;
 import org.hortonmachine.dbs.compat.IHMResultSet;
 import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.compat.objects.BulkInsertResult;
 import org.hortonmachine.dbs.utils.SqlName;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -95,119 +97,81 @@ public class LasCellsTable {
         }
     }
 
+    private static final String[] INSERT_COLUMNS = {//
+            COLUMN_GEOM, //
+            COLUMN_SOURCE_ID, //
+            COLUMN_POINTS_COUNT, //
+            COLUMN_AVG_ELEV, //
+            COLUMN_MIN_ELEV, //
+            COLUMN_MAX_ELEV, //
+            COLUMN_POSITION_BLOB, //
+            COLUMN_AVG_INTENSITY, //
+            COLUMN_MIN_INTENSITY, //
+            COLUMN_MAX_INTENSITY, //
+            COLUMN_INTENS_CLASS_BLOB, //
+            COLUMN_RETURNS_BLOB, //
+            COLUMN_MIN_GPSTIME, //
+            COLUMN_MAX_GPSTIME, //
+            COLUMN_GPSTIME_BLOB, //
+            COLUMN_COLORS_BLOB//
+    };
+
     /**
      * Insert cell values in the table
      * @throws Exception 
      * 
      */
     public static void insertLasCell( ASpatialDb db, int srid, LasCell cell ) throws Exception {
-        String sql = "INSERT INTO " + TABLENAME//
-                + " (" + //
-                COLUMN_GEOM + "," + //
-                COLUMN_SOURCE_ID + "," + //
-                COLUMN_POINTS_COUNT + "," + //
-                COLUMN_AVG_ELEV + "," + //
-                COLUMN_MIN_ELEV + "," + //
-                COLUMN_MAX_ELEV + "," + //
-                COLUMN_POSITION_BLOB + "," + //
-                COLUMN_AVG_INTENSITY + "," + //
-                COLUMN_MIN_INTENSITY + "," + //
-                COLUMN_MAX_INTENSITY + "," + //
-                COLUMN_INTENS_CLASS_BLOB + "," + //
-                COLUMN_RETURNS_BLOB + "," + //
-                COLUMN_MIN_GPSTIME + "," + //
-                COLUMN_MAX_GPSTIME + "," + //
-                COLUMN_GPSTIME_BLOB + "," + //
-                COLUMN_COLORS_BLOB + //
-                ") VALUES (ST_GeomFromText(?, " + srid + "),?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-
-        db.execOnConnection(connection -> {
-            try (IHMPreparedStatement pStmt = connection.prepareStatement(sql)) {
-                int i = 1;
-                pStmt.setString(i++, cell.polygon.toText());
-                pStmt.setLong(i++, cell.sourceId);
-                pStmt.setInt(i++, cell.pointsCount);
-                pStmt.setDouble(i++, cell.avgElev);
-                pStmt.setDouble(i++, cell.minElev);
-                pStmt.setDouble(i++, cell.maxElev);
-                pStmt.setBytes(i++, cell.xyzs);
-
-                pStmt.setShort(i++, cell.avgIntensity);
-                pStmt.setShort(i++, cell.minIntensity);
-                pStmt.setShort(i++, cell.maxIntensity);
-                pStmt.setBytes(i++, cell.intensitiesClassifications);
-
-                pStmt.setBytes(i++, cell.returns);
-
-                pStmt.setDouble(i++, cell.minGpsTime);
-                pStmt.setDouble(i++, cell.maxGpsTime);
-                pStmt.setBytes(i++, cell.gpsTimes);
-
-                pStmt.setBytes(i++, cell.colors);
-
-                pStmt.executeUpdate();
-            }
-            return null;
-        });
-
+        insertLasCells(db, srid, Collections.singletonList(cell));
     }
 
-    public static void insertLasCells( ASpatialDb db, int srid, List<LasCell> cells ) throws Exception {
-        String sql = "INSERT INTO " + TABLENAME//
-                + " (" + //
-                COLUMN_GEOM + "," + //
-                COLUMN_SOURCE_ID + "," + //
-                COLUMN_POINTS_COUNT + "," + //
-                COLUMN_AVG_ELEV + "," + //
-                COLUMN_MIN_ELEV + "," + //
-                COLUMN_MAX_ELEV + "," + //
-                COLUMN_POSITION_BLOB + "," + //
-                COLUMN_AVG_INTENSITY + "," + //
-                COLUMN_MIN_INTENSITY + "," + //
-                COLUMN_MAX_INTENSITY + "," + //
-                COLUMN_INTENS_CLASS_BLOB + "," + //
-                COLUMN_RETURNS_BLOB + "," + //
-                COLUMN_MIN_GPSTIME + "," + //
-                COLUMN_MAX_GPSTIME + "," + //
-                COLUMN_GPSTIME_BLOB + "," + //
-                COLUMN_COLORS_BLOB + //
-                ") VALUES (ST_GeomFromText(?, " + srid + "),?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-
-        db.execOnConnection(conn -> {
-            boolean autoCommit = conn.getAutoCommit();
-            conn.setAutoCommit(false);
-            try (IHMPreparedStatement pStmt = conn.prepareStatement(sql)) {
-                for( LasCell cell : cells ) {
-                    int i = 1;
-                    pStmt.setString(i++, cell.polygon.toText());
-                    pStmt.setLong(i++, cell.sourceId);
-                    pStmt.setInt(i++, cell.pointsCount);
-                    pStmt.setDouble(i++, cell.avgElev);
-                    pStmt.setDouble(i++, cell.minElev);
-                    pStmt.setDouble(i++, cell.maxElev);
-                    pStmt.setBytes(i++, cell.xyzs);
-
-                    pStmt.setShort(i++, cell.avgIntensity);
-                    pStmt.setShort(i++, cell.minIntensity);
-                    pStmt.setShort(i++, cell.maxIntensity);
-                    pStmt.setBytes(i++, cell.intensitiesClassifications);
-
-                    pStmt.setBytes(i++, cell.returns);
-
-                    pStmt.setDouble(i++, cell.minGpsTime);
-                    pStmt.setDouble(i++, cell.maxGpsTime);
-                    pStmt.setBytes(i++, cell.gpsTimes);
-
-                    pStmt.setBytes(i++, cell.colors);
-                    pStmt.addBatch();
-                }
-                pStmt.executeBatch();
-                conn.commit();
-                conn.setAutoCommit(autoCommit);
+    /**
+     * Insert cells in the table through a bulk insert.
+     * 
+     * @param db the db to use.
+     * @param srid the srid of the cell polygons.
+     * @param cells the cells to insert.
+     * @return the insert result.
+     * @throws Exception
+     */
+    public static BulkInsertResult insertLasCells( ASpatialDb db, int srid, List<LasCell> cells ) throws Exception {
+        Iterator<LasCell> cellsIterator = cells.iterator();
+        Iterator<Object[]> rows = new Iterator<Object[]>(){
+            @Override
+            public boolean hasNext() {
+                return cellsIterator.hasNext();
             }
-            return null;
-        });
 
+            @Override
+            public Object[] next() {
+                LasCell cell = cellsIterator.next();
+                Geometry polygon = cell.polygon;
+                if (polygon.getSRID() != srid) {
+                    // don't touch the cell's geometry
+                    polygon = polygon.copy();
+                    polygon.setSRID(srid);
+                }
+                return new Object[]{//
+                        polygon, //
+                        cell.sourceId, //
+                        cell.pointsCount, //
+                        cell.avgElev, //
+                        cell.minElev, //
+                        cell.maxElev, //
+                        cell.xyzs, //
+                        cell.avgIntensity, //
+                        cell.minIntensity, //
+                        cell.maxIntensity, //
+                        cell.intensitiesClassifications, //
+                        cell.returns, //
+                        cell.minGpsTime, //
+                        cell.maxGpsTime, //
+                        cell.gpsTimes, //
+                        cell.colors//
+                };
+            }
+        };
+        return db.insertBulk(TABLENAME, INSERT_COLUMNS, rows);
     }
 
     /**
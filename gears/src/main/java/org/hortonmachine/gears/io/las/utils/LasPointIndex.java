@@ -0,0 +1,236 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import org.hortonmachine.gears.io.las.core.LasRecord;
+
+/**
+ * A grid bucketed index of 2D points for radius queries.
+ *
+ * <p>The points are sorted by the cell of a regular grid they fall in and kept
+ * in primitive arrays, so that a query only scans the cells that touch the
+ * search circle. The cell size is best set to the most used search radius.</p>
+ *
+ * <p>Points are identified by their position in the arrays (or list) the index
+ * has been created from. Once created, the index can be queried by many threads
+ * at the same time.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasPointIndex {
+
+    /**
+     * The max number of grid cells per point, the cell size is enlarged for sparse data.
+     */
+    private static final int MAX_CELLS_PER_POINT = 4;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    /**
+     * The start of every cell in {@link #sortedIndexes}, the last entry is the points count.
+     */
+    private final int[] cellStarts;
+    /**
+     * The indexes of the points, sorted by cell.
+     */
+    private final int[] sortedIndexes;
+    private final double[] sortedXs;
+    private final double[] sortedYs;
+
+    /**
+     * Create an index.
+     *
+     * @param xs the x coordinates of the points.
+     * @param ys the y coordinates of the points.
+     * @param cellSize the size of the grid cells.
+     */
+    public LasPointIndex( double[] xs, double[] ys, double cellSize ) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("The coordinate arrays need to have the same size.");
+        }
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size needs to be positive.");
+        }
+        this.xs = xs;
+        this.ys = ys;
+        int count = xs.length;
+
+        double tmpMinX = Double.POSITIVE_INFINITY;
+        double tmpMinY = Double.POSITIVE_INFINITY;
+        double tmpMaxX = Double.NEGATIVE_INFINITY;
+        double tmpMaxY = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < count; i++ ) {
+            tmpMinX = Math.min(tmpMinX, xs[i]);
+            tmpMinY = Math.min(tmpMinY, ys[i]);
+            tmpMaxX = Math.max(tmpMaxX, xs[i]);
+            tmpMaxY = Math.max(tmpMaxY, ys[i]);
+        }
+        if (count == 0) {
+            tmpMinX = tmpMinY = tmpMaxX = tmpMaxY = 0;
+        }
+        minX = tmpMinX;
+        minY = tmpMinY;
+
+        double width = tmpMaxX - tmpMinX;
+        double height = tmpMaxY - tmpMinY;
+        long maxCells = Math.max(1024L, (long) MAX_CELLS_PER_POINT * count);
+        double size = cellSize;
+        while( ((long) (width / size) + 1) * ((long) (height / size) + 1) > maxCells ) {
+            size *= 2;
+        }
+        this.cellSize = size;
+        cols = (int) (width / size) + 1;
+        rows = (int) (height / size) + 1;
+
+        // counting sort of the points by cell
+        int[] cells = new int[count];
+        cellStarts = new int[cols * rows + 1];
+        for( int i = 0; i < count; i++ ) {
+            int cell = cell(xs[i], ys[i]);
+            cells[i] = cell;
+            cellStarts[cell + 1]++;
+        }
+        for( int c = 0; c < cols * rows; c++ ) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        int[] fill = Arrays.copyOf(cellStarts, cols * rows);
+        sortedIndexes = new int[count];
+        sortedXs = new double[count];
+        sortedYs = new double[count];
+        for( int i = 0; i < count; i++ ) {
+            int position = fill[cells[i]]++;
+            sortedIndexes[position] = i;
+            sortedXs[position] = xs[i];
+            sortedYs[position] = ys[i];
+        }
+    }
+
+    /**
+     * Create an index of las records.
+     *
+     * @param records the records to index.
+     * @param cellSize the size of the grid cells.
+     * @return the index, the point indexes are the positions in the list.
+     */
+    public static LasPointIndex fromRecords( List<LasRecord> records, double cellSize ) {
+        int size = records.size();
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        int i = 0;
+        for( LasRecord record : records ) {
+            xs[i] = record.x;
+            ys[i] = record.y;
+            i++;
+        }
+        return new LasPointIndex(xs, ys, cellSize);
+    }
+
+    private int cell( double x, double y ) {
+        int col = (int) ((x - minX) / cellSize);
+        int row = (int) ((y - minY) / cellSize);
+        return row * cols + col;
+    }
+
+    /**
+     * @return the number of indexed points.
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    public double getX( int index ) {
+        return xs[index];
+    }
+
+    public double getY( int index ) {
+        return ys[index];
+    }
+
+    /**
+     * Visit the points within a distance from a position (bounds included).
+     *
+     * <p>The visit order is not defined.</p>
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param radius the search radius.
+     * @param visitor the visitor of the point indexes. If it returns <code>false</code>,
+     *          the visit stops.
+     * @return <code>true</code> if all the points have been visited, <code>false</code> if the visitor
+     *          stopped the visit.
+     */
+    public boolean visitInRadius( double x, double y, double radius, IntPredicate visitor ) {
+        if (radius < 0 || xs.length == 0) {
+            return true;
+        }
+        // ranges entirely outside of the grid end up empty
+        int fromCol = (int) Math.max(0, Math.min(cols, Math.floor((x - radius - minX) / cellSize)));
+        int toCol = (int) Math.max(-1, Math.min(cols - 1, Math.floor((x + radius - minX) / cellSize)));
+        int fromRow = (int) Math.max(0, Math.min(rows, Math.floor((y - radius - minY) / cellSize)));
+        int toRow = (int) Math.max(-1, Math.min(rows - 1, Math.floor((y + radius - minY) / cellSize)));
+        if (fromCol > toCol || fromRow > toRow) {
+            return true;
+        }
+        for( int row = fromRow; row <= toRow; row++ ) {
+            // the cells of a row are contiguous
+            int from = cellStarts[row * cols + fromCol];
+            int to = cellStarts[row * cols + toCol + 1];
+            for( int p = from; p < to; p++ ) {
+                double dx = sortedXs[p] - x;
+                double dy = sortedYs[p] - y;
+                if (Math.sqrt(dx * dx + dy * dy) <= radius) {
+                    if (!visitor.test(sortedIndexes[p])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the points within a distance from a position (bounds included).
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param radius the search radius.
+     * @return the indexes of the points, in no defined order.
+     */
+    public int[] queryRadius( double x, double y, double radius ) {
+        int[][] holder = {new int[16]};
+        int[] size = {0};
+        visitInRadius(x, y, radius, index -> {
+            if (size[0] == holder[0].length) {
+                holder[0] = Arrays.copyOf(holder[0], size[0] * 2);
+            }
+            holder[0][size[0]++] = index;
+            return true;
+        });
+        return Arrays.copyOf(holder[0], size[0]);
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.hortonmachine.gears.io.stac;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+
+import it.geosolutions.imageio.core.BasicAuthURI;
+import it.geosolutions.imageioimpl.plugins.cog.HttpRangeReader;
+
+/**
+ * An http range reader for cog assets that keeps the read ranges in the
+ * {@link HMStacRangeCache#getDefault() default range cache}.
+ *
+ * <p>If no default cache is set, it behaves as the plain http range reader.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ *
+ */
+public class CachingCogRangeReader extends HttpRangeReader {
+
+    private final String url;
+    private Map<String, String> headers = Collections.emptyMap();
+
+    public CachingCogRangeReader( String url, int headerLength ) {
+        super(url, headerLength);
+        this.url = url;
+    }
+
+    public CachingCogRangeReader( URL url, int headerLength ) {
+        super(url, headerLength);
+        this.url = url.toString();
+    }
+
+    public CachingCogRangeReader( URI uri, int headerLength ) {
+        super(uri, headerLength);
+        this.url = uri.toString();
+    }
+
+    @Override
+    public void setAuth( BasicAuthURI uri ) {
+        super.setAuth(uri);
+        if (uri.getUser() != null && uri.getPassword() != null) {
+            // the same basic credentials the range requests are sent with
+            String credentials = uri.getUser() + ":" + uri.getPassword();
+            headers = Collections.singletonMap("Authorization",
+                    "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+    }
+
+    @Override
+    public Map<Long, byte[]> read( long[]... ranges ) {
+        HMStacRangeCache cache = HMStacRangeCache.getDefault();
+        if (cache == null) {
+            return super.read(ranges);
+        }
+        try {
+            return cache.read(url, headers, ranges, missingRanges -> super.read(missingRanges));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -13,11 +13,9 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import it.geosolutions.imageio.core.BasicAuthURI;
-import it.geosolutions.imageio.plugins.cog.CogImageReadParam;
 import it.geosolutions.imageioimpl.plugins.cog.CogImageInputStreamSpi;
 import it.geosolutions.imageioimpl.plugins.cog.CogImageReaderSpi;
 import it.geosolutions.imageioimpl.plugins.cog.CogSourceSPIProvider;
-import it.geosolutions.imageioimpl.plugins.cog.HttpRangeReader;
 
 /**
  * An asset from a stac item.
@@ -93,9 +91,9 @@ public class HMStacAsset {
             cogUri.setUser(user);
             cogUri.setPassword(password);
         }
-        HttpRangeReader rangeReader = new HttpRangeReader(cogUri.getUri(), CogImageReadParam.DEFAULT_HEADER_LENGTH);
+        // the ranges go through the default range cache, if set
         CogSourceSPIProvider inputProvider = new CogSourceSPIProvider(cogUri, new CogImageReaderSpi(),
-                new CogImageInputStreamSpi(), rangeReader.getClass().getName());
+                new CogImageInputStreamSpi(), CachingCogRangeReader.class.getName());
         GeoTiffReader reader = new GeoTiffReader(inputProvider);
         CoordinateReferenceSystem crs = reader.getCoordinateReferenceSystem();
 
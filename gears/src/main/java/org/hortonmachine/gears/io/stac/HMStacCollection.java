@@ -1,12 +1,20 @@
 package org.hortonmachine.gears.io.stac;
 
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import javax.media.jai.Interpolation;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
@@ -19,12 +27,14 @@ import org.geotools.stac.client.CollectionExtent;
 import org.geotools.stac.client.CollectionExtent.TemporalExtents;
 import org.geotools.stac.client.STACClient;
 import org.geotools.stac.client.SearchQuery;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMRaster;
 import org.hortonmachine.gears.libs.modules.HMRaster.HMRasterWritableBuilder;
 import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.hortonmachine.gears.utils.time.UtcTimeUtilities;
 import org.locationtech.jts.geom.Envelope;
@@ -42,6 +52,11 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
  *
  */
 public class HMStacCollection {
+    /**
+     * The number of assets read at the same time when merging bands. Set this to change the default.
+     */
+    public static int DEFAULT_PARALLEL_READS = 4;
+
     private STACClient stacClient;
     private Collection collection;
     private SearchQuery search;
@@ -157,6 +172,22 @@ public class HMStacCollection {
      */
     public static HMRaster readRasterBandOnRegion( RegionMap latLongRegionMap, String bandName, List<HMStacItem> items,
             IHMProgressMonitor pm ) throws Exception {
+        return readRasterBandOnRegion(latLongRegionMap, bandName, items, Interpolation.INTERP_NEAREST, pm);
+    }
+
+    /**
+     * Read all the raster of a certain band from the items list and merge them to a single raster sized on the given region and resolution.
+     * 
+     * @param latLongRegionMap the region to use for the final raster.
+     * @param bandName the name o the band to extract.
+     * @param items the list of items containing the various assets to read from.
+     * @param interpolation the interpolation used to map the items on the final raster, as for 
+     *          {@link HMRaster#mapRaster(IHMProgressMonitor, HMRaster, boolean, int)}.
+     * @return the final raster.
+     * @throws Exception
+     */
+    public static HMRaster readRasterBandOnRegion( RegionMap latLongRegionMap, String bandName, List<HMStacItem> items,
+            int interpolation, IHMProgressMonitor pm ) throws Exception {
         Integer srid = items.get(0).getEpsg();
         CoordinateReferenceSystem outputCrs = CrsUtilities.getCrsFromSrid(srid);
         ReferencedEnvelope roiEnvelope = new ReferencedEnvelope(latLongRegionMap.toEnvelope(), DefaultGeographicCRS.WGS84)
@@ -168,9 +199,11 @@ public class HMStacCollection {
 
         HMRaster outRaster = null;
 
-        String fileName = null;
-        pm.beginTask("Reading " + bandName + "...", items.size());
-        for( HMStacItem item : items ) {
+        int count = items.size();
+        HMStacAsset[] assets = new HMStacAsset[count];
+        RegionMap[] readRegions = new RegionMap[count];
+        for( int i = 0; i < count; i++ ) {
+            HMStacItem item = items.get(i);
             int currentSrid = item.getEpsg();
             if (srid != currentSrid) {
                 throw new IOException("Epsgs are different");
@@ -182,25 +215,89 @@ public class HMStacCollection {
             CoordinateReferenceSystem dataCrs = CrsUtilities.getCrsFromSrid(currentSrid);
             ReferencedEnvelope roiEnv = new ReferencedEnvelope(readEnvelope, DefaultGeographicCRS.WGS84).transform(dataCrs, true);
 
-            RegionMap readRegion = RegionMap.fromBoundsAndGrid(roiEnv.getMinX(), roiEnv.getMaxX(), roiEnv.getMinY(),
-                    roiEnv.getMaxY(), cols, rows);
+            readRegions[i] = RegionMap.fromBoundsAndGrid(roiEnv.getMinX(), roiEnv.getMaxX(), roiEnv.getMinY(), roiEnv.getMaxY(),
+                    cols, rows);
 
             HMStacAsset asset = item.getAssets().stream().filter(as -> as.getTitle().equals(bandName)).findFirst().get();
-            int lastSlash = asset.getAssetUrl().lastIndexOf('/');
-            fileName = asset.getAssetUrl().substring(lastSlash + 1);
+            assets[i] = asset;
             if (outRaster == null) {
+                int lastSlash = asset.getAssetUrl().lastIndexOf('/');
+                String fileName = asset.getAssetUrl().substring(lastSlash + 1);
                 outRaster = new HMRasterWritableBuilder().setName(fileName).setRegion(latLongRegionMap).setCrs(outputCrs)
                         .setNoValue(asset.getNoValue()).build();
             }
-            GridCoverage2D readRaster = asset.readRaster(readRegion);
-            outRaster.mapRaster(null, HMRaster.fromGridCoverage(readRaster), true);
-            pm.worked(1);
+        }
+
+        // the assets are downloaded in parallel, while the read ones are merged in item order
+        int parallelReads = Math.max(1, Math.min(DEFAULT_PARALLEL_READS, count));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelReads);
+        List<Future<HMRaster>> reads = new ArrayList<>();
+        long start = System.nanoTime();
+        pm.beginTask("Reading " + bandName + "...", count);
+        try {
+            for( int i = 0; i < parallelReads; i++ ) {
+                reads.add(submitRead(executor, assets[i], readRegions[i]));
+            }
+            for( int i = 0; i < count; i++ ) {
+                HMRaster readRaster = getRead(reads.get(i));
+                reads.set(i, null);
+                if (i + parallelReads < count) {
+                    reads.add(submitRead(executor, assets[i + parallelReads], readRegions[i + parallelReads]));
+                }
+                outRaster.mapRaster(null, readRaster, true, interpolation);
+                pm.worked(1);
+            }
+        } finally {
+            for( Future<HMRaster> read : reads ) {
+                if (read != null) {
+                    read.cancel(true);
+                }
+            }
+            executor.shutdownNow();
         }
         pm.done();
 
+        double seconds = (System.nanoTime() - start) / 1E9;
+        String report = String.format("Read %d assets in %.1f s (%.2f assets/s)", count, seconds, count / seconds);
+        HMStacRangeCache cache = HMStacRangeCache.getDefault();
+        if (cache != null) {
+            report += "; " + cache.getMetricsReport();
+        }
+        pm.message(report);
+
         return outRaster;
     }
 
+    /**
+     * Read an asset and load its data, so that the download happens in the reading thread.
+     */
+    private static Future<HMRaster> submitRead( ExecutorService executor, HMStacAsset asset, RegionMap readRegion ) {
+        return executor.submit(() -> {
+            GridCoverage2D coverage = asset.readRaster(readRegion);
+            Raster data = coverage.getRenderedImage().getData();
+            WritableRaster loaded = data.createCompatibleWritableRaster(data.getWidth(), data.getHeight());
+            loaded.setRect(-data.getMinX(), -data.getMinY(), data);
+            GridCoverage2D loadedCoverage = CoverageUtilities.buildCoverageWithNovalue(coverage.getName().toString(), loaded,
+                    CoverageUtilities.getRegionParamsFromGridCoverage(coverage), coverage.getCoordinateReferenceSystem(),
+                    HMConstants.getNovalue(coverage));
+            return HMRaster.fromGridCoverage(loadedCoverage);
+        });
+    }
+
+    private static HMRaster getRead( Future<HMRaster> read ) throws Exception {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
     public static Geometry getCoveredArea( List<HMStacItem> items ) {
         List<Geometry> geometries = items.stream().map(item -> item.getGeometry()).collect(Collectors.toList());
         Geometry union = CascadedPolygonUnion.union(geometries);
@@ -0,0 +1,289 @@
+package org.hortonmachine.gears.io.stac;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local disk cache of the byte ranges read from remote assets.
+ *
+ * <p>Ranges are stored by asset url and version, the version being the ETag of the asset
+ * (or its last modified date and size if no ETag is available). When an asset changes on the
+ * server, its old ranges are not used anymore. Assets without version information are not cached.</p>
+ *
+ * <p>The cache used by the cog readers of the assets is set through {@link #setDefault(HMStacRangeCache)}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ *
+ */
+public class HMStacRangeCache {
+
+    private static volatile HMStacRangeCache defaultCache = null;
+
+    private static final String NO_VERSION = "";
+
+    private final File folder;
+    private final HttpClient httpClient;
+    private final Map<String, String> versionsByUrl = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestedRanges = new AtomicLong();
+    private final AtomicLong cachedRanges = new AtomicLong();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final AtomicLong fetchedBytes = new AtomicLong();
+    private final AtomicLong fetchNanos = new AtomicLong();
+
+    /**
+     * Reads a set of ranges from the asset.
+     */
+    @FunctionalInterface
+    public static interface RangeFetcher {
+        /**
+         * @param ranges the ranges to read, as start and end positions.
+         * @return the read bytes by range start.
+         * @throws IOException
+         */
+        Map<Long, byte[]> fetch( long[][] ranges ) throws IOException;
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param folder the folder in which to store the ranges. It is created if missing.
+     * @throws IOException
+     */
+    public HMStacRangeCache( File folder ) throws IOException {
+        this.folder = folder;
+        Files.createDirectories(folder.toPath());
+        httpClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * Set the cache used when reading assets.
+     *
+     * @param cache the cache or <code>null</code> to disable caching.
+     */
+    public static void setDefault( HMStacRangeCache cache ) {
+        defaultCache = cache;
+    }
+
+    /**
+     * @return the cache used when reading assets, or <code>null</code>.
+     */
+    public static HMStacRangeCache getDefault() {
+        return defaultCache;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Read ranges of an asset, taking from the cache what is available.
+     *
+     * @param url the url of the asset.
+     * @param ranges the ranges to read, as start and end positions.
+     * @param fetcher the reader of the ranges missing from the cache.
+     * @return the read bytes by range start.
+     * @throws IOException
+     */
+    public Map<Long, byte[]> read( String url, long[][] ranges, RangeFetcher fetcher ) throws IOException {
+        return read(url, null, ranges, fetcher);
+    }
+
+    /**
+     * Read ranges of an asset, taking from the cache what is available.
+     *
+     * @param url the url of the asset.
+     * @param headers the headers (ex. authorization) the asset is read with, used also to ask its version.
+     *          Can be <code>null</code>.
+     * @param ranges the ranges to read, as start and end positions.
+     * @param fetcher the reader of the ranges missing from the cache.
+     * @return the read bytes by range start.
+     * @throws IOException
+     */
+    public Map<Long, byte[]> read( String url, Map<String, String> headers, long[][] ranges, RangeFetcher fetcher )
+            throws IOException {
+        requestedRanges.addAndGet(ranges.length);
+        String version = getVersion(url, headers);
+        if (version.equals(NO_VERSION)) {
+            return fetch(ranges, fetcher);
+        }
+
+        Path assetFolder = folder.toPath().resolve(hash(url + "\n" + version));
+        Map<Long, byte[]> result = new HashMap<>();
+        List<long[]> missing = new ArrayList<>();
+        for( long[] range : ranges ) {
+            Path rangeFile = assetFolder.resolve(range[0] + "_" + range[1]);
+            if (Files.exists(rangeFile)) {
+                byte[] bytes = Files.readAllBytes(rangeFile);
+                result.put(range[0], bytes);
+                cachedRanges.incrementAndGet();
+                cachedBytes.addAndGet(bytes.length);
+            } else {
+                missing.add(range);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long[][] missingRanges = missing.toArray(new long[missing.size()][]);
+            Map<Long, byte[]> fetched = fetch(missingRanges, fetcher);
+            Files.createDirectories(assetFolder);
+            for( long[] range : missingRanges ) {
+                byte[] bytes = fetched.get(range[0]);
+                if (bytes == null) {
+                    continue;
+                }
+                // write and rename, so that concurrent readers never see partial ranges
+                Path tmpFile = Files.createTempFile(assetFolder, "range", ".tmp");
+                Files.write(tmpFile, bytes);
+                Files.move(tmpFile, assetFolder.resolve(range[0] + "_" + range[1]), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            result.putAll(fetched);
+        }
+        return result;
+    }
+
+    private Map<Long, byte[]> fetch( long[][] ranges, RangeFetcher fetcher ) throws IOException {
+        long start = System.nanoTime();
+        Map<Long, byte[]> fetched = fetcher.fetch(ranges);
+        fetchNanos.addAndGet(System.nanoTime() - start);
+        for( byte[] bytes : fetched.values() ) {
+            fetchedBytes.addAndGet(bytes.length);
+        }
+        return fetched;
+    }
+
+    /**
+     * Get the version of an asset, asked once to the server with the same headers used to read it.
+     */
+    private String getVersion( String url, Map<String, String> headers ) {
+        String key = headers == null || headers.isEmpty() ? url : url + "\n" + new TreeMap<>(headers);
+        return versionsByUrl.computeIfAbsent(key, k -> {
+            try {
+                HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody()).timeout(Duration.ofSeconds(30));
+                if (headers != null) {
+                    headers.forEach(builder::header);
+                }
+                HttpRequest request = builder.build();
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 != 2) {
+                    return NO_VERSION;
+                }
+                Optional<String> etag = response.headers().firstValue("ETag");
+                if (etag.isPresent()) {
+                    return etag.get();
+                }
+                Optional<String> lastModified = response.headers().firstValue("Last-Modified");
+                Optional<String> length = response.headers().firstValue("Content-Length");
+                if (lastModified.isPresent() && length.isPresent()) {
+                    return lastModified.get() + "/" + length.get();
+                }
+                return NO_VERSION;
+            } catch (IOException e) {
+                return NO_VERSION;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return NO_VERSION;
+            }
+        });
+    }
+
+    private static String hash( String text ) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for( byte b : hash ) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of ranges requested.
+     */
+    public long getRequestedRanges() {
+        return requestedRanges.get();
+    }
+
+    /**
+     * @return the number of ranges taken from the cache.
+     */
+    public long getCachedRanges() {
+        return cachedRanges.get();
+    }
+
+    /**
+     * @return the bytes taken from the cache.
+     */
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    /**
+     * @return the bytes read from the server.
+     */
+    public long getFetchedBytes() {
+        return fetchedBytes.get();
+    }
+
+    /**
+     * @return the ratio of the requested ranges that were taken from the cache.
+     */
+    public double getHitRatio() {
+        long requested = requestedRanges.get();
+        return requested == 0 ? 0 : (double) cachedRanges.get() / requested;
+    }
+
+    /**
+     * @return the read throughput from the server in bytes per second, summed over the fetching threads.
+     */
+    public double getFetchThroughput() {
+        long nanos = fetchNanos.get();
+        return nanos == 0 ? 0 : fetchedBytes.get() / (nanos / 1E9);
+    }
+
+    /**
+     * Reset the metrics.
+     */
+    public void resetMetrics() {
+        requestedRanges.set(0);
+        cachedRanges.set(0);
+        cachedBytes.set(0);
+        fetchedBytes.set(0);
+        fetchNanos.set(0);
+    }
+
+    /**
+     * @return a one line report of the metrics.
+     */
+    public String getMetricsReport() {
+        return String.format("ranges: %d requested, %d cached (%.1f%%); bytes: %d fetched, %d cached; fetch throughput: %.2f MB/s",
+                getRequestedRanges(), getCachedRanges(), getHitRatio() * 100, getFetchedBytes(), getCachedBytes(),
+                getFetchThroughput() / (1024 * 1024));
+    }
+
+}
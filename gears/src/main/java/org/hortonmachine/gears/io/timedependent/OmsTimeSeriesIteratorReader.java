@@ -20,6 +20,8 @@ package org.hortonmachine.gears.io.timedependent;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_AUTHORCONTACTS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_AUTHORNAMES;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_DO_CACHE_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_DO_COLUMNAR_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_FILE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_FILE_NOVALUE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_ID_FIELD_DESCRIPTION;
@@ -62,6 +64,7 @@ import oms3.io.CSTable;
 import oms3.io.DataIO;
 import oms3.io.TableIterator;
 
+import org.hortonmachine.gears.io.timeseries.TimeSeriesColumns;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -117,6 +120,14 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
     @Out
     public int tTimestep;
 
+    @Description(OMSTIMESERIESITERATORREADER_DO_COLUMNAR_DESCRIPTION)
+    @In
+    public boolean doColumnar = false;
+
+    @Description(OMSTIMESERIESITERATORREADER_DO_CACHE_DESCRIPTION)
+    @In
+    public boolean doCache = false;
+
     @Description(OMSTIMESERIESITERATORREADER_T_CURRENT_DESCRIPTION)
     @Out
     public String tCurrent;
@@ -137,6 +148,11 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
 
     private DateTime expectedTimestamp = null;
 
+    private TimeSeriesColumns columns;
+    private int columnsCursor = 0;
+    private int[] groupIds;
+    private int[] groupSizes;
+
     @Initialize
     public void initProcess() {
         // activate time
@@ -173,8 +189,59 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
         }
     }
 
+    private void ensureColumnsRead() throws IOException {
+        if (columns == null) {
+            long from = Long.MIN_VALUE;
+            long to = Long.MAX_VALUE;
+            if (tStart != null) {
+                from = formatter.parseMillis(tStart.trim());
+                if (tEnd != null && pNum == 1) {
+                    to = formatter.parseMillis(tEnd.trim());
+                }
+            }
+            columns = TimeSeriesColumns.read(new File(file), fileNovalue, novalue, from, to, doCache);
+            if (tStart == null && columns.size() > 0) {
+                tStart = formatter.print(columns.getTimes()[0]);
+                if (columns.size() > 1) {
+                    tTimestep = columns.getDateTime(1).getMinuteOfDay() - columns.getDateTime(0).getMinuteOfDay();
+                }
+            }
+
+            // the ids do not change, group the consecutive columns of the same id once
+            List<Integer> idList = new ArrayList<Integer>();
+            List<Integer> idCountList = new ArrayList<Integer>();
+            for( int i = 0; i < columns.getColumnCount(); i++ ) {
+                String id = columns.getColumnInfo(i).get(idfield);
+                int idInt;
+                try {
+                    idInt = Integer.parseInt(id);
+                } catch (Exception e) {
+                    throw new ModelsIllegalargumentException("The id value doesn't seem to be an integer.", this.getClass()
+                            .getSimpleName(), pm);
+                }
+                int last = idList.size() - 1;
+                if (last >= 0 && idList.get(last) == idInt) {
+                    idCountList.set(last, idCountList.get(last) + 1);
+                } else {
+                    idList.add(idInt);
+                    idCountList.add(1);
+                }
+            }
+            groupIds = new int[idList.size()];
+            groupSizes = new int[idList.size()];
+            for( int i = 0; i < groupIds.length; i++ ) {
+                groupIds[i] = idList.get(i);
+                groupSizes[i] = idCountList.get(i);
+            }
+        }
+    }
+
     @Execute
     public void nextRecord() throws IOException {
+        if (doColumnar) {
+            nextColumnarRecord();
+            return;
+        }
         ensureOpen();
         if (tCurrent == null) {
             tPrevious = null;
@@ -259,6 +326,94 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
         }
     }
 
+    private void nextColumnarRecord() throws IOException {
+        ensureColumnsRead();
+        if (tCurrent == null) {
+            tPrevious = null;
+            tCurrent = tStart.trim();
+            expectedTimestamp = formatter.parseDateTime(tCurrent);
+        } else {
+            tPrevious = tCurrent;
+            expectedTimestamp = expectedTimestamp.plusMinutes(tTimestep);
+            tCurrent = expectedTimestamp.toString(formatter);
+        }
+
+        int row = getExpectedColumnsRow(expectedTimestamp.getMillis());
+        if (row >= 0) {
+            int rowsNum = Math.min(pNum, columns.size() - row);
+            columnsCursor = row + rowsNum;
+            outData = new HashMap<Integer, double[]>();
+            int col = 0;
+            for( int g = 0; g < groupIds.length; g++ ) {
+                double[] values = outData.get(groupIds[g]);
+                if (values == null) {
+                    values = new double[groupSizes[g]];
+                    outData.put(groupIds[g], values);
+                }
+                for( int j = 0; j < groupSizes[g]; j++, col++ ) {
+                    values[j] = pNum == 1 ? columns.getValue(row, col) : aggregate(columns.getColumn(col), row, rowsNum);
+                }
+            }
+        } else {
+            outData = null;
+        }
+
+        // time ran out
+        if (tEnd != null && tCurrent.equals(tEnd)) {
+            doProcess = false;
+        }
+        // data ran out
+        if (columnsCursor >= columns.size()) {
+            doProcess = false;
+        }
+    }
+
+    /**
+     * Find the needed row in the columns, starting from the cursor.
+     * 
+     * @param expectedMillis the expected time.
+     * @return the index of the row or -1 if the data ran out.
+     * @throws IOException if the expected timestep is < than the current.
+     */
+    private int getExpectedColumnsRow( long expectedMillis ) throws IOException {
+        long[] times = columns.getTimes();
+        while( columnsCursor < times.length && times[columnsCursor] < expectedMillis ) {
+            columnsCursor++;
+        }
+        if (columnsCursor == times.length) {
+            return -1;
+        }
+        if (times[columnsCursor] > expectedMillis) {
+            String message = "The data are not aligned with the simulation interval (" + columns.getDateTime(columnsCursor) + "/"
+                    + expectedTimestamp + "). Check your data file: " + file;
+            throw new IOException(message);
+        }
+        return columnsCursor;
+    }
+
+    private double aggregate( double[] column, int row, int rowsNum ) {
+        double sum = 0;
+        boolean hasOne = false;
+        for( int j = row; j < row + rowsNum; j++ ) {
+            double value = column[j];
+            if (!HMConstants.isNovalue(value, novalue)) {
+                sum = sum + value;
+                hasOne = true;
+            }
+        }
+        if (!hasOne) {
+            return novalue;
+        }
+        switch( pAggregation ) {
+        case 0:
+            return sum;
+        case 1:
+            return sum / pNum;
+        default:
+            return novalue;
+        }
+    }
+
     /**
      * Get the needed datarow from the table.
      * 
@@ -352,6 +507,8 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
 
     @Finalize
     public void close() throws IOException {
-        rowsIterator.close();
+        if (rowsIterator != null) {
+            rowsIterator.close();
+        }
     }
 }
@@ -0,0 +1,606 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.timeseries;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import oms3.io.CSTable;
+import oms3.io.DataIO;
+
+/**
+ * A time series table read into columns of primitives.
+ *
+ * <p>The data rows of an OMS csv table are parsed straight from the file bytes:
+ * the timestamps (second column) into a column of epoch milliseconds (UTC) and
+ * the values into a <code>double[]</code> per column, without creating strings or
+ * rows. The rows are expected in time order.</p>
+ *
+ * <p>A time range can be given to read only part of the table and a binary sidecar
+ * file (with the {@link #CACHE_EXTENSION} extension) can be kept next to the table,
+ * so that the next reads of the unchanged table don't parse it again.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TimeSeriesColumns {
+
+    /**
+     * The extension added to the table file to get its binary cache.
+     */
+    public static final String CACHE_EXTENSION = ".hmts";
+
+    private static final int CACHE_MAGIC = 0x484d5453;
+    private static final int CACHE_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+            1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final String[] names;
+    private final List<Map<String, String>> columnInfos;
+    private final long[] times;
+    private final double[][] columns;
+
+    private TimeSeriesColumns( String[] names, List<Map<String, String>> columnInfos, long[] times, double[][] columns ) {
+        this.names = names;
+        this.columnInfos = columnInfos;
+        this.times = times;
+        this.columns = columns;
+    }
+
+    /**
+     * Read a whole table.
+     *
+     * @param file the OMS csv file.
+     * @param fileNovalue the novalue used in the file.
+     * @param novalue the novalue to use for the read values.
+     * @return the read columns.
+     * @throws IOException
+     */
+    public static TimeSeriesColumns read( File file, String fileNovalue, double novalue ) throws IOException {
+        return read(file, fileNovalue, novalue, Long.MIN_VALUE, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Read the rows of a table in a time range.
+     *
+     * @param file the OMS csv file.
+     * @param fileNovalue the novalue used in the file, empty values are also novalues.
+     * @param novalue the novalue to use for the read values.
+     * @param fromMillis the first time to read, in epoch milliseconds (included).
+     * @param toMillis the last time to read, in epoch milliseconds (included).
+     * @param useCache if <code>true</code>, the binary cache of the table is used if it is up to date,
+     *          else it is created reading the whole table.
+     * @return the read columns.
+     * @throws IOException
+     */
+    public static TimeSeriesColumns read( File file, String fileNovalue, double novalue, long fromMillis, long toMillis,
+            boolean useCache ) throws IOException {
+        CSTable table = DataIO.table(file, null);
+        int columnCount = table.getColumnCount() - 1;
+        String[] names = new String[columnCount];
+        List<Map<String, String>> columnInfos = new ArrayList<>();
+        for( int i = 0; i < columnCount; i++ ) {
+            names[i] = table.getColumnName(i + 2);
+            columnInfos.add(table.getColumnInfo(i + 2));
+        }
+
+        if (useCache) {
+            File cacheFile = new File(file.getAbsolutePath() + CACHE_EXTENSION);
+            TimeSeriesColumns cached = readCache(cacheFile, file, fileNovalue, novalue, names, columnInfos);
+            if (cached == null) {
+                cached = parse(file, fileNovalue, novalue, Long.MIN_VALUE, Long.MAX_VALUE, names, columnInfos);
+                cached.writeCache(cacheFile, file, fileNovalue, novalue);
+            }
+            return cached.subRange(fromMillis, toMillis);
+        }
+        return parse(file, fileNovalue, novalue, fromMillis, toMillis, names, columnInfos);
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * @return the number of value columns.
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column the value column index, starting from 0.
+     * @return the name of the column.
+     */
+    public String getColumnName( int column ) {
+        return names[column];
+    }
+
+    /**
+     * @param column the value column index, starting from 0.
+     * @return the header information of the column (as ID, Type, Format).
+     */
+    public Map<String, String> getColumnInfo( int column ) {
+        return columnInfos.get(column);
+    }
+
+    /**
+     * @return the times of the rows in epoch milliseconds. Do not modify.
+     */
+    public long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * @param column the value column index, starting from 0.
+     * @return the values of the column. Do not modify.
+     */
+    public double[] getColumn( int column ) {
+        return columns[column];
+    }
+
+    /**
+     * @param row the row index.
+     * @param column the value column index, starting from 0.
+     * @return the value.
+     */
+    public double getValue( int row, int column ) {
+        return columns[column][row];
+    }
+
+    /**
+     * @param row the row index.
+     * @return the time of the row as utc date.
+     */
+    public DateTime getDateTime( int row ) {
+        return new DateTime(times[row], DateTimeZone.UTC);
+    }
+
+    /**
+     * Find a row by time.
+     *
+     * @param millis the time in epoch milliseconds.
+     * @return the index of the row, or <code>-(insertion point) - 1</code> as for {@link Arrays#binarySearch(long[], long)}.
+     */
+    public int indexOf( long millis ) {
+        return Arrays.binarySearch(times, millis);
+    }
+
+    /**
+     * @param row the row index.
+     * @param values the array to fill, of size {@link #getColumnCount()}, or <code>null</code>.
+     * @return the values of the row.
+     */
+    public double[] getRow( int row, double[] values ) {
+        if (values == null) {
+            values = new double[columns.length];
+        }
+        for( int c = 0; c < columns.length; c++ ) {
+            values[c] = columns[c][row];
+        }
+        return values;
+    }
+
+    /**
+     * @return the data as the sorted map of rows used by {@link OmsTimeSeriesReader}.
+     */
+    public LinkedHashMap<DateTime, double[]> toRowsMap() {
+        LinkedHashMap<DateTime, double[]> map = new LinkedHashMap<>();
+        for( int r = 0; r < times.length; r++ ) {
+            map.put(getDateTime(r), getRow(r, null));
+        }
+        return map;
+    }
+
+    private TimeSeriesColumns subRange( long fromMillis, long toMillis ) {
+        int from = 0;
+        while( from < times.length && times[from] < fromMillis ) {
+            from++;
+        }
+        int to = from;
+        while( to < times.length && times[to] <= toMillis ) {
+            to++;
+        }
+        if (from == 0 && to == times.length) {
+            return this;
+        }
+        double[][] subColumns = new double[columns.length][];
+        for( int c = 0; c < columns.length; c++ ) {
+            subColumns[c] = Arrays.copyOfRange(columns[c], from, to);
+        }
+        return new TimeSeriesColumns(names, columnInfos, Arrays.copyOfRange(times, from, to), subColumns);
+    }
+
+    private static TimeSeriesColumns parse( File file, String fileNovalue, double novalue, long fromMillis, long toMillis,
+            String[] names, List<Map<String, String>> columnInfos ) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            RowParser parser = new RowParser(inputStream, fileNovalue, novalue, names.length);
+            parser.skipHeader();
+            parser.readRows(fromMillis, toMillis);
+            return new TimeSeriesColumns(names, columnInfos, Arrays.copyOf(parser.times, parser.size), parser.trimmedColumns());
+        }
+    }
+
+    /**
+     * Parser of the data rows, reading the bytes in blocks.
+     */
+    private static class RowParser {
+        private final InputStream inputStream;
+        private final byte[] fileNovalue;
+        private final double novalue;
+        private final int columnCount;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+
+        long[] times = new long[1024];
+        double[][] columns;
+        int size = 0;
+
+        RowParser( InputStream inputStream, String fileNovalue, double novalue, int columnCount ) {
+            this.inputStream = inputStream;
+            this.fileNovalue = fileNovalue == null ? null : fileNovalue.trim().getBytes(StandardCharsets.UTF_8);
+            this.novalue = novalue;
+            this.columnCount = columnCount;
+            columns = new double[columnCount][1024];
+        }
+
+        /**
+         * Make sure that the buffer holds a whole line from the current position.
+         *
+         * @return the end of the line (exclusive, the newline or the end of data), or -1 at the end of data.
+         */
+        private int lineEnd() throws IOException {
+            int searchFrom = position;
+            while( true ) {
+                for( int i = searchFrom; i < limit; i++ ) {
+                    if (buffer[i] == '\n') {
+                        return i;
+                    }
+                }
+                // no newline in the buffer, move the line to the start and read more
+                int length = limit - position;
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, length);
+                    position = 0;
+                    limit = length;
+                } else if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                searchFrom = limit;
+                int read = inputStream.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    return limit > position ? limit : -1;
+                }
+                limit += read;
+            }
+        }
+
+        /**
+         * Skip the lines up to the first data row, as the table header does.
+         */
+        void skipHeader() throws IOException {
+            boolean inHeader = false;
+            int end;
+            while( (end = lineEnd()) >= 0 ) {
+                int start = skipSpaces(position, end);
+                if (!inHeader) {
+                    int fieldEnd = start;
+                    while( fieldEnd < end && buffer[fieldEnd] != ',' ) {
+                        fieldEnd++;
+                    }
+                    String first = new String(buffer, start, fieldEnd - start, StandardCharsets.UTF_8).trim();
+                    inHeader = first.equalsIgnoreCase(DataIO.HEADER);
+                } else if (start < end && buffer[start] == ',') {
+                    // first data row, leave it to be read
+                    return;
+                }
+                position = Math.min(end + 1, limit);
+            }
+        }
+
+        void readRows( long fromMillis, long toMillis ) throws IOException {
+            int end;
+            while( (end = lineEnd()) >= 0 ) {
+                int lineStart = position;
+                position = Math.min(end + 1, limit);
+                int start = skipSpaces(lineStart, end);
+                if (start == trimEnd(start, end)) {
+                    // empty line
+                    continue;
+                }
+                if (buffer[start] != ',') {
+                    // end of the table
+                    return;
+                }
+                int fieldStart = start + 1;
+                int fieldEnd = fieldEnd(fieldStart, end);
+                long time = parseTime(fieldStart, fieldEnd);
+                if (time < fromMillis) {
+                    continue;
+                }
+                if (time > toMillis) {
+                    return;
+                }
+                if (size == times.length) {
+                    int newLength = times.length * 2;
+                    times = Arrays.copyOf(times, newLength);
+                    for( int c = 0; c < columnCount; c++ ) {
+                        columns[c] = Arrays.copyOf(columns[c], newLength);
+                    }
+                }
+                times[size] = time;
+                for( int c = 0; c < columnCount; c++ ) {
+                    if (fieldEnd < end) {
+                        fieldStart = fieldEnd + 1;
+                        fieldEnd = fieldEnd(fieldStart, end);
+                        columns[c][size] = parseValue(fieldStart, fieldEnd);
+                    } else {
+                        columns[c][size] = novalue;
+                    }
+                }
+                size++;
+            }
+        }
+
+        double[][] trimmedColumns() {
+            double[][] trimmed = new double[columnCount][];
+            for( int c = 0; c < columnCount; c++ ) {
+                trimmed[c] = Arrays.copyOf(columns[c], size);
+            }
+            return trimmed;
+        }
+
+        private int fieldEnd( int start, int end ) {
+            int i = start;
+            boolean quoted = false;
+            while( i < end ) {
+                byte b = buffer[i];
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == ',' && !quoted) {
+                    break;
+                }
+                i++;
+            }
+            return i;
+        }
+
+        private int skipSpaces( int start, int end ) {
+            while( start < end && isSpace(buffer[start]) ) {
+                start++;
+            }
+            return start;
+        }
+
+        private int trimEnd( int start, int end ) {
+            while( end > start && isSpace(buffer[end - 1]) ) {
+                end--;
+            }
+            return end;
+        }
+
+        private static boolean isSpace( byte b ) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '"';
+        }
+
+        private long parseTime( int start, int end ) {
+            start = skipSpaces(start, end);
+            end = trimEnd(start, end);
+            int length = end - start;
+            // yyyy-MM-dd HH:mm or yyyy-MM-dd HH:mm:ss
+            if ((length == 16 || length == 19) && buffer[start + 4] == '-' && buffer[start + 7] == '-'
+                    && buffer[start + 10] == ' ' && buffer[start + 13] == ':' && (length == 16 || buffer[start + 16] == ':')) {
+                int year = digits(start, 4);
+                int month = digits(start + 5, 2);
+                int day = digits(start + 8, 2);
+                int hour = digits(start + 11, 2);
+                int minute = digits(start + 14, 2);
+                int second = length == 19 ? digits(start + 17, 2) : 0;
+                if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31 && hour >= 0 && hour < 24 && minute >= 0
+                        && minute < 60 && second >= 0 && second < 60) {
+                    return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+                }
+            }
+            String text = new String(buffer, start, length, StandardCharsets.UTF_8);
+            if (length == 19) {
+                return HMConstants.utcDateFormatterYYYYMMDDHHMMSS.parseMillis(text);
+            }
+            return HMConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis(text);
+        }
+
+        private int digits( int start, int count ) {
+            int value = 0;
+            for( int i = start; i < start + count; i++ ) {
+                int d = buffer[i] - '0';
+                if (d < 0 || d > 9) {
+                    return -1;
+                }
+                value = value * 10 + d;
+            }
+            return value;
+        }
+
+        /**
+         * Days since 1970-01-01 of a date of the proleptic gregorian calendar.
+         */
+        private static long daysFromCivil( int year, int month, int day ) {
+            int y = month <= 2 ? year - 1 : year;
+            int era = (y >= 0 ? y : y - 399) / 400;
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097L + dayOfEra - 719468L;
+        }
+
+        private double parseValue( int start, int end ) {
+            start = skipSpaces(start, end);
+            end = trimEnd(start, end);
+            int length = end - start;
+            if (length == 0 || isFileNovalue(start, length)) {
+                return novalue;
+            }
+
+            // exact fast path for plain decimals with up to 15 significant digits
+            int i = start;
+            boolean negative = false;
+            if (buffer[i] == '-' || buffer[i] == '+') {
+                negative = buffer[i] == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int significant = 0;
+            int decimals = 0;
+            boolean dot = false;
+            boolean hasDigits = false;
+            for( ; i < end; i++ ) {
+                byte b = buffer[i];
+                if (b >= '0' && b <= '9') {
+                    hasDigits = true;
+                    if (mantissa != 0 || b != '0') {
+                        significant++;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (dot) {
+                        decimals++;
+                    }
+                    if (significant > 15) {
+                        break;
+                    }
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else {
+                    break;
+                }
+            }
+            if (i == end && hasDigits && decimals < POWERS_OF_TEN.length) {
+                double value = mantissa / POWERS_OF_TEN[decimals];
+                return negative ? -value : value;
+            }
+            return Double.parseDouble(new String(buffer, start, length, StandardCharsets.US_ASCII));
+        }
+
+        private boolean isFileNovalue( int start, int length ) {
+            if (fileNovalue == null || fileNovalue.length != length) {
+                return false;
+            }
+            for( int i = 0; i < length; i++ ) {
+                if (buffer[start + i] != fileNovalue[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static TimeSeriesColumns readCache( File cacheFile, File file, String fileNovalue, double novalue, String[] names,
+            List<Map<String, String>> columnInfos ) throws IOException {
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.remaining() < 40 || map.getInt() != CACHE_MAGIC || map.getInt() != CACHE_VERSION) {
+                return null;
+            }
+            long length = map.getLong();
+            long lastModified = map.getLong();
+            double cachedNovalue = map.getDouble();
+            int novalueLength = map.getInt();
+            if (length != file.length() || lastModified != file.lastModified()
+                    || Double.doubleToLongBits(cachedNovalue) != Double.doubleToLongBits(novalue)) {
+                return null;
+            }
+            byte[] novalueBytes = new byte[novalueLength];
+            map.get(novalueBytes);
+            String cachedFileNovalue = new String(novalueBytes, StandardCharsets.UTF_8);
+            if (!cachedFileNovalue.equals(fileNovalue == null ? "" : fileNovalue.trim())) {
+                return null;
+            }
+            int columnCount = map.getInt();
+            int rows = map.getInt();
+            if (columnCount != names.length) {
+                return null;
+            }
+            long[] times = new long[rows];
+            map.asLongBuffer().get(times);
+            map.position(map.position() + rows * 8);
+            double[][] columns = new double[columnCount][rows];
+            for( int c = 0; c < columnCount; c++ ) {
+                map.asDoubleBuffer().get(columns[c]);
+                map.position(map.position() + rows * 8);
+            }
+            return new TimeSeriesColumns(names, columnInfos, times, columns);
+        }
+    }
+
+    private void writeCache( File cacheFile, File file, String fileNovalue, double novalue ) throws IOException {
+        byte[] novalueBytes = (fileNovalue == null ? "" : fileNovalue.trim()).getBytes(StandardCharsets.UTF_8);
+        int rows = times.length;
+        File tmpFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(44 + novalueBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putLong(file.length()).putLong(file.lastModified()).putDouble(novalue)
+                    .putInt(novalueBytes.length).put(novalueBytes).putInt(columns.length).putInt(rows);
+            header.flip();
+            while( header.hasRemaining() ) {
+                channel.write(header);
+            }
+            ByteBuffer data = ByteBuffer.allocate(rows * 8).order(ByteOrder.LITTLE_ENDIAN);
+            data.asLongBuffer().put(times);
+            writeFully(channel, data);
+            for( double[] column : columns ) {
+                data.clear();
+                data.asDoubleBuffer().put(column);
+                writeFully(channel, data);
+            }
+        }
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer data ) throws IOException {
+        data.position(0).limit(data.capacity());
+        while( data.hasRemaining() ) {
+            channel.write(data);
+        }
+    }
+
+}
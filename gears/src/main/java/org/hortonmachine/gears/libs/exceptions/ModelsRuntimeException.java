@@ -32,4 +32,9 @@ public class ModelsRuntimeException extends RuntimeException {
     public ModelsRuntimeException( String message, Object owner ) {
         super(owner instanceof String ? (String) owner + ": " + message : owner.getClass().getSimpleName() + ": " + message);
     }
+
+    public ModelsRuntimeException( String message, Object owner, Throwable cause ) {
+        super(owner instanceof String ? (String) owner + ": " + message : owner.getClass().getSimpleName() + ": " + message,
+                cause);
+    }
 }
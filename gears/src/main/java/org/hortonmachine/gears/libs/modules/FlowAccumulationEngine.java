@@ -0,0 +1,379 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.IntQueue;
+
+/**
+ * A linear time engine to visit the cells of a drainage graph from upstream to downstream.
+ *
+ * <p>Every cell is addressed by its row-major index (<code>row * cols + col</code>). For
+ * each cell the engine keeps a bitmask of the neighbours it drains into (bit <code>i</code>
+ * refers to {@link Direction#ordinal()} <code>i</code>) and the number of neighbours
+ * that drain into it. Cells are then released to the visitor only once all their
+ * upstream cells have been visited, using a primitive int queue (Kahn's algorithm).</p>
+ *
+ * <p>The single flow (D8) graph is built from the usual flowdirections map, but any
+ * multiple flow graph can be supplied through the receivers masks.</p>
+ *
+ * <p>Cells that can't be visited after the pass are part of a loop or lie downstream
+ * of one. They can be retrieved through {@link #getLoops()}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FlowAccumulationEngine {
+    private static final Direction[] DIRS = Direction.values();
+
+    /**
+     * Marks a cell that is not part of the graph.
+     */
+    private static final byte NOTVALID = -2;
+    /**
+     * Marks a cell that has already been visited.
+     */
+    private static final byte DONE = -1;
+
+    private final int cols;
+    private final int rows;
+    private final byte[] receivers;
+    private final byte[] inflowCount;
+
+    private int validCount = 0;
+    private int visitedCount = 0;
+    private boolean wasProcessed = false;
+
+    /**
+     * Build the engine on a D8 flowdirections map.
+     *
+     * <p>Cells with novalue are excluded from the graph, as are cells with flow
+     * different from 1-8 as far as their downstream link is concerned (outlets).</p>
+     *
+     * @param flowIter the flowdirections map.
+     * @param cols the cols of the map.
+     * @param rows the rows of the map.
+     * @param novalue the novalue of the map.
+     */
+    public FlowAccumulationEngine( RandomIter flowIter, int cols, int rows, double novalue ) {
+        this.cols = cols;
+        this.rows = rows;
+        int size = checkSize(cols, rows);
+        receivers = new byte[size];
+        inflowCount = new byte[size];
+
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double flow = flowIter.getSampleDouble(c, r, 0);
+                if (HMConstants.isNovalue(flow, novalue)) {
+                    inflowCount[r * cols + c] = NOTVALID;
+                } else {
+                    validCount++;
+                }
+            }
+        }
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (inflowCount[index] == NOTVALID) {
+                    continue;
+                }
+                int flow = (int) flowIter.getSampleDouble(c, r, 0);
+                if (flow < 1 || flow > 8) {
+                    continue;
+                }
+                Direction direction = Direction.forFlow(flow);
+                int newCol = c + direction.col;
+                int newRow = r + direction.row;
+                if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                    continue;
+                }
+                int downIndex = newRow * cols + newCol;
+                if (inflowCount[downIndex] == NOTVALID) {
+                    continue;
+                }
+                receivers[index] = (byte) (1 << direction.ordinal());
+                inflowCount[downIndex]++;
+            }
+        }
+    }
+
+    /**
+     * Build the engine on a generic (possibly multiple) flow graph.
+     *
+     * @param receivers the masks of the neighbours each cell drains into, bit <code>i</code>
+     *          referring to {@link Direction#ordinal()} <code>i</code>. Links to cells
+     *          that are not valid or outside the grid are ignored.
+     * @param valid the flags of the cells that are part of the graph.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     */
+    public FlowAccumulationEngine( byte[] receivers, boolean[] valid, int cols, int rows ) {
+        this.cols = cols;
+        this.rows = rows;
+        int size = checkSize(cols, rows);
+        if (receivers.length != size || valid.length != size) {
+            throw new IllegalArgumentException("The arrays need to be of size cols * rows.");
+        }
+        this.receivers = receivers;
+        inflowCount = new byte[size];
+        for( int i = 0; i < size; i++ ) {
+            if (valid[i]) {
+                validCount++;
+            } else {
+                inflowCount[i] = NOTVALID;
+                receivers[i] = 0;
+            }
+        }
+        for( int index = 0; index < size; index++ ) {
+            int mask = receivers[index] & 0xFF;
+            if (mask == 0 || inflowCount[index] == NOTVALID) {
+                continue;
+            }
+            int c = index % cols;
+            int r = index / cols;
+            for( int d = 0; d < DIRS.length; d++ ) {
+                if ((mask & (1 << d)) == 0) {
+                    continue;
+                }
+                int newCol = c + DIRS[d].col;
+                int newRow = r + DIRS[d].row;
+                if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows
+                        || inflowCount[newRow * cols + newCol] == NOTVALID) {
+                    mask &= ~(1 << d);
+                    continue;
+                }
+                inflowCount[newRow * cols + newCol]++;
+            }
+            receivers[index] = (byte) mask;
+        }
+    }
+
+    private static int checkSize( int cols, int rows ) {
+        long size = (long) cols * rows;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The grid is too large to be indexed: " + cols + "x" + rows);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Visit all the cells of the graph from upstream to downstream.
+     *
+     * <p>When the visitor is called for a cell, all the cells draining into it
+     * have already been visited. The engine can be run only once.</p>
+     *
+     * @param visitor the consumer of the cell indexes.
+     * @param pm the monitor.
+     */
+    public void process( IntConsumer visitor, IHMProgressMonitor pm ) {
+        if (wasProcessed) {
+            throw new IllegalStateException("The engine has already been processed.");
+        }
+        wasProcessed = true;
+
+        IntQueue queue = new IntQueue(Math.max(16, cols));
+        pm.beginTask("Visiting cells from upstream to downstream...", rows);
+        for( int r = 0; r < rows; r++ ) {
+            if (pm.isCanceled()) {
+                pm.done();
+                return;
+            }
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (inflowCount[index] != 0) {
+                    continue;
+                }
+                // source cell, drain everything it releases
+                queue.add(index);
+                while( !queue.isEmpty() ) {
+                    int current = queue.poll();
+                    visitor.accept(current);
+                    inflowCount[current] = DONE;
+                    visitedCount++;
+
+                    int mask = receivers[current] & 0xFF;
+                    if (mask == 0) {
+                        continue;
+                    }
+                    int cc = current % cols;
+                    int cr = current / cols;
+                    for( int d = 0; d < DIRS.length; d++ ) {
+                        if ((mask & (1 << d)) != 0) {
+                            int downIndex = (cr + DIRS[d].row) * cols + cc + DIRS[d].col;
+                            if (--inflowCount[downIndex] == 0 && downIndex < index) {
+                                // already passed by the scan, process it now
+                                queue.add(downIndex);
+                            }
+                        }
+                    }
+                }
+            }
+            pm.worked(1);
+        }
+        pm.done();
+    }
+
+    /**
+     * Accumulate values downstream following the graph.
+     *
+     * <p>Every cell ends up with its own value plus the sum of the values
+     * of all the cells upstream. In case of multiple flow the whole value
+     * is passed to every receiver.</p>
+     *
+     * @param values the row-major values to accumulate, modified in place.
+     * @param pm the monitor.
+     */
+    public void accumulate( final double[] values, IHMProgressMonitor pm ) {
+        process(index -> {
+            int mask = receivers[index] & 0xFF;
+            if (mask != 0) {
+                double value = values[index];
+                int c = index % cols;
+                int r = index / cols;
+                for( int d = 0; d < DIRS.length; d++ ) {
+                    if ((mask & (1 << d)) != 0) {
+                        values[(r + DIRS[d].row) * cols + c + DIRS[d].col] += value;
+                    }
+                }
+            }
+        }, pm);
+    }
+
+    /**
+     * Get the downstream cell of a single flow graph.
+     *
+     * @param index the index of the cell.
+     * @return the index of the first receiver of the cell or <code>-1</code>.
+     */
+    public int getDownstreamIndex( int index ) {
+        int mask = receivers[index] & 0xFF;
+        if (mask == 0) {
+            return -1;
+        }
+        Direction direction = DIRS[Integer.numberOfTrailingZeros(mask)];
+        return (index / cols + direction.row) * cols + index % cols + direction.col;
+    }
+
+    /**
+     * @param index the index of the cell.
+     * @return <code>true</code> if the cell is part of the graph.
+     */
+    public boolean isValid( int index ) {
+        return inflowCount[index] != NOTVALID;
+    }
+
+    /**
+     * @param index the index of the cell.
+     * @return <code>true</code> if the cell has been visited.
+     */
+    public boolean isVisited( int index ) {
+        return inflowCount[index] == DONE;
+    }
+
+    /**
+     * @return <code>true</code> if after processing some valid cell could not be visited.
+     */
+    public boolean hasLoops() {
+        return wasProcessed && visitedCount < validCount;
+    }
+
+    /**
+     * Find the loops that prevented cells from being visited.
+     *
+     * <p>Every loop is returned once as the array of the row-major
+     * indexes of its cells, in downstream order. Cells that are just
+     * downstream of a loop are not part of the result.</p>
+     *
+     * @return the list of loops, empty if the graph has none.
+     */
+    public List<int[]> getLoops() {
+        List<int[]> loops = new ArrayList<>();
+        if (!hasLoops()) {
+            return loops;
+        }
+        int size = inflowCount.length;
+        int[] stamps = new int[size];
+        IntQueue path = new IntQueue(64);
+        int stamp = 0;
+        for( int start = 0; start < size; start++ ) {
+            if (inflowCount[start] <= 0 || stamps[start] != 0) {
+                continue;
+            }
+            /*
+             * an unvisited cell always has an unvisited cell upstream,
+             * so walking upstream is bound to close a loop
+             */
+            stamp++;
+            path.clear();
+            int current = start;
+            while( current != -1 && stamps[current] == 0 ) {
+                stamps[current] = stamp;
+                path.add(current);
+                current = getUnvisitedUpstream(current);
+            }
+            if (current != -1 && stamps[current] == stamp) {
+                int[] walked = path.toArray();
+                int loopStart = 0;
+                while( walked[loopStart] != current ) {
+                    loopStart++;
+                }
+                int[] loop = Arrays.copyOfRange(walked, loopStart, walked.length);
+                // the walk went upstream, revert to have the downstream order
+                for( int i = 0, j = loop.length - 1; i < j; i++, j-- ) {
+                    int tmp = loop[i];
+                    loop[i] = loop[j];
+                    loop[j] = tmp;
+                }
+                loops.add(loop);
+            }
+        }
+        return loops;
+    }
+
+    private int getUnvisitedUpstream( int index ) {
+        int c = index % cols;
+        int r = index / cols;
+        for( int d = 0; d < DIRS.length; d++ ) {
+            int upCol = c - DIRS[d].col;
+            int upRow = r - DIRS[d].row;
+            if (upCol < 0 || upCol >= cols || upRow < 0 || upRow >= rows) {
+                continue;
+            }
+            int upIndex = upRow * cols + upCol;
+            if (inflowCount[upIndex] > 0 && (receivers[upIndex] & (1 << d)) != 0) {
+                return upIndex;
+            }
+        }
+        return -1;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+
+import java.util.Arrays;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.WritableRandomIter;
+
+/**
+ * A reusable window cursor over the grid of a digital elevation model.
+ *
+ * <p>The cursor keeps the rows of the window in a primitive ring buffer, so that
+ * moving along a row or to the next row reads only the new data and no object
+ * is created per cell. It answers the same queries as {@link GridNode}, with the
+ * same results, for the cell it is positioned on.</p>
+ *
+ * <p>Typical usage:</p>
+ * <pre>
+ * GridNodeCursor cursor = new GridNodeCursor(elevIter, cols, rows, xRes, yRes, novalue);
+ * for( int r = 0; r &lt; rows; r++ ) {
+ *     for( int c = 0; c &lt; cols; c++ ) {
+ *         cursor.moveTo(c, r);
+ *         if (cursor.isPit()) ...
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>A cursor is not thread safe, every thread needs its own.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GridNodeCursor {
+    private static final Direction[] ORDERED_DIRS = Direction.getOrderedDirs();
+
+    public final int cols;
+    public final int rows;
+    public final double xRes;
+    public final double yRes;
+
+    private final RandomIter gridIter;
+    private final double novalue;
+    private final int size;
+    private final int halo;
+    private final double[][] ringRows;
+    private final double[] distances = new double[Direction.values().length];
+
+    private int minCol;
+    private int maxCol;
+    private int col = -1;
+    private int row = -1;
+    private int loadedRow = Integer.MIN_VALUE;
+
+    private double elevation;
+    private boolean isValid;
+    private boolean touchesBound;
+    private boolean touchesNovalue;
+    private boolean isFlat;
+    private boolean isPit;
+    private double surroundingMin;
+
+    /**
+     * Create a 3x3 cursor.
+     *
+     * @param elevationIter the elevation model raster iter.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param xRes the x resolution of the raster.
+     * @param yRes the y resolution of the raster.
+     * @param novalue the novalue, if <code>null</code> the default one is used.
+     */
+    public GridNodeCursor( RandomIter elevationIter, int cols, int rows, double xRes, double yRes, Double novalue ) {
+        this(elevationIter, cols, rows, xRes, yRes, novalue, 3);
+    }
+
+    /**
+     * Create a cursor with a window of a given size.
+     *
+     * @param elevationIter the elevation model raster iter.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param xRes the x resolution of the raster.
+     * @param yRes the y resolution of the raster.
+     * @param novalue the novalue, if <code>null</code> the default one is used.
+     * @param size the size of the window, if even, size+1 is used.
+     */
+    public GridNodeCursor( RandomIter elevationIter, int cols, int rows, double xRes, double yRes, Double novalue, int size ) {
+        this.gridIter = elevationIter;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.novalue = novalue != null ? novalue : HMConstants.doubleNovalue;
+        if (size < 3) {
+            size = 3;
+        }
+        if (size % 2 == 0) {
+            size++;
+        }
+        this.size = size;
+        this.halo = (size - 1) / 2;
+        ringRows = new double[size][cols + 2 * halo];
+        minCol = 0;
+        maxCol = cols - 1;
+
+        for( Direction direction : Direction.values() ) {
+            distances[direction.ordinal()] = sqrt(pow(direction.col * xRes, 2.0) + pow(direction.row * yRes, 2.0));
+        }
+    }
+
+    /**
+     * Restrict the cols the cursor can be positioned on.
+     *
+     * <p>Only the cols in the range plus the window halo are read from the raster,
+     * which is handy when a raster is processed in tiles.</p>
+     *
+     * @param minCol the first col, inclusive.
+     * @param maxCol the last col, inclusive.
+     */
+    public void setColumnRange( int minCol, int maxCol ) {
+        if (minCol < 0 || maxCol >= cols || minCol > maxCol) {
+            throw new IllegalArgumentException("Invalid col range: " + minCol + " - " + maxCol);
+        }
+        this.minCol = minCol;
+        this.maxCol = maxCol;
+        invalidate();
+    }
+
+    /**
+     * Position the cursor on a cell.
+     *
+     * <p>Moving along a row or to the following row is the cheapest movement.</p>
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     */
+    public void moveTo( int col, int row ) {
+        if (col < minCol || col > maxCol || row < 0 || row >= rows) {
+            throw new IllegalArgumentException("The position is outside of the cursor range: " + col + "/" + row);
+        }
+        if (row != loadedRow) {
+            if (row == loadedRow + 1) {
+                loadRow(row + halo);
+            } else {
+                for( int r = row - halo; r <= row + halo; r++ ) {
+                    loadRow(r);
+                }
+            }
+            loadedRow = row;
+        }
+        this.col = col;
+        this.row = row;
+        updateNeighbourhood();
+    }
+
+    /**
+     * Force the reload of the window data, to be used if the underlying raster was modified.
+     */
+    public void invalidate() {
+        loadedRow = Integer.MIN_VALUE;
+    }
+
+    private void loadRow( int r ) {
+        double[] buffer = ringRows[Math.floorMod(r, size)];
+        if (r < 0 || r >= rows) {
+            Arrays.fill(buffer, novalue);
+            return;
+        }
+        for( int i = 0; i < halo; i++ ) {
+            buffer[i] = novalue;
+            buffer[cols + halo + i] = novalue;
+        }
+        int fromCol = Math.max(0, minCol - halo);
+        int toCol = Math.min(cols - 1, maxCol + halo);
+        for( int c = fromCol; c <= toCol; c++ ) {
+            buffer[c + halo] = gridIter.getSampleDouble(c, r, 0);
+        }
+    }
+
+    private void updateNeighbourhood() {
+        elevation = ringRows[Math.floorMod(row, size)][col + halo];
+        isValid = !HMConstants.isNovalue(elevation, novalue);
+        touchesBound = col == 0 || row == 0 || col == cols - 1 || row == rows - 1;
+        touchesNovalue = false;
+        isFlat = false;
+        surroundingMin = Double.POSITIVE_INFINITY;
+        for( int dr = -1; dr <= 1; dr++ ) {
+            double[] buffer = ringRows[Math.floorMod(row + dr, size)];
+            for( int dc = -1; dc <= 1; dc++ ) {
+                if (dc == 0 && dr == 0) {
+                    continue;
+                }
+                double tmp = buffer[col + dc + halo];
+                if (HMConstants.isNovalue(tmp, novalue)) {
+                    touchesNovalue = true;
+                } else {
+                    if (tmp < surroundingMin && tmp != elevation) {
+                        surroundingMin = tmp;
+                    }
+                    if (tmp == elevation) {
+                        isFlat = true;
+                    }
+                }
+            }
+        }
+        isPit = !touchesBound && !touchesNovalue && isValid && elevation < surroundingMin;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return the elevation of the current cell.
+     */
+    public double getElevation() {
+        return elevation;
+    }
+
+    /**
+     * Get the value at a position relative to the current cell.
+     *
+     * @param dCol the col offset, within the window halo.
+     * @param dRow the row offset, within the window halo.
+     * @return the value or novalue if outside of the raster.
+     */
+    public double getValueAt( int dCol, int dRow ) {
+        if (dCol < -halo || dCol > halo || dRow < -halo || dRow > halo) {
+            throw new IllegalArgumentException("Offset outside of the cursor window: " + dCol + "/" + dRow);
+        }
+        return ringRows[Math.floorMod(row + dRow, size)][col + dCol + halo];
+    }
+
+    /**
+     * Get the value of the elevation in one of the surrounding direction.
+     *
+     * @param direction the {@link Direction}.
+     * @return the elevation value.
+     */
+    public double getElevationAt( Direction direction ) {
+        return ringRows[Math.floorMod(row + direction.row, size)][col + direction.col + halo];
+    }
+
+    public double getNorthElev() {
+        return getElevationAt(Direction.N);
+    }
+
+    public double getSouthElev() {
+        return getElevationAt(Direction.S);
+    }
+
+    public double getWestElev() {
+        return getElevationAt(Direction.W);
+    }
+
+    public double getEastElev() {
+        return getElevationAt(Direction.E);
+    }
+
+    /**
+     * @return <code>true</code> if the current cell is not novalue.
+     */
+    public boolean isValid() {
+        return isValid;
+    }
+
+    /**
+     * @return <code>true</code> if the current cell touches a boundary.
+     */
+    public boolean touchesBound() {
+        return touchesBound;
+    }
+
+    /**
+     * @return <code>true</code> if the current cell touches a novalue (or the boundary).
+     */
+    public boolean touchesNovalue() {
+        return touchesNovalue;
+    }
+
+    /**
+     * @return <code>true</code> if all cells around the current are higher.
+     */
+    public boolean isPit() {
+        return isPit;
+    }
+
+    /**
+     * @return <code>true</code> if at least one valid surrounding cell has the same elevation.
+     */
+    public boolean isFlat() {
+        return isFlat;
+    }
+
+    /**
+     * @return the min value of the surrounding cells that have a different elevation.
+     */
+    public double getSurroundingMin() {
+        return surroundingMin;
+    }
+
+    /**
+     * Calculates the slope from the current cell to a surrounding one.
+     *
+     * @param direction the direction of the surrounding cell.
+     * @return the slope.
+     */
+    public double getSlopeTo( Direction direction ) {
+        return (elevation - getElevationAt(direction)) / distances[direction.ordinal()];
+    }
+
+    /**
+     * Get the direction of the next downstream cell following the steepest path.
+     *
+     * @return the direction or <code>null</code> if the cell can't flow anywhere.
+     */
+    public Direction getDownstreamSPDirection() {
+        double maxSlope = Double.NEGATIVE_INFINITY;
+        Direction nextDirection = null;
+        for( Direction direction : ORDERED_DIRS ) {
+            int newCol = col + direction.col;
+            int newRow = row + direction.row;
+            if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                continue;
+            }
+            double value = getElevationAt(direction);
+            if (!HMConstants.isNovalue(value, novalue)) {
+                double slopeTo = (elevation - value) / distances[direction.ordinal()];
+                if (slopeTo > 0 && slopeTo > maxSlope) {
+                    nextDirection = direction;
+                    maxSlope = slopeTo;
+                }
+            }
+        }
+        return nextDirection;
+    }
+
+    /**
+     * @return <code>true</code> if the current cell can't flow anywhere following the steepest path.
+     */
+    public boolean isOutlet() {
+        return getDownstreamSPDirection() == null && !isPit;
+    }
+
+    /**
+     * Get the flow value of the current cell based on the steepest path.
+     *
+     * @return the value of flow or the int novalue.
+     */
+    public int getFlow() {
+        Direction direction = getDownstreamSPDirection();
+        if (direction == null) {
+            return HMConstants.intNovalue;
+        }
+        return direction.getFlow();
+    }
+
+    /**
+     * Fill a window of values surrounding the current cell.
+     *
+     * <p>Same as {@link GridNode#getWindow(int, boolean)}, but reusing the supplied matrix.</p>
+     *
+     * @param windowSize the size of the window, if even, size+1 is used. Can't be larger than the cursor size.
+     * @param doCircular if <code>true</code> the window values are set to novalue
+     *              were necessary to make it circular.
+     * @param window the matrix to fill, if <code>null</code> or of the wrong size, a new one is created.
+     * @return the filled window.
+     */
+    public double[][] getWindow( int windowSize, boolean doCircular, double[][] window ) {
+        if (windowSize % 2 == 0) {
+            windowSize++;
+        }
+        if (windowSize > size) {
+            throw new IllegalArgumentException("The window can't be larger than the cursor size: " + size);
+        }
+        if (window == null || window.length != windowSize || window[0].length != windowSize) {
+            window = new double[windowSize][windowSize];
+        }
+        int delta = (windowSize - 1) / 2;
+        double radius = delta;
+        for( int r = -delta; r <= delta; r++ ) {
+            double[] buffer = ringRows[Math.floorMod(row + r, size)];
+            for( int c = -delta; c <= delta; c++ ) {
+                if (doCircular && sqrt(c * c + r * r) > radius) {
+                    window[r + delta][c + delta] = novalue;
+                } else {
+                    window[r + delta][c + delta] = buffer[col + c + halo];
+                }
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Set a value in the current position of the map and keep the window in sync.
+     *
+     * @param map the map to write to, usually the one the cursor reads from.
+     * @param value the value to set.
+     */
+    public void setValueInMap( WritableRandomIter map, double value ) {
+        map.setSample(col, row, 0, value);
+        ringRows[Math.floorMod(row, size)][col + halo] = value;
+        updateNeighbourhood();
+    }
+
+    /**
+     * Create a {@link GridNode} for the current position, for the cases in which the full API is needed.
+     *
+     * @return the node.
+     */
+    public GridNode toGridNode() {
+        return new GridNode(gridIter, cols, rows, xRes, yRes, col, row, novalue);
+    }
+}
@@ -26,6 +26,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
@@ -54,21 +62,27 @@ import org.hortonmachine.gears.utils.files.FileUtilities;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.TransformException;
 
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 
 public abstract class HMModelIM extends HMModel {
 
+    private static final int WRITE_QUEUE_SIZE = 2;
+    private static final int STRIPES_PER_THREAD = 4;
+    private static final long QUEUE_POLL_MILLIS = 100;
+    private static final TileData END_OF_TILES = new TileData(-1, null);
+
     private List<ImageMosaicReader> readers = new ArrayList<ImageMosaicReader>();
+    private List<File> outRasterFiles = new ArrayList<File>();
+    private final ThreadLocal<TileIterators> currentTile = new ThreadLocal<>();
 
     protected List<RandomIter> inRasterIterators = new ArrayList<RandomIter>();
     protected List<Double> inRasterNovalues = new ArrayList<Double>();
     protected List<GridCoverage2D> inRasters = new ArrayList<GridCoverage2D>();
     protected List<WritableRandomIter> outRasterIterators = new ArrayList<WritableRandomIter>();
     protected List<GridCoverage2D> outGridCoverages = new ArrayList<GridCoverage2D>();
-    private List<File> outRasterFiles = new ArrayList<File>();
+    protected GridGeometry2D readGridGeometry;
 
     protected String locationField;
     protected double xRes;
@@ -80,7 +94,19 @@ public abstract class HMModelIM extends HMModel {
 
     protected int cellBuffer = 0;
 
-    protected GridGeometry2D readGridGeometry;
+    /**
+     * The number of threads computing the cells of a tile.
+     * 
+     * <p>Modules can raise it only if their {@link #processCell(int, int, int, int, int, int, int, int)}
+     * is thread safe and reads the tile data through the getters (ex. {@link #getInRasterIterator(int)}).</p>
+     */
+    protected int tileThreads = 1;
+
+    /**
+     * The number of tiles read ahead while computing.
+     */
+    protected int prefetchTiles = 2;
+
     private boolean isSingleInX = true;
     private boolean isSingleInY = true;
 
@@ -174,38 +200,181 @@ public abstract class HMModelIM extends HMModel {
         return getGridCoverage(readerNum, envelope.getMaxY(), envelope.getMinY(), envelope.getMaxX(), envelope.getMinX());
     }
 
+    /**
+     * Process all the tiles of the mosaic, calling {@link #processCell(int, int, int, int, int, int, int, int)}
+     * for every cell.
+     * 
+     * <p>The tiles go through a pipeline of three stages that run concurrently: a reader thread
+     * prefetches the next {@link #prefetchTiles} tiles, the cells of the current tile are computed
+     * in row stripes on {@link #tileThreads} threads and a writer thread writes the finished tiles.
+     * Tiles are processed and written in order and the queues between the stages are bounded, so at
+     * most <code>prefetchTiles + 3</code> tiles are in memory.</p>
+     * 
+     * <p>With a single {@link #tileThreads} the cells are computed on the calling thread and the protected
+     * lists hold the iterators of the current tile. With more threads every thread gets its own iterators,
+     * so {@link #processCell(int, int, int, int, int, int, int, int)} has to be thread safe and needs to
+     * access the tile data through the getters (ex. {@link #getInRasterIterator(int)}).</p>
+     * 
+     * <p>If the progress monitor is canceled, all the stages stop after the tile they are handling.</p>
+     */
     protected void processByTileCells() throws Exception {
         int size = boundsGeometries.size();
-        int count = 0;
-        // pm.beginTask("Processing tiles...", size);
-        for( Geometry boundGeometry : boundsGeometries ) {
-            count++;
-            try {
-                pm.message("Processing tile " + boundGeometry.getUserData() + "(" + count + " of " + size + ")");
-                pm.message("\t\t->geom: " + boundGeometry.getEnvelopeInternal());
-                pm.message("\t\t->reading with cell buffer: " + cellBuffer);
-                pm.message("\t\t->reading with x/y resolution: " + xRes + "/" + yRes);
-                processGeometryByTileCell(count, boundGeometry);
-            } catch (Exception e) {
-                pm.errorMessage("Problems found for tile: " + boundGeometry.getUserData());
-                throw e;
+        BlockingQueue<TileData> readQueue = new ArrayBlockingQueue<>(Math.max(1, prefetchTiles));
+        BlockingQueue<TileData> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_SIZE);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long[] readNanos = new long[1];
+        long[] computeNanos = new long[1];
+        long[] writeNanos = new long[1];
+        long startTime = System.nanoTime();
+
+        Thread reader = new Thread(() -> {
+            int count = 0;
+            for( Geometry boundGeometry : boundsGeometries ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                count++;
+                try {
+                    long t = System.nanoTime();
+                    TileData tile = readTile(count, boundGeometry);
+                    readNanos[0] += System.nanoTime() - t;
+                    if (!offer(readQueue, tile, failure)) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    pm.errorMessage("Problems found for tile: " + boundGeometry.getUserData());
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+            }
+            offer(readQueue, END_OF_TILES, failure);
+        }, "tile-reader");
+
+        Thread writer = new Thread(() -> {
+            while( true ) {
+                TileData tile = take(writeQueue, failure);
+                if (tile == null || tile == END_OF_TILES || pm.isCanceled()) {
+                    return;
+                }
+                try {
+                    long t = System.nanoTime();
+                    writeTile(tile);
+                    writeNanos[0] += System.nanoTime() - t;
+                } catch (Exception e) {
+                    pm.errorMessage("Problems found for tile: " + tile.boundGeometry.getUserData());
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+            }
+        }, "tile-writer");
+
+        int threads = Math.max(1, tileThreads);
+        ExecutorService computePool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        reader.start();
+        writer.start();
+        try {
+            while( true ) {
+                TileData tile = take(readQueue, failure);
+                if (tile == null || tile == END_OF_TILES || pm.isCanceled()) {
+                    break;
+                }
+                inRasters = tile.inCoverages;
+                inRasterNovalues = tile.inNovalues;
+                outGridCoverages = tile.outCoverages;
+                readGridGeometry = tile.readGridGeometry;
+                try {
+                    pm.message("Processing tile " + tile.boundGeometry.getUserData() + "(" + tile.count + " of " + size + ")");
+                    pm.message("\t\t->geom: " + tile.boundGeometry.getEnvelopeInternal());
+                    pm.message("\t\t->reading with cell buffer: " + cellBuffer);
+                    pm.message("\t\t->reading with x/y resolution: " + xRes + "/" + yRes);
+                    long t = System.nanoTime();
+                    TileIterators iterators = new TileIterators(tile);
+                    inRasterIterators.clear();
+                    inRasterIterators.addAll(iterators.inIterators);
+                    outRasterIterators.clear();
+                    outRasterIterators.addAll(iterators.outIterators);
+                    try {
+                        if (threads == 1) {
+                            computeRows(iterators, 0, tile.writeRows);
+                        } else {
+                            computeTile(tile, computePool, threads);
+                        }
+                    } finally {
+                        iterators.done();
+                    }
+                    computeNanos[0] += System.nanoTime() - t;
+                } catch (Exception e) {
+                    pm.errorMessage("Problems found for tile: " + tile.boundGeometry.getUserData());
+                    failure.compareAndSet(null, e);
+                    break;
+                }
+                if (!offer(writeQueue, tile, failure)) {
+                    break;
+                }
+            }
+            offer(writeQueue, END_OF_TILES, failure);
+            reader.join();
+            writer.join();
+        } finally {
+            if (computePool != null) {
+                computePool.shutdownNow();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (pm.isCanceled()) {
+            return;
+        }
+
+        pm.message("Tiles processed: " + size + " in " + toSeconds(System.nanoTime() - startTime) + " s (read: "
+                + toSeconds(readNanos[0]) + " s, compute: " + toSeconds(computeNanos[0]) + " s, write: "
+                + toSeconds(writeNanos[0]) + " s)");
+    }
+
+    private static String toSeconds( long nanos ) {
+        return String.format("%.1f", nanos / 1E9);
+    }
+
+    private boolean offer( BlockingQueue<TileData> queue, TileData tile, AtomicReference<Exception> failure ) {
+        try {
+            while( !queue.offer(tile, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS) ) {
+                if (failure.get() != null || pm.isCanceled()) {
+                    return false;
+                }
             }
-            // pm.worked(1);
+            return true;
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            return false;
         }
-        // pm.done();
+    }
 
+    private TileData take( BlockingQueue<TileData> queue, AtomicReference<Exception> failure ) {
+        try {
+            TileData tile;
+            while( (tile = queue.poll(QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null ) {
+                if (failure.get() != null || pm.isCanceled()) {
+                    return null;
+                }
+            }
+            return tile;
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            return null;
+        }
     }
 
-    private void processGeometryByTileCell( int count, Geometry boundGeometry )
-            throws IOException, TransformException, Exception {
+    private TileData readTile( int count, Geometry boundGeometry ) throws Exception {
+        TileData tile = new TileData(count, boundGeometry);
         Envelope writeEnv = boundGeometry.getEnvelopeInternal();
 
         double writeEast = writeEnv.getMaxX();
         double writeWest = writeEnv.getMinX();
         double writeNorth = writeEnv.getMaxY();
         double writeSouth = writeEnv.getMinY();
-        int writeCols = (int) ((writeEast - writeWest) / xRes);
-        int writeRows = (int) ((writeNorth - writeSouth) / yRes);
+        tile.writeCols = (int) ((writeEast - writeWest) / xRes);
+        tile.writeRows = (int) ((writeNorth - writeSouth) / yRes);
 
         Envelope readEnv = new Envelope(writeEnv);
         readEnv.expandBy(cellBuffer * xRes, cellBuffer * yRes);
@@ -214,37 +383,25 @@ public abstract class HMModelIM extends HMModel {
         double readWest = readEnv.getMinX();
         double readNorth = readEnv.getMaxY();
         double readSouth = readEnv.getMinY();
-        // int readCols = (int) ((readEast - readWest) / xRes);
-        // int readRows = (int) ((readNorth - readSouth) / yRes);
-
-        /*
-         * clear lists of in and out data local to the loop
-         */
-        outGridCoverages.clear();
-        inRasterIterators.clear();
-        inRasters.clear();
-        outRasterIterators.clear();
 
-        GridGeometry2D writeGridGeometry = CoverageUtilities.gridGeometryFromRegionValues(writeNorth, writeSouth, writeEast,
-                writeWest, writeCols, writeRows, crs);
+        tile.writeGridGeometry = CoverageUtilities.gridGeometryFromRegionValues(writeNorth, writeSouth, writeEast, writeWest,
+                tile.writeCols, tile.writeRows, crs);
 
         for( File outRasterFile : outRasterFiles ) {
             File parentFile = outRasterFile.getParentFile();
             if (parentFile != null && parentFile.exists()) {
-                WritableRaster outWR = CoverageUtilities.createWritableRaster(writeCols, writeRows, null, null,
+                WritableRaster outWR = CoverageUtilities.createWritableRaster(tile.writeCols, tile.writeRows, null, null,
                         HMConstants.doubleNovalue);
-                RegionMap writeParams = CoverageUtilities.gridGeometry2RegionParamsMap(writeGridGeometry);
+                RegionMap writeParams = CoverageUtilities.gridGeometry2RegionParamsMap(tile.writeGridGeometry);
                 GridCoverage2D writeGC = CoverageUtilities.buildCoverage(outRasterFile.getName(), outWR, writeParams, crs);
-                outGridCoverages.add(writeGC);
-                WritableRandomIter outDataIter = CoverageUtilities.getWritableRandomIterator(outWR);
-                outRasterIterators.add(outDataIter);
+                tile.outCoverages.add(writeGC);
+                tile.outRasters.add(outWR);
             } else {
-                outGridCoverages.add(null);
-                outRasterIterators.add(null);
+                tile.outCoverages.add(null);
+                tile.outRasters.add(null);
             }
         }
 
-        readGridGeometry = null;
         GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities.createGridGeometryGeneralParameter(xRes, yRes,
                 readNorth, readSouth, readEast, readWest, crs);
 
@@ -252,13 +409,11 @@ public abstract class HMModelIM extends HMModel {
         for( ImageMosaicReader reader : readers ) {
             try {
                 GridCoverage2D readGC = reader.read(readGeneralParameterValues);
-                readGridGeometry = readGC.getGridGeometry();
+                tile.readGridGeometry = readGC.getGridGeometry();
                 // read raster at once, since a randomiter is way slower when wrapping borders
-                Raster readRaster = readGC.getRenderedImage().getData();
-                RandomIter readIter = RandomIterFactory.create(readRaster, null);
-                inRasterIterators.add(readIter);
-                inRasters.add(readGC);
-                inRasterNovalues.add(HMConstants.getNovalue(readGC));
+                tile.inRasters.add(readGC.getRenderedImage().getData());
+                tile.inCoverages.add(readGC);
+                tile.inNovalues.add(HMConstants.getNovalue(readGC));
                 index++;
             } catch (Exception e) {
                 StringBuilder errSb = new StringBuilder();
@@ -267,23 +422,11 @@ public abstract class HMModelIM extends HMModel {
                 errSb.append("ERROR: with reader N." + index + ": " + Arrays.toString(reader.getGridCoverageNames()));
                 errSb.append("\nERROR: " + e.getLocalizedMessage());
                 pm.errorMessage(errSb.toString());
-                freeIterators();
-                // e.printStackTrace();
-                // return;
                 throw new IOException("Problems reading Mosaic!");
             }
         }
 
-        // Envelope allBoundsEnv = new Envelope(new Coordinate(llCorner[0], llCorner[1]), new
-        // Coordinate(urCorner[0], urCorner[1]));
-        // MathTransform crsToGrid = readGridGeometry.getCRSToGrid2D(PixelOrientation.LOWER_RIGHT);
-        //
-        // Envelope transformed = JTS.transform(allBoundsEnv, crsToGrid);
-        // int minX = (int) round(transformed.getMinX());
-        // int maxY = (int) round(transformed.getMaxY()); // y grid is inverse
-        // int maxX = (int) round(transformed.getMaxX());
-        // int minY = (int) round(transformed.getMinY());
-
+        GridGeometry2D readGridGeometry = tile.readGridGeometry;
         GridCoordinates2D llGrid = readGridGeometry.worldToGrid(new DirectPosition2D(llCorner[0], llCorner[1]));
         GridCoordinates2D urGrid = readGridGeometry.worldToGrid(new DirectPosition2D(urCorner[0], urCorner[1]));
         int minX = llGrid.x;
@@ -293,7 +436,7 @@ public abstract class HMModelIM extends HMModel {
 
         // is there a gridrange shift?
         GridEnvelope2D gridRange2D = readGridGeometry.getGridRange2D();
-        int readRows = gridRange2D.height;
+        tile.readRows = gridRange2D.height;
         minY = minY + gridRange2D.y;
         // TODO check this out properly
         if (isSingleInY) {
@@ -301,17 +444,68 @@ public abstract class HMModelIM extends HMModel {
         } else {
             maxY = maxY + gridRange2D.y;
         }
-        int readCols = gridRange2D.width;
+        tile.readCols = gridRange2D.width;
         minX = minX + gridRange2D.x;
         if (isSingleInX) {
             maxX = maxX - gridRange2D.x;
         } else {
             maxX = maxX + gridRange2D.x;
         }
+        tile.minX = minX;
+        tile.maxX = maxX;
+        tile.minY = minY;
+        tile.maxY = maxY;
+        return tile;
+    }
 
+    private void computeTile( TileData tile, ExecutorService computePool, int threads ) throws Exception {
+        int writeRows = tile.writeRows;
+        int stripes = Math.min(writeRows, threads * STRIPES_PER_THREAD);
+        if (stripes == 0) {
+            return;
+        }
+        List<Future< ? >> futures = new ArrayList<>(stripes);
+        for( int i = 0; i < stripes; i++ ) {
+            int fromRow = (int) ((long) writeRows * i / stripes);
+            int toRow = (int) ((long) writeRows * (i + 1) / stripes);
+            futures.add(computePool.submit(() -> {
+                TileIterators iterators = new TileIterators(tile);
+                try {
+                    computeRows(iterators, fromRow, toRow);
+                } finally {
+                    iterators.done();
+                }
+                return null;
+            }));
+        }
+        Exception exception = null;
+        for( Future< ? > future : futures ) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void computeRows( TileIterators iterators, int fromRow, int toRow ) throws Exception {
+        TileData tile = iterators.tile;
+        currentTile.set(iterators);
         try {
+            int writeCols = tile.writeCols;
+            int writeRows = tile.writeRows;
+            GridGeometry2D writeGridGeometry = tile.writeGridGeometry;
+            GridGeometry2D readGridGeometry = tile.readGridGeometry;
             final GridCoordinates2D gridCoordinates2D = new GridCoordinates2D();
-            for( int writeRow = 0; writeRow < writeRows; writeRow++ ) {
+            for( int writeRow = fromRow; writeRow < toRow; writeRow++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
                 for( int writeCol = 0; writeCol < writeCols; writeCol++ ) {
                     gridCoordinates2D.x = writeCol;
                     gridCoordinates2D.y = writeRow;
@@ -320,29 +514,30 @@ public abstract class HMModelIM extends HMModel {
                     int readCol = worldToReadGrid.x;
                     int readRow = worldToReadGrid.y;
 
-                    if (readCol + cellBuffer > maxX || readCol - cellBuffer < minX || //
-                            readRow + cellBuffer > maxY || readRow - cellBuffer < minY) {
+                    if (readCol + cellBuffer > tile.maxX || readCol - cellBuffer < tile.minX || //
+                            readRow + cellBuffer > tile.maxY || readRow - cellBuffer < tile.minY) {
                         continue;
                     }
 
-                    processCell(readCol, readRow, writeCol, writeRow, readCols, readRows, writeCols, writeRows);
+                    processCell(readCol, readRow, writeCol, writeRow, tile.readCols, tile.readRows, writeCols, writeRows);
                 }
             }
-
         } finally {
-            freeIterators();
+            currentTile.remove();
         }
+    }
 
+    private void writeTile( TileData tile ) throws Exception {
         for( int i = 0; i < outRasterFiles.size(); i++ ) {
             File outputFile = outRasterFiles.get(i);
-            GridCoverage2D writeGC = outGridCoverages.get(i);
+            GridCoverage2D writeGC = tile.outCoverages.get(i);
             if (writeGC != null) {
                 File outParentFolder = outputFile.getParentFile();
                 if (outParentFolder == null || !outParentFolder.exists()) {
                     continue;
                 }
                 String outBaseName = FileUtilities.getNameWithoutExtention(outputFile);
-                File outTileFile = new File(outParentFolder, outBaseName + "_" + count + ".tiff");
+                File outTileFile = new File(outParentFolder, outBaseName + "_" + tile.count + ".tiff");
                 OmsRasterWriter writer = new OmsRasterWriter();
                 writer.pm = new DummyProgressMonitor();
                 writer.inRaster = writeGC;
@@ -350,18 +545,54 @@ public abstract class HMModelIM extends HMModel {
                 writer.process();
             }
         }
-
     }
 
-    private void freeIterators() {
-        for( RandomIter inRasterIterator : inRasterIterators ) {
-            if (inRasterIterator != null)
-                inRasterIterator.done();
-        }
-        for( RandomIter outRasterIterator : outRasterIterators ) {
-            if (outRasterIterator != null)
-                outRasterIterator.done();
+    private TileIterators currentIterators() {
+        TileIterators iterators = currentTile.get();
+        if (iterators == null) {
+            throw new IllegalStateException("Tile data can be accessed only while processing a cell.");
         }
+        return iterators;
+    }
+
+    /**
+     * @param index the index of the source, in the order they were added.
+     * @return the iterator over the read raster of the tile currently processed by the calling thread.
+     */
+    protected RandomIter getInRasterIterator( int index ) {
+        return currentIterators().inIterators.get(index);
+    }
+
+    /**
+     * @param index the index of the source, in the order they were added.
+     * @return the read coverage of the tile currently processed by the calling thread.
+     */
+    protected GridCoverage2D getInRaster( int index ) {
+        return currentIterators().tile.inCoverages.get(index);
+    }
+
+    /**
+     * @param index the index of the source, in the order they were added.
+     * @return the novalue of the read raster of the tile currently processed by the calling thread.
+     */
+    protected Double getInRasterNovalue( int index ) {
+        return currentIterators().tile.inNovalues.get(index);
+    }
+
+    /**
+     * @param index the index of the destination, in the order they were added.
+     * @return the iterator over the output raster of the tile currently processed by the calling thread or
+     *          <code>null</code>, if the destination folder doesn't exist.
+     */
+    protected WritableRandomIter getOutRasterIterator( int index ) {
+        return currentIterators().outIterators.get(index);
+    }
+
+    /**
+     * @return the grid geometry of the read rasters of the tile currently processed by the calling thread.
+     */
+    protected GridGeometry2D getReadGridGeometry() {
+        return currentIterators().tile.readGridGeometry;
     }
 
     protected void makeMosaic() throws Exception {
@@ -410,7 +641,8 @@ public abstract class HMModelIM extends HMModel {
     /**
      * Process one cell.
      * 
-     * <p>This is used when {@link #processByTileCells()} is called.
+     * <p>This is used when {@link #processByTileCells()} is called. Cells are computed
+     * concurrently only if {@link #tileThreads} is raised, in which case implementations need to be thread safe.
      * 
      * @param readCol the column of the cell to read.
      * @param readRow  the row of the cell to read.
@@ -424,4 +656,64 @@ public abstract class HMModelIM extends HMModel {
     protected abstract void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows,
             int writeCols, int writeRows );
 
+    /**
+     * The data of a tile, travelling through the stages of the pipeline.
+     */
+    private static class TileData {
+        final int count;
+        final Geometry boundGeometry;
+
+        GridGeometry2D writeGridGeometry;
+        int writeCols;
+        int writeRows;
+        List<GridCoverage2D> outCoverages = new ArrayList<>();
+        List<WritableRaster> outRasters = new ArrayList<>();
+
+        GridGeometry2D readGridGeometry;
+        int readCols;
+        int readRows;
+        List<Raster> inRasters = new ArrayList<>();
+        List<GridCoverage2D> inCoverages = new ArrayList<>();
+        List<Double> inNovalues = new ArrayList<>();
+
+        int minX;
+        int maxX;
+        int minY;
+        int maxY;
+
+        TileData( int count, Geometry boundGeometry ) {
+            this.count = count;
+            this.boundGeometry = boundGeometry;
+        }
+    }
+
+    /**
+     * The iterators over a tile, owned by a single computing thread.
+     */
+    private static class TileIterators {
+        final TileData tile;
+        final List<RandomIter> inIterators = new ArrayList<>();
+        final List<WritableRandomIter> outIterators = new ArrayList<>();
+
+        TileIterators( TileData tile ) {
+            this.tile = tile;
+            for( Raster raster : tile.inRasters ) {
+                inIterators.add(RandomIterFactory.create(raster, null));
+            }
+            for( WritableRaster raster : tile.outRasters ) {
+                outIterators.add(raster != null ? CoverageUtilities.getWritableRandomIterator(raster) : null);
+            }
+        }
+
+        void done() {
+            for( RandomIter iter : inIterators ) {
+                iter.done();
+            }
+            for( WritableRandomIter iter : outIterators ) {
+                if (iter != null)
+                    iter.done();
+            }
+        }
+    }
+
 }
@@ -18,12 +18,16 @@ package org.hortonmachine.gears.libs.modules;
  */
 
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
 
+import javax.media.jai.Interpolation;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
 
@@ -33,6 +37,7 @@ import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.TiledRasterStore;
 import org.locationtech.jts.geom.Coordinate;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -55,6 +60,10 @@ public class HMRaster implements AutoCloseable {
     private double xRes;
     private double yRes;
     private GridCoverage2D originalCoverage;
+    /**
+     * The disk store of the values, if the raster is not held in memory.
+     */
+    private TiledRasterStore tiledStore;
 
     /**
      * Raster map that can be initialized and used to count occurrences per cell.
@@ -62,6 +71,11 @@ public class HMRaster implements AutoCloseable {
      */
     private HMRaster countRaster = null;
 
+    /**
+     * The rows of the current raster resampled together by {@link #mapRaster(IHMProgressMonitor, HMRaster, boolean, int)}.
+     */
+    private static final int MAP_BAND_ROWS = 256;
+
     public static interface RasterCellProcessor {
         void processCell( int col, int row, double value, int cols, int rows ) throws Exception;
     }
@@ -438,6 +452,9 @@ public class HMRaster implements AutoCloseable {
         if (!isWritable) {
             throw new IOException("The current HMRaster is not writable.");
         }
+        if (tiledStore != null) {
+            return CoverageUtilities.buildCoverageWithNovalue(name, tiledStore.toWritableRaster(), regionMap, crs, novalue);
+        }
         return CoverageUtilities.buildCoverageWithNovalue(name, writableRaster, regionMap, crs, novalue);
     }
 
@@ -446,6 +463,17 @@ public class HMRaster implements AutoCloseable {
         if (iter != null) {
             iter.done();
         }
+        if (tiledStore != null) {
+            tiledStore.close();
+            tiledStore = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the values are kept in a disk store instead of in memory.
+     */
+    public boolean isDiskBacked() {
+        return tiledStore != null;
     }
 
     /**
@@ -469,6 +497,26 @@ public class HMRaster implements AutoCloseable {
      * @throws IOException
      */
     public void mapRaster( IHMProgressMonitor pm, HMRaster otherRaster, boolean doValuesCountRaster ) throws IOException {
+        mapRaster(pm, otherRaster, doValuesCountRaster, Interpolation.INTERP_NEAREST);
+    }
+
+    /**
+     * Writes the values of the coverage into the current raster, summing multiple occurrences.
+     * 
+     * <p>Both rasters are supposed to be in the same crs and not rotated, so that the cells
+     * of one are mapped to the other through a scale and offset. Every cell of the current raster
+     * takes the value of the other raster in its center. Bilinear and bicubic interpolation fall back
+     * to the nearest value where the needed cells are novalues or outside of the other raster.</p>
+     * 
+     * @param pm optional Process monitor.
+     * @param otherRaster the raster to map over the current raster.
+     * @param valuesCountRaster a bit matrix that tracks how many values per pixels are recorded (they are summed, so the number is needed for averaging).
+     * @param interpolation one of {@link Interpolation#INTERP_NEAREST}, {@link Interpolation#INTERP_BILINEAR} 
+     *          or {@link Interpolation#INTERP_BICUBIC}.
+     * @throws IOException
+     */
+    public void mapRaster( IHMProgressMonitor pm, HMRaster otherRaster, boolean doValuesCountRaster, int interpolation )
+            throws IOException {
         if (pm == null)
             pm = new DummyProgressMonitor();
 
@@ -478,15 +526,11 @@ public class HMRaster implements AutoCloseable {
 
         // find grid coordinates in the current region's space
         Point ll = getCell(lowerLeft);
-        int fromCol = ll.x;
-        if (fromCol < 0)
-            fromCol = 0;
-        int toRow = ll.y;
+        int fromCol = Math.max(0, ll.x);
+        int toRow = Math.min(rows - 1, ll.y);
         Point ur = getCell(upperRight);
-        int toCol = ur.x;
-        int fromRow = ur.y;
-        if (fromRow < 0)
-            fromRow = 0;
+        int toCol = Math.min(cols - 1, ur.x);
+        int fromRow = Math.max(0, ur.y);
 
         if (doValuesCountRaster && countRaster == null) {
             countRaster = new HMRasterWritableBuilder().setName("valuescount").setDoInteger(true).setRegion(regionMap).setCrs(crs)
@@ -494,34 +538,259 @@ public class HMRaster implements AutoCloseable {
         }
 
         pm.beginTask("Patch raster...", toRow - fromRow); //$NON-NLS-1$
-        // fill the points of the current raster picking form the
-        // other raster via nearest neighbor interpolation
+        if (fromCol > toCol || fromRow > toRow) {
+            pm.done();
+            return;
+        }
+
+        // the centers of the cells in the grid space of the other raster
+        int windowCols = toCol - fromCol + 1;
+        double[] otherXs = new double[windowCols];
+        double westOffset = regionMap.getWest() - otherRegion.getWest();
+        for( int c = fromCol; c <= toCol; c++ ) {
+            otherXs[c - fromCol] = (westOffset + (c + 0.5) * xRes) / otherRegion.getXres();
+        }
+        double[] otherYs = new double[rows];
+        double northOffset = otherRegion.getNorth() - regionMap.getNorth();
         for( int r = fromRow; r <= toRow; r++ ) {
-            for( int c = fromCol; c <= toCol; c++ ) {
-                if (isContained(c, r)) {
-                    Coordinate coordinate = getWorld(c, r);
-                    double value = otherRaster.getValue(coordinate);
-                    if (!otherRaster.isNovalue(value)) {
-                        if (countRaster != null) {
-                            int count = countRaster.getIntValue(c, r);
-                            count++;
-                            countRaster.setValue(c, r, count);
-                        }
-                        double newValue = getValue(c, r);
-                        if (!isNovalue(newValue)) {
-                            newValue = newValue + value;
-                        } else {
-                            newValue = value;
-                        }
-                        setValue(c, r, newValue);
-                    }
+            otherYs[r] = (northOffset + (r + 0.5) * yRes) / otherRegion.getYres();
+        }
+
+        // the cells of the other raster needed by the kernel around the center
+        int margin = interpolation == Interpolation.INTERP_NEAREST ? 0 : 2;
+        int otherCols = otherRaster.getCols();
+        int otherRows = otherRaster.getRows();
+        int otherFromCol = Math.max(0, (int) Math.floor(otherXs[0]) - margin);
+        int otherToCol = Math.min(otherCols - 1, (int) Math.floor(otherXs[windowCols - 1]) + margin);
+        if (otherFromCol > otherToCol) {
+            pm.done();
+            return;
+        }
+
+        for( int bandFromRow = fromRow; bandFromRow <= toRow; bandFromRow += MAP_BAND_ROWS ) {
+            int bandToRow = Math.min(toRow, bandFromRow + MAP_BAND_ROWS - 1);
+            int otherFromRow = Math.max(0, (int) Math.floor(otherYs[bandFromRow]) - margin);
+            int otherToRow = Math.min(otherRows - 1, (int) Math.floor(otherYs[bandToRow]) + margin);
+            if (otherFromRow > otherToRow) {
+                pm.worked(bandToRow - bandFromRow + 1);
+                continue;
+            }
+            Block block = new Block(otherRaster, otherFromCol, otherFromRow, otherToCol - otherFromCol + 1,
+                    otherToRow - otherFromRow + 1);
+
+            // resample the rows of the band in parallel, NaN marks the cells without value
+            int fBandFromRow = bandFromRow;
+            double[] values = new double[(bandToRow - bandFromRow + 1) * windowCols];
+            IntStream.rangeClosed(bandFromRow, bandToRow).parallel().forEach(r -> {
+                int index = (r - fBandFromRow) * windowCols;
+                double otherY = otherYs[r];
+                for( int i = 0; i < windowCols; i++ ) {
+                    values[index + i] = block.resample(otherXs[i], otherY, interpolation);
                 }
+            });
+
+            // accumulate the band in place and write it back at once
+            int bandRows = bandToRow - bandFromRow + 1;
+            double[] sums = readBlock(fromCol, bandFromRow, windowCols, bandRows);
+            int[] counts = countRaster != null ? countRaster.readIntBlock(fromCol, bandFromRow, windowCols, bandRows) : null;
+            for( int i = 0; i < values.length; i++ ) {
+                double value = values[i];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (counts != null) {
+                    counts[i]++;
+                }
+                double current = sums[i];
+                sums[i] = isNovalue(current) ? value : current + value;
             }
-            pm.worked(1);
+            writeBlock(fromCol, bandFromRow, windowCols, bandRows, sums);
+            if (counts != null) {
+                countRaster.writeIntBlock(fromCol, bandFromRow, windowCols, bandRows, counts);
+            }
+            pm.worked(bandRows);
         }
         pm.done();
     }
 
+    /**
+     * Read a block of cells of the first band.
+     * 
+     * @return the values in row-major order.
+     */
+    private double[] readBlock( int col, int row, int width, int height ) {
+        double[] block = new double[width * height];
+        if (originalCoverage != null) {
+            Raster data = originalCoverage.getRenderedImage().getData(new Rectangle(col, row, width, height));
+            return data.getSamples(col, row, width, height, 0, block);
+        } else if (writableRaster != null) {
+            return writableRaster.getSamples(col, row, width, height, 0, block);
+        }
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                block[r * width + c] = getValue(col + c, row + r);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Read a block of cells of the first band as integers.
+     * 
+     * @return the values in row-major order.
+     */
+    private int[] readIntBlock( int col, int row, int width, int height ) {
+        int[] block = new int[width * height];
+        if (originalCoverage != null) {
+            Raster data = originalCoverage.getRenderedImage().getData(new Rectangle(col, row, width, height));
+            return data.getSamples(col, row, width, height, 0, block);
+        } else if (writableRaster != null) {
+            return writableRaster.getSamples(col, row, width, height, 0, block);
+        }
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                block[r * width + c] = getIntValue(col + c, row + r);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Write a block of cells of the first band.
+     * 
+     * @param block the values in row-major order.
+     */
+    private void writeBlock( int col, int row, int width, int height, double[] block ) throws IOException {
+        if (!isWritable) {
+            throw new IOException("The current HMRaster is not writable.");
+        }
+        if (writableRaster != null) {
+            writableRaster.setSamples(col, row, width, height, 0, block);
+            return;
+        }
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                setValue(col + c, row + r, block[r * width + c]);
+            }
+        }
+    }
+
+    /**
+     * Write a block of cells of the first band as integers.
+     * 
+     * @param block the values in row-major order.
+     */
+    private void writeIntBlock( int col, int row, int width, int height, int[] block ) throws IOException {
+        if (!isWritable) {
+            throw new IOException("The current HMRaster is not writable.");
+        }
+        if (writableRaster != null) {
+            writableRaster.setSamples(col, row, width, height, 0, block);
+            return;
+        }
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                setValue(col + c, row + r, block[r * width + c]);
+            }
+        }
+    }
+
+    /**
+     * A block of cells of a raster, read once and resampled in grid space.
+     */
+    private static class Block {
+        private final HMRaster raster;
+        private final double[] values;
+        private final int fromCol;
+        private final int fromRow;
+        private final int width;
+        private final int height;
+
+        Block( HMRaster raster, int fromCol, int fromRow, int width, int height ) {
+            this.raster = raster;
+            this.fromCol = fromCol;
+            this.fromRow = fromRow;
+            this.width = width;
+            this.height = height;
+            values = raster.readBlock(fromCol, fromRow, width, height);
+        }
+
+        /**
+         * @return the value of a cell, NaN if outside or novalue.
+         */
+        private double get( int col, int row ) {
+            int c = col - fromCol;
+            int r = row - fromRow;
+            if (c < 0 || c >= width || r < 0 || r >= height) {
+                return Double.NaN;
+            }
+            double value = values[r * width + c];
+            if (raster.isNovalue(value)) {
+                return Double.NaN;
+            }
+            return value;
+        }
+
+        /**
+         * Resample the block.
+         * 
+         * @param x the x in the grid space of the raster, cell centers are at 0.5.
+         * @param y the y in the grid space of the raster.
+         * @param interpolation the interpolation type.
+         * @return the value, NaN if the nearest cell is outside or novalue.
+         */
+        double resample( double x, double y, int interpolation ) {
+            double nearest = get((int) Math.floor(x), (int) Math.floor(y));
+            if (Double.isNaN(nearest) || interpolation == Interpolation.INTERP_NEAREST) {
+                return nearest;
+            }
+            double fx = x - 0.5;
+            double fy = y - 0.5;
+            int x0 = (int) Math.floor(fx);
+            int y0 = (int) Math.floor(fy);
+            double tx = fx - x0;
+            double ty = fy - y0;
+            if (interpolation == Interpolation.INTERP_BILINEAR) {
+                double v00 = get(x0, y0);
+                double v10 = get(x0 + 1, y0);
+                double v01 = get(x0, y0 + 1);
+                double v11 = get(x0 + 1, y0 + 1);
+                double value = (v00 * (1 - tx) + v10 * tx) * (1 - ty) + (v01 * (1 - tx) + v11 * tx) * ty;
+                // any missing neighbour makes the value NaN
+                return Double.isNaN(value) ? nearest : value;
+            }
+            double[] wx = cubicWeights(tx);
+            double[] wy = cubicWeights(ty);
+            double value = 0;
+            for( int j = 0; j < 4; j++ ) {
+                double rowValue = 0;
+                for( int i = 0; i < 4; i++ ) {
+                    rowValue += wx[i] * get(x0 - 1 + i, y0 - 1 + j);
+                }
+                value += wy[j] * rowValue;
+            }
+            return Double.isNaN(value) ? nearest : value;
+        }
+
+        /**
+         * The weights of the cubic convolution (a = -0.5) for the four cells around a position.
+         */
+        private static double[] cubicWeights( double t ) {
+            double a = -0.5;
+            double[] weights = new double[4];
+            double[] distances = {1 + t, t, 1 - t, 2 - t};
+            for( int i = 0; i < 4; i++ ) {
+                double d = distances[i];
+                if (d <= 1) {
+                    weights[i] = ((a + 2) * d - (a + 3)) * d * d + 1;
+                } else {
+                    weights[i] = ((a * d - 5 * a) * d + 8 * a) * d - 4 * a;
+                }
+            }
+            return weights;
+        }
+    }
+
     /**
      * @return the raster that contains the occurrences of data per cell.
      */
@@ -542,16 +811,17 @@ public class HMRaster implements AutoCloseable {
             pm = new DummyProgressMonitor();
 
         pm.beginTask("Averaging raster...", rows);
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                double value = getValue(c, r);
-                if (!isNovalue(value)) {
-                    int count = countRaster.getIntValue(c, r);
-                    double newValue = value / count;
-                    setValue(c, r, newValue);
+        for( int bandFromRow = 0; bandFromRow < rows; bandFromRow += MAP_BAND_ROWS ) {
+            int bandRows = Math.min(MAP_BAND_ROWS, rows - bandFromRow);
+            double[] values = readBlock(0, bandFromRow, cols, bandRows);
+            int[] counts = countRaster.readIntBlock(0, bandFromRow, cols, bandRows);
+            for( int i = 0; i < values.length; i++ ) {
+                if (!isNovalue(values[i])) {
+                    values[i] = values[i] / counts[i];
                 }
             }
-            pm.worked(1);
+            writeBlock(0, bandFromRow, cols, bandRows, values);
+            pm.worked(bandRows);
         }
         pm.done();
     }
@@ -620,6 +890,12 @@ public class HMRaster implements AutoCloseable {
         
         private double[][] dataMatrix = null;
 
+        private Class< ? > dataClass = null;
+
+        private Boolean diskBacked = null;
+
+        private long cacheBytes = TiledRasterStore.DEFAULT_CACHE_BYTES;
+
         public HMRasterWritableBuilder setName( String name ) {
             this.name = name;
             return this;
@@ -670,6 +946,69 @@ public class HMRaster implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Set the cell type, one of Double, Float, Integer, Short or Byte. Overrides {@link #setDoInteger(boolean)}.
+         */
+        public HMRasterWritableBuilder setDataClass( Class< ? > dataClass ) {
+            this.dataClass = dataClass;
+            return this;
+        }
+
+        /**
+         * Keep the values in a tiled disk store instead of in memory. By default this is done only
+         * if the raster doesn't fit in memory.
+         */
+        public HMRasterWritableBuilder setDiskBacked( boolean diskBacked ) {
+            this.diskBacked = diskBacked;
+            return this;
+        }
+
+        /**
+         * Set the max bytes of tiles kept in memory by a disk backed raster.
+         */
+        public HMRasterWritableBuilder setCacheBytes( long cacheBytes ) {
+            this.cacheBytes = cacheBytes;
+            return this;
+        }
+
+        /**
+         * Create the storage of the raster values and its iterator.
+         */
+        private void createStorage( HMRaster hmRaster ) {
+            Class< ? > type = dataClass != null ? dataClass : (doInteger ? Integer.class : Double.class);
+            Object initial;
+            if (doInteger && dataClass == null) {
+                initial = initialIntValue != null ? initialIntValue : hmRaster.novalue;
+            } else {
+                initial = initialValue != null ? initialValue : hmRaster.novalue;
+            }
+
+            boolean useDisk;
+            if (diskBacked != null) {
+                useDisk = diskBacked;
+            } else {
+                int cellBytes = type.isAssignableFrom(Byte.class) ? 1
+                        : type.isAssignableFrom(Short.class) ? 2
+                                : type.isAssignableFrom(Double.class) ? 8 : 4;
+                long cells = (long) hmRaster.cols * hmRaster.rows;
+                useDisk = cells > Integer.MAX_VALUE || cells * cellBytes > Runtime.getRuntime().maxMemory();
+            }
+
+            if (useDisk) {
+                try {
+                    hmRaster.tiledStore = new TiledRasterStore(null, hmRaster.cols, hmRaster.rows, type,
+                            ((Number) initial).doubleValue(), TiledRasterStore.DEFAULT_TILE_SIZE, cacheBytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                hmRaster.iter = hmRaster.tiledStore.getWritableRandomIter();
+            } else {
+                hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, type, null,
+                        initial);
+                hmRaster.iter = CoverageUtilities.getWritableRandomIterator(hmRaster.writableRaster);
+            }
+        }
+
         public HMRaster build() {
             if (template != null) {
                 HMRaster hmRaster = new HMRaster();
@@ -683,15 +1022,7 @@ public class HMRaster implements AutoCloseable {
                 hmRaster.xRes = hmRaster.regionMap.getXres();
                 hmRaster.yRes = hmRaster.regionMap.getYres();
                 hmRaster.novalue = noValue != null ? noValue : HMConstants.getNovalue(template);
-
-                if (doInteger) {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Integer.class,
-                            null, initialIntValue != null ? initialIntValue : hmRaster.novalue);
-                } else {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Double.class,
-                            null, initialValue != null ? initialValue : hmRaster.novalue);
-                }
-                hmRaster.iter = CoverageUtilities.getWritableRandomIterator(hmRaster.writableRaster);
+                createStorage(hmRaster);
 
                 if (copyValues) {
                     RandomIter inIter = CoverageUtilities.getRandomIterator(template);
@@ -722,14 +1053,7 @@ public class HMRaster implements AutoCloseable {
                 hmRaster.xRes = hmRaster.regionMap.getXres();
                 hmRaster.yRes = hmRaster.regionMap.getYres();
                 hmRaster.novalue = noValue != null ? noValue : HMConstants.doubleNovalue;
-                if (doInteger) {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Integer.class,
-                            null, initialIntValue != null ? initialIntValue : hmRaster.novalue);
-                } else {
-                    hmRaster.writableRaster = CoverageUtilities.createWritableRaster(hmRaster.cols, hmRaster.rows, Double.class,
-                            null, initialValue != null ? initialValue : hmRaster.novalue);
-                }
-                hmRaster.iter = CoverageUtilities.getWritableRandomIterator(hmRaster.writableRaster);
+                createStorage(hmRaster);
                 
                 if (dataMatrix!=null) {
                     for( int r = 0; r < hmRaster.rows; r++ ) {
@@ -34,6 +34,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
@@ -55,6 +56,7 @@ import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateList;
@@ -1170,14 +1172,11 @@ public class ModelsEngine {
      * @param upperThreshold the upper threshold, values above that are excluded.
      * @param lowerThreshold the lower threshold, values below that are excluded.
      * @param pm the monitor.
-     * @return The map of downstream summed values.
+     * @return The map of downstream summed values or <code>null</code> if the 
+     *          flowdirections are not valid or the process was canceled.
      */
     public static WritableRaster sumDownstream( RandomIter flowIter, RandomIter mapToSumIter, int width, int height,
             Double upperThreshold, Double lowerThreshold, IHMProgressMonitor pm ) {
-        final int[] point = new int[2];
-        WritableRaster summedMapWR = CoverageUtilities.createWritableRaster(width, height, null, null, null);
-        WritableRandomIter summedMapIter = RandomIterFactory.createWritable(summedMapWR, null);
-
         double uThres = Double.POSITIVE_INFINITY;
         if (upperThreshold != null) {
             uThres = upperThreshold;
@@ -1187,55 +1186,46 @@ public class ModelsEngine {
             lThres = lowerThreshold;
         }
 
-        pm.beginTask("Calculating downstream sum...", height);
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowIter, width, height, doubleNovalue);
+
+        /*
+         * a cell passes its sum downstream only if it is a
+         * non outlet cell with a value inside the thresholds
+         */
+        final double[] summed = new double[width * height];
+        final boolean[] passes = new boolean[width * height];
         for( int r = 0; r < height; r++ ) {
             for( int c = 0; c < width; c++ ) {
+                int index = r * width + c;
+                double flow = flowIter.getSampleDouble(c, r, 0);
                 double mapToSumValue = mapToSumIter.getSampleDouble(c, r, 0);
-                if (!isNovalue(flowIter.getSampleDouble(c, r, 0)) && //
-                        mapToSumValue < uThres && //
-                        mapToSumValue > lThres //
-                ) {
-                    point[0] = c;
-                    point[1] = r;
-                    while( flowIter.getSampleDouble(point[0], point[1], 0) < 9 && //
-                            !isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))
-                            && (checkRange(mapToSumIter.getSampleDouble(point[0], point[1], 0), uThres, lThres)) ) {
-
-                        double sumValue = summedMapIter.getSampleDouble(point[0], point[1], 0)
-                                + mapToSumIter.getSampleDouble(c, r, 0);
-
-                        summedMapIter.setSample(point[0], point[1], 0, sumValue);
-
-                        // FlowNode flowNode = new FlowNode(flowIter, width, height, point[0],
-                        // point[1]);
-                        // FlowNode downStreamNode = flowNode.goDownstream();
-                        // if (downStreamNode != null) {
-                        // if (!downStreamNode.isMarkedAsOutlet()) {
-                        // point[0] = downStreamNode.col;
-                        // point[1] = downStreamNode.row;
-                        // }
-                        // } else {
-                        // return null;
-                        // }
-                        if (!go_downstream(point, flowIter.getSampleDouble(point[0], point[1], 0)))
-                            return null;
-                    }
-
-                    if (!isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))) {
-                        double summedMapValue = summedMapIter.getSampleDouble(point[0], point[1], 0);
-                        if (!isNovalue(summedMapValue)) {
-                            double sumValue = summedMapValue + mapToSumIter.getSampleDouble(c, r, 0);
-                            summedMapIter.setSample(point[0], point[1], 0, sumValue);
-                        }
+                if (!isNovalue(flow) && checkRange(mapToSumValue, uThres, lThres)) {
+                    if (flow < 9 && (int) flow < 1) {
+                        // not a valid flowdirection
+                        return null;
                     }
+                    summed[index] = mapToSumValue;
+                    passes[index] = flow < 9;
                 } else {
-                    summedMapIter.setSample(c, r, 0, doubleNovalue);
+                    summed[index] = doubleNovalue;
                 }
             }
-            pm.worked(1);
         }
-        pm.done();
 
+        engine.process(index -> {
+            if (passes[index]) {
+                int downIndex = engine.getDownstreamIndex(index);
+                if (downIndex != -1 && !isNovalue(summed[downIndex])) {
+                    summed[downIndex] += summed[index];
+                }
+            }
+        }, pm);
+        if (pm.isCanceled()) {
+            return null;
+        }
+
+        WritableRaster summedMapWR = CoverageUtilities.createWritableRaster(width, height, null, null, null);
+        summedMapWR.setSamples(0, 0, width, height, 0, summed);
         return summedMapWR;
     }
 
@@ -1305,6 +1295,31 @@ public class ModelsEngine {
     */
     public static WritableRaster calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector,
             double[] normalSunVector, WritableRaster demWR, double dx ) {
+        GridRayCaster caster = GridRayCaster.fromRaster(demWR, dx, dx, doubleNovalue);
+        return calculateFactor(h, w, sunVector, inverseSunVector, normalSunVector, caster, dx);
+    }
+
+    /**
+    * Evaluate the shadow map calling the shadow method.
+    *
+    * <p>Use this when many shadow maps are calculated on the same elevation map,
+    * the caster is then created only once.</p>
+    *
+    * @param h
+    *            the height of the raster.
+    * @param w
+    *            the width of the raster.
+    * @param sunVector
+    * @param inverseSunVector
+    * @param normalSunVector
+    * @param caster
+    *            the ray caster of the elevation map.
+    * @param dx
+    *            the resolution of the elevation map.
+    * @return the shadow map.
+    */
+    public static WritableRaster calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector,
+            double[] normalSunVector, GridRayCaster caster, double dx ) {
 
         double casx = 1e6 * sunVector[0];
         double casy = 1e6 * sunVector[1];
@@ -1323,15 +1338,18 @@ public class ModelsEngine {
             f_j = h - 1;
         }
 
-        WritableRaster sOmbraWR = CoverageUtilities.createWritableRaster(w, h, null, null, 1.0);
+        double[] sOmbra = new double[w * h];
+        Arrays.fill(sOmbra, 1.0);
         int j = f_j;
-        for( int i = 0; i < sOmbraWR.getWidth(); i++ ) {
-            shadow(i, j, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+        for( int i = 0; i < w; i++ ) {
+            shadow(i, j, sOmbra, caster, dx, normalSunVector, inverseSunVector);
         }
         int i = f_i;
-        for( int k = 0; k < sOmbraWR.getHeight(); k++ ) {
-            shadow(i, k, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+        for( int k = 0; k < h; k++ ) {
+            shadow(i, k, sOmbra, caster, dx, normalSunVector, inverseSunVector);
         }
+        WritableRaster sOmbraWR = CoverageUtilities.createWritableRaster(w, h, null, null, null);
+        sOmbraWR.setSamples(0, 0, w, h, 0, sOmbra);
         return sOmbraWR;
     }
 
@@ -1342,60 +1360,29 @@ public class ModelsEngine {
      *            the x axis index.
      * @param j
      *            the y axis index.
-     * @param tmpWR
-     *            the output shadow map.
-     * @param demWR
-     *            the elevation map.
+     * @param sOmbra
+     *            the output shadow map, in row-major order.
+     * @param caster
+     *            the ray caster of the elevation map.
      * @param res
      *            the resolution of the elevation map.
      * @param normalSunVector
      * @param inverseSunVector
-     * @return
      */
-    private static WritableRaster shadow( int i, int j, WritableRaster tmpWR, WritableRaster demWR, double res,
-            double[] normalSunVector, double[] inverseSunVector ) {
-        int n = 0;
-        double zcompare = -Double.MAX_VALUE;
-        double dx = (inverseSunVector[0] * n);
-        double dy = (inverseSunVector[1] * n);
-        int nCols = tmpWR.getWidth();
-        int nRows = tmpWR.getHeight();
-        int idx = (int) Math.round(i + dx);
-        int jdy = (int) Math.round(j + dy);
-        double vectorToOrigin[] = new double[3];
-        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
-            vectorToOrigin[0] = dx * res;
-            vectorToOrigin[1] = dy * res;
-
-            int tmpY = (int) (j + dy);
-            if (tmpY < 0) {
-                tmpY = 0;
-            } else if (tmpY > nRows) {
-                tmpY = nRows - 1;
-            }
-            int tmpX = (int) (i + dx);
-            if (tmpX < 0) {
-                tmpX = 0;
-            } else if (tmpY > nCols) {
-                tmpX = nCols - 1;
-            }
-            vectorToOrigin[2] = demWR.getSampleDouble(idx, jdy, 0);
-            // vectorToOrigin[2] = (pitRandomIter.getSampleDouble(idx, jdy, 0) +
-            // pitRandomIter
-            // .getSampleDouble(tmpX, tmpY, 0)) / 2;
-            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
-            if ((zprojection < zcompare)) {
-                tmpWR.setSample(idx, jdy, 0, 0);
+    private static void shadow( int i, int j, double[] sOmbra, GridRayCaster caster, double res, double[] normalSunVector,
+            double[] inverseSunVector ) {
+        int nCols = caster.getCols();
+        double[] zcompare = {-Double.MAX_VALUE};
+        caster.walk(i, j, inverseSunVector[0], inverseSunVector[1], ( col, row, dx, dy, elevation ) -> {
+            double zprojection = dx * res * normalSunVector[0] + dy * res * normalSunVector[1]
+                    + elevation * normalSunVector[2];
+            if ((zprojection < zcompare[0])) {
+                sOmbra[row * nCols + col] = 0;
             } else {
-                zcompare = zprojection;
+                zcompare[0] = zprojection;
             }
-            n = n + 1;
-            dy = (inverseSunVector[1] * n);
-            dx = (inverseSunVector[0] * n);
-            idx = (int) Math.round(i + dx);
-            jdy = (int) Math.round(j + dy);
-        }
-        return tmpWR;
+            return true;
+        });
     }
 
     /**
@@ -98,6 +98,14 @@ public abstract class ExecutionPlanner {
     }
     
     
+    /**
+     * @return <code>true</code> if the submitted tasks are executed by other threads.
+     */
+    public boolean isParallel() {
+        return true;
+    }
+    
+    
     /**
      * Submits the given task for execution.
      * <p/>
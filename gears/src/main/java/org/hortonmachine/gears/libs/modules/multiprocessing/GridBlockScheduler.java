@@ -0,0 +1,312 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.multiprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+
+/**
+ * Splits a grid into blocks and processes them, either in the calling thread
+ * or on a {@link ForkJoinPool} with work stealing.
+ *
+ * <p>Blocks are row stripes sized to fit the L2 cache. If a single row is
+ * larger than that, square tiles are used instead (parallel mode only, in the
+ * calling thread stripes are always used, to keep the row-major cell order).</p>
+ *
+ * <p>A halo can be set for kernel operations: it doesn't change the blocks, but
+ * every block carries the extent extended by the halo and clipped to the grid,
+ * i.e. the part of the grid the block will need to read.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GridBlockScheduler {
+
+    /**
+     * The L2 cache size the blocks are sized on.
+     * <p/>
+     * Set this to change the default.
+     */
+    public static int l2CacheBytes = 256 * 1024;
+
+    /**
+     * The pool used in parallel mode.
+     * <p/>
+     * Set this to change the default.
+     */
+    public static ForkJoinPool defaultPool = ForkJoinPool.commonPool();
+
+    private static final int BYTES_PER_CELL = 8;
+    private static final int MIN_BLOCKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private int halo = 0;
+    private int blockCols = -1;
+    private int blockRows = -1;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param pool the pool to use or <code>null</code> to process in the calling thread.
+     */
+    public GridBlockScheduler( ForkJoinPool pool ) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return a scheduler running on the {@link #defaultPool}.
+     */
+    public static GridBlockScheduler parallel() {
+        return new GridBlockScheduler(defaultPool);
+    }
+
+    /**
+     * @return a scheduler running in the calling thread.
+     */
+    public static GridBlockScheduler inThread() {
+        return new GridBlockScheduler(null);
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * Set the halo needed by kernel operations.
+     *
+     * @param halo the number of cells read around every cell.
+     * @return the scheduler.
+     */
+    public GridBlockScheduler setHalo( int halo ) {
+        if (halo < 0) {
+            throw new IllegalArgumentException("The halo can't be negative.");
+        }
+        this.halo = halo;
+        return this;
+    }
+
+    /**
+     * Force the size of the blocks instead of the cache based one.
+     *
+     * @param blockCols the cols of a block.
+     * @param blockRows the rows of a block.
+     * @return the scheduler.
+     */
+    public GridBlockScheduler setBlockSize( int blockCols, int blockRows ) {
+        if (blockCols < 1 || blockRows < 1) {
+            throw new IllegalArgumentException("The block size needs to be positive.");
+        }
+        this.blockCols = blockCols;
+        this.blockRows = blockRows;
+        return this;
+    }
+
+    /**
+     * Split a region of a grid into blocks, in row-major order.
+     *
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param startCol the first col of the region, inclusive.
+     * @param startRow the first row of the region, inclusive.
+     * @param endCol the last col of the region, exclusive.
+     * @param endRow the last row of the region, exclusive.
+     * @return the list of blocks.
+     */
+    public List<GridBlock> createBlocks( int cols, int rows, int startCol, int startRow, int endCol, int endRow ) {
+        List<GridBlock> blocks = new ArrayList<>();
+        int width = endCol - startCol;
+        int height = endRow - startRow;
+        if (width <= 0 || height <= 0) {
+            return blocks;
+        }
+
+        int bCols = blockCols;
+        int bRows = blockRows;
+        if (bCols == -1) {
+            int cellsInCache = Math.max(1, l2CacheBytes / BYTES_PER_CELL);
+            if (!isParallel() || width + 2 * halo <= cellsInCache) {
+                bCols = width;
+                bRows = Math.max(1, cellsInCache / (width + 2 * halo) - 2 * halo);
+            } else {
+                bCols = Math.max(1, (int) Math.sqrt(cellsInCache) - 2 * halo);
+                bRows = bCols;
+            }
+            if (isParallel()) {
+                // make sure there is enough blocks to steal from
+                int minBlocks = pool.getParallelism() * MIN_BLOCKS_PER_THREAD;
+                int colBlocks = (width + bCols - 1) / bCols;
+                int rowBlocks = (height + bRows - 1) / bRows;
+                if (colBlocks * rowBlocks < minBlocks) {
+                    int neededRowBlocks = (minBlocks + colBlocks - 1) / colBlocks;
+                    bRows = Math.max(1, height / neededRowBlocks);
+                }
+            }
+        }
+
+        for( int r = startRow; r < endRow; r += bRows ) {
+            int maxRow = Math.min(endRow, r + bRows);
+            for( int c = startCol; c < endCol; c += bCols ) {
+                int maxCol = Math.min(endCol, c + bCols);
+                blocks.add(new GridBlock(c, r, maxCol, maxRow, cols, rows, halo));
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Process a region of a grid block by block.
+     *
+     * <p>Cancelation is checked before every block. Calculators should check it
+     * also inside large blocks.</p>
+     *
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param startCol the first col of the region, inclusive.
+     * @param startRow the first row of the region, inclusive.
+     * @param endCol the last col of the region, exclusive.
+     * @param endRow the last row of the region, exclusive.
+     * @param pm the monitor.
+     * @param doProgress if <code>true</code>, every block done is reported as its number
+     *          of cells to the monitor (the task has to be started by the caller).
+     * @param calculator the calculator of the single block.
+     * @throws Exception the first exception thrown by a calculator.
+     */
+    public void process( int cols, int rows, int startCol, int startRow, int endCol, int endRow, IHMProgressMonitor pm,
+            boolean doProgress, BlockCalculator calculator ) throws Exception {
+        List<GridBlock> blocks = createBlocks(cols, rows, startCol, startRow, endCol, endRow);
+        if (blocks.isEmpty()) {
+            return;
+        }
+        if (!isParallel()) {
+            for( GridBlock block : blocks ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                calculator.calculate(block);
+                if (doProgress) {
+                    pm.worked(block.getCellsCount());
+                }
+            }
+            return;
+        }
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        pool.invoke(new BlockAction(blocks, 0, blocks.size(), pm, doProgress, calculator, failure));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private static class BlockAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<GridBlock> blocks;
+        private final int from;
+        private final int to;
+        private final IHMProgressMonitor pm;
+        private final boolean doProgress;
+        private final BlockCalculator calculator;
+        private final AtomicReference<Exception> failure;
+
+        BlockAction( List<GridBlock> blocks, int from, int to, IHMProgressMonitor pm, boolean doProgress,
+                BlockCalculator calculator, AtomicReference<Exception> failure ) {
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+            this.pm = pm;
+            this.doProgress = doProgress;
+            this.calculator = calculator;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlockAction(blocks, from, mid, pm, doProgress, calculator, failure),
+                        new BlockAction(blocks, mid, to, pm, doProgress, calculator, failure));
+                return;
+            }
+            if (failure.get() != null || pm.isCanceled()) {
+                return;
+            }
+            GridBlock block = blocks.get(from);
+            try {
+                calculator.calculate(block);
+                if (doProgress) {
+                    pm.worked(block.getCellsCount());
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * A rectangular block of a grid.
+     */
+    public static class GridBlock {
+        /** The first col of the block, inclusive. */
+        public final int minCol;
+        /** The first row of the block, inclusive. */
+        public final int minRow;
+        /** The last col of the block, exclusive. */
+        public final int maxCol;
+        /** The last row of the block, exclusive. */
+        public final int maxRow;
+
+        /** The first col to read, including the halo, inclusive. */
+        public final int readMinCol;
+        /** The first row to read, including the halo, inclusive. */
+        public final int readMinRow;
+        /** The last col to read, including the halo, exclusive. */
+        public final int readMaxCol;
+        /** The last row to read, including the halo, exclusive. */
+        public final int readMaxRow;
+
+        GridBlock( int minCol, int minRow, int maxCol, int maxRow, int cols, int rows, int halo ) {
+            this.minCol = minCol;
+            this.minRow = minRow;
+            this.maxCol = maxCol;
+            this.maxRow = maxRow;
+            readMinCol = Math.max(0, minCol - halo);
+            readMinRow = Math.max(0, minRow - halo);
+            readMaxCol = Math.min(cols, maxCol + halo);
+            readMaxRow = Math.min(rows, maxRow + halo);
+        }
+
+        public int getCellsCount() {
+            return (maxCol - minCol) * (maxRow - minRow);
+        }
+
+        @Override
+        public String toString() {
+            return "GridBlock [cols=" + minCol + "-" + maxCol + ", rows=" + minRow + "-" + maxRow + "]";
+        }
+    }
+
+    @FunctionalInterface
+    public interface BlockCalculator {
+        void calculate( GridBlock block ) throws Exception;
+    }
+
+}
@@ -17,6 +17,11 @@
  */
 package org.hortonmachine.gears.libs.modules.multiprocessing;
 
+import javax.media.jai.iterator.RandomIter;
+
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+
 /**
  * A multiprocessing class for grid loops (nested for over matrix).
  *
@@ -29,11 +34,13 @@ public abstract class GridMultiProcessing extends MultiProcessing {
     }
     /**
      * Loops through all rows and cols of the given grid.
+     * 
+     * <p>The grid is processed in blocks by the {@link #createGridScheduler() grid scheduler}.
+     * Every block done is reported to the monitor as its number of cells, so the task
+     * has to be started with <code>cols * rows</code> work units and the calculator
+     * must not call {@link IHMProgressMonitor#worked(int)}.</p>
      */
     protected void processGrid( int cols, int rows, boolean ignoreBorder, Calculator calculator ) throws Exception {
-        ExecutionPlanner planner = createDefaultPlanner();
-        planner.setNumberOfTasks(rows * cols);
-
         int startC = 0;
         int startR = 0;
         int endC = cols;
@@ -44,17 +51,55 @@ public abstract class GridMultiProcessing extends MultiProcessing {
             endC = cols - 1;
             endR = rows - 1;
         }
-        for( int r = startR; r < endR; r++ ) {
-            for( int c = startC; c < endC; c++ ) {
-                int _c = c, _r = r;
-                planner.submit(() -> {
-                    if (!pm.isCanceled()) {
-                        calculator.calculate(_c, _r);
-                    }
-                });
+        createGridScheduler().process(cols, rows, startC, startR, endC, endR, pm, true, block -> {
+            for( int r = block.minRow; r < block.maxRow; r++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                for( int c = block.minCol; c < block.maxCol; c++ ) {
+                    calculator.calculate(c, r);
+                }
             }
-        }
-        planner.join();
+        });
+    }
+
+    /**
+     * Loops through the given grid block by block.
+     * 
+     * <p>Every block done is reported to the monitor as its number of cells,
+     * so the task has to be started with <code>cols * rows</code> work units.</p>
+     * 
+     * @param halo the number of cells the calculator reads around every cell of a block.
+     */
+    protected void processGridBlocks( int cols, int rows, int halo, GridBlockScheduler.BlockCalculator calculator )
+            throws Exception {
+        createGridScheduler().setHalo(halo).process(cols, rows, 0, 0, cols, rows, pm, true, calculator);
+    }
+
+    /**
+     * Loops through all rows and cols of the given grid, passing to the calculator
+     * a {@link GridNodeCursor} positioned on each cell.
+     * 
+     * <p>Every block of the grid gets its own cursor, so no object is created
+     * per cell. The cursor must not be kept by the calculator.</p>
+     * 
+     * <p>The progress is reported as in {@link #processGrid(int, int, boolean, Calculator)}.</p>
+     */
+    protected void processGridCursors( RandomIter elevationIter, int cols, int rows, double xRes, double yRes, double novalue,
+            CursorCalculator calculator ) throws Exception {
+        createGridScheduler().setHalo(1).process(cols, rows, 0, 0, cols, rows, pm, true, block -> {
+            GridNodeCursor cursor = new GridNodeCursor(elevationIter, cols, rows, xRes, yRes, novalue);
+            cursor.setColumnRange(block.minCol, block.maxCol - 1);
+            for( int r = block.minRow; r < block.maxRow; r++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                for( int c = block.minCol; c < block.maxCol; c++ ) {
+                    cursor.moveTo(c, r);
+                    calculator.calculate(cursor);
+                }
+            }
+        });
     }
 
     @FunctionalInterface
@@ -62,4 +107,9 @@ public abstract class GridMultiProcessing extends MultiProcessing {
         void calculate( int col, int row ) throws Exception;
     }
 
+    @FunctionalInterface
+    protected interface CursorCalculator {
+        void calculate( GridNodeCursor cursor ) throws Exception;
+    }
+
 }
@@ -24,6 +24,7 @@ import javax.media.jai.iterator.RandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -52,6 +53,8 @@ public abstract class GridNodeMultiProcessing extends MultiProcessing {
     /**
      * Loops through all rows and cols of the given grid and calls the given
      * calculator for each {@link GridNode}.
+     * 
+     * <p>The grid is processed in blocks by the {@link #createGridScheduler() grid scheduler}.</p>
      */
     protected void processGridNodes( GridCoverage2D inElev, Calculator<GridNode> calculator ) throws Exception {
         RegionMap regionMap = regionMap(inElev);
@@ -59,27 +62,55 @@ public abstract class GridNodeMultiProcessing extends MultiProcessing {
         int rows = regionMap.getRows();
         double xRes = regionMap.getXres();
         double yRes = regionMap.getYres();
-        
+
+        RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
+
+        double novalue = HMConstants.getNovalue(inElev);
+
+        createGridScheduler().setHalo(1).process(cols, rows, 0, 0, cols, rows, pm, false, block -> {
+            for( int r = block.minRow; r < block.maxRow; r++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                for( int c = block.minCol; c < block.maxCol; c++ ) {
+                    GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, c, r, novalue);
+                    calculator.calculate(node);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loops through all rows and cols of the given grid and calls the given
+     * calculator for each cell, passing a {@link GridNodeCursor} positioned on it.
+     * 
+     * <p>Every block of the grid gets its own cursor, so no object is created
+     * per cell. The cursor must not be kept by the calculator.</p>
+     */
+    protected void processGridNodeCursors( GridCoverage2D inElev, Calculator<GridNodeCursor> calculator ) throws Exception {
+        RegionMap regionMap = regionMap(inElev);
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        double xRes = regionMap.getXres();
+        double yRes = regionMap.getYres();
+
         RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
-        
+
         double novalue = HMConstants.getNovalue(inElev);
 
-        ExecutionPlanner planner = createDefaultPlanner();
-        planner.setNumberOfTasks(rows * cols);
-
-        // Cycling into the valid region.
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                int _c = c, _r = r;
-                planner.submit(() -> {
-                    if (!pm.isCanceled()) {
-                        GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, _c, _r, novalue);
-                        calculator.calculate(node);
-                    }
-                });
+        createGridScheduler().setHalo(1).process(cols, rows, 0, 0, cols, rows, pm, false, block -> {
+            GridNodeCursor cursor = new GridNodeCursor(elevationIter, cols, rows, xRes, yRes, novalue);
+            cursor.setColumnRange(block.minCol, block.maxCol - 1);
+            for( int r = block.minRow; r < block.maxRow; r++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                for( int c = block.minCol; c < block.maxCol; c++ ) {
+                    cursor.moveTo(c, r);
+                    calculator.calculate(cursor);
+                }
             }
-        }
-        planner.join();
+        });
     }
 
     @FunctionalInterface
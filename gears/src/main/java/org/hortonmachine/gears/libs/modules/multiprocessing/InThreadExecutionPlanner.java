@@ -29,6 +29,12 @@ public class InThreadExecutionPlanner
     private Exception       exc;
     
 
+    @Override
+    public boolean isParallel() {
+        return false;
+    }
+
+
     @Override
     public void submit( MultiProcessingTask task ) {
         try {
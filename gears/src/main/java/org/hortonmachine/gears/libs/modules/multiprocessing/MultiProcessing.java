@@ -37,4 +37,16 @@ public abstract class MultiProcessing
         return ExecutionPlanner.createDefaultPlanner();
     }
     
+    /**
+     * Creates the {@link GridBlockScheduler} used for grid loops. It runs in
+     * parallel if the {@link #createDefaultPlanner() default planner} does.
+     * Override if an algorithm needs a particular scheduling.
+     */
+    protected GridBlockScheduler createGridScheduler() {
+        if (createDefaultPlanner().isParallel()) {
+            return GridBlockScheduler.parallel();
+        }
+        return GridBlockScheduler.inThread();
+    }
+    
 }
@@ -141,7 +141,6 @@ public class OmsCutOut extends GridMultiProcessing {
                 if (pm.isCanceled()) {
                     return;
                 }
-                pm.worked(1);
                 if (maskIter != null) {
                     double maskValue = maskIter.getSampleDouble(c, r, 0);
                     if (!doInverse) {
@@ -31,6 +31,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_NAME;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_OUT_RASTER_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_P_BUFFER_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_P_MAX_POINTS_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_P_MAX_THREADS_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_P_MODE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSSURFACEINTERPOLATOR_STATUS;
@@ -39,14 +40,9 @@ import static org.hortonmachine.gears.libs.modules.Variables.IDW;
 import static org.hortonmachine.gears.libs.modules.Variables.TPS;
 
 import java.awt.image.WritableRaster;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -56,8 +52,10 @@ import org.geotools.data.simple.SimpleFeatureIterator;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
 import org.hortonmachine.gears.modules.r.interpolation2d.core.IDWInterpolator;
 import org.hortonmachine.gears.modules.r.interpolation2d.core.ISurfaceInterpolator;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.KdTree;
 import org.hortonmachine.gears.modules.r.interpolation2d.core.TPSInterpolator;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -65,12 +63,9 @@ import org.hortonmachine.gears.utils.geometry.EGeometryType;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.geometry.DirectPosition;
-import org.opengis.referencing.operation.TransformException;
 
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.index.strtree.STRtree;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -122,6 +117,10 @@ public class OmsSurfaceInterpolator extends HMModel {
     @In
     public double pBuffer = 4.0;
 
+    @Description(OMSSURFACEINTERPOLATOR_P_MAX_POINTS_DESCRIPTION)
+    @In
+    public int pMaxPoints = 0;
+
     @Description(OMSSURFACEINTERPOLATOR_P_MAX_THREADS_DESCRIPTION)
     @In
     public int pMaxThreads = getDefaultThreadsNum();
@@ -132,7 +131,7 @@ public class OmsSurfaceInterpolator extends HMModel {
 
     private ISurfaceInterpolator interpolator;
 
-    private STRtree coordinatesSpatialTree;
+    private KdTree controlPointsTree;
 
     private GridGeometry2D gridGeometry;
 
@@ -145,54 +144,68 @@ public class OmsSurfaceInterpolator extends HMModel {
         final int cols = regionMap.getCols();
         int rows = regionMap.getRows();
 
-        coordinatesSpatialTree = new STRtree();
         if (inVector != null) {
             checkNull(fCat);
             GeometryDescriptor geometryDescriptor = inVector.getSchema().getGeometryDescriptor();
             if (!EGeometryType.isPoint(geometryDescriptor)) {
                 throw new ModelsIllegalargumentException("The geometry has to be a point geometry.", this, pm);
             }
-            SimpleFeatureIterator featureIterator = inVector.features();
-            Coordinate[] coordinates = new Coordinate[inVector.size()];
+            int size = inVector.size();
+            double[] xs = new double[size];
+            double[] ys = new double[size];
+            double[] zs = new double[size];
 
             int index = 0;
-            pm.beginTask("Indexing control points...", coordinates.length);
-            while( featureIterator.hasNext() ) {
-                SimpleFeature feature = featureIterator.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                coordinates[index] = geometry.getCoordinate();
-                double value = ((Number) feature.getAttribute(fCat)).doubleValue();
-                coordinates[index].z = value;
-
-                Envelope env = new Envelope(coordinates[index]);
-                coordinatesSpatialTree.insert(env, coordinates[index]);
-
-                pm.worked(1);
+            pm.beginTask("Indexing control points...", size);
+            try (SimpleFeatureIterator featureIterator = inVector.features()) {
+                while( featureIterator.hasNext() && index < size ) {
+                    SimpleFeature feature = featureIterator.next();
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    Coordinate coordinate = geometry.getCoordinate();
+                    xs[index] = coordinate.x;
+                    ys[index] = coordinate.y;
+                    zs[index] = ((Number) feature.getAttribute(fCat)).doubleValue();
+                    index++;
+                    pm.worked(1);
+                }
             }
+            controlPointsTree = new KdTree(xs, ys, zs, index);
             pm.done();
-            pm.message("Indexed control points: " + coordinates.length);
+            pm.message("Indexed control points: " + index);
         } else {
             // create it from grid
             pm.beginTask("Indexing control points...", cols);
             RandomIter inIter = CoverageUtilities.getRandomIterator(inGrid);
             int count = 0;
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    if (!HMConstants.isNovalue(inIter.getSampleDouble(c, r, 0))) {
+                        count++;
+                    }
+                }
+            }
+            double[] xs = new double[count];
+            double[] ys = new double[count];
+            double[] zs = new double[count];
+            int index = 0;
             for( int r = 0; r < rows; r++ ) {
                 for( int c = 0; c < cols; c++ ) {
                     double value = inIter.getSampleDouble(c, r, 0);
                     if (!HMConstants.isNovalue(value)) {
                         Coordinate coordinate = CoverageUtilities.coordinateFromColRow(c, r, gridGeometry);
-                        coordinate.z = value;
-                        Envelope env = new Envelope(coordinate);
-                        coordinatesSpatialTree.insert(env, coordinate);
-                        count++;
+                        xs[index] = coordinate.x;
+                        ys[index] = coordinate.y;
+                        zs[index] = value;
+                        index++;
                     }
                 }
                 pm.worked(1);
             }
+            inIter.done();
+            controlPointsTree = new KdTree(xs, ys, zs, count);
             pm.done();
             pm.message("Indexed control points (from input grid): " + count);
         }
-        coordinatesSpatialTree.build();
 
         if (pMode.equals(IDW)) {
             interpolator = new IDWInterpolator(0, pBuffer);
@@ -200,39 +213,39 @@ public class OmsSurfaceInterpolator extends HMModel {
             interpolator = new TPSInterpolator(0, pBuffer);
         }
 
-        WritableRaster interpolatedWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, HMConstants.doubleNovalue);
-        final WritableRandomIter interpolatedIter = RandomIterFactory.createWritable(interpolatedWR, null);
+        final WritableRaster interpolatedWR = CoverageUtilities.createWritableRaster(cols, rows, null, null,
+                HMConstants.doubleNovalue);
 
         boolean doMultiThread = pMaxThreads > 1;
 
-        ExecutorService fixedThreadPool = null;
-        if (doMultiThread)
-            fixedThreadPool = Executors.newFixedThreadPool(pMaxThreads);
-
-        pm.beginTask("Performing interpolation...", rows);
-
-        final double[] eval = new double[1];
-        for( int r = 0; r < rows; r++ ) {
-            final int row = r;
-            if (doMultiThread) {
-                Runnable runner = new Runnable(){
-                    public void run() {
-                        processing(cols, coordinatesSpatialTree, interpolatedIter, eval, row);
-                    }
-                };
-                fixedThreadPool.execute(runner);
-            } else {
-                processing(cols, coordinatesSpatialTree, interpolatedIter, eval, row);
-            }
+        ForkJoinPool pool = null;
+        GridBlockScheduler scheduler;
+        if (doMultiThread) {
+            pool = new ForkJoinPool(pMaxThreads);
+            scheduler = new GridBlockScheduler(pool);
+        } else {
+            scheduler = GridBlockScheduler.inThread();
         }
+        // whole rows, so that neighbouring cells of a row are processed by the same thread
+        scheduler.setBlockSize(cols, Math.max(1, rows / (Math.max(1, pMaxThreads) * 4)));
 
-        if (doMultiThread) {
-            try {
-                fixedThreadPool.shutdown();
-                fixedThreadPool.awaitTermination(30, TimeUnit.DAYS);
-                fixedThreadPool.shutdownNow();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        pm.beginTask("Performing interpolation...", cols * rows);
+        try {
+            scheduler.process(cols, rows, 0, 0, cols, rows, pm, true, block -> {
+                KdTree.Neighbours neighbours = new KdTree.Neighbours();
+                double[] eval = new double[1];
+                for( int r = block.minRow; r < block.maxRow; r++ ) {
+                    for( int c = block.minCol; c < block.maxCol; c++ ) {
+                        double value = processing(c, r, neighbours, eval);
+                        if (!isNovalue(value)) {
+                            interpolatedWR.setSample(c, r, 0, value);
+                        }
+                    }
+                }
+            });
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
         }
         pm.done();
@@ -241,48 +254,29 @@ public class OmsSurfaceInterpolator extends HMModel {
                 inGrid.getCoordinateReferenceSystem());
 
     }
-    private void processing( final int cols, final STRtree tree, final WritableRandomIter interpolatedIter, final double[] eval,
-            final int row ) {
-        try {
-            for( int c = 0; c < cols; c++ ) {
-                final DirectPosition gridToWorld = gridGeometry.gridToWorld(new GridCoordinates2D(c, row));
-                // System.out.println(row + "/" + c);
-                boolean doProcess = true;
-                if (inMask != null) {
-                    inMask.evaluate(gridToWorld, eval);
-                    if (isNovalue(eval[0])) {
-                        doProcess = false;
-                    }
-                }
-
-                if (doProcess) {
-                    final Coordinate currentCoord = new Coordinate();
-                    final double[] coord = gridToWorld.getCoordinate();
-                    currentCoord.x = coord[0];
-                    currentCoord.y = coord[1];
-
-                    final Envelope env = new Envelope(currentCoord.x - pBuffer, currentCoord.x + pBuffer,
-                            currentCoord.y - pBuffer, currentCoord.y + pBuffer);
-
-                    @SuppressWarnings("unchecked")
-                    final List<Coordinate> result = tree.query(env);
-                    // System.out.println(row + "/" + c + " = " + result.size());
 
-                    // we need at least 3 points
-                    if (result.size() < 4) {
-                        continue;
-                    }
+    private double processing( final int c, final int row, final KdTree.Neighbours neighbours, final double[] eval )
+            throws Exception {
+        final DirectPosition gridToWorld = gridGeometry.gridToWorld(new GridCoordinates2D(c, row));
+        if (inMask != null) {
+            inMask.evaluate(gridToWorld, eval);
+            if (isNovalue(eval[0])) {
+                return HMConstants.doubleNovalue;
+            }
+        }
 
-                    final double value = interpolator.getValue(result.toArray(new Coordinate[0]), currentCoord);
-                    synchronized (interpolatedIter) {
-                        interpolatedIter.setSample(c, row, 0, value);
-                    }
-                }
+        final double[] coord = gridToWorld.getCoordinate();
+        if (pMaxPoints > 0) {
+            controlPointsTree.nearest(coord[0], coord[1], pMaxPoints, pBuffer, neighbours);
+        } else {
+            controlPointsTree.box(coord[0], coord[1], pBuffer, neighbours);
+        }
 
-            }
-            pm.worked(1);
-        } catch (TransformException e) {
-            e.printStackTrace();
+        // we need at least 3 points
+        if (neighbours.size() < 4) {
+            return HMConstants.doubleNovalue;
         }
+
+        return interpolator.getValue(controlPointsTree, neighbours, coord[0], coord[1]);
     }
 }
@@ -31,6 +31,9 @@ import org.locationtech.jts.geom.Coordinate;
  */
 public class IDWInterpolator implements ISurfaceInterpolator {
 
+    private static final double MIN_DISTANCE = 0.00001;
+    private static final double MIN_SQUARED_DISTANCE = MIN_DISTANCE * MIN_DISTANCE;
+
     private double maxDistance;
     private double minDistance;
     private boolean useBuffer = false;
@@ -61,8 +64,8 @@ public class IDWInterpolator implements ISurfaceInterpolator {
             if (useBuffer && (distance > maxDistance || distance < minDistance)) {
                 continue;
             }
-            if (distance < 0.00001) {
-                distance = 0.00001;
+            if (distance < MIN_DISTANCE) {
+                distance = MIN_DISTANCE;
             }
             double weight = (1 / Math.pow(distance, 2));
 
@@ -92,8 +95,8 @@ public class IDWInterpolator implements ISurfaceInterpolator {
             if (useBuffer && (distance > maxDistance || distance < minDistance)) {
                 continue;
             }
-            if (distance < 0.00001) {
-                distance = 0.00001;
+            if (distance < MIN_DISTANCE) {
+                distance = MIN_DISTANCE;
             }
             double weight = (1 / Math.pow(distance, 2));
 
@@ -105,4 +108,40 @@ public class IDWInterpolator implements ISurfaceInterpolator {
         double value = sumdValue / sumweight;
         return value;
     }
+
+    /**
+     * Weights the control points by their squared distance, without allocating.
+     */
+    @Override
+    public double getValue( KdTree tree, KdTree.Neighbours neighbours, double x, double y ) {
+        int size = neighbours.size();
+        if (size == 0) {
+            return HMConstants.doubleNovalue;
+        }
+
+        double sumdValue = 0;
+        double sumweight = 0;
+        for( int i = 0; i < size; i++ ) {
+            int position = neighbours.getPosition(i);
+            if (useBuffer) {
+                double dx = tree.getX(position) - x;
+                double dy = tree.getY(position) - y;
+                if (KdTree.isFarther(dx, dy, maxDistance) || KdTree.isCloser(dx, dy, minDistance)) {
+                    continue;
+                }
+            }
+            double squaredDistance = neighbours.getSquaredDistance(i);
+            if (squaredDistance < MIN_SQUARED_DISTANCE) {
+                squaredDistance = MIN_SQUARED_DISTANCE;
+            }
+            double weight = 1 / squaredDistance;
+
+            sumdValue = sumdValue + tree.getZ(position) * weight;
+
+            sumweight = sumweight + weight;
+        }
+
+        double value = sumdValue / sumweight;
+        return value;
+    }
 }
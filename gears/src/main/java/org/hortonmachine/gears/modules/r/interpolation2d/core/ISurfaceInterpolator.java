@@ -38,4 +38,22 @@ public interface ISurfaceInterpolator {
 
     public double getValue( List<Coordinate> controlPoints, Coordinate interpolated );
 
+    /**
+     * Gets an interpolated value in a given position, from control points found in a {@link KdTree}.
+     * 
+     * @param tree the tree of the control points.
+     * @param neighbours the control points to consider to evaluate the interpolated point.
+     * @param x the x of the position in which to interpolate.
+     * @param y the y of the position in which to interpolate.
+     * @return the interpolated z value.
+     */
+    public default double getValue( KdTree tree, KdTree.Neighbours neighbours, double x, double y ) {
+        Coordinate[] controlPoints = new Coordinate[neighbours.size()];
+        for( int i = 0; i < controlPoints.length; i++ ) {
+            int position = neighbours.getPosition(i);
+            controlPoints[i] = new Coordinate(tree.getX(position), tree.getY(position), tree.getZ(position));
+        }
+        return getValue(controlPoints, new Coordinate(x, y));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,422 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.interpolation2d.core;
+
+import java.util.Arrays;
+
+/**
+ * A 2D kd-tree of control points, kept in primitive arrays.
+ *
+ * <p>The tree is balanced on the median and alternates the split on x and y. Points
+ * are referenced by their position in the tree, {@link #getIndex(int)} gives back
+ * the index they had in the arrays the tree was built from.</p>
+ *
+ * <p>Distances are planar. The radius checks give the same result as the
+ * distance of jts coordinates also for points lying on the radius.</p>
+ *
+ * <p>Once built, the tree can be queried from several threads, each with its own
+ * {@link Neighbours}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class KdTree {
+
+    private static final double EDGE_TOLERANCE = 1E-12;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final int[] indexes;
+
+    /**
+     * Build the tree.
+     *
+     * @param x the x coordinates of the points.
+     * @param y the y coordinates of the points.
+     * @param z the values of the points.
+     * @param count the number of points to take from the arrays.
+     */
+    public KdTree( double[] x, double[] y, double[] z, int count ) {
+        xs = Arrays.copyOf(x, count);
+        ys = Arrays.copyOf(y, count);
+        zs = Arrays.copyOf(z, count);
+        indexes = new int[count];
+        for( int i = 0; i < count; i++ ) {
+            indexes[i] = i;
+        }
+        build(0, count, true);
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public double getX( int position ) {
+        return xs[position];
+    }
+
+    public double getY( int position ) {
+        return ys[position];
+    }
+
+    public double getZ( int position ) {
+        return zs[position];
+    }
+
+    /**
+     * @param position the position in the tree.
+     * @return the index of the point in the original arrays.
+     */
+    public int getIndex( int position ) {
+        return indexes[position];
+    }
+
+    /**
+     * Find the points inside a square, borders included.
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param halfSide half of the side of the square.
+     * @param neighbours the found points, in tree order, replacing the previous ones.
+     */
+    public void box( double x, double y, double halfSide, Neighbours neighbours ) {
+        neighbours.clear();
+        box(0, xs.length, true, x - halfSide, x + halfSide, y - halfSide, y + halfSide, x, y, neighbours);
+    }
+
+    /**
+     * Find the points within a distance.
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param radius the max distance, included.
+     * @param neighbours the found points, in tree order, replacing the previous ones.
+     */
+    public void radius( double x, double y, double radius, Neighbours neighbours ) {
+        neighbours.clear();
+        radius(0, xs.length, true, x, y, radius, neighbours);
+    }
+
+    /**
+     * Find the k nearest points within a distance.
+     *
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param k the max number of points.
+     * @param radius the max distance, included. Use {@link Double#POSITIVE_INFINITY} for no limit.
+     * @param neighbours the found points, nearest first, replacing the previous ones.
+     */
+    public void nearest( double x, double y, int k, double radius, Neighbours neighbours ) {
+        neighbours.clear();
+        if (k <= 0) {
+            return;
+        }
+        nearest(0, xs.length, true, x, y, k, radius, neighbours);
+        neighbours.sortHeap();
+    }
+
+    /**
+     * Check if a point is farther than a distance, as the distance of jts coordinates would.
+     *
+     * @param dx the x delta.
+     * @param dy the y delta.
+     * @param distance the distance.
+     * @return <code>true</code> if farther.
+     */
+    public static boolean isFarther( double dx, double dy, double distance ) {
+        double squared = dx * dx + dy * dy;
+        double limit = distance * distance;
+        if (squared > limit * (1 + EDGE_TOLERANCE)) {
+            return true;
+        }
+        if (squared < limit * (1 - EDGE_TOLERANCE)) {
+            return false;
+        }
+        return Math.hypot(dx, dy) > distance;
+    }
+
+    /**
+     * Check if a point is closer than a distance, as the distance of jts coordinates would.
+     *
+     * @param dx the x delta.
+     * @param dy the y delta.
+     * @param distance the distance.
+     * @return <code>true</code> if closer.
+     */
+    public static boolean isCloser( double dx, double dy, double distance ) {
+        double squared = dx * dx + dy * dy;
+        double limit = distance * distance;
+        if (squared < limit * (1 - EDGE_TOLERANCE)) {
+            return true;
+        }
+        if (squared > limit * (1 + EDGE_TOLERANCE)) {
+            return false;
+        }
+        return Math.hypot(dx, dy) < distance;
+    }
+
+    private void build( int from, int to, boolean onX ) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        select(from, to - 1, mid, onX ? xs : ys);
+        build(from, mid, !onX);
+        build(mid + 1, to, !onX);
+    }
+
+    /**
+     * Quickselect the k-th point on a coordinate, so that the points before it are
+     * not greater and the ones after it not smaller.
+     */
+    private void select( int left, int right, int k, double[] values ) {
+        while( right > left ) {
+            int mid = (left + right) >>> 1;
+            // median of three as pivot
+            if (values[mid] < values[left]) {
+                swap(left, mid);
+            }
+            if (values[right] < values[left]) {
+                swap(left, right);
+            }
+            if (values[right] < values[mid]) {
+                swap(mid, right);
+            }
+            double pivot = values[mid];
+            int i = left;
+            int j = right;
+            while( i <= j ) {
+                while( values[i] < pivot ) {
+                    i++;
+                }
+                while( values[j] > pivot ) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap( int i, int j ) {
+        double tmp = xs[i];
+        xs[i] = xs[j];
+        xs[j] = tmp;
+        tmp = ys[i];
+        ys[i] = ys[j];
+        ys[j] = tmp;
+        tmp = zs[i];
+        zs[i] = zs[j];
+        zs[j] = tmp;
+        int tmpIndex = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = tmpIndex;
+    }
+
+    private void box( int from, int to, boolean onX, double minX, double maxX, double minY, double maxY, double x, double y,
+            Neighbours neighbours ) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        double px = xs[mid];
+        double py = ys[mid];
+        if (px >= minX && px <= maxX && py >= minY && py <= maxY) {
+            double dx = px - x;
+            double dy = py - y;
+            neighbours.add(mid, dx * dx + dy * dy);
+        }
+        double split = onX ? px : py;
+        if ((onX ? minX : minY) <= split) {
+            box(from, mid, !onX, minX, maxX, minY, maxY, x, y, neighbours);
+        }
+        if ((onX ? maxX : maxY) >= split) {
+            box(mid + 1, to, !onX, minX, maxX, minY, maxY, x, y, neighbours);
+        }
+    }
+
+    private void radius( int from, int to, boolean onX, double x, double y, double radius, Neighbours neighbours ) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        double dx = xs[mid] - x;
+        double dy = ys[mid] - y;
+        if (!isFarther(dx, dy, radius)) {
+            neighbours.add(mid, dx * dx + dy * dy);
+        }
+        double delta = onX ? dx : dy;
+        if (delta >= -radius) {
+            radius(from, mid, !onX, x, y, radius, neighbours);
+        }
+        if (delta <= radius) {
+            radius(mid + 1, to, !onX, x, y, radius, neighbours);
+        }
+    }
+
+    private void nearest( int from, int to, boolean onX, double x, double y, int k, double radius, Neighbours neighbours ) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        double dx = xs[mid] - x;
+        double dy = ys[mid] - y;
+        double squared = dx * dx + dy * dy;
+        if (!isFarther(dx, dy, radius)) {
+            neighbours.offer(mid, squared, k);
+        }
+        double delta = onX ? dx : dy;
+        // visit first the side of the query point
+        boolean nearIsLeft = delta >= 0;
+        if (nearIsLeft) {
+            nearest(from, mid, !onX, x, y, k, radius, neighbours);
+        } else {
+            nearest(mid + 1, to, !onX, x, y, k, radius, neighbours);
+        }
+        double planeDistance = Math.abs(delta);
+        if (planeDistance <= radius && (neighbours.size() < k || planeDistance * planeDistance <= neighbours.maxSquaredDistance())) {
+            if (nearIsLeft) {
+                nearest(mid + 1, to, !onX, x, y, k, radius, neighbours);
+            } else {
+                nearest(from, mid, !onX, x, y, k, radius, neighbours);
+            }
+        }
+    }
+
+    /**
+     * The points found by a query, as positions in the tree and squared distances from the
+     * query point.
+     *
+     * <p>The holder grows as needed and is meant to be reused for many queries.</p>
+     */
+    public static class Neighbours {
+        private int[] positions = new int[64];
+        private double[] squaredDistances = new double[64];
+        private int size = 0;
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i the index of the neighbour.
+         * @return the position of the neighbour in the tree.
+         */
+        public int getPosition( int i ) {
+            return positions[i];
+        }
+
+        /**
+         * @param i the index of the neighbour.
+         * @return the squared distance of the neighbour from the query point.
+         */
+        public double getSquaredDistance( int i ) {
+            return squaredDistances[i];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add( int position, double squaredDistance ) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                squaredDistances = Arrays.copyOf(squaredDistances, size * 2);
+            }
+            positions[size] = position;
+            squaredDistances[size] = squaredDistance;
+            size++;
+        }
+
+        double maxSquaredDistance() {
+            return squaredDistances[0];
+        }
+
+        /**
+         * Offer a point to a max heap bounded to k points.
+         */
+        void offer( int position, double squaredDistance, int k ) {
+            if (size < k) {
+                add(position, squaredDistance);
+                // sift up
+                int i = size - 1;
+                while( i > 0 ) {
+                    int parent = (i - 1) >>> 1;
+                    if (squaredDistances[parent] >= squaredDistances[i]) {
+                        break;
+                    }
+                    swap(i, parent);
+                    i = parent;
+                }
+            } else if (squaredDistance < squaredDistances[0]) {
+                positions[0] = position;
+                squaredDistances[0] = squaredDistance;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Sort the heap by ascending distance.
+         */
+        void sortHeap() {
+            for( int end = size - 1; end > 0; end-- ) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        private void siftDown( int i, int end ) {
+            while( true ) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < end && squaredDistances[left] > squaredDistances[largest]) {
+                    largest = left;
+                }
+                if (right < end && squaredDistances[right] > squaredDistances[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap( int i, int j ) {
+            int tmpPosition = positions[i];
+            positions[i] = positions[j];
+            positions[j] = tmpPosition;
+            double tmp = squaredDistances[i];
+            squaredDistances[i] = squaredDistances[j];
+            squaredDistances[j] = tmp;
+        }
+    }
+
+}
@@ -17,6 +17,8 @@
  */
 package org.hortonmachine.gears.modules.r.interpolation2d.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -32,6 +34,9 @@ import org.locationtech.jts.geom.Coordinate;
  *  
  * <p>The implementation is meant to be threadsafe.
  * 
+ * <p>When used with a {@link KdTree}, the solved system of the last set of control
+ * points is kept by every thread and reused while neighbouring points use the same set.
+ * 
  * <p><b>Note that this implementation works only with metric data.</b>
  *
  * @author jezekjan
@@ -43,6 +48,8 @@ public class TPSInterpolator implements ISurfaceInterpolator {
     private double minDistance;
     private boolean useBuffer = false;
 
+    private final ThreadLocal<LocalSystem> localSystems = ThreadLocal.withInitial(LocalSystem::new);
+
     public TPSInterpolator() {
     }
 
@@ -70,6 +77,66 @@ public class TPSInterpolator implements ISurfaceInterpolator {
         return getValueInternal(interpolated, controlPointsUsed);
     }
 
+    @Override
+    public double getValue( KdTree tree, KdTree.Neighbours neighbours, double x, double y ) {
+        LocalSystem system = localSystems.get();
+        int[] positions = system.candidatePositions(neighbours.size());
+        int count = 0;
+        for( int i = 0; i < neighbours.size(); i++ ) {
+            int position = neighbours.getPosition(i);
+            if (useBuffer) {
+                double dx = tree.getX(position) - x;
+                double dy = tree.getY(position) - y;
+                if (KdTree.isFarther(dx, dy, maxDistance) || KdTree.isCloser(dx, dy, minDistance)) {
+                    continue;
+                }
+            }
+            positions[count++] = position;
+        }
+        // sorted, so that the same set is recognized whatever the query order
+        Arrays.sort(positions, 0, count);
+
+        if (!system.isFor(positions, count)) {
+            List<Coordinate> controlPointsUsed = new ArrayList<>(count);
+            for( int i = 0; i < count; i++ ) {
+                int position = positions[i];
+                controlPointsUsed.add(new Coordinate(tree.getX(position), tree.getY(position), tree.getZ(position)));
+            }
+            double[] coefficients = null;
+            try {
+                GeneralMatrix v = makeMatrix(controlPointsUsed);
+                coefficients = new double[count + 3];
+                for( int i = 0; i < coefficients.length; i++ ) {
+                    coefficients[i] = v.getElement(i, 0);
+                }
+            } catch (Exception e) {
+                // singular, no value for this set
+            }
+            system.set(positions, count, coefficients);
+        }
+
+        double[] coefficients = system.coefficients;
+        if (coefficients == null) {
+            return HMConstants.doubleNovalue;
+        }
+        double a1 = coefficients[count];
+        double a2 = coefficients[count + 1];
+        double a3 = coefficients[count + 2];
+
+        double sum = 0;
+        for( int i = 0; i < count; i++ ) {
+            int position = positions[i];
+            double dx = tree.getX(position) - x;
+            double dy = tree.getY(position) - y;
+            double squaredDistance = dx * dx + dy * dy;
+            // U = d^2 * log(d), written on the squared distance
+            double u = squaredDistance == 0 ? 0 : 0.5 * squaredDistance * Math.log(squaredDistance);
+            sum = sum + coefficients[i] * u;
+        }
+
+        return a1 + (a2 * x) + (a3 * y) + sum;
+    }
+
     private boolean isValidDistance( double distance ) {
         if (useBuffer && (distance > maxDistance || distance < minDistance)) {
             return false;
@@ -212,4 +279,37 @@ public class TPSInterpolator implements ISurfaceInterpolator {
 
         return V;
     }
+
+    /**
+     * The last solved system of a thread.
+     */
+    private static class LocalSystem {
+        private int[] candidates = new int[64];
+        private int[] positions = new int[0];
+        private double[] coefficients;
+
+        int[] candidatePositions( int size ) {
+            if (candidates.length < size) {
+                candidates = new int[Math.max(size, candidates.length * 2)];
+            }
+            return candidates;
+        }
+
+        boolean isFor( int[] otherPositions, int count ) {
+            if (positions.length != count) {
+                return false;
+            }
+            for( int i = 0; i < count; i++ ) {
+                if (positions[i] != otherPositions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void set( int[] otherPositions, int count, double[] coefficients ) {
+            positions = Arrays.copyOf(otherPositions, count);
+            this.coefficients = coefficients;
+        }
+    }
 }
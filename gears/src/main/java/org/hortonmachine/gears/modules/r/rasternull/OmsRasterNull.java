@@ -137,7 +137,6 @@ public class OmsRasterNull extends GridMultiProcessing {
             } else {
                 outIter.setSample(c, r, 0, doubleNovalue);
             }
-            pm.worked(1);
         });
         pm.done();
 
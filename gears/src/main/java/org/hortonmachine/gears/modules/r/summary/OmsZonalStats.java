@@ -54,10 +54,10 @@ import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.operation.matrix.XAffineTransform;
 import org.hortonmachine.gears.libs.exceptions.ModelsIOException;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
-import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.opengis.feature.simple.SimpleFeature;
@@ -108,6 +108,10 @@ public class OmsZonalStats extends HMModel {
     @In
     public Double pTotalMean = null;
 
+    @Description("Optional comma separated percentiles to estimate, between 0 and 100 (ex. 25,50,75).")
+    @In
+    public String pPercentiles = null;
+
     @Description("The input polygons with the added stats values.")
     @Out
     public SimpleFeatureCollection outVector;
@@ -136,55 +140,51 @@ public class OmsZonalStats extends HMModel {
         ReferencedEnvelope bounds = inVector.getBounds();
         CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
 
-        SimpleFeatureBuilder featureBuilder = createFeatureBuilder(crs, hasUserTotalMean);
+        double[] percentiles = null;
+        if (pPercentiles != null && pPercentiles.trim().length() > 0) {
+            String[] split = pPercentiles.split(",");
+            percentiles = new double[split.length];
+            for( int i = 0; i < split.length; i++ ) {
+                percentiles[i] = Double.parseDouble(split[i].trim());
+                if (percentiles[i] < 0 || percentiles[i] > 100) {
+                    throw new ModelsIllegalargumentException("The percentiles have to be between 0 and 100.", this, pm);
+                }
+            }
+        }
+
+        SimpleFeatureBuilder featureBuilder = createFeatureBuilder(crs, hasUserTotalMean, percentiles);
 
         outVector = new DefaultFeatureCollection();
         List<Geometry> geometriesList = FeatureUtilities.featureCollectionToGeometriesList(inVector, true, null);
 
-        // pm.message("" + readEnvelope);
         GridGeometry2D gridGeometry = inRaster.getGridGeometry();
-        RandomIter readIter = CoverageUtilities.getRandomIterator(inRaster);
         double novalue = HMConstants.getNovalue(inRaster);
-        pm.beginTask("Processing polygons...", geometriesList.size());
-        for( Geometry geometry : geometriesList ) {
-            double[] polygonStats = polygonStats(geometry, gridGeometry, readIter, novalue, hasUserTotalMean,
-                    tm_usertm_tactivecells, pPercentageThres, pm);
+        ZonalStatsEngine engine = new ZonalStatsEngine(geometriesList, gridGeometry, pm);
+        double[][] zonesStats = engine.calculate(inRaster.getRenderedImage(), novalue, hasUserTotalMean, tm_usertm_tactivecells,
+                pPercentageThres, percentiles, pm);
+
+        int statsCount = hasUserTotalMean ? 7 : 6;
+        for( int i = 0; i < geometriesList.size(); i++ ) {
+            double[] polygonStats = zonesStats[i];
             if (polygonStats == null) {
                 continue;
             }
 
-            Object[] values;
-            if (!hasUserTotalMean) {
-                values = new Object[]{geometry, //
-                        polygonStats[0], //
-                        polygonStats[1], //
-                        polygonStats[2], //
-                        polygonStats[3], //
-                        polygonStats[4], //
-                        polygonStats[5], //
-                        (int) polygonStats[6], //
-                        (int) polygonStats[7] //
-                };
-            } else {
-                values = new Object[]{geometry, //
-                        polygonStats[0], //
-                        polygonStats[1], //
-                        polygonStats[2], //
-                        polygonStats[3], //
-                        polygonStats[4], //
-                        polygonStats[5], //
-                        polygonStats[6], //
-                        (int) polygonStats[7], //
-                        (int) polygonStats[8] //
-                };
+            Object[] values = new Object[polygonStats.length + 1];
+            values[0] = geometriesList.get(i);
+            for( int j = 0; j < polygonStats.length; j++ ) {
+                if (j == statsCount || j == statsCount + 1) {
+                    // active and passive cells
+                    values[j + 1] = (int) polygonStats[j];
+                } else {
+                    values[j + 1] = polygonStats[j];
+                }
             }
 
             featureBuilder.addAll(values);
             SimpleFeature feature = featureBuilder.buildFeature(null);
             ((DefaultFeatureCollection) outVector).add(feature);
-            pm.worked(1);
         }
-        pm.done();
 
         if (!hasUserTotalMean) {
             tm_usertm_tactivecells[0] = tm_usertm_tactivecells[0] / tm_usertm_tactivecells[2];
@@ -340,6 +340,18 @@ public class OmsZonalStats extends HMModel {
     }
 
     public static SimpleFeatureBuilder createFeatureBuilder( CoordinateReferenceSystem crs, boolean hasUserTotalMean ) {
+        return createFeatureBuilder(crs, hasUserTotalMean, null);
+    }
+
+    /**
+     * @param crs
+     * @param hasUserTotalMean
+     * @param percentiles optional percentiles, added as attributes named as <code>p50</code>
+     *          for the 50th percentile.
+     * @return the builder of the stats features.
+     */
+    public static SimpleFeatureBuilder createFeatureBuilder( CoordinateReferenceSystem crs, boolean hasUserTotalMean,
+            double[] percentiles ) {
         SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
         b.setName("stats");
         b.setCRS(crs);
@@ -354,10 +366,26 @@ public class OmsZonalStats extends HMModel {
             b.add(AVGABSDEV, Double.class);
         b.add(ACTCELLS, Integer.class);
         b.add(INVCELLS, Integer.class);
+        if (percentiles != null) {
+            for( double percentile : percentiles ) {
+                b.add(percentileName(percentile), Double.class);
+            }
+        }
         SimpleFeatureType type = b.buildFeatureType();
         return new SimpleFeatureBuilder(type);
     }
 
+    /**
+     * @param percentile the percentile, between 0 and 100.
+     * @return the name of the percentile attribute.
+     */
+    public static String percentileName( double percentile ) {
+        if (percentile == Math.rint(percentile)) {
+            return "p" + (int) percentile;
+        }
+        return "p" + String.valueOf(percentile).replace('.', '_');
+    }
+
     private static double meanAbsoluteDeviation( double[] values, int count, double userTotalMean ) {
         double mean = 0;
         for( int i = 0; i < count; i++ ) {
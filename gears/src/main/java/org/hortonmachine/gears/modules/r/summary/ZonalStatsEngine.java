@@ -0,0 +1,534 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.summary;
+
+import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.operation.matrix.XAffineTransform;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Zonal stats of many polygons in a single pass over the raster.
+ *
+ * <p>The polygons are rasterized once into runs of cells per grid row. The runs follow
+ * the scan line rule of {@link OmsZonalStats#polygonStats}: the line passes through the
+ * cell centers and every part of it inside the polygon, shrunk by a quarter of cell on
+ * both sides, takes the cells it touches. Overlapping polygons keep their own runs, so
+ * a cell can count for more than one zone.</p>
+ *
+ * <p>The rows are then split in chunks that are read in parallel. Every chunk reads through
+ * its own iterator, since the iterators keep the current tile, and accumulates into its own
+ * primitive arrays, which are merged in chunk order at the end.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ZonalStatsEngine {
+
+    /**
+     * The relative accuracy of the percentiles estimates.
+     */
+    public static final double PERCENTILES_ACCURACY = 0.01;
+
+    private final int zonesCount;
+    private final int startY;
+    private final int rows;
+
+    /*
+     * the runs of each row are in the run arrays from rowStart[r] to rowStart[r + 1]
+     */
+    private final int[] rowStart;
+    private final int[] runZone;
+    private final int[] runStartCol;
+    private final int[] runEndCol;
+
+    /**
+     * Rasterizes the zones on the grid.
+     *
+     * @param zones the polygonal zones. Parts that are not polygons are ignored.
+     * @param gridGeometry the grid geometry of the raster to process.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public ZonalStatsEngine( List<Geometry> zones, GridGeometry2D gridGeometry, IHMProgressMonitor pm ) throws Exception {
+        GridEnvelope2D gridRange = gridGeometry.getGridRange2D();
+        rows = gridRange.height;
+        int cols = gridRange.width;
+        int startX = gridRange.x;
+        startY = gridRange.y;
+        zonesCount = zones.size();
+
+        MathTransform gridToCRS = gridGeometry.getGridToCRS();
+        double[] rowY = new double[rows];
+        Coordinate world = new Coordinate();
+        for( int r = 0; r < rows; r++ ) {
+            JTS.transform(new Coordinate(startX, startY + r), world, gridToCRS);
+            rowY[r] = world.y;
+        }
+        JTS.transform(new Coordinate(startX, startY), world, gridToCRS);
+        double westX = world.x;
+        JTS.transform(new Coordinate(startX + cols - 1, startY), world, gridToCRS);
+        double eastX = world.x;
+        AffineTransform affine = (AffineTransform) gridToCRS;
+        double delta = XAffineTransform.getScaleX0(affine) / 4.0;
+
+        int[][] zonesRuns = new int[zonesCount][];
+        pm.beginTask("Rasterizing zones...", zonesCount);
+        IntStream.range(0, zonesCount).parallel().forEach(z -> {
+            try {
+                zonesRuns[z] = rasterize(zones.get(z), gridGeometry, affine, rowY, westX, eastX, delta);
+            } catch (TransformException e) {
+                throw new ModelsRuntimeException(e.getLocalizedMessage(), "ZonalStats");
+            }
+            synchronized (pm) {
+                pm.worked(1);
+            }
+        });
+        pm.done();
+
+        rowStart = new int[rows + 1];
+        for( int[] runs : zonesRuns ) {
+            for( int i = 0; i < runs.length; i = i + 3 ) {
+                rowStart[runs[i] + 1]++;
+            }
+        }
+        for( int r = 0; r < rows; r++ ) {
+            rowStart[r + 1] += rowStart[r];
+        }
+        int runsCount = rowStart[rows];
+        runZone = new int[runsCount];
+        runStartCol = new int[runsCount];
+        runEndCol = new int[runsCount];
+        int[] next = Arrays.copyOf(rowStart, rows);
+        for( int z = 0; z < zonesCount; z++ ) {
+            int[] runs = zonesRuns[z];
+            for( int i = 0; i < runs.length; i = i + 3 ) {
+                int index = next[runs[i]]++;
+                runZone[index] = z;
+                runStartCol[index] = runs[i + 1];
+                runEndCol[index] = runs[i + 2];
+            }
+        }
+    }
+
+    /**
+     * @return the number of cell runs of all zones.
+     */
+    public int getRunsCount() {
+        return rowStart[rows];
+    }
+
+    /**
+     * Calculates the stats of all zones.
+     *
+     * @param image the image of the raster.
+     * @param novalue the novalue of the raster.
+     * @param hasUserTotalMean if <code>true</code>, the mean absolute deviation from
+     *          the user total mean is calculated.
+     * @param tm_utm_tac the array holding:
+     *                  <ul>
+     *                      <li>totalMean</li>
+     *                      <li>userTotalMean</li>
+     *                      <li>totalActiveCells</li>
+     *                  </ul>
+     *          The sum of the values goes into the total mean, as in {@link OmsZonalStats#polygonStats}.
+     * @param percentageThres the minimum percentage of active cells to have a valid stat.
+     * @param percentiles optional percentiles, between 0 and 100, to estimate.
+     * @param pm the progress monitor.
+     * @return for every zone the stats in the order of {@link OmsZonalStats#polygonStats},
+     *          followed by the percentiles, or <code>null</code> if the zone has not enough
+     *          active cells.
+     */
+    public double[][] calculate( RenderedImage image, double novalue, boolean hasUserTotalMean, double[] tm_utm_tac,
+            double percentageThres, double[] percentiles, IHMProgressMonitor pm ) {
+        boolean doPercentiles = percentiles != null && percentiles.length > 0;
+        double userTotalMean = tm_utm_tac[1];
+
+        int chunks = Math.max(1, Math.min(rows, GridBlockScheduler.defaultPool.getParallelism()));
+        ZoneAccumulators[] chunkAccumulators = new ZoneAccumulators[chunks];
+        pm.beginTask("Processing zones...", chunks);
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            ZoneAccumulators accumulators = new ZoneAccumulators(zonesCount, doPercentiles);
+            int fromRow = (int) ((long) rows * chunk / chunks);
+            int toRow = (int) ((long) rows * (chunk + 1) / chunks);
+            RandomIter inIter = RandomIterFactory.create(image, null);
+            for( int r = fromRow; r < toRow; r++ ) {
+                int gridRow = startY + r;
+                for( int run = rowStart[r]; run < rowStart[r + 1]; run++ ) {
+                    int z = runZone[run];
+                    for( int k = runStartCol[run]; k <= runEndCol[run]; k++ ) {
+                        double v = inIter.getSampleDouble(k, gridRow, 0);
+                        if (isNovalue(v, novalue)) {
+                            accumulators.passives[z]++;
+                        } else {
+                            accumulators.add(z, v, userTotalMean);
+                        }
+                    }
+                }
+            }
+            inIter.done();
+            chunkAccumulators[chunk] = accumulators;
+            synchronized (pm) {
+                pm.worked(1);
+            }
+        });
+        pm.done();
+
+        ZoneAccumulators total = chunkAccumulators[0];
+        for( int chunk = 1; chunk < chunks; chunk++ ) {
+            total.merge(chunkAccumulators[chunk]);
+        }
+
+        double[][] stats = new double[zonesCount][];
+        for( int z = 0; z < zonesCount; z++ ) {
+            int activeCellCount = total.counts[z];
+            int passiveCellCount = total.passives[z];
+            if (!hasUserTotalMean) {
+                tm_utm_tac[0] = tm_utm_tac[0] + total.sums[z];
+                tm_utm_tac[2] = tm_utm_tac[2] + activeCellCount;
+            }
+
+            int all = activeCellCount + passiveCellCount;
+            double ratio = 100.0 * activeCellCount / all;
+            if (ratio < percentageThres) {
+                continue;
+            }
+
+            double sum = total.sums[z];
+            double mean = sum / activeCellCount;
+            double var = total.m2s[z] / activeCellCount;
+            double[] zoneStats = new double[(hasUserTotalMean ? 9 : 8) + (doPercentiles ? percentiles.length : 0)];
+            int index = 0;
+            zoneStats[index++] = total.mins[z];
+            zoneStats[index++] = total.maxs[z];
+            zoneStats[index++] = mean;
+            zoneStats[index++] = var;
+            zoneStats[index++] = Math.sqrt(var);
+            zoneStats[index++] = sum;
+            if (hasUserTotalMean) {
+                zoneStats[index++] = total.absDevs[z] / activeCellCount;
+            }
+            zoneStats[index++] = activeCellCount;
+            zoneStats[index++] = passiveCellCount;
+            if (doPercentiles) {
+                QuantileSketch sketch = total.sketches[z];
+                for( double percentile : percentiles ) {
+                    double value = Double.NaN;
+                    if (sketch != null) {
+                        value = sketch.quantile(percentile / 100.0);
+                        value = Math.max(total.mins[z], Math.min(total.maxs[z], value));
+                    }
+                    zoneStats[index++] = value;
+                }
+            }
+            stats[z] = zoneStats;
+        }
+        return stats;
+    }
+
+    /**
+     * Rasterizes a zone into runs of cells.
+     *
+     * @return the runs as triplets of row, start column and end column.
+     */
+    private static int[] rasterize( Geometry geometry, GridGeometry2D gridGeometry, AffineTransform gridToCRS, double[] rowY,
+            double westX, double eastX, double delta ) throws TransformException {
+        int rows = rowY.length;
+        int gridStartY = gridGeometry.getGridRange2D().y;
+        int[] runs = new int[3 * 16];
+        int size = 0;
+        double[] crossings = new double[8];
+
+        for( int n = 0; n < geometry.getNumGeometries(); n++ ) {
+            Geometry part = geometry.getGeometryN(n);
+            if (!(part instanceof Polygon)) {
+                continue;
+            }
+            Polygon polygon = (Polygon) part;
+            Coordinate[][] rings = new Coordinate[polygon.getNumInteriorRing() + 1][];
+            rings[0] = polygon.getExteriorRing().getCoordinates();
+            for( int h = 0; h < polygon.getNumInteriorRing(); h++ ) {
+                rings[h + 1] = polygon.getInteriorRingN(h).getCoordinates();
+            }
+            Envelope env = polygon.getEnvelopeInternal();
+
+            // the rows whose center line can cross the polygon, with a row of margin
+            double row1 = (env.getMinY() - gridToCRS.getTranslateY()) / gridToCRS.getScaleY() - gridStartY;
+            double row2 = (env.getMaxY() - gridToCRS.getTranslateY()) / gridToCRS.getScaleY() - gridStartY;
+            int fromRow = Math.max(0, (int) Math.floor(Math.min(row1, row2)) - 1);
+            int toRow = Math.min(rows - 1, (int) Math.ceil(Math.max(row1, row2)) + 1);
+
+            for( int r = fromRow; r <= toRow; r++ ) {
+                double y = rowY[r];
+                if (y < env.getMinY() || y > env.getMaxY()) {
+                    continue;
+                }
+
+                int count = 0;
+                for( Coordinate[] ring : rings ) {
+                    for( int i = 0; i < ring.length - 1; i++ ) {
+                        Coordinate c1 = ring[i];
+                        Coordinate c2 = ring[i + 1];
+                        if ((c1.y <= y) != (c2.y <= y)) {
+                            if (count == crossings.length) {
+                                crossings = Arrays.copyOf(crossings, 2 * count);
+                            }
+                            crossings[count++] = c1.x + (y - c1.y) * (c2.x - c1.x) / (c2.y - c1.y);
+                        }
+                    }
+                }
+                Arrays.sort(crossings, 0, count);
+
+                for( int i = 0; i + 1 < count; i = i + 2 ) {
+                    double x1 = crossings[i];
+                    double x2 = crossings[i + 1];
+                    // parts touching in a vertex make a single line in the intersection
+                    while( i + 3 < count && crossings[i + 2] == x2 ) {
+                        x2 = crossings[i + 3];
+                        i = i + 2;
+                    }
+                    x1 = Math.max(x1, westX);
+                    x2 = Math.min(x2, eastX);
+                    if (x1 >= x2) {
+                        // outside of the grid or a cusp
+                        continue;
+                    }
+
+                    double startX = x1 + delta;
+                    double endX = x2 - delta;
+                    if (startX > endX) {
+                        double tmp = startX;
+                        startX = endX;
+                        endX = tmp;
+                    }
+                    if (size + 3 > runs.length) {
+                        runs = Arrays.copyOf(runs, 2 * runs.length);
+                    }
+                    runs[size++] = r;
+                    runs[size++] = gridGeometry.worldToGrid(new DirectPosition2D(startX, startX)).x;
+                    runs[size++] = gridGeometry.worldToGrid(new DirectPosition2D(endX, endX)).x;
+                }
+            }
+        }
+        return Arrays.copyOf(runs, size);
+    }
+
+    /**
+     * The stats of all zones accumulated by a chunk of rows.
+     */
+    private static class ZoneAccumulators {
+        final int[] counts;
+        final int[] passives;
+        final double[] sums;
+        final double[] mins;
+        final double[] maxs;
+        final double[] means;
+        final double[] m2s;
+        final double[] absDevs;
+        final QuantileSketch[] sketches;
+
+        ZoneAccumulators( int zonesCount, boolean doPercentiles ) {
+            counts = new int[zonesCount];
+            passives = new int[zonesCount];
+            sums = new double[zonesCount];
+            mins = new double[zonesCount];
+            maxs = new double[zonesCount];
+            means = new double[zonesCount];
+            m2s = new double[zonesCount];
+            absDevs = new double[zonesCount];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+            sketches = doPercentiles ? new QuantileSketch[zonesCount] : null;
+        }
+
+        void add( int z, double v, double userTotalMean ) {
+            int count = ++counts[z];
+            sums[z] += v;
+            mins[z] = Math.min(mins[z], v);
+            maxs[z] = Math.max(maxs[z], v);
+            double d = v - means[z];
+            means[z] += d / count;
+            m2s[z] += d * (v - means[z]);
+            absDevs[z] += Math.abs(v - userTotalMean);
+            if (sketches != null) {
+                if (sketches[z] == null) {
+                    sketches[z] = new QuantileSketch();
+                }
+                sketches[z].add(v);
+            }
+        }
+
+        void merge( ZoneAccumulators other ) {
+            for( int z = 0; z < counts.length; z++ ) {
+                passives[z] += other.passives[z];
+                int otherCount = other.counts[z];
+                if (otherCount == 0) {
+                    continue;
+                }
+                int count = counts[z];
+                int mergedCount = count + otherCount;
+                double d = other.means[z] - means[z];
+                means[z] += d * otherCount / mergedCount;
+                m2s[z] += other.m2s[z] + d * d * ((double) count * otherCount / mergedCount);
+                counts[z] = mergedCount;
+                sums[z] += other.sums[z];
+                mins[z] = Math.min(mins[z], other.mins[z]);
+                maxs[z] = Math.max(maxs[z], other.maxs[z]);
+                absDevs[z] += other.absDevs[z];
+                if (sketches != null) {
+                    if (sketches[z] == null) {
+                        sketches[z] = other.sketches[z];
+                    } else {
+                        sketches[z].merge(other.sketches[z]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A mergeable quantile sketch with relative accuracy.
+     *
+     * <p>Values are counted in buckets whose width grows with the magnitude, so that
+     * every estimate is within {@link ZonalStatsEngine#PERCENTILES_ACCURACY} of the
+     * value of the requested rank.</p>
+     */
+    static class QuantileSketch {
+        private static final double GAMMA = (1 + PERCENTILES_ACCURACY) / (1 - PERCENTILES_ACCURACY);
+        private static final double LOG_GAMMA = Math.log(GAMMA);
+        /*
+         * smaller magnitudes are counted as zeros
+         */
+        private static final double MIN_MAGNITUDE = 1E-9;
+
+        private final Buckets positives = new Buckets();
+        private final Buckets negatives = new Buckets();
+        private long zeros = 0;
+        private long count = 0;
+
+        void add( double value ) {
+            if (value > MIN_MAGNITUDE) {
+                positives.add(index(value), 1);
+            } else if (value < -MIN_MAGNITUDE) {
+                negatives.add(index(-value), 1);
+            } else {
+                zeros++;
+            }
+            count++;
+        }
+
+        void merge( QuantileSketch other ) {
+            positives.merge(other.positives);
+            negatives.merge(other.negatives);
+            zeros += other.zeros;
+            count += other.count;
+        }
+
+        /**
+         * @param quantile the quantile, between 0 and 1.
+         * @return the estimated value, or NaN if the sketch is empty.
+         */
+        double quantile( double quantile ) {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            double rank = quantile * (count - 1);
+            long cumulated = 0;
+            for( int i = negatives.counts.length - 1; i >= 0; i-- ) {
+                cumulated += negatives.counts[i];
+                if (cumulated > rank) {
+                    return -value(negatives.offset + i);
+                }
+            }
+            cumulated += zeros;
+            if (cumulated > rank) {
+                return 0;
+            }
+            for( int i = 0; i < positives.counts.length; i++ ) {
+                cumulated += positives.counts[i];
+                if (cumulated > rank) {
+                    return value(positives.offset + i);
+                }
+            }
+            return value(positives.offset + positives.counts.length - 1);
+        }
+
+        /*
+         * bucket i holds the magnitudes in (gamma^(i-1), gamma^i]
+         */
+        private static int index( double magnitude ) {
+            return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+        }
+
+        private static double value( int index ) {
+            return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+        }
+    }
+
+    /**
+     * Counts of contiguous bucket indexes, grown on both sides as needed.
+     */
+    private static class Buckets {
+        int offset = 0;
+        long[] counts = new long[0];
+
+        void add( int index, long count ) {
+            if (counts.length == 0) {
+                offset = index;
+                counts = new long[8];
+            } else if (index < offset) {
+                int shift = Math.max(offset - index, counts.length);
+                long[] grown = new long[counts.length + shift];
+                System.arraycopy(counts, 0, grown, shift, counts.length);
+                counts = grown;
+                offset = offset - shift;
+            } else if (index >= offset + counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(index - offset + 1, 2 * counts.length));
+            }
+            counts[index - offset] += count;
+        }
+
+        void merge( Buckets other ) {
+            for( int i = 0; i < other.counts.length; i++ ) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.hortonmachine.dbs.mbtiles.MBTilesDb.Tile;
+
+/**
+ * A tile sink writing the tiles as z/x/y image files in a folder.
+ * 
+ * <p>Existing tile files are not written again, so that an interrupted generation can be continued.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FolderTileSink implements ITileSink {
+
+    private final File baseFolder;
+    private final String extension;
+
+    /**
+     * @param baseFolder the folder into which to write the zoom level folders.
+     * @param extension the image extension (png or jpg).
+     */
+    public FolderTileSink( File baseFolder, String extension ) {
+        this.baseFolder = baseFolder;
+        this.extension = extension;
+    }
+
+    private File getTileFile( int x, int y, int z ) {
+        return new File(baseFolder, z + "/" + x + "/" + y + "." + extension);
+    }
+
+    @Override
+    public boolean hasTile( int x, int y, int z ) throws Exception {
+        return getTileFile(x, y, z).exists();
+    }
+
+    @Override
+    public void writeTiles( List<Tile> tiles ) throws Exception {
+        for( Tile tile : tiles ) {
+            File tileFile = getTileFile(tile.x, tile.y, tile.z);
+            File imageFolder = tileFile.getParentFile();
+            if (!imageFolder.exists()) {
+                Files.createDirectories(imageFolder.toPath());
+                new File(imageFolder, ".nomedia").createNewFile();
+            }
+            Files.write(tileFile.toPath(), tile.imageBytes);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+    }
+
+}
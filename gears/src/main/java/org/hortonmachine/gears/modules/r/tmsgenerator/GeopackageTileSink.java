@@ -0,0 +1,118 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
+import org.hortonmachine.dbs.geopackage.TileEntry;
+import org.hortonmachine.dbs.mbtiles.MBTilesDb.Tile;
+import org.hortonmachine.dbs.utils.MercatorUtils;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A tile sink writing into a tiles table of a geopackage.
+ * 
+ * <p>Tile rows are converted to the osm (from north) convention of geopackages. 
+ * The tile matrices are registered on close.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GeopackageTileSink implements ITileSink {
+
+    private final GeopackageCommonDb db;
+    private final SqlName tableName;
+    private final int tileSize;
+    private final TileEntry previousEntry;
+
+    /**
+     * The osm tile index ranges written per zoom level, as [minX, maxX, minY, maxY].
+     */
+    private final Map<Integer, int[]> zoomRanges = new TreeMap<>();
+
+    /**
+     * Create the tiles table if needed.
+     * 
+     * @param db the open geopackage, closed by this sink.
+     * @param tableName the name of the tiles table.
+     * @param description the description of the table.
+     * @param dataBounds3857 the bounds of the data.
+     * @param tileSize the tile size in pixels.
+     * @throws Exception
+     */
+    public GeopackageTileSink( GeopackageCommonDb db, String tableName, String description, Envelope dataBounds3857, int tileSize )
+            throws Exception {
+        this.db = db;
+        this.tableName = SqlName.m(tableName);
+        this.tileSize = tileSize;
+        previousEntry = db.prepareTilestable(this.tableName, description, dataBounds3857);
+    }
+
+    @Override
+    public void writeTiles( List<Tile> tiles ) throws Exception {
+        List<GeopackageCommonDb.Tile> gpkgTiles = new ArrayList<>(tiles.size());
+        for( Tile tile : tiles ) {
+            int[] osmTile = MercatorUtils.tmsTile2OsmTile(tile.x, tile.y, tile.z);
+            GeopackageCommonDb.Tile gpkgTile = new GeopackageCommonDb.Tile();
+            gpkgTile.x = osmTile[0];
+            gpkgTile.y = osmTile[1];
+            gpkgTile.z = tile.z;
+            gpkgTile.imageBytes = tile.imageBytes;
+            gpkgTiles.add(gpkgTile);
+
+            int[] range = zoomRanges.get(tile.z);
+            if (range == null) {
+                zoomRanges.put(tile.z, new int[]{gpkgTile.x, gpkgTile.x, gpkgTile.y, gpkgTile.y});
+            } else {
+                range[0] = Math.min(range[0], gpkgTile.x);
+                range[1] = Math.max(range[1], gpkgTile.x);
+                range[2] = Math.min(range[2], gpkgTile.y);
+                range[3] = Math.max(range[3], gpkgTile.y);
+            }
+        }
+        db.putTiles(tableName, gpkgTiles);
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            for( Map.Entry<Integer, int[]> entry : zoomRanges.entrySet() ) {
+                int z = entry.getKey();
+                int[] range = entry.getValue();
+                Envelope sampleTileBounds3857 = MercatorUtils.tileBounds3857(range[0], range[2], z);
+                Envelope levelBounds3857 = new Envelope(sampleTileBounds3857);
+                levelBounds3857.expandToInclude(MercatorUtils.tileBounds3857(range[1], range[3], z));
+                if (previousEntry != null) {
+                    levelBounds3857.expandToInclude(previousEntry.getTileMatrixSetBounds());
+                }
+                db.putTileMatrix(tableName, previousEntry, z, levelBounds3857, range[1] - range[0] + 1, range[3] - range[2] + 1,
+                        tileSize, sampleTileBounds3857);
+            }
+            if (previousEntry == null) {
+                db.createTilesIndex(tableName);
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+}
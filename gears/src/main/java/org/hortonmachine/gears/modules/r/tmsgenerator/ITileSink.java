@@ -0,0 +1,61 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.util.List;
+
+import org.hortonmachine.dbs.mbtiles.MBTilesDb.Tile;
+
+/**
+ * The destination of the tiles built by the {@link TilePyramidBuilder}.
+ * 
+ * <p>Tiles are given with their TMS row (counted from south) and encoded 
+ * image bytes. They are written from a single thread, in batches.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface ITileSink extends AutoCloseable {
+
+    /**
+     * Check if a tile is already available from a previous run.
+     * 
+     * <p>An available tile is not written again, but its children are still built if missing.</p>
+     * 
+     * @param x the tile column.
+     * @param y the tms tile row.
+     * @param z the zoom level.
+     * @return <code>true</code> if the tile exists.
+     * @throws Exception
+     */
+    default boolean hasTile( int x, int y, int z ) throws Exception {
+        return false;
+    }
+
+    /**
+     * Write a batch of tiles.
+     * 
+     * @param tiles the tiles to write.
+     * @throws Exception
+     */
+    void writeTiles( List<Tile> tiles ) throws Exception;
+
+    /**
+     * Finish the writing, called once all tiles are written.
+     */
+    void close() throws Exception;
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.util.List;
+
+import org.hortonmachine.dbs.compat.ADb;
+import org.hortonmachine.dbs.mbtiles.MBTilesDb;
+import org.hortonmachine.dbs.mbtiles.MBTilesDb.Tile;
+
+/**
+ * A tile sink writing into a new mbtiles database.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MBTilesTileSink implements ITileSink {
+
+    private final ADb database;
+    private final MBTilesDb mbtilesDb;
+
+    /**
+     * Create the tables of the database and fill its metadata.
+     * 
+     * @param database the open database, closed by this sink.
+     * @param n the north bound in lat/long.
+     * @param s the south bound in lat/long.
+     * @param w the west bound in lat/long.
+     * @param e the east bound in lat/long.
+     * @param name the name of the dataset.
+     * @param format the image format (png or jpg).
+     * @param minZoom the lowest zoom level.
+     * @param maxZoom the highest zoom level.
+     * @throws Exception
+     */
+    public MBTilesTileSink( ADb database, float n, float s, float w, float e, String name, String format, int minZoom,
+            int maxZoom ) throws Exception {
+        this.database = database;
+        mbtilesDb = new MBTilesDb(database);
+        mbtilesDb.createTables(false);
+        mbtilesDb.fillMetadata(n, s, w, e, name, format, minZoom, maxZoom);
+    }
+
+    @Override
+    public void writeTiles( List<Tile> tiles ) throws Exception {
+        mbtilesDb.addTilesInBatch(tiles);
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            mbtilesDb.createIndexes();
+        } finally {
+            database.close();
+        }
+    }
+
+}
@@ -44,11 +44,8 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSTMSGENERATOR_P_WEST_
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTMSGENERATOR_STATUS;
 import static org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper.TILESIZE;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -56,8 +53,10 @@ import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.hortonmachine.dbs.compat.ADb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
 import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
-import org.hortonmachine.gears.libs.exceptions.ModelsIOException;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsUserCancelException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -183,6 +182,14 @@ public class OmsTmsGenerator extends HMModel {
     @In
     public boolean doMbtiles = false;
 
+    @Description("Do geopackage tiles table.")
+    @In
+    public boolean doGeopackage = false;
+
+    @Description("The number of tiles per side rendered at once at the max zoom level. Lower levels are built from the higher ones.")
+    @In
+    public int pMetatile = 8;
+
     @Description(OMSTMSGENERATOR_IN_PATH_DESCRIPTION)
     @In
     public String inPath;
@@ -192,12 +199,8 @@ public class OmsTmsGenerator extends HMModel {
 
     private PreparedGeometry zoomLimitGeometry;
 
-    private MBTilesHelper mbtilesHelper;
-
     public CoordinateReferenceSystem dataCrs;
 
-    private volatile boolean cancelModule = false;
-
     @Execute
     public void process() throws Exception {
         try {
@@ -211,27 +214,6 @@ public class OmsTmsGenerator extends HMModel {
                     dataCrs = CRS.parseWKT(wkt);
                 }
             }
-            String format = null;
-            if (doMbtiles) {
-                mbtilesHelper = new MBTilesHelper();
-                File dbFolder = new File(inPath);
-                File dbFile = new File(dbFolder, pName + ".mbtiles");
-
-                ReferencedEnvelope dataBounds = new ReferencedEnvelope(pWest, pEast, pSouth, pNorth, dataCrs);
-                MathTransform data2LLTransform = CRS.findMathTransform(dataCrs, DefaultGeographicCRS.WGS84);
-
-                Envelope llEnvelope = JTS.transform(dataBounds, data2LLTransform);
-                float n = (float) llEnvelope.getMaxY();
-                float s = (float) llEnvelope.getMinY();
-                float w = (float) llEnvelope.getMinX();
-                float e = (float) llEnvelope.getMaxX();
-
-                format = pImagetype == 0 ? "png" : "jpg";
-                mbtilesHelper.open(dbFile);
-                mbtilesHelper.createTables(false);
-                mbtilesHelper.fillMetadata(n, s, w, e, pName, format, pMinzoom, pMaxzoom);
-            }
-
             int threads = getDefaultThreadsNum();
 
             String ext = "png";
@@ -314,140 +296,56 @@ public class OmsTmsGenerator extends HMModel {
             double e = mercatorBounds.getMaxX();
             double n = mercatorBounds.getMaxY();
 
-            final GlobalMercator mercator = new GlobalMercator();
+            File dbFolder = new File(inPath);
+            ITileSink sink;
+            if (doMbtiles) {
+                MathTransform data2LLTransform = CRS.findMathTransform(dataCrs, DefaultGeographicCRS.WGS84);
+                Envelope llEnvelope = JTS.transform(dataBounds, data2LLTransform);
+                ADb db = EDb.SQLITE.getDb();
+                db.open(new File(dbFolder, pName + ".mbtiles").getAbsolutePath());
+                sink = new MBTilesTileSink(db, (float) llEnvelope.getMaxY(), (float) llEnvelope.getMinY(),
+                        (float) llEnvelope.getMinX(), (float) llEnvelope.getMaxX(), pName, ext, pMinzoom, pMaxzoom);
+            } else if (doGeopackage) {
+                GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb();
+                db.open(new File(dbFolder, pName + EDb.GEOPACKAGE.getExtension()).getAbsolutePath());
+                db.initSpatialMetadata(null);
+                sink = new GeopackageTileSink(db, pName, pName, mercatorBounds, TILESIZE);
+            } else {
+                sink = new FolderTileSink(baseFolder, ext);
+            }
 
-            for( int z = pMinzoom; z <= pMaxzoom; z++ ) {
-                checkCancel();
-
-                // get ul and lr tile number
-                int[] llTileNumber = mercator.MetersToTile(w, s, z);
-                int[] urTileNumber = mercator.MetersToTile(e, n, z);
-
-                int startXTile = llTileNumber[0];
-                int startYTile = llTileNumber[1];
-                int endXTile = urTileNumber[0];
-                int endYTile = urTileNumber[1];
-
-                int tileNum = 0;
-
-                final ReferencedEnvelope levelBounds = new ReferencedEnvelope(mercatorCrs);
-
-                ExecutorService fixedThreadPool = Executors.newFixedThreadPool(threads);
-
-                pm.beginTask("Generating tiles at zoom level: " + z, (endXTile - startXTile + 1) * (endYTile - startYTile + 1));
-                for( int i = startXTile; i <= endXTile; i++ ) {
-                    checkCancel();
-                    for( int j = startYTile; j <= endYTile; j++ ) {
-                        checkCancel();
-                        double[] bounds = mercator.TileBounds(i, j, z);
-                        double west = bounds[0];
-                        double south = bounds[1];
-                        double east = bounds[2];
-                        double north = bounds[3];
-
-                        final ReferencedEnvelope tmpBounds = new ReferencedEnvelope(west, east, south, north, mercatorCrs);
-                        levelBounds.expandToInclude(tmpBounds);
-
-                        // if there is a zoom level geometry limitation, apply it
-                        if (zoomLimitGeometry != null && z > pZoomLimit) {
-                            double safeExtend = tmpBounds.getWidth() > tmpBounds.getHeight()
-                                    ? tmpBounds.getWidth()
-                                    : tmpBounds.getHeight();
-                            final ReferencedEnvelope tmp = new ReferencedEnvelope(tmpBounds);
-                            tmp.expandBy(safeExtend);
-                            Polygon polygon = FeatureUtilities.envelopeToPolygon(tmp);
-                            if (!zoomLimitGeometry.intersects(polygon)) {
-                                pm.worked(1);
-                                continue;
-                            }
-                        }
-
-                        if (mbtilesHelper != null) {
-                            final int x = i;
-                            final int y = j;
-                            final int zz = z;
-                            final String fformat = format;
-                            tileNum++;
-                            Runnable runner = new Runnable(){
-                                public void run() {
-                                    if (!cancelModule) {
-                                        try {
-                                            checkCancel();
-                                            BufferedImage image = imgGen.getImageWithCheck(tmpBounds, TILESIZE, TILESIZE, 0.0,
-                                                    pCheckcolor);
-                                            if (image != null) {
-                                                mbtilesHelper.addTile(x, y, zz, image, fformat);
-                                            }
-                                        } catch (Exception e) {
-                                            pm.errorMessage(e.getMessage());
-                                            cancelModule = true;
-                                        }
-                                    }
-                                    pm.worked(1);
-                                }
-                            };
-                            fixedThreadPool.execute(runner);
-
-                        } else {
-                            File imageFolder = new File(baseFolder, z + "/" + i);
-                            if (!imageFolder.exists()) {
-                                if (!imageFolder.mkdirs()) {
-                                    throw new ModelsIOException("Unable to create folder:" + imageFolder, this);
-                                }
-                            }
-
-                            File ignoreMediaFile = new File(imageFolder, ".nomedia");
-                            ignoreMediaFile.createNewFile();
-
-                            final File imageFile = new File(imageFolder, j + "." + ext);
-                            if (imageFile.exists()) {
-                                pm.worked(1);
-                                continue;
-                            }
-                            tileNum++;
-                            final String imagePath = imageFile.getAbsolutePath();
-                            final ReferencedEnvelope finalBounds = tmpBounds;
-                            Runnable runner = new Runnable(){
-                                public void run() {
-                                    if (!cancelModule) {
-                                        try {
-                                            if (pImagetype == 1) {
-                                                imgGen.dumpJpgImage(imagePath, finalBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
-                                            } else {
-                                                imgGen.dumpPngImage(imagePath, finalBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
-                                            }
-                                            pm.worked(1);
-                                        } catch (Exception ex) {
-                                            pm.errorMessage(ex.getMessage());
-                                            cancelModule = true;
-                                        }
-                                    }
-                                }
-                            };
-                            fixedThreadPool.execute(runner);
-                        }
-                    }
-                }
-                try {
-                    fixedThreadPool.shutdown();
-                    while( !fixedThreadPool.isTerminated() ) {
-                        Thread.sleep(100);
+            TilePyramidBuilder builder = new TilePyramidBuilder(( bounds, width, height ) -> imgGen
+                    .drawImageWithNewMapContent(new ReferencedEnvelope(bounds, mercatorCrs), width, height, 0.0), sink, pMinzoom,
+                    pMaxzoom, pm);
+            builder.setThreads(threads);
+            builder.setMetatileSize(pMetatile);
+            builder.setFormat(ext);
+            builder.setCheckColor(pCheckcolor);
+            if (zoomLimitGeometry != null) {
+                builder.setFilter(( x, y, z, tileBounds ) -> {
+                    if (z <= pZoomLimit) {
+                        return true;
                     }
-                } catch (InterruptedException exx) {
-                    exx.printStackTrace();
-                }
-                pm.done();
-
-                pm.message("Zoom level: " + z + " has " + tileNum + " tiles.");
-                // pm.message("Boundary covered at Zoom level: " + z + ": " + levelBounds);
-                // pm.message("Total boundary wanted: " + mercatorBounds);
+                    // if there is a zoom level geometry limitation, apply it
+                    Envelope tmp = new Envelope(tileBounds);
+                    tmp.expandBy(Math.max(tileBounds.getWidth(), tileBounds.getHeight()));
+                    Polygon polygon = FeatureUtilities.envelopeToPolygon(tmp);
+                    return zoomLimitGeometry.intersects(polygon);
+                });
+            }
 
+            long start = System.currentTimeMillis();
+            try {
+                builder.build(w, s, e, n);
+            } finally {
+                sink.close();
             }
+            for( int z = pMinzoom; z <= pMaxzoom; z++ ) {
+                pm.message("Zoom level: " + z + " has " + builder.getWrittenTiles(z) + " tiles.");
+            }
+            pm.message("Tiles generated in " + (System.currentTimeMillis() - start) / 1000 + " seconds.");
 
-            if (mbtilesHelper != null) {
-                mbtilesHelper.createIndexes();
-                mbtilesHelper.close();
-            } else {
+            if (!doMbtiles && !doGeopackage) {
                 CoordinateReferenceSystem latLongCrs = CrsUtilities.getCrsFromEpsg(EPSG_LATLONG, null);
                 MathTransform transform = CRS.findMathTransform(mercatorCrs, latLongCrs);
                 Envelope latLongBounds = JTS.transform(mercatorBounds, transform);
@@ -0,0 +1,540 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.imageio.ImageIO;
+
+import org.hortonmachine.dbs.mbtiles.MBTilesDb.Tile;
+import org.hortonmachine.gears.libs.exceptions.ModelsUserCancelException;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Builds a pyramid of TMS tiles.
+ * 
+ * <ul>
+ * <li>the tiles of the maximum zoom level are rendered in parallel by metatiles, i.e. blocks 
+ * of tiles drawn as a single image and then split;</li>
+ * <li>the tiles of the lower zoom levels are built by downsampling their four children instead
+ * of rendering them again;</li>
+ * <li>the encoded tiles are handed to a single writer thread that writes them in batches 
+ * to an {@link ITileSink}.</li>
+ * </ul>
+ * 
+ * <p>The pyramid is traversed depth first, so only the tiles of the branches being worked 
+ * on are kept in memory.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TilePyramidBuilder {
+
+    /**
+     * Renders the map in a region.
+     */
+    @FunctionalInterface
+    public static interface IMetatileRenderer {
+        /**
+         * @param bounds3857 the region to render, in EPSG:3857.
+         * @param width the image width.
+         * @param height the image height.
+         * @return the rendered image.
+         * @throws Exception
+         */
+        BufferedImage render( Envelope bounds3857, int width, int height ) throws Exception;
+    }
+
+    /**
+     * Decides which tiles of the requested region are written.
+     */
+    @FunctionalInterface
+    public static interface ITileFilter {
+        /**
+         * @param x the tile column.
+         * @param y the tms tile row.
+         * @param z the zoom level.
+         * @param bounds3857 the bounds of the tile in EPSG:3857.
+         * @return <code>true</code> if the tile has to be written.
+         */
+        boolean accept( int x, int y, int z, Envelope bounds3857 );
+    }
+
+    /**
+     * The maximum number of tiles written in one batch.
+     */
+    public static int DEFAULT_BATCH_SIZE = 500;
+
+    private static final int TILESIZE = GlobalMercator.TILE_SIZE;
+    private static final Tile END_OF_TILES = new Tile();
+
+    private final IMetatileRenderer renderer;
+    private final ITileSink sink;
+    private final int minZoom;
+    private final int maxZoom;
+    private final IHMProgressMonitor pm;
+    private final GlobalMercator mercator = new GlobalMercator();
+
+    private int metatileLevels = 3;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String format = "png";
+    private int[] checkColor = null;
+    private ITileFilter filter = null;
+
+    private int leafZoom;
+    private int[][] zoomRanges;
+    private AtomicIntegerArray writtenTiles;
+    private BlockingQueue<Tile> writeQueue;
+    private Future<Integer> writer;
+
+    /**
+     * @param renderer the map renderer.
+     * @param sink the destination of the tiles.
+     * @param minZoom the lowest zoom level to build.
+     * @param maxZoom the highest zoom level to build.
+     * @param pm the progress monitor.
+     */
+    public TilePyramidBuilder( IMetatileRenderer renderer, ITileSink sink, int minZoom, int maxZoom, IHMProgressMonitor pm ) {
+        this.renderer = renderer;
+        this.sink = sink;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.pm = pm;
+        writtenTiles = new AtomicIntegerArray(maxZoom + 1);
+    }
+
+    /**
+     * @param metatileSize the number of tiles per side rendered at once at the maximum 
+     *          zoom level, rounded down to a power of 2 (default is 8).
+     */
+    public void setMetatileSize( int metatileSize ) {
+        metatileLevels = 31 - Integer.numberOfLeadingZeros(Math.max(1, metatileSize));
+    }
+
+    /**
+     * @param threads the number of rendering and encoding threads.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param format the image format, png or jpg.
+     */
+    public void setFormat( String format ) {
+        this.format = format;
+    }
+
+    /**
+     * @param checkColor an rgb triplet. If not <code>null</code>, tiles composed only of that color are not written.
+     */
+    public void setCheckColor( int[] checkColor ) {
+        this.checkColor = checkColor;
+    }
+
+    /**
+     * @param filter an optional filter of the tiles to write.
+     */
+    public void setFilter( ITileFilter filter ) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param z the zoom level.
+     * @return the number of tiles written at the zoom level by the last build.
+     */
+    public int getWrittenTiles( int z ) {
+        return writtenTiles.get(z);
+    }
+
+    /**
+     * Build the tiles covering a region.
+     * 
+     * @param w the west bound in EPSG:3857.
+     * @param s the south bound in EPSG:3857.
+     * @param e the east bound in EPSG:3857.
+     * @param n the north bound in EPSG:3857.
+     * @throws Exception
+     */
+    public void build( double w, double s, double e, double n ) throws Exception {
+        writtenTiles = new AtomicIntegerArray(maxZoom + 1);
+        leafZoom = Math.max(minZoom, maxZoom - metatileLevels);
+        zoomRanges = new int[maxZoom + 1][];
+        int tilesCount = 0;
+        for( int z = minZoom; z <= maxZoom; z++ ) {
+            int[] llTileNumber = mercator.MetersToTile(w, s, z);
+            int[] urTileNumber = mercator.MetersToTile(e, n, z);
+            zoomRanges[z] = new int[]{llTileNumber[0], urTileNumber[0], llTileNumber[1], urTileNumber[1]};
+            tilesCount += (urTileNumber[0] - llTileNumber[0] + 1) * (urTileNumber[1] - llTileNumber[1] + 1);
+        }
+
+        writeQueue = new ArrayBlockingQueue<>(DEFAULT_BATCH_SIZE * 4);
+        ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+        writer = writerExecutor.submit(this::writeTiles);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        pm.beginTask("Generating tiles for zoom levels " + minZoom + " to " + maxZoom, tilesCount);
+        try {
+            int[] range = zoomRanges[minZoom];
+            List<TileTask> rootTasks = new ArrayList<>();
+            for( int x = range[0]; x <= range[1]; x++ ) {
+                for( int y = range[2]; y <= range[3]; y++ ) {
+                    rootTasks.add(new TileTask(x, y, minZoom, false));
+                }
+            }
+            try {
+                pool.invoke(new RecursiveAction(){
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected void compute() {
+                        invokeAll(rootTasks);
+                    }
+                });
+                queue(END_OF_TILES);
+            } catch (TileException ex) {
+                if (writer.isDone()) {
+                    // report the error of the writer
+                    writer.get();
+                }
+                throw ex.getCause();
+            }
+            writer.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        } finally {
+            pool.shutdownNow();
+            writer.cancel(true);
+            writerExecutor.shutdownNow();
+            pm.done();
+        }
+    }
+
+    /**
+     * Wraps the checked exceptions of the tile tasks.
+     */
+    private static class TileException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TileException( Exception cause ) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized Exception getCause() {
+            return (Exception) super.getCause();
+        }
+    }
+
+    /**
+     * Builds the image of a tile, from a metatile at the leaf zoom level or from its children above.
+     */
+    private class TileTask extends RecursiveTask<BufferedImage> {
+        private static final long serialVersionUID = 1L;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final boolean neededByParent;
+
+        TileTask( int x, int y, int z, boolean neededByParent ) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.neededByParent = neededByParent;
+        }
+
+        @Override
+        protected BufferedImage compute() {
+            try {
+                checkCancel();
+                // existing tiles are not written again, but their children might be missing
+                boolean writable = isToWrite(x, y, z);
+                boolean needed = neededByParent || writable;
+                if (z == leafZoom) {
+                    return renderMetatile(x, y, z, needed);
+                }
+
+                List<TileTask> children = new ArrayList<>(4);
+                for( int cx = 2 * x; cx <= 2 * x + 1; cx++ ) {
+                    for( int cy = 2 * y; cy <= 2 * y + 1; cy++ ) {
+                        if (needed || isInRange(cx, cy, z + 1)) {
+                            children.add(new TileTask(cx, cy, z + 1, needed));
+                        }
+                    }
+                }
+                invokeAll(children);
+                if (isInRange(x, y, z)) {
+                    pm.worked(1);
+                }
+                if (!needed) {
+                    return null;
+                }
+
+                BufferedImage image = new BufferedImage(2 * TILESIZE, 2 * TILESIZE, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g2d = image.createGraphics();
+                for( TileTask child : children ) {
+                    BufferedImage childImage = child.join();
+                    if (childImage != null) {
+                        // tms rows grow northwards, image rows southwards
+                        int left = (child.x - 2 * x) * TILESIZE;
+                        int top = (2 * y + 1 - child.y) * TILESIZE;
+                        g2d.drawImage(childImage, left, top, null);
+                    }
+                }
+                g2d.dispose();
+                image = halve(image);
+                if (writable) {
+                    write(image, x, y, z);
+                }
+                return image;
+            } catch (TileException | ModelsUserCancelException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new TileException(e);
+            }
+        }
+    }
+
+    /**
+     * Render the maximum zoom level tiles below a tile as one image and build from it the tiles of 
+     * the levels in between.
+     */
+    private BufferedImage renderMetatile( int x, int y, int z, boolean needed ) throws Exception {
+        int levels = maxZoom - z;
+        int side = 1 << levels;
+        if (!needed && !hasWritableTiles(x, y, z, levels)) {
+            countInRange(x, y, z, levels);
+            return null;
+        }
+
+        double[] bounds = mercator.TileBounds(x, y, z);
+        Envelope metatileBounds = new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]);
+        BufferedImage image = renderer.render(metatileBounds, side * TILESIZE, side * TILESIZE);
+        for( int zoom = maxZoom; zoom >= z; zoom-- ) {
+            int levelSide = 1 << (zoom - z);
+            for( int i = 0; i < levelSide; i++ ) {
+                for( int j = 0; j < levelSide; j++ ) {
+                    int tx = x * levelSide + i;
+                    int ty = y * levelSide + levelSide - 1 - j;
+                    if (isToWrite(tx, ty, zoom)) {
+                        write(image.getSubimage(i * TILESIZE, j * TILESIZE, TILESIZE, TILESIZE), tx, ty, zoom);
+                    }
+                    if (isInRange(tx, ty, zoom)) {
+                        pm.worked(1);
+                    }
+                }
+            }
+            if (zoom > z) {
+                checkCancel();
+                image = halve(image);
+            }
+        }
+        return image;
+    }
+
+    private boolean hasWritableTiles( int x, int y, int z, int levels ) throws Exception {
+        for( int l = 0; l <= levels; l++ ) {
+            int levelSide = 1 << l;
+            for( int tx = x * levelSide; tx < (x + 1) * levelSide; tx++ ) {
+                for( int ty = y * levelSide; ty < (y + 1) * levelSide; ty++ ) {
+                    if (isToWrite(tx, ty, z + l)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void countInRange( int x, int y, int z, int levels ) {
+        for( int l = 0; l <= levels; l++ ) {
+            int levelSide = 1 << l;
+            for( int tx = x * levelSide; tx < (x + 1) * levelSide; tx++ ) {
+                for( int ty = y * levelSide; ty < (y + 1) * levelSide; ty++ ) {
+                    if (isInRange(tx, ty, z + l)) {
+                        pm.worked(1);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isInRange( int x, int y, int z ) {
+        int[] range = zoomRanges[z];
+        return x >= range[0] && x <= range[1] && y >= range[2] && y <= range[3];
+    }
+
+    private boolean isWritable( int x, int y, int z ) {
+        if (!isInRange(x, y, z)) {
+            return false;
+        }
+        if (filter == null) {
+            return true;
+        }
+        double[] bounds = mercator.TileBounds(x, y, z);
+        return filter.accept(x, y, z, new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]));
+    }
+
+    /**
+     * @return <code>true</code> if the tile is writable and not available in the sink yet.
+     */
+    private boolean isToWrite( int x, int y, int z ) throws Exception {
+        return isWritable(x, y, z) && !sink.hasTile(x, y, z);
+    }
+
+    private void checkCancel() {
+        if (pm.isCanceled()) {
+            throw new ModelsUserCancelException();
+        }
+    }
+
+    /**
+     * Encode a tile and queue it for writing.
+     */
+    private void write( BufferedImage image, int x, int y, int z ) throws Exception {
+        if (checkColor != null && isAllOfColor(image, checkColor)) {
+            return;
+        }
+        BufferedImage toEncode = image;
+        if (format.equals("jpg")) {
+            toEncode = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = toEncode.createGraphics();
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(toEncode, format, baos);
+
+        Tile tile = new Tile();
+        tile.x = x;
+        tile.y = y;
+        tile.z = z;
+        tile.imageBytes = baos.toByteArray();
+        queue(tile);
+        writtenTiles.incrementAndGet(z);
+    }
+
+    private void queue( Tile tile ) throws Exception {
+        while( !writeQueue.offer(tile, 100, TimeUnit.MILLISECONDS) ) {
+            if (writer.isDone()) {
+                throw new TileException(new IOException("The tiles writer stopped."));
+            }
+        }
+    }
+
+    /**
+     * The writer loop, run in its own thread.
+     * 
+     * @return the number of written tiles.
+     */
+    private Integer writeTiles() throws Exception {
+        int count = 0;
+        List<Tile> batch = new ArrayList<>(DEFAULT_BATCH_SIZE);
+        boolean finished = false;
+        while( !finished ) {
+            batch.add(writeQueue.take());
+            writeQueue.drainTo(batch, DEFAULT_BATCH_SIZE - batch.size());
+            if (batch.get(batch.size() - 1) == END_OF_TILES) {
+                batch.remove(batch.size() - 1);
+                finished = true;
+            }
+            if (!batch.isEmpty()) {
+                sink.writeTiles(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        return count;
+    }
+
+    private static boolean isAllOfColor( BufferedImage image, int[] rgb ) {
+        int color = (rgb[0] & 0xFF) << 16 | (rgb[1] & 0xFF) << 8 | (rgb[2] & 0xFF);
+        int width = image.getWidth();
+        int[] row = new int[width];
+        for( int j = 0; j < image.getHeight(); j++ ) {
+            image.getRGB(0, j, width, 1, row, 0, width);
+            for( int pixel : row ) {
+                if ((pixel & 0xFFFFFF) != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Downsample an image to half its size, averaging each 2x2 block of pixels.
+     * 
+     * <p>Colors are weighted by their alpha, so that transparent pixels do not darken the result.</p>
+     * 
+     * @param image the image to downsample, of even size.
+     * @return the downsampled argb image.
+     */
+    static BufferedImage halve( BufferedImage image ) {
+        int width = image.getWidth();
+        int halfWidth = width / 2;
+        int halfHeight = image.getHeight() / 2;
+        BufferedImage half = new BufferedImage(halfWidth, halfHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] rows = new int[width * 2];
+        int[] halfRow = new int[halfWidth];
+        for( int j = 0; j < halfHeight; j++ ) {
+            image.getRGB(0, 2 * j, width, 2, rows, 0, width);
+            for( int i = 0; i < halfWidth; i++ ) {
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for( int k = 0; k < 4; k++ ) {
+                    int pixel = rows[(k >> 1) * width + 2 * i + (k & 1)];
+                    int pa = pixel >>> 24;
+                    a += pa;
+                    r += ((pixel >> 16) & 0xFF) * pa;
+                    g += ((pixel >> 8) & 0xFF) * pa;
+                    b += (pixel & 0xFF) * pa;
+                }
+                if (a == 0) {
+                    halfRow[i] = 0;
+                } else {
+                    int halfA = (a + 2) / 4;
+                    halfRow[i] = halfA << 24 | ((r + a / 2) / a) << 16 | ((g + a / 2) / a) << 8 | ((b + a / 2) / a);
+                }
+            }
+            half.setRGB(0, j, halfWidth, 1, halfRow, 0, halfWidth);
+        }
+        return half;
+    }
+
+}
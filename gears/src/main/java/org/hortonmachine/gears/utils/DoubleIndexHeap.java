@@ -0,0 +1,141 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils;
+
+/**
+ * A binary min-heap of int indexes keyed by a double value, backed by primitive arrays.
+ * 
+ * <p>Entries with the same key are returned by ascending index, which keeps
+ * algorithms based on it deterministic.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class DoubleIndexHeap {
+    private double[] keys;
+    private int[] indexes;
+    private int size = 0;
+
+    /**
+     * Create the heap with an initial capacity.
+     * 
+     * @param initialCapacity the initial capacity, doubled whenever it is exceeded.
+     */
+    public DoubleIndexHeap( int initialCapacity ) {
+        initialCapacity = Math.max(2, initialCapacity);
+        keys = new double[initialCapacity];
+        indexes = new int[initialCapacity];
+    }
+
+    /**
+     * Add an entry to the heap.
+     * 
+     * @param key the key to order by.
+     * @param index the index to store.
+     */
+    public void add( double key, int index ) {
+        if (size == keys.length) {
+            int newLength = keys.length * 2;
+            double[] newKeys = new double[newLength];
+            int[] newIndexes = new int[newLength];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(indexes, 0, newIndexes, 0, size);
+            keys = newKeys;
+            indexes = newIndexes;
+        }
+        int pos = size++;
+        while( pos > 0 ) {
+            int parent = (pos - 1) >>> 1;
+            if (!isLess(key, index, keys[parent], indexes[parent])) {
+                break;
+            }
+            keys[pos] = keys[parent];
+            indexes[pos] = indexes[parent];
+            pos = parent;
+        }
+        keys[pos] = key;
+        indexes[pos] = index;
+    }
+
+    /**
+     * @return the key of the minimum entry.
+     */
+    public double peekKey() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        return keys[0];
+    }
+
+    /**
+     * @return the index of the minimum entry.
+     */
+    public int peekIndex() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        return indexes[0];
+    }
+
+    /**
+     * Remove the minimum entry.
+     * 
+     * @return the index of the removed entry.
+     */
+    public int poll() {
+        int result = peekIndex();
+        size--;
+        if (size > 0) {
+            double key = keys[size];
+            int index = indexes[size];
+            int pos = 0;
+            int half = size >>> 1;
+            while( pos < half ) {
+                int child = 2 * pos + 1;
+                int right = child + 1;
+                if (right < size && isLess(keys[right], indexes[right], keys[child], indexes[child])) {
+                    child = right;
+                }
+                if (!isLess(keys[child], indexes[child], key, index)) {
+                    break;
+                }
+                keys[pos] = keys[child];
+                indexes[pos] = indexes[child];
+                pos = child;
+            }
+            keys[pos] = key;
+            indexes[pos] = index;
+        }
+        return result;
+    }
+
+    private static boolean isLess( double key1, int index1, double key2, int index2 ) {
+        return key1 < key2 || (key1 == key2 && index1 < index2);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
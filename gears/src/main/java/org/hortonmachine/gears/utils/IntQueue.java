@@ -0,0 +1,116 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils;
+
+/**
+ * A growable FIFO queue of primitive ints, backed by a ring buffer.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class IntQueue {
+    private int[] data;
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Create the queue with an initial capacity.
+     * 
+     * @param initialCapacity the initial capacity, doubled whenever it is exceeded.
+     */
+    public IntQueue( int initialCapacity ) {
+        data = new int[Math.max(2, initialCapacity)];
+    }
+
+    /**
+     * Add a value at the tail of the queue.
+     * 
+     * @param value the value to add.
+     */
+    public void add( int value ) {
+        if (size == data.length) {
+            int[] newData = new int[data.length * 2];
+            int firstPart = data.length - head;
+            System.arraycopy(data, head, newData, 0, firstPart);
+            System.arraycopy(data, 0, newData, firstPart, head);
+            data = newData;
+            head = 0;
+        }
+        int tail = head + size;
+        if (tail >= data.length) {
+            tail -= data.length;
+        }
+        data[tail] = value;
+        size++;
+    }
+
+    /**
+     * Remove and return the value at the head of the queue.
+     * 
+     * @return the head value.
+     */
+    public int poll() {
+        if (size == 0) {
+            throw new IllegalStateException("The queue is empty.");
+        }
+        int value = data[head];
+        head++;
+        if (head == data.length) {
+            head = 0;
+        }
+        size--;
+        return value;
+    }
+
+    /**
+     * @return the value at the head of the queue, without removing it.
+     */
+    public int peek() {
+        if (size == 0) {
+            throw new IllegalStateException("The queue is empty.");
+        }
+        return data[head];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the values of the queue from head to tail.
+     */
+    public int[] toArray() {
+        int[] array = new int[size];
+        for( int i = 0; i < size; i++ ) {
+            int index = head + i;
+            if (index >= data.length) {
+                index -= data.length;
+            }
+            array[i] = data[index];
+        }
+        return array;
+    }
+}
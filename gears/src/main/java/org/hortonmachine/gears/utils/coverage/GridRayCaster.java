@@ -0,0 +1,317 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.Raster;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.RegionMap;
+
+/**
+ * Line of sight and horizon engine working in cell space over an elevation buffer.
+ *
+ * <p>Rays are stepped directly on the row-major buffer, without geometries,
+ * transforms or profile lists, so they can be cast for every cell of large
+ * rasters. Once created, the caster can be used by many threads at the same time.</p>
+ *
+ * <p>Two kinds of rays are supported:
+ * <ul>
+ * <li>{@link #castHorizon(int, int, double, double, Horizon)}: samples the ray every
+ *      min(xres, yres) as {@link CoverageUtilities#doProfile} does and gives the zenith
+ *      and nadir angles as {@link ProfilePoint#getLastVisiblePointData(java.util.List)};</li>
+ * <li>{@link #walk(int, int, double, double, RayVisitor)}: visits the cells along a fixed
+ *      cell step, as used by the sun shadowing.</li>
+ * </ul>
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GridRayCaster {
+
+    private final double[] elevations;
+    private final int cols;
+    private final int rows;
+    private final double xRes;
+    private final double yRes;
+    private final double novalue;
+
+    /**
+     * Constructor.
+     *
+     * @param elevations the elevations in row-major order.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param novalue the novalue of the elevations.
+     */
+    public GridRayCaster( double[] elevations, int cols, int rows, double xRes, double yRes, double novalue ) {
+        if (elevations.length != cols * rows) {
+            throw new IllegalArgumentException("The elevations don't match the grid size.");
+        }
+        this.elevations = elevations;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.novalue = novalue;
+    }
+
+    /**
+     * Create a caster reading the elevations of a coverage.
+     *
+     * @param elevationCoverage the elevation coverage.
+     * @return the caster.
+     */
+    public static GridRayCaster fromCoverage( GridCoverage2D elevationCoverage ) {
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(elevationCoverage);
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        double[] elevations = new double[cols * rows];
+        RandomIter elevIter = CoverageUtilities.getRandomIterator(elevationCoverage);
+        try {
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    elevations[r * cols + c] = elevIter.getSampleDouble(c, r, 0);
+                }
+            }
+        } finally {
+            elevIter.done();
+        }
+        return new GridRayCaster(elevations, cols, rows, regionMap.getXres(), regionMap.getYres(),
+                HMConstants.getNovalue(elevationCoverage));
+    }
+
+    /**
+     * Create a caster reading the elevations of the first band of a raster.
+     *
+     * @param raster the elevation raster.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param novalue the novalue of the elevations.
+     * @return the caster.
+     */
+    public static GridRayCaster fromRaster( Raster raster, double xRes, double yRes, double novalue ) {
+        int cols = raster.getWidth();
+        int rows = raster.getHeight();
+        double[] elevations = raster.getSamples(raster.getMinX(), raster.getMinY(), cols, rows, 0, new double[cols * rows]);
+        return new GridRayCaster(elevations, cols, rows, xRes, yRes, novalue);
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public double getXRes() {
+        return xRes;
+    }
+
+    public double getYRes() {
+        return yRes;
+    }
+
+    /**
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the elevation of the cell, as stored, novalues included.
+     */
+    public double getElevation( int col, int row ) {
+        return elevations[row * cols + col];
+    }
+
+    /**
+     * @param value the value to check.
+     * @return <code>true</code> if the value is a novalue of the elevations.
+     */
+    public boolean isNovalue( double value ) {
+        return HMConstants.isNovalue(value, novalue);
+    }
+
+    /**
+     * Cast a ray from the center of a cell and find its zenith and nadir angles.
+     *
+     * <p>The ray is sampled every min(xres, yres) from the cell center to the end
+     * offset. The sampling runs one step over the end, which is then sampled
+     * again, as for the vector profiles. Samples outside the grid or on novalues
+     * are skipped.</p>
+     *
+     * @param col the col of the start cell.
+     * @param row the row of the start cell.
+     * @param deltaX the x offset of the ray end from the start cell center, in world units.
+     * @param deltaY the y offset of the ray end from the start cell center, in world units.
+     * @param horizon the result to fill.
+     * @return <code>true</code> if at least one valid sample has been found and the horizon is set.
+     */
+    public boolean castHorizon( int col, int row, double deltaX, double deltaY, Horizon horizon ) {
+        horizon.isValid = false;
+        double baseElev = elevations[row * cols + col];
+        double length = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        if (length == 0.0) {
+            return false;
+        }
+        double step = Math.min(xRes, yRes);
+        // the ray direction in cells per world unit, rows grow southward
+        double colPerUnit = deltaX / length / xRes;
+        double rowPerUnit = -deltaY / length / yRes;
+        double startCol = col + 0.5;
+        double startRow = row + 0.5;
+
+        double minAzimuth = Double.POSITIVE_INFINITY;
+        double maxAzimuth = Double.NEGATIVE_INFINITY;
+        for( double progressive = step; progressive < length + step; progressive = progressive + step ) {
+            double distance = Math.min(progressive, length);
+            int sampleCol = (int) Math.floor(startCol + distance * colPerUnit);
+            int sampleRow = (int) Math.floor(startRow + distance * rowPerUnit);
+            if (sampleCol < 0 || sampleCol >= cols || sampleRow < 0 || sampleRow >= rows) {
+                continue;
+            }
+            double elev = elevations[sampleRow * cols + sampleCol];
+            if (HMConstants.isNovalue(elev, novalue)) {
+                continue;
+            }
+            double deltaElev = elev - baseElev;
+            double azimuth = zenithAngle(progressive, deltaElev);
+            if (azimuth <= minAzimuth) {
+                minAzimuth = azimuth;
+                horizon.zenithAngle = azimuth;
+                horizon.lastVisibleCol = sampleCol;
+                horizon.lastVisibleRow = sampleRow;
+                horizon.lastVisibleDistance = progressive;
+                horizon.lastVisibleElevation = elev;
+            }
+            if (azimuth >= maxAzimuth) {
+                maxAzimuth = azimuth;
+                horizon.nadirAngle = 180.0 - azimuth;
+            }
+            horizon.isValid = true;
+        }
+        return horizon.isValid;
+    }
+
+    /**
+     * The angle from the zenith of a point seen from the origin, as done by the
+     * azimuth of the profile points.
+     */
+    private static double zenithAngle( double progressive, double deltaElev ) {
+        if (deltaElev == 0.0) {
+            return 90.0;
+        } else if (deltaElev > 0) {
+            return Math.toDegrees(Math.atan(progressive / deltaElev));
+        } else {
+            return Math.toDegrees(Math.atan(-deltaElev / progressive)) + 90.0;
+        }
+    }
+
+    /**
+     * Walk the cells along a fixed step, starting from a cell.
+     *
+     * <p>At step n the visited cell is the one at the rounded position
+     * <code>(col + n * stepCol, row + n * stepRow)</code>. The walk ends when
+     * leaving the grid or when the visitor asks to.</p>
+     *
+     * @param col the start col.
+     * @param row the start row.
+     * @param stepCol the col increment of a step.
+     * @param stepRow the row increment of a step.
+     * @param visitor the visitor of the cells.
+     */
+    public void walk( int col, int row, double stepCol, double stepRow, RayVisitor visitor ) {
+        int n = 0;
+        double deltaCol = 0;
+        double deltaRow = 0;
+        int currentCol = col;
+        int currentRow = row;
+        while( currentCol >= 0 && currentCol < cols && currentRow >= 0 && currentRow < rows ) {
+            if (!visitor.visit(currentCol, currentRow, deltaCol, deltaRow, elevations[currentRow * cols + currentCol])) {
+                return;
+            }
+            n++;
+            deltaCol = stepCol * n;
+            deltaRow = stepRow * n;
+            currentCol = (int) Math.round(col + deltaCol);
+            currentRow = (int) Math.round(row + deltaRow);
+        }
+    }
+
+    /**
+     * Visitor of the cells of a walk.
+     */
+    @FunctionalInterface
+    public static interface RayVisitor {
+        /**
+         * Visit a cell.
+         *
+         * @param col the col of the cell.
+         * @param row the row of the cell.
+         * @param deltaCol the unrounded col distance from the start.
+         * @param deltaRow the unrounded row distance from the start.
+         * @param elevation the elevation of the cell, as stored.
+         * @return <code>false</code> to stop the walk.
+         */
+        boolean visit( int col, int row, double deltaCol, double deltaRow, double elevation );
+    }
+
+    /**
+     * The horizon of a ray. Reuse the same instance for many rays.
+     */
+    public static class Horizon {
+        /**
+         * If <code>false</code>, no valid sample was found and the other fields are undefined.
+         */
+        public boolean isValid;
+        /**
+         * The min angle from the zenith under which the terrain is seen, in degrees.
+         */
+        public double zenithAngle;
+        /**
+         * The min angle from the nadir under which the terrain is seen, in degrees.
+         */
+        public double nadirAngle;
+        /**
+         * The col of the last visible cell, the one that defines the zenith angle.
+         */
+        public int lastVisibleCol;
+        /**
+         * The row of the last visible cell.
+         */
+        public int lastVisibleRow;
+        /**
+         * The distance of the last visible cell along the ray.
+         */
+        public double lastVisibleDistance;
+        /**
+         * The elevation of the last visible cell.
+         */
+        public double lastVisibleElevation;
+
+        /**
+         * @return the elevation angle of the horizon above the horizontal plane, in degrees.
+         */
+        public double getHorizonAngle() {
+            return 90.0 - zenithAngle;
+        }
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * Horizon angles of every cell of an elevation grid, for a set of azimuth sectors.
+ *
+ * <p>The horizons are swept once per sector along the same cell walks used by the sun
+ * shadowing of {@link org.hortonmachine.gears.libs.modules.ModelsEngine#calculateFactor}, keeping
+ * the upper convex hull of the walked profile, so that a cell is shaded for a sun in the sector
+ * direction exactly when the sun is lower than its horizon. Sun positions between two sectors
+ * use the horizons interpolated between them.</p>
+ *
+ * <p>Angles are stored in one byte per cell and sector, with a resolution of {@link #ANGLE_STEP}
+ * degrees between 0 and 90 degrees. Horizons below the horizontal plane are all kept as the same
+ * negative angle. Once created, the horizons can be read by many threads at the same time and
+ * cached on disk through {@link #getOrCalculate(GridRayCaster, int, File)}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HorizonAngles {
+
+    /**
+     * The resolution of the stored angles, in degrees.
+     */
+    public static final double ANGLE_STEP = 90.0 / 254.0;
+
+    private static final int FILE_MAGIC = 0x484d4841;
+    private static final int FILE_VERSION = 1;
+
+    private final int cols;
+    private final int rows;
+    private final int sectors;
+    private final long elevationsHash;
+    /**
+     * The encoded angles by sector, in row-major order. Code 0 is below the horizontal plane.
+     */
+    private final byte[][] angles;
+
+    private HorizonAngles( int cols, int rows, int sectors, long elevationsHash, byte[][] angles ) {
+        this.cols = cols;
+        this.rows = rows;
+        this.sectors = sectors;
+        this.elevationsHash = elevationsHash;
+        this.angles = angles;
+    }
+
+    /**
+     * Calculate the horizons of the cells, the sectors being processed in parallel.
+     *
+     * @param caster the caster of the elevations.
+     * @param sectors the number of azimuth sectors, the first one being centered on the north.
+     * @return the horizons.
+     */
+    public static HorizonAngles calculate( GridRayCaster caster, int sectors ) {
+        if (sectors < 1) {
+            throw new IllegalArgumentException("At least one azimuth sector is needed.");
+        }
+        int cols = caster.getCols();
+        int rows = caster.getRows();
+        byte[][] angles = new byte[sectors][];
+        IntStream.range(0, sectors).parallel().forEach(s -> {
+            angles[s] = sweepSector(caster, Math.toRadians(s * 360.0 / sectors));
+        });
+        return new HorizonAngles(cols, rows, sectors, elevationsHash(caster), angles);
+    }
+
+    /**
+     * Read the horizons from a cache file or calculate them.
+     *
+     * <p>The cache file is used if it has been written for the same elevations and sectors,
+     * else the horizons are calculated and the file is written.</p>
+     *
+     * @param caster the caster of the elevations.
+     * @param sectors the number of azimuth sectors.
+     * @param cacheFile the cache file, or <code>null</code> to always calculate.
+     * @return the horizons.
+     * @throws IOException
+     */
+    public static HorizonAngles getOrCalculate( GridRayCaster caster, int sectors, File cacheFile ) throws IOException {
+        if (cacheFile != null && cacheFile.exists()) {
+            HorizonAngles horizons = read(cacheFile);
+            if (horizons != null && horizons.sectors == sectors && horizons.cols == caster.getCols()
+                    && horizons.rows == caster.getRows() && horizons.elevationsHash == elevationsHash(caster)) {
+                return horizons;
+            }
+        }
+        HorizonAngles horizons = calculate(caster, sectors);
+        if (cacheFile != null) {
+            horizons.write(cacheFile);
+        }
+        return horizons;
+    }
+
+    /**
+     * Read horizons written by {@link #write(File)}.
+     *
+     * @param file the file to read.
+     * @return the horizons or <code>null</code> if the file is not an horizons file.
+     * @throws IOException
+     */
+    public static HorizonAngles read( File file ) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            int cols = in.readInt();
+            int rows = in.readInt();
+            int sectors = in.readInt();
+            long elevationsHash = in.readLong();
+            byte[][] angles = new byte[sectors][cols * rows];
+            for( byte[] sectorAngles : angles ) {
+                in.readFully(sectorAngles);
+            }
+            return new HorizonAngles(cols, rows, sectors, elevationsHash, angles);
+        }
+    }
+
+    /**
+     * Write the horizons to file.
+     *
+     * @param file the file to write.
+     * @throws IOException
+     */
+    public void write( File file ) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(cols);
+            out.writeInt(rows);
+            out.writeInt(sectors);
+            out.writeLong(elevationsHash);
+            for( byte[] sectorAngles : angles ) {
+                out.write(sectorAngles);
+            }
+        }
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getSectors() {
+        return sectors;
+    }
+
+    /**
+     * Get the horizon of a cell.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @param azimuth the azimuth, in degrees clockwise from the north.
+     * @return the elevation angle of the horizon, in degrees.
+     */
+    public double getHorizon( int col, int row, double azimuth ) {
+        double position = sectorPosition(azimuth);
+        int sector = (int) position;
+        double weight = position - sector;
+        int nextSector = sector + 1 == sectors ? 0 : sector + 1;
+        int cell = row * cols + col;
+        int code = angles[sector][cell] & 0xFF;
+        int nextCode = angles[nextSector][cell] & 0xFF;
+        return ((1.0 - weight) * code + weight * nextCode - 1) * ANGLE_STEP;
+    }
+
+    /**
+     * Check if a cell is shaded by the terrain.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @param azimuth the sun azimuth, in degrees clockwise from the north.
+     * @param elevation the sun elevation, in degrees.
+     * @return <code>true</code> if the sun is under the horizon of the cell.
+     */
+    public boolean isShaded( int col, int row, double azimuth, double elevation ) {
+        return elevation < getHorizon(col, row, azimuth);
+    }
+
+    /**
+     * Fill the shadow map of a sun position, as {@link #isShaded(int, int, double, double)}
+     * does for every cell.
+     *
+     * @param azimuth the sun azimuth, in degrees clockwise from the north.
+     * @param elevation the sun elevation, in degrees.
+     * @param shadows the map to fill in row-major order, with 0 for the shaded cells and 1 for the others.
+     */
+    public void fillShadows( double azimuth, double elevation, double[] shadows ) {
+        double position = sectorPosition(azimuth);
+        int sector = (int) position;
+        double weight = position - sector;
+        byte[] sectorAngles = angles[sector];
+        byte[] nextSectorAngles = angles[sector + 1 == sectors ? 0 : sector + 1];
+        // compare in the codes space
+        double threshold = elevation / ANGLE_STEP + 1;
+        for( int cell = 0; cell < shadows.length; cell++ ) {
+            double code = (1.0 - weight) * (sectorAngles[cell] & 0xFF) + weight * (nextSectorAngles[cell] & 0xFF);
+            shadows[cell] = threshold < code ? 0.0 : 1.0;
+        }
+    }
+
+    /**
+     * @return the position of the azimuth in sectors units, in the range [0, sectors).
+     */
+    private double sectorPosition( double azimuth ) {
+        double position = azimuth / 360.0 * sectors;
+        position = position - Math.floor(position / sectors) * sectors;
+        return position >= sectors ? 0.0 : position;
+    }
+
+    /**
+     * @param sunVector the sun vector, with x to the east and y to the south.
+     * @return the sun azimuth, in degrees clockwise from the north.
+     */
+    public static double azimuth( double[] sunVector ) {
+        double azimuth = Math.toDegrees(Math.atan2(sunVector[0], -sunVector[1]));
+        return azimuth < 0 ? azimuth + 360.0 : azimuth;
+    }
+
+    /**
+     * @param sunVector the unit sun vector.
+     * @return the sun elevation, in degrees.
+     */
+    public static double elevation( double[] sunVector ) {
+        return Math.toDegrees(Math.asin(sunVector[2]));
+    }
+
+    private static byte[] sweepSector( GridRayCaster caster, double azimuth ) {
+        int cols = caster.getCols();
+        int rows = caster.getRows();
+        byte[] sectorAngles = new byte[cols * rows];
+
+        // walk away from the sun, starting from the cells of the sun side borders
+        double sunX = Math.sin(azimuth);
+        double sunY = -Math.cos(azimuth);
+        double m = Math.max(Math.abs(sunX), Math.abs(sunY));
+        double stepCol = -sunX / m;
+        double stepRow = -sunY / m;
+        int startCol = sunX <= 0 ? 0 : cols - 1;
+        int startRow = sunY <= 0 ? 0 : rows - 1;
+
+        ProfileSweep sweep = new ProfileSweep(caster, sectorAngles, cols + rows);
+        for( int c = 0; c < cols; c++ ) {
+            sweep.reset();
+            caster.walk(c, startRow, stepCol, stepRow, sweep);
+        }
+        for( int r = 0; r < rows; r++ ) {
+            sweep.reset();
+            caster.walk(startCol, r, stepCol, stepRow, sweep);
+        }
+        return sectorAngles;
+    }
+
+    private static byte encode( double angle ) {
+        long code = Math.round(angle / ANGLE_STEP) + 1;
+        if (code < 0) {
+            code = 0;
+        } else if (code > 255) {
+            code = 255;
+        }
+        return (byte) code;
+    }
+
+    private static long elevationsHash( GridRayCaster caster ) {
+        long hash = 1;
+        for( int r = 0; r < caster.getRows(); r++ ) {
+            for( int c = 0; c < caster.getCols(); c++ ) {
+                hash = 31 * hash + Double.doubleToLongBits(caster.getElevation(c, r));
+            }
+        }
+        hash = 31 * hash + Double.doubleToLongBits(caster.getXRes());
+        return 31 * hash + Double.doubleToLongBits(caster.getYRes());
+    }
+
+    /**
+     * Keeps the upper convex hull of the profile walked so far, from which the
+     * horizon of the next cell is the tangent.
+     */
+    private static class ProfileSweep implements GridRayCaster.RayVisitor {
+        private final byte[] sectorAngles;
+        private final int cols;
+        private final double xRes;
+        private final double yRes;
+        private final double[] hullDistances;
+        private final double[] hullElevations;
+        private int hullSize;
+
+        ProfileSweep( GridRayCaster caster, byte[] sectorAngles, int maxLength ) {
+            this.sectorAngles = sectorAngles;
+            cols = caster.getCols();
+            xRes = caster.getXRes();
+            yRes = caster.getYRes();
+            hullDistances = new double[maxLength];
+            hullElevations = new double[maxLength];
+        }
+
+        void reset() {
+            hullSize = 0;
+        }
+
+        @Override
+        public boolean visit( int col, int row, double deltaCol, double deltaRow, double elevation ) {
+            double distance = Math.sqrt(deltaCol * xRes * deltaCol * xRes + deltaRow * yRes * deltaRow * yRes);
+            while( hullSize >= 2 && slope(hullSize - 1, distance, elevation) <= slope(hullSize - 2, distance, elevation) ) {
+                hullSize--;
+            }
+            if (hullSize > 0) {
+                byte code = encode(Math.toDegrees(Math.atan(slope(hullSize - 1, distance, elevation))));
+                int cell = row * cols + col;
+                // a cell met by more walks is shaded if any of them shades it
+                if ((code & 0xFF) > (sectorAngles[cell] & 0xFF)) {
+                    sectorAngles[cell] = code;
+                }
+            }
+            hullDistances[hullSize] = distance;
+            hullElevations[hullSize] = elevation;
+            hullSize++;
+            return true;
+        }
+
+        private double slope( int hullIndex, double distance, double elevation ) {
+            return (hullElevations[hullIndex] - elevation) / (distance - hullDistances[hullIndex]);
+        }
+    }
+
+}
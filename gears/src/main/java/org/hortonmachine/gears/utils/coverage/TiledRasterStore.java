@@ -0,0 +1,538 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.media.jai.iterator.WritableRandomIter;
+
+/**
+ * A single band grid stored on disk in square tiles, of which only a budget is kept in memory.
+ *
+ * <p>The tiles are read from the backing file when first needed and kept in a cache of
+ * limited size. When the cache is full, a tile not used recently is dropped (second chance
+ * eviction, an approximation of least recently used) and written back to the file if it
+ * has been modified. Tiles never written are not stored at all and read as the initial value,
+ * so creating a store is immediate also for huge grids.</p>
+ *
+ * <p>Cells can be read and written by many threads at the same time, as long as the same
+ * cell is not written by more than one thread, as for in memory rasters.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TiledRasterStore implements AutoCloseable {
+
+    /**
+     * The default side of the tiles, in cells. Set this to change the default.
+     */
+    public static int DEFAULT_TILE_SIZE = 512;
+
+    /**
+     * The default memory budget of a store, in bytes. Set this to change the default.
+     */
+    public static long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private final int cols;
+    private final int rows;
+    private final int dataType;
+    private final int cellBytes;
+    private final int tileSize;
+    private final int tileBytes;
+    private final int tileCols;
+    private final double initialValue;
+
+    private final File file;
+    private final boolean deleteOnClose;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    /**
+     * The loaded tiles by tile index, read without locking.
+     */
+    private final AtomicReferenceArray<Tile> tiles;
+    /**
+     * The tiles that have been written to the file at least once.
+     */
+    private final BitSet storedTiles = new BitSet();
+    /**
+     * The cache slots scanned by the eviction clock.
+     */
+    private final Tile[] slots;
+    private int clockHand = 0;
+    private final Object lock = new Object();
+
+    private static class Tile {
+        final int index;
+        final ByteBuffer buffer;
+        volatile boolean referenced = true;
+        volatile boolean dirty = false;
+        volatile boolean evicted = false;
+
+        Tile( int index, ByteBuffer buffer ) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Create a store on a temporary file, with default tile size and cache budget.
+     *
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param dataClass the cell type, one of Double, Float, Integer, Short or Byte. If <code>null</code>, defaults to double.
+     * @param initialValue the value of the cells not yet written.
+     * @throws IOException
+     */
+    public TiledRasterStore( int cols, int rows, Class< ? > dataClass, double initialValue ) throws IOException {
+        this(null, cols, rows, dataClass, initialValue, DEFAULT_TILE_SIZE, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Create a store.
+     *
+     * @param file the backing file. If <code>null</code>, a temporary file is used and deleted on close.
+     *          An existing file is overwritten.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param dataClass the cell type, one of Double, Float, Integer, Short or Byte. If <code>null</code>, defaults to double.
+     * @param initialValue the value of the cells not yet written.
+     * @param tileSize the side of the tiles, in cells.
+     * @param cacheBytes the max bytes of tiles kept in memory. At least one tile is always kept.
+     * @throws IOException
+     */
+    public TiledRasterStore( File file, int cols, int rows, Class< ? > dataClass, double initialValue, int tileSize,
+            long cacheBytes ) throws IOException {
+        if (cols <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("The grid size needs to be positive.");
+        }
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("The tile size needs to be positive.");
+        }
+        this.cols = cols;
+        this.rows = rows;
+        this.initialValue = initialValue;
+        dataType = getDataType(dataClass);
+        cellBytes = DataBuffer.getDataTypeSize(dataType) / 8;
+        this.tileSize = tileSize;
+        if ((long) tileSize * tileSize * cellBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The tile size is too large.");
+        }
+        tileBytes = tileSize * tileSize * cellBytes;
+        tileCols = (cols + tileSize - 1) / tileSize;
+        int tileRows = (rows + tileSize - 1) / tileSize;
+        tiles = new AtomicReferenceArray<>(tileCols * tileRows);
+        slots = new Tile[(int) Math.max(1, Math.min(tileCols * tileRows, cacheBytes / tileBytes))];
+
+        if (file == null) {
+            this.file = File.createTempFile("hm_tiled_raster_", ".tiles");
+            deleteOnClose = true;
+        } else {
+            this.file = file;
+            deleteOnClose = false;
+        }
+        randomAccessFile = new RandomAccessFile(this.file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * @return the {@link DataBuffer} type of a cell class, as used by {@link CoverageUtilities#createWritableRaster}.
+     */
+    private static int getDataType( Class< ? > dataClass ) {
+        int dataType = DataBuffer.TYPE_DOUBLE;
+        if (dataClass != null) {
+            if (dataClass.isAssignableFrom(Integer.class)) {
+                dataType = DataBuffer.TYPE_INT;
+            } else if (dataClass.isAssignableFrom(Float.class)) {
+                dataType = DataBuffer.TYPE_FLOAT;
+            } else if (dataClass.isAssignableFrom(Byte.class)) {
+                dataType = DataBuffer.TYPE_BYTE;
+            } else if (dataClass.isAssignableFrom(Short.class)) {
+                dataType = DataBuffer.TYPE_SHORT;
+            }
+        }
+        return dataType;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the {@link DataBuffer} type of the cells.
+     */
+    public int getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @return the backing file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the max number of tiles kept in memory.
+     */
+    public int getCachedTilesLimit() {
+        return slots.length;
+    }
+
+    /**
+     * Get the value of a cell.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the value.
+     */
+    public double getDouble( int col, int row ) {
+        Tile tile = getTile(col, row);
+        return read(tile.buffer, cellOffset(col, row));
+    }
+
+    /**
+     * Get the value of a cell as int, truncated as done by rasters.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the value.
+     */
+    public int getInt( int col, int row ) {
+        return (int) getDouble(col, row);
+    }
+
+    /**
+     * Set the value of a cell. The value is cast to the cell type as done by rasters.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @param value the value to set.
+     */
+    public void setDouble( int col, int row, double value ) {
+        int offset = cellOffset(col, row);
+        while( true ) {
+            Tile tile = getTile(col, row);
+            write(tile.buffer, offset, value);
+            tile.dirty = true;
+            // if the tile has been evicted in the meanwhile, the value could be
+            // missing from the written back data, so write it again in the reloaded tile
+            if (!tile.evicted) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set the value of a cell.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @param value the value to set.
+     */
+    public void setInt( int col, int row, int value ) {
+        setDouble(col, row, value);
+    }
+
+    private int cellOffset( int col, int row ) {
+        return ((row % tileSize) * tileSize + (col % tileSize)) * cellBytes;
+    }
+
+    private double read( ByteBuffer buffer, int offset ) {
+        switch( dataType ) {
+        case DataBuffer.TYPE_BYTE:
+            return buffer.get(offset) & 0xff;
+        case DataBuffer.TYPE_SHORT:
+            return buffer.getShort(offset);
+        case DataBuffer.TYPE_INT:
+            return buffer.getInt(offset);
+        case DataBuffer.TYPE_FLOAT:
+            return buffer.getFloat(offset);
+        default:
+            return buffer.getDouble(offset);
+        }
+    }
+
+    private void write( ByteBuffer buffer, int offset, double value ) {
+        switch( dataType ) {
+        case DataBuffer.TYPE_BYTE:
+            buffer.put(offset, (byte) (int) value);
+            break;
+        case DataBuffer.TYPE_SHORT:
+            buffer.putShort(offset, (short) (int) value);
+            break;
+        case DataBuffer.TYPE_INT:
+            buffer.putInt(offset, (int) value);
+            break;
+        case DataBuffer.TYPE_FLOAT:
+            buffer.putFloat(offset, (float) value);
+            break;
+        default:
+            buffer.putDouble(offset, value);
+            break;
+        }
+    }
+
+    private Tile getTile( int col, int row ) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            throw new ArrayIndexOutOfBoundsException("Cell outside of the grid: " + col + "/" + row);
+        }
+        int index = (row / tileSize) * tileCols + col / tileSize;
+        Tile tile = tiles.get(index);
+        if (tile != null) {
+            if (!tile.referenced) {
+                tile.referenced = true;
+            }
+            return tile;
+        }
+        return loadTile(index);
+    }
+
+    private Tile loadTile( int index ) {
+        synchronized (lock) {
+            Tile tile = tiles.get(index);
+            if (tile != null) {
+                return tile;
+            }
+            try {
+                int slot = freeSlot();
+                ByteBuffer buffer = ByteBuffer.allocate(tileBytes).order(ByteOrder.nativeOrder());
+                if (storedTiles.get(index)) {
+                    long position = (long) index * tileBytes;
+                    while( buffer.hasRemaining() ) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) {
+                            break;
+                        }
+                    }
+                    buffer.clear();
+                } else if (initialValue != 0.0) {
+                    for( int offset = 0; offset < tileBytes; offset += cellBytes ) {
+                        write(buffer, offset, initialValue);
+                    }
+                }
+                tile = new Tile(index, buffer);
+                slots[slot] = tile;
+                tiles.set(index, tile);
+                return tile;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Find a free cache slot, evicting a tile if needed. Called holding the lock.
+     */
+    private int freeSlot() throws IOException {
+        while( true ) {
+            Tile tile = slots[clockHand];
+            int slot = clockHand;
+            clockHand = (clockHand + 1) % slots.length;
+            if (tile == null) {
+                return slot;
+            }
+            if (tile.referenced) {
+                tile.referenced = false;
+            } else {
+                tiles.set(tile.index, null);
+                // mark before checking dirty, see setDouble
+                tile.evicted = true;
+                if (tile.dirty) {
+                    writeBack(tile);
+                }
+                slots[slot] = null;
+                return slot;
+            }
+        }
+    }
+
+    private void writeBack( Tile tile ) throws IOException {
+        tile.dirty = false;
+        ByteBuffer buffer = tile.buffer.duplicate();
+        buffer.clear();
+        long position = (long) tile.index * tileBytes;
+        while( buffer.hasRemaining() ) {
+            channel.write(buffer, position + buffer.position());
+        }
+        storedTiles.set(tile.index);
+    }
+
+    /**
+     * Write all the modified tiles to the backing file.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            for( Tile tile : slots ) {
+                if (tile != null && tile.dirty) {
+                    writeBack(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the values into an in memory raster.
+     *
+     * @return the raster, with the same cell type.
+     * @throws IOException if the grid is too large for a single raster.
+     */
+    public WritableRaster toWritableRaster() throws IOException {
+        if ((long) cols * rows > Integer.MAX_VALUE) {
+            throw new IOException("The grid is too large to be held in a single in memory raster.");
+        }
+        Class< ? > dataClass = Double.class;
+        switch( dataType ) {
+        case DataBuffer.TYPE_BYTE:
+            dataClass = Byte.class;
+            break;
+        case DataBuffer.TYPE_SHORT:
+            dataClass = Short.class;
+            break;
+        case DataBuffer.TYPE_INT:
+            dataClass = Integer.class;
+            break;
+        case DataBuffer.TYPE_FLOAT:
+            dataClass = Float.class;
+            break;
+        default:
+            break;
+        }
+        WritableRaster raster = CoverageUtilities.createWritableRaster(cols, rows, dataClass, null, null);
+        // by tile, to read every tile only once
+        for( int tileRow = 0; tileRow < rows; tileRow += tileSize ) {
+            for( int tileCol = 0; tileCol < cols; tileCol += tileSize ) {
+                int maxRow = Math.min(rows, tileRow + tileSize);
+                int maxCol = Math.min(cols, tileCol + tileSize);
+                for( int row = tileRow; row < maxRow; row++ ) {
+                    for( int col = tileCol; col < maxCol; col++ ) {
+                        raster.setSample(col, row, 0, getDouble(col, row));
+                    }
+                }
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * @return an iterator reading and writing the store.
+     */
+    public WritableRandomIter getWritableRandomIter() {
+        return new WritableRandomIter(){
+            public int getSample( int x, int y, int b ) {
+                return getInt(x, y);
+            }
+
+            public float getSampleFloat( int x, int y, int b ) {
+                return (float) getDouble(x, y);
+            }
+
+            public double getSampleDouble( int x, int y, int b ) {
+                return getDouble(x, y);
+            }
+
+            public int[] getPixel( int x, int y, int[] iArray ) {
+                if (iArray == null) {
+                    iArray = new int[1];
+                }
+                iArray[0] = getInt(x, y);
+                return iArray;
+            }
+
+            public float[] getPixel( int x, int y, float[] fArray ) {
+                if (fArray == null) {
+                    fArray = new float[1];
+                }
+                fArray[0] = (float) getDouble(x, y);
+                return fArray;
+            }
+
+            public double[] getPixel( int x, int y, double[] dArray ) {
+                if (dArray == null) {
+                    dArray = new double[1];
+                }
+                dArray[0] = getDouble(x, y);
+                return dArray;
+            }
+
+            public void setSample( int x, int y, int b, int s ) {
+                setInt(x, y, s);
+            }
+
+            public void setSample( int x, int y, int b, float s ) {
+                setDouble(x, y, s);
+            }
+
+            public void setSample( int x, int y, int b, double s ) {
+                setDouble(x, y, s);
+            }
+
+            public void setPixel( int x, int y, int[] iArray ) {
+                setInt(x, y, iArray[0]);
+            }
+
+            public void setPixel( int x, int y, float[] fArray ) {
+                setDouble(x, y, fArray[0]);
+            }
+
+            public void setPixel( int x, int y, double[] dArray ) {
+                setDouble(x, y, dArray[0]);
+            }
+
+            public void done() {
+                // the store is closed by its owner
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (!deleteOnClose) {
+                flush();
+            }
+            for( int i = 0; i < slots.length; i++ ) {
+                slots[i] = null;
+            }
+            for( int i = 0; i < tiles.length(); i++ ) {
+                tiles.set(i, null);
+            }
+            channel.close();
+            randomAccessFile.close();
+            if (deleteOnClose) {
+                file.delete();
+            }
+        }
+    }
+
+}
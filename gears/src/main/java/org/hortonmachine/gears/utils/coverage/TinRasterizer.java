@@ -0,0 +1,286 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Rasterizer of triangulated irregular networks.
+ *
+ * <p>Every triangle is scanned row by row over the cells whose center it covers
+ * (boundary included) and the elevation of the cell center is interpolated from
+ * the triangle vertexes through barycentric coordinates. Where triangles overlap,
+ * the highest elevation is kept. Cells not covered by any triangle are novalues.</p>
+ *
+ * <p>In parallel mode the grid is split into row stripes, every stripe is written only
+ * by the thread processing it, with the triangles that touch it.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TinRasterizer {
+
+    private static final int STRIPES_PER_THREAD = 4;
+
+    private final double west;
+    private final double north;
+    private final double xRes;
+    private final double yRes;
+    private final int cols;
+    private final int rows;
+
+    /**
+     * The triangle vertexes as x0, y0, z0, x1, y1, z1, x2, y2, z2.
+     */
+    private double[] vertexes = new double[9 * 1024];
+    private int trianglesCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param region the region of the grid to create.
+     */
+    public TinRasterizer( RegionMap region ) {
+        this(region.getWest(), region.getNorth(), region.getXres(), region.getYres(), region.getCols(), region.getRows());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param west the west bound of the grid.
+     * @param north the north bound of the grid.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     */
+    public TinRasterizer( double west, double north, double xRes, double yRes, int cols, int rows ) {
+        this.west = west;
+        this.north = north;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Add a triangle.
+     *
+     * @param c0 the first vertex, with elevation.
+     * @param c1 the second vertex, with elevation.
+     * @param c2 the third vertex, with elevation.
+     */
+    public void addTriangle( Coordinate c0, Coordinate c1, Coordinate c2 ) {
+        if (9 * (trianglesCount + 1) > vertexes.length) {
+            vertexes = Arrays.copyOf(vertexes, vertexes.length * 2);
+        }
+        int i = 9 * trianglesCount;
+        vertexes[i] = c0.x;
+        vertexes[i + 1] = c0.y;
+        vertexes[i + 2] = c0.z;
+        vertexes[i + 3] = c1.x;
+        vertexes[i + 4] = c1.y;
+        vertexes[i + 5] = c1.z;
+        vertexes[i + 6] = c2.x;
+        vertexes[i + 7] = c2.y;
+        vertexes[i + 8] = c2.z;
+        trianglesCount++;
+    }
+
+    /**
+     * Add triangle geometries, as created by the delaunay triangulation.
+     *
+     * @param triangles the triangles, the first three coordinates are used.
+     */
+    public void addTriangles( List<Geometry> triangles ) {
+        for( Geometry triangle : triangles ) {
+            Coordinate[] coordinates = triangle.getCoordinates();
+            addTriangle(coordinates[0], coordinates[1], coordinates[2]);
+        }
+    }
+
+    /**
+     * @return the number of triangles added.
+     */
+    public int getTrianglesCount() {
+        return trianglesCount;
+    }
+
+    /**
+     * Rasterize the triangles.
+     *
+     * @param parallel if <code>true</code>, the row stripes are processed on the {@link GridBlockScheduler#defaultPool}.
+     * @param pm the monitor. Every row stripe done is reported as its number
+     *          of cells (the task has to be started by the caller).
+     * @return the grid values in row-major order.
+     * @throws Exception
+     */
+    public double[] rasterize( boolean parallel, IHMProgressMonitor pm ) throws Exception {
+        double[] grid = new double[cols * rows];
+        Arrays.fill(grid, HMConstants.doubleNovalue);
+        if (cols == 0 || rows == 0) {
+            return grid;
+        }
+
+        GridBlockScheduler scheduler = parallel ? GridBlockScheduler.parallel() : GridBlockScheduler.inThread();
+        int stripeRows = rows;
+        if (parallel) {
+            int stripes = GridBlockScheduler.defaultPool.getParallelism() * STRIPES_PER_THREAD;
+            stripeRows = Math.max(1, (rows + stripes - 1) / stripes);
+        }
+        int stripesCount = (rows + stripeRows - 1) / stripeRows;
+
+        // bin the triangles by the stripes they touch
+        int[] minRows = new int[trianglesCount];
+        int[] maxRows = new int[trianglesCount];
+        int[] stripeStarts = new int[stripesCount + 1];
+        for( int t = 0; t < trianglesCount; t++ ) {
+            int i = 9 * t;
+            double minY = Math.min(vertexes[i + 1], Math.min(vertexes[i + 4], vertexes[i + 7]));
+            double maxY = Math.max(vertexes[i + 1], Math.max(vertexes[i + 4], vertexes[i + 7]));
+            // rows whose center lies in [minY, maxY], widened by one against rounding,
+            // the scan of the rows checks the centers exactly
+            int minRow = Math.max(0, (int) Math.ceil((north - maxY) / yRes - 0.5) - 1);
+            int maxRow = Math.min(rows - 1, (int) Math.floor((north - minY) / yRes - 0.5) + 1);
+            minRows[t] = minRow;
+            maxRows[t] = maxRow;
+            if (minRow > maxRow) {
+                continue;
+            }
+            for( int s = minRow / stripeRows; s <= maxRow / stripeRows; s++ ) {
+                stripeStarts[s + 1]++;
+            }
+        }
+        for( int s = 0; s < stripesCount; s++ ) {
+            stripeStarts[s + 1] += stripeStarts[s];
+        }
+        int[] stripeTriangles = new int[stripeStarts[stripesCount]];
+        int[] fill = Arrays.copyOf(stripeStarts, stripesCount);
+        for( int t = 0; t < trianglesCount; t++ ) {
+            if (minRows[t] > maxRows[t]) {
+                continue;
+            }
+            for( int s = minRows[t] / stripeRows; s <= maxRows[t] / stripeRows; s++ ) {
+                stripeTriangles[fill[s]++] = t;
+            }
+        }
+
+        int fStripeRows = stripeRows;
+        scheduler.setBlockSize(cols, stripeRows).process(cols, rows, 0, 0, cols, rows, pm, true, block -> {
+            int s = block.minRow / fStripeRows;
+            for( int k = stripeStarts[s]; k < stripeStarts[s + 1]; k++ ) {
+                int t = stripeTriangles[k];
+                int fromRow = Math.max(block.minRow, minRows[t]);
+                int toRow = Math.min(block.maxRow - 1, maxRows[t]);
+                rasterizeTriangle(t, fromRow, toRow, grid);
+            }
+        });
+        return grid;
+    }
+
+    /**
+     * Rasterize the triangles into a raster.
+     *
+     * @param parallel if <code>true</code>, the row stripes are processed in parallel.
+     * @param pm the monitor.
+     * @return the raster of the triangles.
+     * @throws Exception
+     * @see #rasterize(boolean, IHMProgressMonitor)
+     */
+    public WritableRaster rasterizeToRaster( boolean parallel, IHMProgressMonitor pm ) throws Exception {
+        double[] grid = rasterize(parallel, pm);
+        WritableRaster raster = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
+        raster.setSamples(0, 0, cols, rows, 0, grid);
+        return raster;
+    }
+
+    private void rasterizeTriangle( int t, int fromRow, int toRow, double[] grid ) {
+        int i = 9 * t;
+        double x0 = vertexes[i];
+        double y0 = vertexes[i + 1];
+        double z0 = vertexes[i + 2];
+        double x1 = vertexes[i + 3];
+        double y1 = vertexes[i + 4];
+        double z1 = vertexes[i + 5];
+        double x2 = vertexes[i + 6];
+        double y2 = vertexes[i + 7];
+        double z2 = vertexes[i + 8];
+
+        double det = (y1 - y2) * (x0 - x2) + (x2 - x1) * (y0 - y2);
+        if (det == 0.0) {
+            // degenerate triangle
+            return;
+        }
+
+        for( int r = fromRow; r <= toRow; r++ ) {
+            double y = north - (r + 0.5) * yRes;
+
+            // span of the row inside the triangle
+            double minX = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            for( int e = 0; e < 3; e++ ) {
+                double ax = vertexes[i + 3 * e];
+                double ay = vertexes[i + 3 * e + 1];
+                double bx = vertexes[i + 3 * ((e + 1) % 3)];
+                double by = vertexes[i + 3 * ((e + 1) % 3) + 1];
+                if (y < Math.min(ay, by) || y > Math.max(ay, by)) {
+                    continue;
+                }
+                if (ay == by) {
+                    minX = Math.min(minX, Math.min(ax, bx));
+                    maxX = Math.max(maxX, Math.max(ax, bx));
+                } else {
+                    double x = ax + (y - ay) * (bx - ax) / (by - ay);
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                }
+            }
+            if (minX > maxX) {
+                continue;
+            }
+            int fromCol = Math.max(0, (int) Math.ceil((minX - west) / xRes - 0.5) - 1);
+            int toCol = Math.min(cols - 1, (int) Math.floor((maxX - west) / xRes - 0.5) + 1);
+
+            double rowL0 = (x2 - x1) * (y - y2);
+            double rowL1 = (x0 - x2) * (y - y2);
+            int index = r * cols;
+            for( int c = fromCol; c <= toCol; c++ ) {
+                double x = west + (c + 0.5) * xRes;
+                if (x < minX || x > maxX) {
+                    continue;
+                }
+                double l0 = ((y1 - y2) * (x - x2) + rowL0) / det;
+                double l1 = ((y2 - y0) * (x - x2) + rowL1) / det;
+                double z = l0 * z0 + l1 * z1 + (1.0 - l0 - l1) * z2;
+                double old = grid[index + c];
+                if (HMConstants.isNovalue(old) || z > old) {
+                    grid[index + c] = z;
+                }
+            }
+        }
+    }
+
+}
@@ -134,10 +134,12 @@ public class LinearSystem extends SquareMatrix
      * matrix L such that A = L*U.  Store L and U together in
      * matrix LU.  Compute the permutation vector permutation of
      * the row indices.
+     * Once decomposed, the system can be solved for many
+     * right-hand sides, also from several threads.
      * @throws matrix.MatrixException for a zero row or
      *                                a singular matrix
      */
-    protected void decompose() throws MatrixException
+    public void decompose() throws MatrixException
     {
         // Return if the decomposition is valid.
         if (LU != null) return;
@@ -0,0 +1,259 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package oms3;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Out;
+
+/**
+ * Runs a chain of small components in a {@link Compound} for many time steps,
+ * so that the time is spent in the wiring of the fields more than in the components.
+ *
+ * <p>Not a unit test, run it through its main method.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompoundBenchmark {
+
+    @Param({"100000"})
+    public int steps;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Chain chain;
+    private Basins basins;
+
+    @Setup
+    public void setup() {
+        chain = new Chain();
+        chain.setParallelism(parallelism);
+        basins = new Basins(8);
+        basins.setParallelism(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Compound.shutdown();
+    }
+
+    @Benchmark
+    public double timeSteps() {
+        double sum = 0;
+        for( int i = 0; i < steps; i++ ) {
+            chain.rain = i % 10;
+            chain.execute();
+            sum += chain.discharge;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double subBasins() {
+        double sum = 0;
+        for( int i = 0; i < steps / 100; i++ ) {
+            basins.rain = i % 10;
+            basins.execute();
+            sum += basins.discharge;
+        }
+        return sum;
+    }
+
+    public static class Storage {
+        @In
+        public double rain;
+        @In
+        public double k;
+        @Out
+        public double storage;
+        @Out
+        public double outflow;
+
+        @Execute
+        public void execute() {
+            outflow = k * storage;
+            storage = storage + rain - outflow;
+        }
+    }
+
+    public static class Evaporation {
+        @In
+        public double storage;
+        @In
+        public int season;
+        @Out
+        public double evaporation;
+
+        @Execute
+        public void execute() {
+            evaporation = 0.01 * season * storage;
+        }
+    }
+
+    public static class Router {
+        @In
+        public double outflow;
+        @In
+        public double evaporation;
+        @Out
+        public double discharge;
+
+        @Execute
+        public void execute() {
+            discharge = Math.max(0, outflow - evaporation);
+        }
+    }
+
+    public static class SubBasin {
+        @In
+        public double rain;
+        @Out
+        public double outflow;
+
+        private double[] storages = new double[20000];
+
+        @Execute
+        public void execute() {
+            double sum = 0;
+            for( int i = 0; i < storages.length; i++ ) {
+                double out = 0.01 * storages[i];
+                storages[i] = storages[i] + rain * 1e-4 - out;
+                sum += out;
+            }
+            outflow = sum;
+        }
+    }
+
+    public static class Outlet {
+        @In
+        public double[] outflows;
+        @Out
+        public double discharge;
+
+        @Execute
+        public void execute() {
+            double sum = 0;
+            for( double outflow : outflows ) {
+                sum += outflow;
+            }
+            discharge = sum;
+        }
+    }
+
+    public static class Collector {
+        @In
+        public double outflow;
+        @In
+        public int index;
+        @In
+        public double[] outflows;
+        @Out
+        public double[] collected;
+
+        @Execute
+        public void execute() {
+            outflows[index] = outflow;
+            collected = outflows;
+        }
+    }
+
+    /**
+     * Independent sub-basins, each passing its outflow on to the outlet.
+     */
+    public static class Basins extends Compound {
+        @In
+        public double rain;
+        @Out
+        public double discharge;
+
+        public Basins( int count ) {
+            double[] outflows = new double[count];
+            Outlet outlet = new Outlet();
+            Object previous = null;
+            for( int i = 0; i < count; i++ ) {
+                SubBasin subBasin = new SubBasin();
+                Collector collector = new Collector();
+                in2in("rain", subBasin);
+                out2in(subBasin, "outflow", collector);
+                val2in(i, collector, "index");
+                if (previous == null) {
+                    val2in(outflows, collector, "outflows");
+                } else {
+                    out2in(previous, "collected", collector, "outflows");
+                }
+                previous = collector;
+            }
+            out2in(previous, "collected", outlet, "outflows");
+            out2out("discharge", outlet);
+        }
+    }
+
+    public static class Chain extends Compound {
+        @In
+        public double rain;
+        @In
+        public double k = 0.1;
+        @In
+        public Integer season = 1;
+        @Out
+        public double discharge;
+
+        public Chain() {
+            Storage storage = new Storage();
+            Evaporation evaporation = new Evaporation();
+            Router router = new Router();
+            in2in("rain", storage);
+            in2in("k", storage);
+            in2in("season", evaporation);
+            out2in(storage, "storage", evaporation);
+            out2in(storage, "outflow", router);
+            out2in(evaporation, "evaporation", router);
+            out2out("discharge", router);
+        }
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Options options = new OptionsBuilder().include(CompoundBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package oms3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.gears.utils.HMTestCase;
+
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Out;
+
+/**
+ * Test the scheduling of the components of a {@link Compound}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestCompoundSchedule extends HMTestCase {
+
+    private static final int[] PARALLELISMS = {1, 4};
+
+    public void testDependencyOrder() throws Exception {
+        for( int parallelism : PARALLELISMS ) {
+            Diamond diamond = new Diamond();
+            diamond.setParallelism(parallelism);
+            for( int step = 0; step < 20; step++ ) {
+                diamond.log.clear();
+                diamond.in = step;
+                diamond.execute();
+
+                List<String> log = diamond.log;
+                assertEquals(5, log.size());
+                assertTrue(log.indexOf("top") < log.indexOf("left"));
+                assertTrue(log.indexOf("top") < log.indexOf("right"));
+                assertTrue(log.indexOf("left") < log.indexOf("bottom"));
+                assertTrue(log.indexOf("right") < log.indexOf("bottom"));
+                assertTrue(log.indexOf("bottom") < log.indexOf("tail"));
+                assertEquals(step * 5.0, diamond.out, 0.0);
+            }
+        }
+    }
+
+    public void testSameResultsWithAnyParallelism() throws Exception {
+        double[] expected = null;
+        for( int parallelism : PARALLELISMS ) {
+            Branches branches = new Branches(8);
+            branches.setParallelism(parallelism);
+            double[] results = new double[30];
+            for( int step = 0; step < results.length; step++ ) {
+                branches.in = step % 7;
+                branches.execute();
+                results[step] = branches.out;
+            }
+            if (expected == null) {
+                expected = results;
+            } else {
+                for( int i = 0; i < expected.length; i++ ) {
+                    assertEquals("step " + i, expected[i], results[i], 0.0);
+                }
+            }
+        }
+    }
+
+    public void testFeedbackReadsThePreviousRun() throws Exception {
+        for( int parallelism : PARALLELISMS ) {
+            Loop loop = new Loop();
+            loop.setParallelism(parallelism);
+            for( int step = 1; step <= 10; step++ ) {
+                loop.increment = 1;
+                loop.execute();
+                // the counter adds to the doubled value of the previous run
+                assertEquals(Math.pow(2, step) - 1, loop.out, 0.0);
+            }
+        }
+    }
+
+    public void testCircularConnection() throws Exception {
+        Circle circle = new Circle();
+        try {
+            circle.execute();
+            fail("circular connections should not run");
+        } catch (ComponentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Circular reference"));
+        }
+    }
+
+    public void testComponentExceptionReachesCaller() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for( int parallelism : PARALLELISMS ) {
+                Failing failing = new Failing(6);
+                failing.setParallelism(parallelism);
+                Future< ? > run = executor.submit(() -> failing.execute());
+                try {
+                    // fails instead of waiting for the helpers forever
+                    run.get(30, TimeUnit.SECONDS);
+                    fail("the component exception should reach the caller");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    assertTrue(cause instanceof ComponentException);
+                    assertTrue(cause.getCause() instanceof IllegalStateException);
+                    assertEquals(Fail.MESSAGE, cause.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static class Scale {
+        @In
+        public double in;
+        @Out
+        public double out;
+
+        double factor;
+        String name;
+        List<String> log;
+
+        @Execute
+        public void execute() throws Exception {
+            Thread.sleep(1);
+            out = in * factor;
+            log.add(name);
+        }
+    }
+
+    public static class Sum {
+        @In
+        public double left;
+        @In
+        public double right;
+        @Out
+        public double out;
+
+        String name;
+        List<String> log;
+
+        @Execute
+        public void execute() {
+            out = left + right;
+            log.add(name);
+        }
+    }
+
+    private static Scale scale( String name, double factor, List<String> log ) {
+        Scale scale = new Scale();
+        scale.name = name;
+        scale.factor = factor;
+        scale.log = log;
+        return scale;
+    }
+
+    /**
+     * top -> left, right -> bottom -> tail, added in reverse order.
+     */
+    public static class Diamond extends Compound {
+        @In
+        public double in;
+        @Out
+        public double out;
+
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+        public Diamond() {
+            Scale tail = scale("tail", 1, log);
+            Sum bottom = new Sum();
+            bottom.name = "bottom";
+            bottom.log = log;
+            Scale right = scale("right", 3, log);
+            Scale left = scale("left", 2, log);
+            Scale top = scale("top", 1, log);
+
+            out2in(bottom, "out", tail, "in");
+            out2in(right, "out", bottom, "right");
+            out2in(left, "out", bottom, "left");
+            out2in(top, "out", right, "in");
+            out2in(top, "out", left, "in");
+            in2in("in", top);
+            out2out("out", tail);
+        }
+    }
+
+    public static class Accumulate {
+        @In
+        public double in;
+        @In
+        public double previous;
+        @Out
+        public double out;
+
+        int branch;
+
+        @Execute
+        public void execute() {
+            // order dependent, so that a wrong schedule changes the result
+            out = previous * 0.5 + Math.sin(in + branch) * (branch + 1);
+        }
+    }
+
+    /**
+     * Independent branches, summed one after the other.
+     */
+    public static class Branches extends Compound {
+        @In
+        public double in;
+        @Out
+        public double out;
+
+        public Branches( int count ) {
+            Object previous = null;
+            for( int i = 0; i < count; i++ ) {
+                Scale branch = scale("branch" + i, i + 1, Collections.synchronizedList(new ArrayList<String>()));
+                Accumulate accumulate = new Accumulate();
+                accumulate.branch = i;
+                in2in("in", branch);
+                out2in(branch, "out", accumulate, "in");
+                if (previous == null) {
+                    in2in("in", accumulate, "previous");
+                } else {
+                    out2in(previous, "out", accumulate, "previous");
+                }
+                previous = accumulate;
+            }
+            out2out("out", previous);
+        }
+    }
+
+    public static class Counter {
+        @In
+        public double increment;
+        @In
+        public Double previous;
+        @Out
+        public double value;
+
+        @Execute
+        public void execute() {
+            value = (previous == null ? 0 : previous) + increment;
+        }
+    }
+
+    public static class Doubler {
+        @In
+        public double value;
+        @Out
+        public Double next;
+        @Out
+        public double out;
+
+        @Execute
+        public void execute() {
+            next = value * 2;
+            out = value;
+        }
+    }
+
+    public static class Loop extends Compound {
+        @In
+        public double increment;
+        @Out
+        public double out;
+
+        public Loop() {
+            Counter counter = new Counter();
+            Doubler doubler = new Doubler();
+            in2in("increment", counter);
+            out2in(counter, "value", doubler);
+            feedback(doubler, "next", counter, "previous");
+            out2out("out", doubler);
+        }
+    }
+
+    public static class Circle extends Compound {
+        public Circle() {
+            Scale first = scale("first", 1, new ArrayList<String>());
+            Scale second = scale("second", 1, new ArrayList<String>());
+            out2in(first, "out", second, "in");
+            out2in(second, "out", first, "in");
+        }
+    }
+
+    public static class Fail {
+        static final String MESSAGE = "failing on purpose";
+
+        @In
+        public double in;
+        @Out
+        public double out;
+
+        @Execute
+        public void execute() {
+            throw new IllegalStateException(MESSAGE);
+        }
+    }
+
+    /**
+     * Slow branches next to a failing one, each followed by another component.
+     */
+    public static class Failing extends Compound {
+        @In
+        public double in;
+
+        public Failing( int count ) {
+            List<String> log = Collections.synchronizedList(new ArrayList<String>());
+            for( int i = 0; i < count; i++ ) {
+                Object branch = i == count / 2 ? new Fail() : scale("branch" + i, 1, log);
+                in2in("in", branch);
+                out2in(branch, "out", scale("after" + i, 1, log), "in");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package oms3;
+
+import java.lang.reflect.Field;
+
+import org.hortonmachine.gears.utils.HMTestCase;
+
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Out;
+
+/**
+ * Test that the fields wired through method handles get the same values
+ * as with the plain reflective access.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestFieldAccess extends HMTestCase {
+
+    public void testSameResultsAsReflection() throws Exception {
+        Model model = new Model();
+
+        // the same components, wired by hand through reflection
+        Source source = new Source();
+        Sink sink = new Sink();
+
+        for( int step = 0; step < 20; step++ ) {
+            model.step = step;
+            model.execute();
+
+            source.step = step;
+            source.execute();
+            pass(source, "value", sink, "value");
+            pass(source, "count", sink, "count");
+            pass(source, "text", sink, "text");
+            pass(source, "values", sink, "values");
+            pass(source, "values", sink, "valuesText");
+            sink.execute();
+
+            assertEquals("step " + step, sink.result, model.result, 0.0);
+            assertEquals("step " + step, sink.report, model.report);
+        }
+    }
+
+    public void testChangedArrayIsConvertedAgain() throws Exception {
+        Model model = new Model();
+        Source source = new Source();
+        for( int step = 0; step < 6; step++ ) {
+            model.step = step;
+            model.execute();
+
+            // the source changes its array in place, the conversion must follow it
+            source.step = step;
+            source.execute();
+            assertEquals("step " + step, Conversions.convert(source.values, String.class), model.report);
+        }
+    }
+
+    public void testImmutableValues() throws Exception {
+        assertTrue(FieldAccess.isImmutable("1.5"));
+        assertTrue(FieldAccess.isImmutable(1.5));
+        assertTrue(FieldAccess.isImmutable(3));
+        assertFalse(FieldAccess.isImmutable(new double[]{1.5}));
+        assertFalse(FieldAccess.isImmutable(new StringBuilder("1.5")));
+        assertFalse(FieldAccess.isImmutable(null));
+    }
+
+    /**
+     * Pass a value as the reflective field access did.
+     */
+    private static void pass( Object from, String fromName, Object to, String toName ) throws Exception {
+        Field fromField = from.getClass().getField(fromName);
+        Field toField = to.getClass().getField(toName);
+        Object val = fromField.get(from);
+        if (val != null && !toField.getType().isAssignableFrom(val.getClass())) {
+            val = Conversions.convert(val, toField.getType());
+        }
+        toField.set(to, val);
+    }
+
+    public static class Source {
+        private static final String[] TEXTS = {"0.5", "1.5", "2.5"};
+
+        @In
+        public int step;
+        @Out
+        public double value;
+        @Out
+        public int count;
+        @Out
+        public String text;
+        @Out
+        public double[] values = new double[3];
+
+        @Execute
+        public void execute() {
+            value = step * 0.25;
+            count = step % 4;
+            // the same instances come back, so their conversion is reused
+            text = TEXTS[step % 3];
+            values[step % 3] += step;
+        }
+    }
+
+    public static class Sink {
+        @In
+        public double value;
+        @In
+        public int count;
+        @In
+        public double text;
+        @In
+        public double[] values;
+        @In
+        public String valuesText;
+        @Out
+        public double result;
+        @Out
+        public String report;
+
+        @Execute
+        public void execute() {
+            result = value + count + text + values[0] + values[1] + values[2];
+            report = valuesText;
+        }
+    }
+
+    public static class Model extends Compound {
+        @In
+        public int step;
+        @Out
+        public double result;
+        @Out
+        public String report;
+
+        public Model() {
+            Source source = new Source();
+            Sink sink = new Sink();
+            in2in("step", source);
+            out2in(source, "value", sink);
+            out2in(source, "count", sink);
+            out2in(source, "text", sink);
+            out2in(source, "values", sink);
+            out2in(source, "values", sink, "valuesText");
+            out2out("result", sink);
+            out2out("report", sink);
+        }
+    }
+
+}
@@ -8,8 +8,10 @@ import javax.media.jai.iterator.RandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.Direction;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
 import org.hortonmachine.gears.libs.modules.FlowNode;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.GridNodeElevationToLeastComparator;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.Node;
@@ -226,4 +228,78 @@ public class TestFlowUtils extends HMTestCase {
         assertNull(n);
     }
 
+    public void testFlowAccumulationEngine() throws Exception {
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowIter, nCols, nRows, intNaN);
+        double[] tca = new double[nCols * nRows];
+        for( int i = 0; i < tca.length; i++ ) {
+            tca[i] = engine.isValid(i) ? 1.0 : NaN;
+        }
+        engine.accumulate(tca, pm);
+        assertFalse(engine.hasLoops());
+
+        double[][] tcaData = HMTestMaps.tcaData;
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                assertEquals(tcaData[r][c], tca[r * nCols + c], DELTA);
+            }
+        }
+
+        assertEquals(3 * nCols + 2, engine.getDownstreamIndex(2 * nCols + 3));
+        assertEquals(-1, engine.getDownstreamIndex(3 * nCols + 1));
+    }
+
+    public void testFlowAccumulationEngineLoops() throws Exception {
+        // two cells pointing to each other, one cell draining into them
+        byte[] receivers = new byte[]{//
+                (byte) (1 << Direction.E.ordinal()), (byte) (1 << Direction.W.ordinal()), 0, //
+                (byte) (1 << Direction.N.ordinal()), 0, 0};
+        boolean[] valid = new boolean[]{true, true, false, true, true, false};
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(receivers, valid, 3, 2);
+        double[] values = new double[]{1, 1, 1, 1, 1, 1};
+        engine.accumulate(values, pm);
+
+        assertTrue(engine.hasLoops());
+        assertTrue(engine.isVisited(3));
+        assertTrue(engine.isVisited(4));
+        assertFalse(engine.isVisited(0));
+        List<int[]> loops = engine.getLoops();
+        assertEquals(1, loops.size());
+        assertEquals(2, loops.get(0).length);
+    }
+
+    public void testGridNodeCursor() throws Exception {
+        GridNodeCursor cursor = new GridNodeCursor(elevationIter, nCols, nRows, xRes, yRes, NaN, 5);
+        double[][] window = null;
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                cursor.moveTo(c, r);
+                GridNode node = new GridNode(elevationIter, nCols, nRows, xRes, yRes, c, r, NaN);
+                assertEquals(node.elevation, cursor.getElevation(), DELTA);
+                assertEquals(node.isValid(), cursor.isValid());
+                assertEquals(node.isPit(), cursor.isPit());
+                assertEquals(node.isFlat(), cursor.isFlat());
+                assertEquals(node.touchesBound(), cursor.touchesBound());
+                assertEquals(node.touchesNovalue(), cursor.touchesNovalue());
+                assertEquals(node.getSurroundingMin(), cursor.getSurroundingMin(), DELTA);
+                if (node.isValid()) {
+                    assertEquals(node.getFlow(), cursor.getFlow());
+                    // the node knows to be an outlet only once it looked downstream
+                    assertEquals(node.isOutlet(), cursor.isOutlet());
+                }
+                for( Direction direction : Direction.values() ) {
+                    assertEquals(node.getElevationAt(direction), cursor.getElevationAt(direction), DELTA);
+                }
+
+                window = cursor.getWindow(5, true, window);
+                checkMatrixEqual(node.getWindow(5, true), window, DELTA);
+            }
+        }
+
+        // random access has to give the same result as the sequential one
+        cursor.moveTo(4, 5);
+        cursor.moveTo(0, 0);
+        checkMatrixEqual(new GridNode(elevationIter, nCols, nRows, xRes, yRes, 0, 0, NaN).getWindow(5, false),
+                cursor.getWindow(5, false, null), DELTA);
+    }
+
 }
@@ -0,0 +1,70 @@
+package org.hortonmachine.gears;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler.GridBlock;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test the grid block scheduler.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestGridBlockScheduler extends HMTestCase {
+
+    public void testAllCellsProcessedOnce() throws Exception {
+        int cols = 1003;
+        int rows = 517;
+        GridBlockScheduler[] schedulers = {GridBlockScheduler.inThread(), new GridBlockScheduler(new ForkJoinPool(4)),
+                new GridBlockScheduler(new ForkJoinPool(4)).setBlockSize(64, 64)};
+        for( GridBlockScheduler scheduler : schedulers ) {
+            AtomicIntegerArray counts = new AtomicIntegerArray(cols * rows);
+            scheduler.process(cols, rows, 1, 1, cols - 1, rows - 1, pm, false, block -> {
+                for( int r = block.minRow; r < block.maxRow; r++ ) {
+                    for( int c = block.minCol; c < block.maxCol; c++ ) {
+                        counts.incrementAndGet(r * cols + c);
+                    }
+                }
+            });
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    boolean isBorder = c == 0 || r == 0 || c == cols - 1 || r == rows - 1;
+                    assertEquals(isBorder ? 0 : 1, counts.get(r * cols + c));
+                }
+            }
+        }
+    }
+
+    public void testHalo() throws Exception {
+        List<GridBlock> blocks = GridBlockScheduler.inThread().setHalo(2).setBlockSize(10, 10).createBlocks(25, 25, 0, 0, 25,
+                25);
+        assertEquals(9, blocks.size());
+        GridBlock first = blocks.get(0);
+        assertEquals(0, first.readMinCol);
+        assertEquals(12, first.readMaxCol);
+        GridBlock center = blocks.get(4);
+        assertEquals(8, center.readMinCol);
+        assertEquals(22, center.readMaxRow);
+        GridBlock last = blocks.get(8);
+        assertEquals(25, last.maxCol);
+        assertEquals(25, last.readMaxCol);
+    }
+
+    public void testExceptionIsRethrown() throws Exception {
+        GridBlockScheduler scheduler = new GridBlockScheduler(new ForkJoinPool(2));
+        try {
+            scheduler.process(100, 100, 0, 0, 100, 100, pm, false, block -> {
+                if (block.minRow > 50) {
+                    throw new IllegalStateException("failing block");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failing block", e.getMessage());
+        }
+    }
+
+}
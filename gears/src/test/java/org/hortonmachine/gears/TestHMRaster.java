@@ -1,14 +1,19 @@
 package org.hortonmachine.gears;
 
+import java.awt.image.WritableRaster;
 import java.util.HashMap;
 import java.util.List;
 
+import javax.media.jai.Interpolation;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMRaster;
 import org.hortonmachine.gears.utils.HMTestCase;
 import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.TiledRasterStore;
 import org.locationtech.jts.geom.Coordinate;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 /**
@@ -128,4 +133,83 @@ public class TestHMRaster extends HMTestCase {
         assertTrue(initR.isNovalue(initR.getValue(5, 5)));
     }
 
+    public void testMappingInterpolation() throws Exception {
+        // a plane, so that the interpolations give back the plane
+        double[][] plane = new double[8][10];
+        for( int r = 0; r < plane.length; r++ ) {
+            for( int c = 0; c < plane[0].length; c++ ) {
+                plane[r][c] = 10 * c + 100 * r;
+            }
+        }
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        GridCoverage2D planeGC = CoverageUtilities.buildCoverageWithNovalue("plane", plane, envelopeParams, crs, true, NaN);
+        RegionMap planeRegion = CoverageUtilities.getRegionParamsFromGridCoverage(planeGC);
+        // half the resolution
+        RegionMap region = RegionMap.fromBoundsAndGrid(planeRegion.getWest(), planeRegion.getEast(), planeRegion.getSouth(),
+                planeRegion.getNorth(), 20, 16);
+
+        int[] interpolations = {Interpolation.INTERP_NEAREST, Interpolation.INTERP_BILINEAR, Interpolation.INTERP_BICUBIC};
+        for( int interpolation : interpolations ) {
+            HMRaster planeR = HMRaster.fromGridCoverage(planeGC);
+            HMRaster outR = new HMRaster.HMRasterWritableBuilder().setRegion(region).setCrs(crs).build();
+            outR.mapRaster(null, planeR, false, interpolation);
+
+            // the cell center falls at 2.75/3.25 in the cells of the plane
+            double expected = interpolation == Interpolation.INTERP_NEAREST ? 10 * 2 + 100 * 3 : 10 * 2.25 + 100 * 2.75;
+            assertEquals(expected, outR.getValue(5, 6), DELTA);
+            // on the border the neighbours are missing, so the nearest value is used
+            assertEquals(100 * 3, outR.getValue(0, 6), DELTA);
+            assertEquals(10 * 9 + 100 * 7, outR.getValue(19, 15), DELTA);
+            planeR.close();
+            outR.close();
+        }
+    }
+
+    public void testDiskBacked() throws Exception {
+        try (HMRaster inMemory = new HMRaster.HMRasterWritableBuilder().setTemplate(inElev).setCopyValues(true).build();
+                HMRaster onDisk = new HMRaster.HMRasterWritableBuilder().setTemplate(inElev).setCopyValues(true)
+                        .setDiskBacked(true).build()) {
+            assertFalse(inMemory.isDiskBacked());
+            assertTrue(onDisk.isDiskBacked());
+            for( int r = 0; r < inMemory.getRows(); r++ ) {
+                for( int c = 0; c < inMemory.getCols(); c++ ) {
+                    assertEquals(inMemory.getValue(c, r), onDisk.getValue(c, r), DELTA);
+                }
+            }
+            onDisk.setValue(3, 4, 1234.5);
+            assertEquals(1234.5, onDisk.getValue(3, 4), DELTA);
+
+            GridCoverage2D coverage = onDisk.buildCoverage();
+            HMRaster fromCoverage = HMRaster.fromGridCoverage(coverage);
+            assertEquals(1234.5, fromCoverage.getValue(3, 4), DELTA);
+            assertEquals(inMemory.getValue(5, 6), fromCoverage.getValue(5, 6), DELTA);
+            fromCoverage.close();
+        }
+    }
+
+    public void testTiledStoreEviction() throws Exception {
+        int cols = 103;
+        int rows = 71;
+        Class< ? >[] types = {Double.class, Float.class, Integer.class, Short.class, Byte.class};
+        for( Class< ? > type : types ) {
+            // 8 cells tiles and room for 3 of them, so tiles are written back and read again
+            try (TiledRasterStore store = new TiledRasterStore(null, cols, rows, type, 7, 8, 3 * 8 * 8 * 8)) {
+                assertEquals(7.0, store.getDouble(cols - 1, rows - 1), DELTA);
+                for( int r = 0; r < rows; r++ ) {
+                    for( int c = 0; c < cols; c++ ) {
+                        store.setInt(c, r, (c * 31 + r * 17) % 120);
+                    }
+                }
+                for( int r = 0; r < rows; r++ ) {
+                    for( int c = 0; c < cols; c++ ) {
+                        assertEquals((c * 31 + r * 17) % 120, store.getInt(c, r));
+                    }
+                }
+                WritableRaster raster = store.toWritableRaster();
+                assertEquals((5 * 31 + 60 * 17) % 120, raster.getSample(5, 60, 0));
+            }
+        }
+    }
+
 }
@@ -2,10 +2,12 @@ package org.hortonmachine.gears;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.hortonmachine.gears.io.las.utils.EGpsWeekDays;
 import org.hortonmachine.gears.io.las.utils.GpsTimeConverter;
+import org.hortonmachine.gears.io.las.utils.LasPointIndex;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.io.las.utils.LasUtils.VALUETYPE;
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -146,4 +148,67 @@ public class TestLasUtilities extends HMTestCase {
         assertEquals(131.8103148957786, lastVisiblePointData[9], DELTA);
     }
 
+    public void testPointIndex() throws Exception {
+        Random random = new Random(7);
+        int count = 5000;
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        for( int i = 0; i < count; i++ ) {
+            // a dense cluster and sparse outliers
+            double spread = i % 10 == 0 ? 1000 : 50;
+            xs[i] = 600000 + random.nextDouble() * spread;
+            ys[i] = 5100000 + random.nextDouble() * spread;
+        }
+        // a point exactly on the query radius
+        xs[1] = xs[0] + 3.0;
+        ys[1] = ys[0];
+
+        LasPointIndex index = new LasPointIndex(xs, ys, 2.0);
+        assertEquals(count, index.size());
+        double[] radiuses = {0.0, 0.5, 3.0, 12.0};
+        for( int q = 0; q < 200; q++ ) {
+            double x = xs[q];
+            double y = ys[q];
+            for( double radius : radiuses ) {
+                int[] result = index.queryRadius(x, y, radius);
+                Arrays.sort(result);
+                int expectedCount = 0;
+                for( int i = 0; i < count; i++ ) {
+                    if (Math.sqrt(Math.pow(xs[i] - x, 2.0) + Math.pow(ys[i] - y, 2.0)) <= radius) {
+                        assertTrue(Arrays.binarySearch(result, i) >= 0);
+                        expectedCount++;
+                    }
+                }
+                assertEquals(expectedCount, result.length);
+            }
+        }
+        assertTrue(Arrays.binarySearch(index.queryRadius(xs[0], ys[0], 3.0), 1) >= 0);
+
+        // queries outside of the extent, far away and reaching into it
+        double[][] outside = {{599000, 5100500}, {602000, 5100500}, {600500, 5099000}, {600500, 5102000},
+                {599000, 5099000}, {602000, 5102000}, {599990, 5100020}, {601010, 5100500}, {600020, 5099990},
+                {599000, 5100005}, {602000, 5100995}};
+        for( double[] position : outside ) {
+            for( double radius : radiuses ) {
+                int[] result = index.queryRadius(position[0], position[1], radius);
+                int expectedCount = 0;
+                for( int i = 0; i < count; i++ ) {
+                    if (Math.sqrt(Math.pow(xs[i] - position[0], 2.0) + Math.pow(ys[i] - position[1], 2.0)) <= radius) {
+                        expectedCount++;
+                    }
+                }
+                assertEquals(expectedCount, result.length);
+            }
+        }
+        assertEquals(0, index.queryRadius(599000, 5099000, 12.0).length);
+
+        // stop at the first visited point
+        int[] visited = {0};
+        assertFalse(index.visitInRadius(xs[0], ys[0], 12.0, i -> {
+            visited[0]++;
+            return false;
+        }));
+        assertEquals(1, visited[0]);
+    }
+
 }
@@ -0,0 +1,80 @@
+package org.hortonmachine.gears;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.coverage.TinRasterizer;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
+
+/**
+ * Test the tin rasterizer.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTinRasterizer extends HMTestCase {
+
+    public void testSameAsGeometricIntersection() throws Exception {
+        double west = 1000;
+        double north = 2000;
+        double res = 0.7;
+        int cols = 57;
+        int rows = 43;
+
+        Random random = new Random(42);
+        List<Coordinate> sites = new ArrayList<>();
+        for( int i = 0; i < 300; i++ ) {
+            double x = west + 2 + random.nextDouble() * (cols * res - 4);
+            double y = north - 2 - random.nextDouble() * (rows * res - 4);
+            sites.add(new Coordinate(x, y, 100 + random.nextDouble() * 10));
+        }
+        GeometryFactory gf = GeometryUtilities.gf();
+        DelaunayTriangulationBuilder builder = new DelaunayTriangulationBuilder();
+        builder.setSites(sites);
+        Geometry trianglesCollection = builder.getTriangles(gf);
+        List<Geometry> triangles = new ArrayList<>();
+        for( int i = 0; i < trianglesCollection.getNumGeometries(); i++ ) {
+            triangles.add(trianglesCollection.getGeometryN(i));
+        }
+
+        TinRasterizer rasterizer = new TinRasterizer(west, north, res, res, cols, rows);
+        rasterizer.addTriangles(triangles);
+        assertEquals(triangles.size(), rasterizer.getTrianglesCount());
+        double[] inThread = rasterizer.rasterize(false, pm);
+        double[] parallel = rasterizer.rasterize(true, pm);
+
+        int covered = 0;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                Coordinate center = new Coordinate(west + (c + 0.5) * res, north - (r + 0.5) * res);
+                Point point = gf.createPoint(center);
+                double expected = HMConstants.doubleNovalue;
+                for( Geometry triangle : triangles ) {
+                    if (!triangle.intersects(point)) {
+                        continue;
+                    }
+                    Coordinate[] tc = triangle.getCoordinates();
+                    Coordinate intersection = GeometryUtilities.getLineWithPlaneIntersection(
+                            new Coordinate(center.x, center.y, 1E4), new Coordinate(center.x, center.y, -1E4), tc[0], tc[1],
+                            tc[2]);
+                    expected = Math.max(expected, intersection.z);
+                }
+                if (!HMConstants.isNovalue(expected)) {
+                    covered++;
+                }
+                assertEquals(expected, inThread[r * cols + c], 1E-9);
+                assertEquals(expected, parallel[r * cols + c], 1E-9);
+            }
+        }
+        assertTrue(covered > 0);
+        assertTrue(covered < cols * rows);
+    }
+
+}
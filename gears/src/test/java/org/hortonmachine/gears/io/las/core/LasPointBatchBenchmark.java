@@ -0,0 +1,120 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares reading a las file point by point through {@link LasRecord}s
+ * with reading it in {@link LasPointBatch}es.
+ *
+ * <p>The score is in points per second. Not a unit test, run it through its main method.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class LasPointBatchBenchmark {
+
+    private static final int POINTS = 2_000_000;
+
+    private File lasFile;
+
+    @Setup
+    public void setup() throws Exception {
+        lasFile = File.createTempFile("laspointbatch", ".las");
+        Random random = new Random(42);
+        try (ALasWriter writer = Las.getWriter(lasFile, DefaultGeographicCRS.WGS84)) {
+            writer.setPointFormat(3);
+            writer.setBounds(0, 1000, 0, 1000, 0, 100);
+            writer.open();
+            LasRecord record = new LasRecord();
+            for( int i = 0; i < POINTS; i++ ) {
+                record.x = random.nextDouble() * 1000;
+                record.y = random.nextDouble() * 1000;
+                record.z = random.nextDouble() * 100;
+                record.intensity = (short) random.nextInt(1000);
+                record.returnNumber = 1;
+                record.numberOfReturns = 1;
+                record.classification = 2;
+                record.gpsTime = i;
+                writer.addPoint(record);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        lasFile.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void records( Blackhole blackhole ) throws Exception {
+        try (ALasReader reader = Las.getReader(lasFile, DefaultGeographicCRS.WGS84)) {
+            reader.open();
+            while( reader.hasNextPoint() ) {
+                LasRecord record = reader.getNextPoint();
+                blackhole.consume(record.x + record.y + record.z + record.intensity);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void batch( Blackhole blackhole ) throws Exception {
+        try (ALasReader reader = Las.getReader(lasFile, DefaultGeographicCRS.WGS84)) {
+            reader.open();
+            LasPointBatch batch = new LasPointBatch();
+            while( reader.readNextPoints(batch) > 0 ) {
+                for( int i = 0; i < batch.size(); i++ ) {
+                    blackhole.consume(batch.x[i] + batch.y[i] + batch.z[i] + batch.intensity[i]);
+                }
+            }
+        }
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Options options = new OptionsBuilder().include(LasPointBatchBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,326 @@
+package org.hortonmachine.gears.io.stac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.data.geojson.GeoJSONReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.hortonmachine.gears.io.stac.HMStacRangeCache.RangeFetcher;
+import org.hortonmachine.gears.libs.modules.HMRaster;
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValueGroup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test the stac range cache against a local http server.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestStacRangeCache extends HMTestCase {
+
+    private static final String BAND = "B01";
+    private static final double NOVALUE = -9999.0;
+
+    private HttpServer server;
+    private String url;
+    private byte[] content;
+    private Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private String etag = "\"v1\"";
+    private String authorization = null;
+    private AtomicInteger rangeRequests = new AtomicInteger();
+    private AtomicInteger dataRangeRequests = new AtomicInteger();
+    private File cacheFolder;
+
+    protected void setUp() throws Exception {
+        content = new byte[10000];
+        for( int i = 0; i < content.length; i++ ) {
+            content[i] = (byte) (i * 31);
+        }
+        files.put("/asset.tif", content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] fileBytes = files.get(exchange.getRequestURI().getPath());
+            if (fileBytes == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (authorization != null && !authorization.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.sendResponseHeaders(401, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(fileBytes.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            byte[] bytes = fileBytes;
+            int status = 200;
+            if (range != null) {
+                String[] startEnd = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(startEnd[0]);
+                int end = Math.min(Integer.parseInt(startEnd[1]), fileBytes.length - 1);
+                rangeRequests.incrementAndGet();
+                if (start > 0) {
+                    // anything but the header of the file
+                    dataRangeRequests.incrementAndGet();
+                }
+                bytes = Arrays.copyOfRange(fileBytes, start, end + 1);
+                status = 206;
+            }
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        url = getUrl("/asset.tif");
+        cacheFolder = Files.createTempDirectory("hm_stac_cache").toFile();
+    }
+
+    protected void tearDown() throws Exception {
+        HMStacRangeCache.setDefault(null);
+        server.stop(0);
+        FileUtilities.deleteFileOrDir(cacheFolder);
+    }
+
+    public void testCache() throws Exception {
+        long[][] ranges = {{0, 99}, {5000, 5999}};
+
+        HMStacRangeCache cache = new HMStacRangeCache(cacheFolder);
+        Map<Long, byte[]> read = cache.read(url, ranges, fetcher());
+        checkRanges(ranges, read);
+        assertEquals(2, rangeRequests.get());
+        assertEquals(2, cache.getRequestedRanges());
+        assertEquals(0, cache.getCachedRanges());
+        assertEquals(1100, cache.getFetchedBytes());
+
+        // a new cache on the same folder takes the ranges from disk
+        cache = new HMStacRangeCache(cacheFolder);
+        long[][] moreRanges = {{0, 99}, {5000, 5999}, {9000, 9999}};
+        read = cache.read(url, moreRanges, fetcher());
+        checkRanges(moreRanges, read);
+        assertEquals(3, rangeRequests.get());
+        assertEquals(3, cache.getRequestedRanges());
+        assertEquals(2, cache.getCachedRanges());
+        assertEquals(1100, cache.getCachedBytes());
+        assertEquals(1000, cache.getFetchedBytes());
+        assertEquals(2.0 / 3.0, cache.getHitRatio(), DELTA);
+
+        // a changed asset is read again
+        etag = "\"v2\"";
+        for( int i = 0; i < content.length; i++ ) {
+            content[i] = (byte) (i * 7);
+        }
+        cache = new HMStacRangeCache(cacheFolder);
+        read = cache.read(url, ranges, fetcher());
+        checkRanges(ranges, read);
+        assertEquals(5, rangeRequests.get());
+        assertEquals(0, cache.getCachedRanges());
+    }
+
+    public void testCacheWithAuthentication() throws Exception {
+        authorization = "Basic " + Base64.getEncoder().encodeToString("user:pwd".getBytes(StandardCharsets.ISO_8859_1));
+        Map<String, String> headers = Collections.singletonMap("Authorization", authorization);
+        long[][] ranges = {{100, 199}, {5000, 5999}};
+
+        HMStacRangeCache cache = new HMStacRangeCache(cacheFolder);
+        Map<Long, byte[]> read = cache.read(url, headers, ranges, fetcher(headers));
+        checkRanges(ranges, read);
+        assertEquals(2, rangeRequests.get());
+
+        // the version is asked with the credentials, so the asset is cached
+        cache = new HMStacRangeCache(cacheFolder);
+        read = cache.read(url, headers, ranges, fetcher(headers));
+        checkRanges(ranges, read);
+        assertEquals(2, rangeRequests.get());
+        assertEquals(2, cache.getCachedRanges());
+    }
+
+    public void testReadBandOverHttp() throws Exception {
+        int cols = 256;
+        int rows = 128;
+        double res = 2.0 / rows;
+        double[][] data = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                data[r][c] = r * cols + c;
+            }
+        }
+        RegionMap region = RegionMap.fromBoundsAndGrid(11.0, 11.0 + cols * res, 46.0, 46.0 + rows * res, cols, rows);
+
+        // two items side by side, each with its own tiled geotiff asset
+        int halfCols = cols / 2;
+        List<HMStacItem> items = new ArrayList<>();
+        for( int i = 0; i < 2; i++ ) {
+            double[][] halfData = new double[rows][halfCols];
+            for( int r = 0; r < rows; r++ ) {
+                System.arraycopy(data[r], i * halfCols, halfData[r], 0, halfCols);
+            }
+            double west = region.getWest() + i * halfCols * res;
+            RegionMap halfRegion = RegionMap.fromBoundsAndGrid(west, west + halfCols * res, region.getSouth(),
+                    region.getNorth(), halfCols, rows);
+            String path = "/item" + i + "_" + BAND + ".tif";
+            files.put(path, writeTiledGeotiff(halfData, halfRegion));
+            items.add(createItem("item" + i, halfRegion, getUrl(path), res));
+        }
+
+        HMStacRangeCache cache = new HMStacRangeCache(cacheFolder);
+        HMStacRangeCache.setDefault(cache);
+
+        HMRaster raster = HMStacCollection.readRasterBandOnRegion(region, BAND, items, new DummyProgressMonitor());
+        checkRaster(data, raster);
+        int fetchedDataRequests = dataRangeRequests.get();
+        // the tiles not contained in the headers, each fetched at most once
+        assertTrue(fetchedDataRequests > 0);
+        assertTrue(fetchedDataRequests <= cache.getRequestedRanges());
+
+        // read again, the tiles come from the cache
+        cache.resetMetrics();
+        raster = HMStacCollection.readRasterBandOnRegion(region, BAND, items, new DummyProgressMonitor());
+        checkRaster(data, raster);
+        assertEquals(fetchedDataRequests, dataRangeRequests.get());
+        assertTrue(cache.getRequestedRanges() > 0);
+        assertEquals(1.0, cache.getHitRatio(), DELTA);
+    }
+
+    private void checkRaster( double[][] expected, HMRaster raster ) {
+        assertEquals(expected[0].length, raster.getCols());
+        assertEquals(expected.length, raster.getRows());
+        for( int r = 0; r < expected.length; r++ ) {
+            for( int c = 0; c < expected[0].length; c++ ) {
+                assertEquals("col " + c + ", row " + r, expected[r][c], raster.getValue(c, r), 0.0);
+            }
+        }
+    }
+
+    private void checkRanges( long[][] ranges, Map<Long, byte[]> read ) {
+        assertEquals(ranges.length, read.size());
+        for( long[] range : ranges ) {
+            byte[] expected = Arrays.copyOfRange(content, (int) range[0], (int) range[1] + 1);
+            assertTrue(Arrays.equals(expected, read.get(range[0])));
+        }
+    }
+
+    private String getUrl( String path ) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private RangeFetcher fetcher() {
+        return fetcher(Collections.emptyMap());
+    }
+
+    private RangeFetcher fetcher( Map<String, String> headers ) {
+        return ranges -> {
+            Map<Long, byte[]> result = new HashMap<>();
+            for( long[] range : ranges ) {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                headers.forEach(connection::setRequestProperty);
+                connection.setRequestProperty("Range", "bytes=" + range[0] + "-" + range[1]);
+                if (connection.getResponseCode() != 206) {
+                    throw new IOException("Range request failed: " + connection.getResponseCode());
+                }
+                try (InputStream is = connection.getInputStream()) {
+                    result.put(range[0], is.readAllBytes());
+                }
+            }
+            return result;
+        };
+    }
+
+    private static byte[] writeTiledGeotiff( double[][] data, RegionMap region ) throws Exception {
+        GridCoverage2D coverage = CoverageUtilities.buildCoverageWithNovalue(BAND, data, region, DefaultGeographicCRS.WGS84,
+                true, NOVALUE);
+        GeoTiffWriteParams wp = new GeoTiffWriteParams();
+        wp.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+        wp.setTiling(32, 32);
+        ParameterValueGroup paramWrite = new GeoTiffFormat().getWriteParameters();
+        paramWrite.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString()).setValue(wp);
+
+        File file = File.createTempFile("hm_stac_asset", ".tif");
+        try {
+            GeoTiffWriter writer = new GeoTiffWriter(file);
+            try {
+                writer.write(coverage, (GeneralParameterValue[]) paramWrite.values().toArray(new GeneralParameterValue[1]));
+            } finally {
+                writer.dispose();
+            }
+            return Files.readAllBytes(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static HMStacItem createItem( String id, RegionMap region, String assetUrl, double res ) throws Exception {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("item");
+        b.setCRS(DefaultGeographicCRS.WGS84);
+        b.add("the_geom", Polygon.class);
+        b.add("datetime", Date.class);
+        b.add("created", Date.class);
+        b.add("proj:epsg", Integer.class);
+        SimpleFeatureType type = b.buildFeatureType();
+        Polygon geometry = GeometryUtilities.createPolygonFromEnvelope(region.toEnvelope());
+        SimpleFeature feature = SimpleFeatureBuilder.build(type, new Object[]{geometry, new Date(0), new Date(0), 4326}, id);
+
+        ObjectNode assets = new ObjectMapper().createObjectNode();
+        ObjectNode asset = assets.putObject(BAND);
+        asset.put("type", "image/tiff; application=geotiff; profile=cloud-optimized");
+        asset.put("title", BAND);
+        asset.put("href", assetUrl);
+        ObjectNode band = asset.putArray("raster:bands").addObject();
+        band.put("nodata", NOVALUE);
+        band.put("spatial_resolution", res);
+
+        Map<String, JsonNode> top = new HashMap<>();
+        top.put("id", new TextNode(id));
+        top.put("assets", assets);
+        feature.getUserData().put(GeoJSONReader.TOP_LEVEL_ATTRIBUTES, top);
+        return new HMStacItem(feature);
+    }
+
+}
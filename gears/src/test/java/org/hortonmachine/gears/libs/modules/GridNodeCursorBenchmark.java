@@ -0,0 +1,104 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the per cell {@link GridNode} creation with the {@link GridNodeCursor}
+ * in a full pass of pit check and steepest descent flow.
+ *
+ * <p>Not a unit test, run it through its main method.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GridNodeCursorBenchmark {
+
+    @Param({"500", "2000"})
+    public int size;
+
+    private RandomIter elevIter;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        WritableRaster raster = CoverageUtilities.createWritableRaster(size, size, null, null, null);
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                raster.setSample(c, r, 0, 1000.0 - r - c + random.nextDouble() * 5);
+            }
+        }
+        elevIter = RandomIterFactory.create(raster, null);
+    }
+
+    @Benchmark
+    public void gridNode( Blackhole blackhole ) {
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                GridNode node = new GridNode(elevIter, size, size, 1.0, 1.0, c, r, null);
+                blackhole.consume(node.isPit());
+                blackhole.consume(node.getFlow());
+            }
+        }
+    }
+
+    @Benchmark
+    public void gridNodeCursor( Blackhole blackhole ) {
+        GridNodeCursor cursor = new GridNodeCursor(elevIter, size, size, 1.0, 1.0, null);
+        for( int r = 0; r < size; r++ ) {
+            for( int c = 0; c < size; c++ ) {
+                cursor.moveTo(c, r);
+                blackhole.consume(cursor.isPit());
+                blackhole.consume(cursor.getFlow());
+            }
+        }
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Options options = new OptionsBuilder().include(GridNodeCursorBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
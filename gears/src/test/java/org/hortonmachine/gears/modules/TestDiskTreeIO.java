@@ -2,12 +2,16 @@ package org.hortonmachine.gears.modules;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.List;
 
+import org.hortonmachine.gears.io.disktree.DiskTreeWriter;
 import org.hortonmachine.gears.io.disktree.IDiskTree;
+import org.hortonmachine.gears.io.disktree.PackedDiskTreeReader;
+import org.hortonmachine.gears.io.disktree.PackedDiskTreeWriter;
 import org.hortonmachine.gears.utils.HMTestCase;
 
 import org.locationtech.jts.geom.Envelope;
@@ -151,6 +155,97 @@ public class TestDiskTreeIO extends HMTestCase {
 
     }
 
+    public void testPackedDiskTree() throws Exception {
+        WKTReader r = new WKTReader();
+        Geometry pol = r.read("POLYGON ((210 350, 230 310, 290 350, 290 350, 210 350))");
+        pol.setUserData(1);
+        Geometry line = r.read("LINESTRING (50 380, 90 210, 180 160, 240 40, 240 40)");
+        line.setUserData("line");
+        Geometry point = r.read("POINT (130 120)");
+        point.setUserData(3.5);
+
+        // a grid of points to have a few levels in the tree
+        int gridSize = 30;
+        Geometry[] geoms = new Geometry[3 + gridSize * gridSize];
+        geoms[0] = pol;
+        geoms[1] = line;
+        geoms[2] = point;
+        for( int i = 0; i < gridSize * gridSize; i++ ) {
+            geoms[3 + i] = r.read("POINT (" + (1000 + i % gridSize) + " " + (1000 + i / gridSize) + ")");
+            geoms[3 + i].setUserData((long) i);
+        }
+
+        File file = File.createTempFile("hm_packeddisktree", ".hmdt");
+        new PackedDiskTreeWriter(file.getAbsolutePath(), 4).writeGeometries(geoms);
+
+        try (PackedDiskTreeReader reader = new PackedDiskTreeReader(file.getAbsolutePath())) {
+            reader.open();
+            assertEquals(geoms.length, reader.getSize());
+            assertEquals(new Envelope(50, 1000 + gridSize - 1, 40, 1000 + gridSize - 1), reader.getBounds());
+
+            List<Geometry> geomList = reader.queryGeometries(pol.getEnvelopeInternal());
+            assertEquals(2, geomList.size());
+            for( Geometry geometry : geomList ) {
+                if (geometry.getUserData().equals(1)) {
+                    assertTrue(geometry.equalsExact(pol));
+                } else {
+                    assertEquals("line", geometry.getUserData());
+                    assertTrue(geometry.equalsExact(line));
+                }
+            }
+
+            geomList = reader.queryGeometries(new Envelope(130, 130, 120, 120));
+            assertEquals(2, geomList.size());
+
+            geomList = reader.queryGeometries(new Envelope(1004.5, 1010.5, 1002.5, 1005.5));
+            assertEquals(6 * 3, geomList.size());
+            for( Geometry geometry : geomList ) {
+                long i = (Long) geometry.getUserData();
+                assertEquals(1000 + i % gridSize, geometry.getCoordinate().x, DELTA);
+                assertEquals(1000 + i / gridSize, geometry.getCoordinate().y, DELTA);
+            }
+
+            assertEquals(0, reader.query(new Envelope(-10, -5, -10, -5)).length);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testPackedDiskTreeConversion() throws Exception {
+        WKTReader r = new WKTReader();
+        Geometry pol = r.read("POLYGON ((210 350, 230 310, 290 350, 290 350, 210 350))");
+        pol.setUserData(1);
+        Geometry line = r.read("LINESTRING (50 380, 90 210, 180 160, 240 40, 240 40)");
+        line.setUserData(2);
+        Geometry point = r.read("POINT (130 120)");
+        point.setUserData(3);
+
+        File legacyFile = File.createTempFile("hm_disktree", ".qjts");
+        File file = File.createTempFile("hm_packeddisktree", ".hmdt");
+        try {
+            new DiskTreeWriter(legacyFile.getAbsolutePath()).writeGeometries(new Geometry[]{pol, line, point});
+            PackedDiskTreeWriter.convert(legacyFile.getAbsolutePath(), file.getAbsolutePath());
+
+            try (PackedDiskTreeReader reader = new PackedDiskTreeReader(file.getAbsolutePath())) {
+                reader.open();
+                assertEquals(3, reader.getSize());
+                List<Geometry> geomList = reader.queryGeometries(new Envelope(130, 130, 120, 120));
+                assertEquals(2, geomList.size());
+                for( Geometry geometry : geomList ) {
+                    if (geometry.getUserData().equals(3)) {
+                        assertTrue(geometry.equalsExact(point));
+                    } else {
+                        assertEquals(2, geometry.getUserData());
+                        assertTrue(geometry.equalsExact(line));
+                    }
+                }
+            }
+        } finally {
+            legacyFile.delete();
+            file.delete();
+        }
+    }
+
     private static byte[] serialize( Object obj ) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream out = new ObjectOutputStream(bos);
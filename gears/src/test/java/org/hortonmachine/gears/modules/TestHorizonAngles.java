@@ -0,0 +1,144 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.awt.image.WritableRaster;
+import java.io.File;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.ModelsEngine;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster;
+import org.hortonmachine.gears.utils.coverage.HorizonAngles;
+
+/**
+ * Test {@link HorizonAngles}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHorizonAngles extends HMTestCase {
+
+    private static final int COLS = 60;
+    private static final int ROWS = 50;
+    private static final double RES = 10;
+
+    public void testWallHorizon() throws Exception {
+        // a flat plane with a wall 100 meters high along the north border
+        double[] elevations = new double[20 * 20];
+        for( int r = 0; r < 20; r++ ) {
+            for( int c = 0; c < 20; c++ ) {
+                elevations[r * 20 + c] = r == 0 ? 200 : 100;
+            }
+        }
+        GridRayCaster caster = new GridRayCaster(elevations, 20, 20, RES, RES, HMConstants.doubleNovalue);
+        HorizonAngles horizons = HorizonAngles.calculate(caster, 36);
+
+        for( int r = 1; r < 20; r++ ) {
+            double expected = Math.toDegrees(Math.atan(100.0 / (r * RES)));
+            assertEquals(expected, horizons.getHorizon(10, r, 0), HorizonAngles.ANGLE_STEP / 2 + DELTA);
+        }
+        // the flat plane toward south
+        for( int r = 1; r < 19; r++ ) {
+            assertEquals(0.0, horizons.getHorizon(10, r, 180), DELTA);
+        }
+        // the border cells see no terrain
+        assertTrue(horizons.getHorizon(10, 0, 0) < 0);
+        assertTrue(horizons.getHorizon(10, 19, 180) < 0);
+        assertTrue(horizons.isShaded(10, 5, 0, 60));
+        assertFalse(horizons.isShaded(10, 5, 0, 65));
+        assertFalse(horizons.isShaded(10, 5, 180, 1));
+    }
+
+    public void testAgainstShadowMaps() throws Exception {
+        GridRayCaster caster = new GridRayCaster(hills(), COLS, ROWS, RES, RES, HMConstants.doubleNovalue);
+        int sectors = 36;
+        HorizonAngles horizons = HorizonAngles.calculate(caster, sectors);
+
+        double[] shadows = new double[COLS * ROWS];
+        int mismatches = 0;
+        int count = 0;
+        for( int s = 0; s < sectors; s++ ) {
+            double azimuth = s * 360.0 / sectors;
+            for( double elevation = 5; elevation < 60; elevation += 10 ) {
+                double[] sunVector = sunVector(azimuth, elevation);
+                WritableRaster exactWR = ModelsEngine.calculateFactor(ROWS, COLS, sunVector,
+                        ModelsEngine.calcInverseSunVector(sunVector), ModelsEngine.calcNormalSunVector(sunVector), caster, RES);
+                double sunAzimuth = HorizonAngles.azimuth(sunVector);
+                double sunElevation = HorizonAngles.elevation(sunVector);
+                horizons.fillShadows(sunAzimuth, sunElevation, shadows);
+                for( int r = 0; r < ROWS; r++ ) {
+                    for( int c = 0; c < COLS; c++ ) {
+                        double shadow = shadows[r * COLS + c];
+                        assertEquals(horizons.isShaded(c, r, sunAzimuth, sunElevation) ? 0.0 : 1.0, shadow, DELTA);
+                        if (shadow != exactWR.getSampleDouble(c, r, 0)) {
+                            mismatches++;
+                        }
+                        count++;
+                    }
+                }
+            }
+        }
+        // only cells on the quantization edge can differ
+        assertTrue(mismatches < count / 200);
+    }
+
+    public void testCacheFile() throws Exception {
+        GridRayCaster caster = new GridRayCaster(hills(), COLS, ROWS, RES, RES, HMConstants.doubleNovalue);
+        File cacheFile = File.createTempFile("hm_horizons", ".bin");
+        cacheFile.delete();
+        try {
+            HorizonAngles horizons = HorizonAngles.getOrCalculate(caster, 24, cacheFile);
+            assertTrue(cacheFile.exists());
+            long written = cacheFile.lastModified();
+
+            HorizonAngles read = HorizonAngles.getOrCalculate(caster, 24, cacheFile);
+            assertEquals(written, cacheFile.lastModified());
+            for( int r = 0; r < ROWS; r++ ) {
+                for( int c = 0; c < COLS; c++ ) {
+                    for( double azimuth = 0; azimuth < 360; azimuth += 7.5 ) {
+                        assertEquals(horizons.getHorizon(c, r, azimuth), read.getHorizon(c, r, azimuth), DELTA);
+                    }
+                }
+            }
+
+            // other sectors are calculated again
+            HorizonAngles other = HorizonAngles.getOrCalculate(caster, 12, cacheFile);
+            assertEquals(12, other.getSectors());
+            assertEquals(12, HorizonAngles.read(cacheFile).getSectors());
+        } finally {
+            cacheFile.delete();
+        }
+    }
+
+    private static double[] hills() {
+        double[] elevations = new double[COLS * ROWS];
+        for( int r = 0; r < ROWS; r++ ) {
+            for( int c = 0; c < COLS; c++ ) {
+                elevations[r * COLS + c] = 500 + 80 * Math.sin(c / 4.0) * Math.cos(r / 6.0) + 40 * Math.sin((c + r) / 3.0);
+            }
+        }
+        return elevations;
+    }
+
+    private static double[] sunVector( double azimuth, double elevation ) {
+        double az = Math.toRadians(azimuth);
+        double el = Math.toRadians(elevation);
+        return new double[]{Math.sin(az) * Math.cos(el), -Math.cos(az) * Math.cos(el), Math.sin(el)};
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.modules.r.interpolation2d.core.IDWInterpolator;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.ISurfaceInterpolator;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.KdTree;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.TPSInterpolator;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Test {@link KdTree} and the interpolators using it.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestKdTree extends HMTestCase {
+
+    private static final int POINTS = 500;
+
+    private double[] xs = new double[POINTS];
+    private double[] ys = new double[POINTS];
+    private double[] zs = new double[POINTS];
+    private KdTree tree;
+
+    protected void setUp() throws Exception {
+        // distinct nodes of a grid, so that many points lie exactly on the query borders
+        List<Integer> nodes = new ArrayList<>();
+        for( int i = 0; i < 40 * 40; i++ ) {
+            nodes.add(i);
+        }
+        Random random = new Random(13);
+        Collections.shuffle(nodes, random);
+        for( int i = 0; i < POINTS; i++ ) {
+            xs[i] = nodes.get(i) % 40;
+            ys[i] = nodes.get(i) / 40;
+            zs[i] = random.nextDouble() * 100;
+        }
+        tree = new KdTree(xs, ys, zs, POINTS);
+    }
+
+    public void testQueries() throws Exception {
+        KdTree.Neighbours neighbours = new KdTree.Neighbours();
+        double[][] queries = {{20, 20}, {0, 0}, {13.5, 7.25}, {39, 2}};
+        for( double[] query : queries ) {
+            Coordinate center = new Coordinate(query[0], query[1]);
+            double buffer = 4.0;
+
+            tree.box(query[0], query[1], buffer, neighbours);
+            List<Integer> expected = new ArrayList<>();
+            for( int i = 0; i < POINTS; i++ ) {
+                if (Math.abs(xs[i] - query[0]) <= buffer && Math.abs(ys[i] - query[1]) <= buffer) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(expected, found(neighbours));
+
+            tree.radius(query[0], query[1], buffer, neighbours);
+            expected.clear();
+            for( int i = 0; i < POINTS; i++ ) {
+                if (new Coordinate(xs[i], ys[i]).distance(center) <= buffer) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(expected, found(neighbours));
+
+            int k = 7;
+            tree.nearest(query[0], query[1], k, Double.POSITIVE_INFINITY, neighbours);
+            assertEquals(k, neighbours.size());
+            double[] distances = new double[POINTS];
+            for( int i = 0; i < POINTS; i++ ) {
+                distances[i] = new Coordinate(xs[i], ys[i]).distance(center);
+            }
+            Arrays.sort(distances);
+            for( int i = 0; i < k; i++ ) {
+                assertEquals(distances[i], Math.sqrt(neighbours.getSquaredDistance(i)), DELTA);
+            }
+        }
+    }
+
+    public void testInterpolatorsOnTree() throws Exception {
+        KdTree.Neighbours neighbours = new KdTree.Neighbours();
+        double buffer = 4.0;
+        ISurfaceInterpolator[] interpolators = {new IDWInterpolator(0, buffer), new TPSInterpolator(0, buffer)};
+        for( ISurfaceInterpolator interpolator : interpolators ) {
+            for( double x = 10; x < 12; x += 0.25 ) {
+                double y = 17.5;
+                tree.box(x, y, buffer, neighbours);
+                Coordinate[] controlPoints = new Coordinate[neighbours.size()];
+                for( int i = 0; i < controlPoints.length; i++ ) {
+                    int position = neighbours.getPosition(i);
+                    controlPoints[i] = new Coordinate(xs[tree.getIndex(position)], ys[tree.getIndex(position)],
+                            zs[tree.getIndex(position)]);
+                }
+
+                double expected = interpolator.getValue(controlPoints, new Coordinate(x, y));
+                double value = interpolator.getValue(tree, neighbours, x, y);
+                assertEquals(expected, value, 1E-6);
+            }
+        }
+    }
+
+    private List<Integer> found( KdTree.Neighbours neighbours ) {
+        List<Integer> found = new ArrayList<>();
+        for( int i = 0; i < neighbours.size(); i++ ) {
+            found.add(tree.getIndex(neighbours.getPosition(i)));
+        }
+        found.sort(null);
+        return found;
+    }
+
+}
@@ -21,18 +21,32 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.hortonmachine.gears.io.las.ALasDataManager;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.Las;
+import org.hortonmachine.gears.io.las.core.LasPointBatch;
 import org.hortonmachine.gears.io.las.core.LasRecord;
 import org.hortonmachine.gears.io.las.core.laszip4j.LaszipReader;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Polygon;
 public class TestLasIO extends HMTestCase {
 
     private static String lasWriteFileName = "las/1.1_1.las";
@@ -94,6 +108,151 @@ public class TestLasIO extends HMTestCase {
 
     }
 
+    public void testLasPointBatch() throws Exception {
+        String[] names = {"las/1.0_0.las", "las/1.1_1.las", "las/1.2_1.las", "las/1.2_2.las", "las/1.2_3.las",
+                "las/1.2-with-color.las", "las/1.2-with-color.laz"};
+        for( String name : names ) {
+            File lasFile = fileFromName(name);
+            // small buffers and batches to cross their bounds many times
+            try (ALasReader pointReader = Las.getReader(lasFile, null);
+                    ALasReader batchReader = lasFile.getName().endsWith(".laz")
+                            ? new LaszipReader(lasFile, null)
+                            : new LasReaderBuffered(lasFile, 10, null)) {
+                pointReader.open();
+                batchReader.open();
+
+                LasPointBatch batch = new LasPointBatch(7);
+                LasRecord batchRecord = new LasRecord();
+                long count = 0;
+                while( batchReader.readNextPoints(batch) > 0 ) {
+                    for( int i = 0; i < batch.size(); i++ ) {
+                        assertTrue(pointReader.hasNextPoint());
+                        LasRecord lasRecord = pointReader.getNextPoint();
+                        batch.getRecord(i, batchRecord);
+                        assertTrue(name, LasUtils.lasRecordEqual(lasRecord, batchRecord));
+                        assertEquals(lasRecord.gpsTime, batchRecord.gpsTime, DELTA);
+                        assertEquals(lasRecord.color[0], batchRecord.color[0]);
+                        assertEquals(lasRecord.color[1], batchRecord.color[1]);
+                        assertEquals(lasRecord.color[2], batchRecord.color[2]);
+                        count++;
+                    }
+                }
+                assertFalse(pointReader.hasNextPoint());
+                assertEquals(batchReader.getHeader().getRecordsCount(), count);
+                assertEquals(0, batchReader.readNextPoints(batch));
+            }
+        }
+    }
+
+    public void testMemoryMappedReader() throws Exception {
+        File lasFile = fileFromName("las/1.2-with-color.las");
+        long segmentBytes = LasReaderBuffered.mappedSegmentBytes;
+        // force many small segments
+        LasReaderBuffered.mappedSegmentBytes = 1000;
+        try (LasReaderBuffered reader = new LasReaderBuffered(lasFile, null);
+                LasReaderBuffered mappedReader = new LasReaderBuffered(lasFile, null)) {
+            reader.open();
+            mappedReader.setMemoryMapped(true);
+            mappedReader.open();
+            assertTrue(mappedReader.isMemoryMapped());
+
+            final int count = (int) reader.getHeader().getRecordsCount();
+            final LasRecord[] expected = new LasRecord[count];
+            for( int i = 0; i < count; i++ ) {
+                expected[i] = reader.getPointAt(i);
+                LasRecord mapped = mappedReader.getPointAt(i);
+                assertTrue(LasUtils.lasRecordEqual(expected[i], mapped));
+                assertEquals(expected[i].gpsTime, mapped.gpsTime, DELTA);
+                assertEquals(expected[i].color[2], mapped.color[2]);
+            }
+
+            // disjoint ranges read concurrently
+            int threads = 4;
+            final int rangeSize = count / threads + 1;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for( int t = 0; t < threads; t++ ) {
+                final int from = t * rangeSize;
+                results.add(executor.submit(() -> {
+                    LasPointBatch batch = new LasPointBatch(13);
+                    LasRecord record = new LasRecord();
+                    int current = from;
+                    int end = Math.min(count, from + rangeSize);
+                    while( current < end ) {
+                        int read = mappedReader.readPointsAt(current, Math.min(13, end - current), batch);
+                        for( int i = 0; i < read; i++ ) {
+                            if (!LasUtils.lasRecordEqual(expected[current + i], batch.getRecord(i, record))) {
+                                return false;
+                            }
+                        }
+                        current += read;
+                    }
+                    return current == end;
+                }));
+            }
+            executor.shutdown();
+            for( Future<Boolean> result : results ) {
+                assertTrue(result.get());
+            }
+        } finally {
+            LasReaderBuffered.mappedSegmentBytes = segmentBytes;
+        }
+    }
+
+    public void testPointBatchInGeometry() throws Exception {
+        File lasFile = fileFromName("las/1.2-with-color.las");
+        List<LasRecord> allPoints = new ArrayList<>();
+        try (ALasReader reader = Las.getReader(lasFile, null)) {
+            reader.open();
+            while( reader.hasNextPoint() ) {
+                allPoints.add(reader.getNextPoint());
+            }
+        }
+
+        try (ALasDataManager dataManager = ALasDataManager.getDataManager(lasFile, null, 0, DefaultGeographicCRS.WGS84)) {
+            dataManager.open();
+            ReferencedEnvelope overall = dataManager.getOverallEnvelope();
+            double w = overall.getWidth() / 3.0;
+            double h = overall.getHeight() / 3.0;
+            // the first query reads the file, the others go through the index
+            for( int pass = 0; pass < 2; pass++ ) {
+                for( int r = 0; r < 3; r++ ) {
+                    for( int c = 0; c < 3; c++ ) {
+                        Envelope env = new Envelope(overall.getMinX() + c * w, overall.getMinX() + (c + 1) * w,
+                                overall.getMinY() + r * h, overall.getMinY() + (r + 1) * h);
+                        Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(env);
+                        LasPointBatch batch = dataManager.getPointBatchInGeometry(polygon, true);
+                        checkSamePoints(allPoints, batch, p -> env.contains(p.x, p.y));
+                    }
+                }
+            }
+
+            Coordinate[] triangle = new Coordinate[]{new Coordinate(overall.getMinX(), overall.getMinY()),
+                    new Coordinate(overall.getMaxX(), overall.getMinY()), new Coordinate(overall.getMinX(), overall.getMaxY()),
+                    new Coordinate(overall.getMinX(), overall.getMinY())};
+            Polygon polygon = GeometryUtilities.gf().createPolygon(triangle);
+            LasPointBatch batch = dataManager.getPointBatchInGeometry(polygon, false);
+            checkSamePoints(allPoints, batch,
+                    p -> polygon.contains(GeometryUtilities.gf().createPoint(new Coordinate(p.x, p.y))));
+        }
+    }
+
+    private void checkSamePoints( List<LasRecord> allPoints, LasPointBatch batch, Predicate<LasRecord> filter ) {
+        List<String> expected = new ArrayList<>();
+        for( LasRecord lasRecord : allPoints ) {
+            if (filter.test(lasRecord)) {
+                expected.add(lasRecord.x + "/" + lasRecord.y + "/" + lasRecord.z + "/" + lasRecord.gpsTime);
+            }
+        }
+        List<String> found = new ArrayList<>();
+        for( int i = 0; i < batch.size(); i++ ) {
+            found.add(batch.x[i] + "/" + batch.y[i] + "/" + batch.z[i] + "/" + batch.gpsTime[i]);
+        }
+        Collections.sort(expected);
+        Collections.sort(found);
+        assertEquals(expected, found);
+    }
+
     public void testLazReader() throws Exception {
 //        String name = "/media/hydrologis/Samsung_T3/UNIBZ/monticolo2019/Coverage_SolarTirol_05.laz";
 //        File lasFile = new File(name);
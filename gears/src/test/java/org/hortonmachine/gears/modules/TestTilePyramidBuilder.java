@@ -0,0 +1,248 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.geopackage.GeopackageCommonDb;
+import org.hortonmachine.dbs.geopackage.TileEntry;
+import org.hortonmachine.dbs.geopackage.TileMatrix;
+import org.hortonmachine.dbs.mbtiles.MBTilesDb.Tile;
+import org.hortonmachine.dbs.utils.MercatorUtils;
+import org.hortonmachine.dbs.utils.SqlName;
+import org.hortonmachine.gears.modules.r.tmsgenerator.GeopackageTileSink;
+import org.hortonmachine.gears.modules.r.tmsgenerator.GlobalMercator;
+import org.hortonmachine.gears.modules.r.tmsgenerator.ITileSink;
+import org.hortonmachine.gears.modules.r.tmsgenerator.TilePyramidBuilder;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Test {@link TilePyramidBuilder}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTilePyramidBuilder extends HMTestCase {
+
+    private double w = 1240000;
+    private double s = 5800000;
+    private double e = 1246000;
+    private double n = 5804000;
+    private GlobalMercator mercator = new GlobalMercator();
+
+    public void testPyramid() throws Exception {
+        MemoryTileSink sink = new MemoryTileSink();
+        Map<String, byte[]> tiles = sink.tiles;
+        TilePyramidBuilder builder = new TilePyramidBuilder(TestTilePyramidBuilder::render, sink, 10, 15, pm);
+        builder.setThreads(2);
+        builder.setMetatileSize(4);
+        builder.build(w, s, e, n);
+
+        for( int z = 10; z <= 15; z++ ) {
+            int[] ll = mercator.MetersToTile(w, s, z);
+            int[] ur = mercator.MetersToTile(e, n, z);
+            assertEquals((ur[0] - ll[0] + 1) * (ur[1] - ll[1] + 1), builder.getWrittenTiles(z));
+            for( int x = ll[0]; x <= ur[0]; x++ ) {
+                for( int y = ll[1]; y <= ur[1]; y++ ) {
+                    BufferedImage image = read(tiles.get(z + "/" + x + "/" + y));
+                    if (z == 15) {
+                        // max zoom tiles are the same as rendered one by one
+                        double[] bounds = mercator.TileBounds(x, y, z);
+                        BufferedImage rendered = render(new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]), 256, 256);
+                        for( int i = 0; i < 256; i++ ) {
+                            for( int j = 0; j < 256; j++ ) {
+                                assertEquals(rendered.getRGB(i, j), image.getRGB(i, j));
+                            }
+                        }
+                    } else {
+                        // the upper left pixel is the average of the upper left 2x2 block of the north west child
+                        byte[] childBytes = tiles.get((z + 1) + "/" + (2 * x) + "/" + (2 * y + 1));
+                        if (childBytes != null) {
+                            BufferedImage child = read(childBytes);
+                            int red = 0;
+                            for( int k = 0; k < 4; k++ ) {
+                                red += (child.getRGB(k % 2, k / 2) >> 16) & 0xFF;
+                            }
+                            assertEquals((red + 2) / 4, (image.getRGB(0, 0) >> 16) & 0xFF, 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testExistingTilesKeepTheirChildren() throws Exception {
+        MemoryTileSink sink = new MemoryTileSink();
+        // a previous run that stopped after the lowest zoom level and one tile of zoom 12
+        int[] ll = mercator.MetersToTile(w, s, 10);
+        int[] ur = mercator.MetersToTile(e, n, 10);
+        for( int x = ll[0]; x <= ur[0]; x++ ) {
+            for( int y = ll[1]; y <= ur[1]; y++ ) {
+                sink.tiles.put(10 + "/" + x + "/" + y, new byte[0]);
+            }
+        }
+        int[] existing12 = mercator.MetersToTile(w, s, 12);
+        sink.tiles.put(12 + "/" + existing12[0] + "/" + existing12[1], new byte[0]);
+
+        TilePyramidBuilder builder = new TilePyramidBuilder(TestTilePyramidBuilder::render, sink, 10, 15, pm);
+        builder.setThreads(2);
+        builder.setMetatileSize(4);
+        builder.build(w, s, e, n);
+
+        for( int z = 10; z <= 15; z++ ) {
+            ll = mercator.MetersToTile(w, s, z);
+            ur = mercator.MetersToTile(e, n, z);
+            int count = (ur[0] - ll[0] + 1) * (ur[1] - ll[1] + 1);
+            if (z == 10) {
+                assertEquals(0, builder.getWrittenTiles(z));
+            } else if (z == 12) {
+                assertEquals(count - 1, builder.getWrittenTiles(z));
+            } else {
+                assertEquals(count, builder.getWrittenTiles(z));
+            }
+            for( int x = ll[0]; x <= ur[0]; x++ ) {
+                for( int y = ll[1]; y <= ur[1]; y++ ) {
+                    byte[] bytes = sink.tiles.get(z + "/" + x + "/" + y);
+                    assertNotNull(bytes);
+                    if (z == 10 || (z == 12 && x == existing12[0] && y == existing12[1])) {
+                        // not written again
+                        assertEquals(0, bytes.length);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testGeopackageSink() throws Exception {
+        MemoryTileSink memorySink = new MemoryTileSink();
+        TilePyramidBuilder builder = new TilePyramidBuilder(TestTilePyramidBuilder::render, memorySink, 10, 13, pm);
+        builder.setMetatileSize(2);
+        builder.build(w, s, e, n);
+
+        File gpkgFile = File.createTempFile("hm_test_tiles", EDb.GEOPACKAGE.getExtension());
+        gpkgFile.delete();
+        try {
+            SqlName tableName = SqlName.m("tiles");
+            Envelope bounds = new Envelope(w, e, s, n);
+            GeopackageCommonDb db = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb();
+            db.open(gpkgFile.getAbsolutePath());
+            db.initSpatialMetadata(null);
+            try (GeopackageTileSink sink = new GeopackageTileSink(db, tableName.name, "test tiles", bounds, 256)) {
+                builder = new TilePyramidBuilder(TestTilePyramidBuilder::render, sink, 10, 13, pm);
+                builder.setMetatileSize(2);
+                builder.build(w, s, e, n);
+            }
+
+            try (GeopackageCommonDb readDb = (GeopackageCommonDb) EDb.GEOPACKAGE.getSpatialDb()) {
+                readDb.open(gpkgFile.getAbsolutePath());
+                TileEntry tileEntry = readDb.tile(tableName);
+                assertNotNull(tileEntry);
+                assertEquals(3857, tileEntry.getSrid().intValue());
+                List<TileMatrix> tileMatricies = tileEntry.getTileMatricies();
+                assertEquals(4, tileMatricies.size());
+                for( int z = 10; z <= 13; z++ ) {
+                    int[] ll = mercator.MetersToTile(w, s, z);
+                    int[] ur = mercator.MetersToTile(e, n, z);
+                    int zoom = z;
+                    TileMatrix tileMatrix = tileMatricies.stream().filter(tm -> tm.getZoomLevel() == zoom).findFirst().get();
+                    assertEquals(ur[0] - ll[0] + 1, tileMatrix.getMatrixWidth().intValue());
+                    assertEquals(ur[1] - ll[1] + 1, tileMatrix.getMatrixHeight().intValue());
+                    assertEquals(256, tileMatrix.getTileWidth().intValue());
+
+                    // same tiles as in memory, with the rows counted from north
+                    for( int x = ll[0]; x <= ur[0]; x++ ) {
+                        for( int y = ll[1]; y <= ur[1]; y++ ) {
+                            int[] osmTile = MercatorUtils.tmsTile2OsmTile(x, y, z);
+                            byte[] tile = readDb.getTile(tableName, osmTile[0], osmTile[1], z);
+                            assertTrue(Arrays.equals(memorySink.tiles.get(z + "/" + x + "/" + y), tile));
+                        }
+                    }
+                }
+            }
+        } finally {
+            gpkgFile.delete();
+        }
+    }
+
+    public void testWriterError() throws Exception {
+        ITileSink sink = new ITileSink(){
+            public void writeTiles( List<Tile> tilesList ) throws Exception {
+                throw new IOException("disk full");
+            }
+            public void close() {
+            }
+        };
+        TilePyramidBuilder builder = new TilePyramidBuilder(TestTilePyramidBuilder::render, sink, 10, 13, pm);
+        try {
+            builder.build(w, s, e, n);
+            fail();
+        } catch (IOException ex) {
+            assertEquals("disk full", ex.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the tiles by z/x/y, failing if a tile is written twice.
+     */
+    private static class MemoryTileSink implements ITileSink {
+        private final Map<String, byte[]> tiles = new ConcurrentHashMap<>();
+
+        public boolean hasTile( int x, int y, int z ) {
+            return tiles.containsKey(z + "/" + x + "/" + y);
+        }
+
+        public void writeTiles( List<Tile> tilesList ) {
+            for( Tile tile : tilesList ) {
+                assertNull(tiles.put(tile.z + "/" + tile.x + "/" + tile.y, tile.imageBytes));
+            }
+        }
+
+        public void close() {
+        }
+    }
+
+    private static BufferedImage read( byte[] bytes ) throws IOException {
+        assertNotNull(bytes);
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    private static BufferedImage render( Envelope bounds, int width, int height ) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for( int j = 0; j < height; j++ ) {
+            double y = bounds.getMaxY() - (j + 0.5) * bounds.getHeight() / height;
+            for( int i = 0; i < width; i++ ) {
+                double x = bounds.getMinX() + (i + 0.5) * bounds.getWidth() / width;
+                int r = (int) (x / 10) & 0xFF;
+                int g = (int) (y / 10) & 0xFF;
+                image.setRGB(i, j, 0xFF000000 | r << 16 | g << 8 | 0x80);
+            }
+        }
+        return image;
+    }
+
+}
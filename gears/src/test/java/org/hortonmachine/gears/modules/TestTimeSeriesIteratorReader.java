@@ -19,10 +19,20 @@ package org.hortonmachine.gears.modules;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.hortonmachine.gears.io.timeseries.TimeSeriesColumns;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.HMTestCase;
+
+import oms3.io.CSTable;
+import oms3.io.DataIO;
+import oms3.io.TableIterator;
 /**
  * Test {@link OmsTimeSeriesIteratorReader}.
  * 
@@ -93,6 +103,106 @@ public class TestTimeSeriesIteratorReader extends HMTestCase {
         }
 
     }
+    public void testColumnarReader() throws Exception {
+        checkColumnarReader("timeseriesiteratorreader_test.csv", "2000-01-01 00:00", "2000-12-31 00:00", 1440, 1, 0);
+        checkColumnarReader("timeseriesiteratorreader_test.csv", "2000-01-03 00:00", "2000-01-20 00:00", 1440, 1, 0);
+        checkColumnarReader("timeseriesiteratorreader_test.csv", "2000-01-01 00:00", null, 2880, 2, 0);
+        checkColumnarReader("timeseriesiteratorreader_test.csv", "2000-01-01 00:00", null, 4320, 3, 1);
+        checkColumnarReader("timeseriesiteratorcomplexreader_test.csv", null, null, 0, 1, 0);
+    }
+
+    private void checkColumnarReader( String fileName, String tStart, String tEnd, int tTimestep, int pNum, int pAggregation )
+            throws Exception {
+        URL dataUrl = this.getClass().getClassLoader().getResource(fileName);
+        String path = new File(dataUrl.toURI()).getAbsolutePath();
+
+        OmsTimeSeriesIteratorReader rowReader = new OmsTimeSeriesIteratorReader();
+        OmsTimeSeriesIteratorReader columnarReader = new OmsTimeSeriesIteratorReader();
+        for( OmsTimeSeriesIteratorReader reader : Arrays.asList(rowReader, columnarReader) ) {
+            reader.file = path;
+            reader.tStart = tStart;
+            reader.tEnd = tEnd;
+            reader.tTimestep = tTimestep;
+            reader.pNum = pNum;
+            reader.pAggregation = pAggregation;
+            reader.initProcess();
+        }
+        columnarReader.doColumnar = true;
+
+        int count = 0;
+        while( rowReader.doProcess ) {
+            assertTrue(columnarReader.doProcess);
+            rowReader.nextRecord();
+            columnarReader.nextRecord();
+            assertEquals(rowReader.tCurrent, columnarReader.tCurrent);
+            assertEquals(rowReader.tTimestep, columnarReader.tTimestep);
+            assertEquals(rowReader.outData.keySet(), columnarReader.outData.keySet());
+            for( Integer id : rowReader.outData.keySet() ) {
+                assertTrue(Arrays.equals(rowReader.outData.get(id), columnarReader.outData.get(id)));
+            }
+            count++;
+        }
+        assertFalse(columnarReader.doProcess);
+        assertTrue(count > 1);
+        rowReader.close();
+        columnarReader.close();
+    }
+
+    public void testTimeSeriesColumns() throws Exception {
+        URL dataUrl = this.getClass().getClassLoader().getResource("timeseriesiteratorreader_test.csv");
+        File dataFile = new File(dataUrl.toURI());
+        CSTable table = DataIO.table(dataFile, null);
+        List<String[]> rows = new ArrayList<String[]>();
+        TableIterator<String[]> rowsIterator = (TableIterator<String[]>) table.rows().iterator();
+        while( rowsIterator.hasNext() ) {
+            rows.add(rowsIterator.next());
+        }
+        rowsIterator.close();
+
+        TimeSeriesColumns columns = TimeSeriesColumns.read(dataFile, "-9999.0", HMConstants.doubleNovalue);
+        assertEquals(rows.size(), columns.size());
+        assertEquals(table.getColumnCount() - 1, columns.getColumnCount());
+        assertEquals("4", columns.getColumnInfo(3).get("ID"));
+        for( int r = 0; r < rows.size(); r++ ) {
+            String[] row = rows.get(r);
+            assertEquals(HMConstants.utcDateFormatterYYYYMMDDHHMM.parseMillis(row[1]), columns.getTimes()[r]);
+            for( int c = 2; c < row.length; c++ ) {
+                assertEquals(Double.parseDouble(row[c]), columns.getValue(r, c - 2), 0.0);
+            }
+        }
+
+        // only the rows of the range are read
+        long from = columns.getTimes()[3];
+        long to = columns.getTimes()[6];
+        TimeSeriesColumns range = TimeSeriesColumns.read(dataFile, "-9999.0", HMConstants.doubleNovalue, from, to, false);
+        assertEquals(4, range.size());
+        assertEquals(from, range.getTimes()[0]);
+        assertEquals(to, range.getTimes()[3]);
+        assertEquals(columns.getValue(3, 2), range.getValue(0, 2), 0.0);
+
+        // the cached copy gives the same data
+        File tmpFolder = Files.createTempDirectory("hm_tscolumns").toFile();
+        try {
+            File copy = new File(tmpFolder, dataFile.getName());
+            Files.copy(dataFile.toPath(), copy.toPath());
+            File cacheFile = new File(copy.getAbsolutePath() + TimeSeriesColumns.CACHE_EXTENSION);
+            TimeSeriesColumns created = TimeSeriesColumns.read(copy, "-9999.0", HMConstants.doubleNovalue, from, to, true);
+            assertTrue(cacheFile.exists());
+            TimeSeriesColumns cached = TimeSeriesColumns.read(copy, "-9999.0", HMConstants.doubleNovalue, from, to, true);
+            for( TimeSeriesColumns ts : Arrays.asList(created, cached) ) {
+                assertTrue(Arrays.equals(range.getTimes(), ts.getTimes()));
+                for( int c = 0; c < range.getColumnCount(); c++ ) {
+                    assertTrue(Arrays.equals(range.getColumn(c), ts.getColumn(c)));
+                }
+            }
+        } finally {
+            for( File file : tmpFolder.listFiles() ) {
+                file.delete();
+            }
+            tmpFolder.delete();
+        }
+    }
+
     public static void main( String[] args ) throws Exception {
         new TestTimeSeriesIteratorReader().testId2ValueReader2();
     }
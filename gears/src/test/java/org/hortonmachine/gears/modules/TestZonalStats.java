@@ -17,18 +17,34 @@
  */
 package org.hortonmachine.gears.modules;
 
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.RandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.Variables;
 import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.modules.r.summary.OmsZonalStats;
+import org.hortonmachine.gears.modules.r.summary.ZonalStatsEngine;
 import org.hortonmachine.gears.utils.HMTestCase;
 import org.hortonmachine.gears.utils.HMTestMaps;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 /**
@@ -82,4 +98,145 @@ public class TestZonalStats extends HMTestCase {
         assertEquals(17, invalidCells);
     }
 
+    public void testPercentiles() throws Exception {
+        OmsZonalStats zs = new OmsZonalStats();
+        zs.pm = new DummyProgressMonitor();
+        zs.inRaster = flowCoverage;
+        zs.inVector = testLeftFC;
+        zs.pPercentageThres = 0;
+        zs.pPercentiles = "0, 50, 100";
+        zs.process();
+        List<SimpleFeature> testList = FeatureUtilities.featureCollectionToList(zs.outVector);
+        assertEquals(1, testList.size());
+        SimpleFeature feature = testList.get(0);
+
+        double accuracy = ZonalStatsEngine.PERCENTILES_ACCURACY;
+        Double p0 = (Double) feature.getAttribute("p0");
+        assertEquals(2.0, p0, 2.0 * accuracy);
+        Double p50 = (Double) feature.getAttribute("p50");
+        assertEquals(5.0, p50, 5.0 * accuracy);
+        Double p100 = (Double) feature.getAttribute("p100");
+        assertEquals(7.0, p100, 7.0 * accuracy);
+    }
+
+    public void testEngineAgainstPolygonStats() throws Exception {
+        GeometryFactory gf = GeometryUtilities.gf();
+        Geometry triangle = gf.createPolygon(new Coordinate[]{//
+                new Coordinate(1640660, 5140010), //
+                new Coordinate(1640940, 5139950), //
+                new Coordinate(1640700, 5139790), //
+                new Coordinate(1640660, 5140010)});
+        LinearRing shell = gf.createLinearRing(new Coordinate[]{//
+                new Coordinate(1640700, 5140000), //
+                new Coordinate(1640900, 5140000), //
+                new Coordinate(1640900, 5139800), //
+                new Coordinate(1640700, 5139800), //
+                new Coordinate(1640700, 5140000)});
+        LinearRing hole = gf.createLinearRing(new Coordinate[]{//
+                new Coordinate(1640760, 5139940), //
+                new Coordinate(1640840, 5139940), //
+                new Coordinate(1640840, 5139860), //
+                new Coordinate(1640760, 5139860), //
+                new Coordinate(1640760, 5139940)});
+        Geometry squareWithHole = gf.createPolygon(shell, new LinearRing[]{hole});
+        // partly outside of the raster and overlapping the others
+        Geometry outside = gf.createPolygon(new Coordinate[]{//
+                new Coordinate(1640800, 5140050), //
+                new Coordinate(1641000, 5140050), //
+                new Coordinate(1641000, 5139700), //
+                new Coordinate(1640800, 5139700), //
+                new Coordinate(1640800, 5140050)});
+        List<Geometry> zones = Arrays.asList(triangle, squareWithHole, outside);
+
+        RandomIter iter = CoverageUtilities.getRandomIterator(flowCoverage);
+        double novalue = HMConstants.getNovalue(flowCoverage);
+        DummyProgressMonitor pm = new DummyProgressMonitor();
+
+        double[] tm = new double[3];
+        ZonalStatsEngine engine = new ZonalStatsEngine(zones, flowCoverage.getGridGeometry(), pm);
+        double[][] zonesStats = engine.calculate(flowCoverage.getRenderedImage(), novalue, false, tm, 0, null, pm);
+
+        double[] expectedTm = new double[3];
+        for( int i = 0; i < zones.size(); i++ ) {
+            double[] expected = OmsZonalStats.polygonStats(zones.get(i), flowCoverage.getGridGeometry(), iter, novalue, false,
+                    expectedTm, 0, pm);
+            assertEquals(expected.length, zonesStats[i].length);
+            for( int j = 0; j < expected.length; j++ ) {
+                assertEquals(expected[j], zonesStats[i][j], DELTA);
+            }
+        }
+        assertEquals(expectedTm[0], tm[0], DELTA);
+        assertEquals(expectedTm[2], tm[2], DELTA);
+
+        // with the user mean and a threshold
+        tm = new double[]{0, 4.5, 0};
+        expectedTm = new double[]{0, 4.5, 0};
+        zonesStats = engine.calculate(flowCoverage.getRenderedImage(), novalue, true, tm, 70, null, pm);
+        for( int i = 0; i < zones.size(); i++ ) {
+            double[] expected = OmsZonalStats.polygonStats(zones.get(i), flowCoverage.getGridGeometry(), iter, novalue, true,
+                    expectedTm, 70, pm);
+            if (expected == null) {
+                assertNull(zonesStats[i]);
+            } else {
+                for( int j = 0; j < expected.length; j++ ) {
+                    assertEquals(expected[j], zonesStats[i][j], DELTA);
+                }
+            }
+        }
+    }
+
+    public void testEngineOnTiledImage() throws Exception {
+        int cols = 240;
+        int rows = 180;
+        double res = 10;
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, 16, 16, 1);
+        TiledImage image = new TiledImage(0, 0, cols, rows, 0, 0, sampleModel, null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double value = (c * 7 + r * 3) % 11 == 0 ? HMConstants.doubleNovalue : c * 0.5 + r % 13;
+                image.setSample(c, r, 0, value);
+            }
+        }
+        RegionMap region = CoverageUtilities.makeRegionParamsMap(rows * res, 0, 0, cols * res, res, res, cols, rows);
+        GridCoverage2D coverage = CoverageUtilities.buildCoverage("tiled", image, region, crs);
+        assertTrue(coverage.getRenderedImage().getNumXTiles() > 1);
+        assertTrue(coverage.getRenderedImage().getNumYTiles() > 1);
+
+        // zones spanning many tiles, read by different chunks
+        GeometryFactory gf = GeometryUtilities.gf();
+        Random random = new Random(17);
+        List<Geometry> zones = new ArrayList<Geometry>();
+        for( int i = 0; i < 40; i++ ) {
+            double x = random.nextDouble() * cols * res * 0.7;
+            double y = random.nextDouble() * rows * res * 0.7;
+            double width = 50 + random.nextDouble() * cols * res * 0.3;
+            double height = 50 + random.nextDouble() * rows * res * 0.3;
+            zones.add(gf.createPolygon(new Coordinate[]{//
+                    new Coordinate(x, y), //
+                    new Coordinate(x + width, y + height / 3), //
+                    new Coordinate(x + width / 2, y + height), //
+                    new Coordinate(x, y)}));
+        }
+
+        DummyProgressMonitor pm = new DummyProgressMonitor();
+        RandomIter iter = CoverageUtilities.getRandomIterator(coverage);
+        ZonalStatsEngine engine = new ZonalStatsEngine(zones, coverage.getGridGeometry(), pm);
+        for( int run = 0; run < 5; run++ ) {
+            double[] tm = new double[3];
+            double[][] zonesStats = engine.calculate(coverage.getRenderedImage(), HMConstants.doubleNovalue, false, tm, 0,
+                    null, pm);
+            double[] expectedTm = new double[3];
+            for( int i = 0; i < zones.size(); i++ ) {
+                double[] expected = OmsZonalStats.polygonStats(zones.get(i), coverage.getGridGeometry(), iter,
+                        HMConstants.doubleNovalue, false, expectedTm, 0, pm);
+                assertEquals(expected.length, zonesStats[i].length);
+                for( int j = 0; j < expected.length; j++ ) {
+                    assertEquals(expected[j], zonesStats[i][j], Math.abs(expected[j]) * 1E-9 + DELTA);
+                }
+            }
+            assertEquals(expectedTm[2], tm[2], DELTA);
+        }
+        iter.done();
+    }
+
 }
@@ -155,6 +155,8 @@ public class HortonMessages {
     public static final String OMSSKYVIEW_AUTHORNAMES = "Daniele Andreis and Riccardo Rigon";
     public static final String OMSSKYVIEW_AUTHORCONTACTS = "http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSSKYVIEW_inElev_DESCRIPTION = "The map of the elevation.";
+    public static final String OMSSKYVIEW_pSectors_DESCRIPTION = "The number of azimuth sectors of the horizon angles (0 sweeps the sky for every azimuth and elevation).";
+    public static final String OMSSKYVIEW_inHorizons_DESCRIPTION = "The optional file in which the horizon angles are cached.";
     public static final String OMSSKYVIEW_outSky_DESCRIPTION = "The map of skyview factor.";
 
     public static final String OMSSHALSTAB_DESCRIPTION = "A version of the OmsShalstab stability model.";
@@ -446,6 +448,8 @@ public class HortonMessages {
     public static final String OMSINSOLATION_inElev_DESCRIPTION = "The map of the elevation.";
     public static final String OMSINSOLATION_tStartDate_DESCRIPTION = "The first day of the simulation.";
     public static final String OMSINSOLATION_tEndDate_DESCRIPTION = "The last day of the simulation.";
+    public static final String OMSINSOLATION_pSectors_DESCRIPTION = "The number of azimuth sectors of the horizon angles used for the shadows (0 calculates the shadows of every sun position).";
+    public static final String OMSINSOLATION_inHorizons_DESCRIPTION = "The optional file in which the horizon angles are cached.";
     public static final String OMSINSOLATION_outIns_DESCRIPTION = "The map of total insolation.";
 
     public static final String OMSMELTONNUMBER_DESCRIPTION = "Melton number calculator";
@@ -678,6 +682,7 @@ public class HortonMessages {
     public static final String OMSADIGE_inNetwork_DESCRIPTION = "The network data.";
     public static final String OMSADIGE_inEtp_DESCRIPTION = "The evapotranspiration data.";
     public static final String OMSADIGE_doLog_DESCRIPTION = "Switch to activate additional logging to file.";
+    public static final String OMSADIGE_doParallel_DESCRIPTION = "Switch to calculate the hillslopes in parallel.";
     public static final String OMSADIGE_tTimestep_DESCRIPTION = "The timestep in minutes.";
     public static final String OMSADIGE_tStart_DESCRIPTION = "The start date.";
     public static final String OMSADIGE_tEnd_DESCRIPTION = "The end date.";
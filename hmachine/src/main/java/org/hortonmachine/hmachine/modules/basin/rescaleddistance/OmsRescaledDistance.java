@@ -148,7 +148,6 @@ public class OmsRescaledDistance extends GridMultiProcessing {
                 if (flowNode.isHeadingOutside()) {
                     exitsList.add(flowNode);
                 }
-                pm.worked(1);
             });
             pm.done();
 
@@ -117,7 +117,6 @@ public class OmsTopIndex extends GridMultiProcessing {
                         topindexIter.setSample(c, r, 0, Math.log(tcaValue / slopeIter.getSampleDouble(c, r, 0)));
                     }
                 }
-                pm.worked(1);
             });
             pm.done();
             outTopindex = CoverageUtilities.buildCoverage("topindex", topindexWR, regionMap,
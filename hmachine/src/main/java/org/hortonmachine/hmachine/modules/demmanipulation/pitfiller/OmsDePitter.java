@@ -31,7 +31,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
@@ -70,6 +72,14 @@ public class OmsDePitter extends GridMultiProcessing {
     @Out
     public GridCoverage2D outFlow = null;
 
+    @Description(OMSDEPITTER_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
+    @Description(OMSDEPITTER_pTileSize_DESCRIPTION)
+    @In
+    public int pTileSize = 1024;
+
     public boolean doParallel = true;
     public boolean doFlow = true;
 
@@ -90,6 +100,8 @@ public class OmsDePitter extends GridMultiProcessing {
     public static final String OMSDEPITTER_outPit_DESCRIPTION = "The depitted elevation map.";
     public static final String OMSDEPITTER_outPitPoints_DESCRIPTION = "The shapefile of handled pits.";
     public static final String OMSDEPITTER_outFlow_DESCRIPTION = "The map of D8 flowdirections.";
+    public static final String OMSDEPITTER_doPriorityFlood_DESCRIPTION = "Use the priority-flood engine instead of the iterative pit processing (tiled and parallel if doParallel is set).";
+    public static final String OMSDEPITTER_pTileSize_DESCRIPTION = "The side in cells of the tiles used by the parallel priority-flood.";
 
     private final float delta = 2E-6f;
     private boolean verbose = true;
@@ -107,6 +119,9 @@ public class OmsDePitter extends GridMultiProcessing {
     @Execute
     public void process() throws Exception {
         checkNull(inElev);
+        if (doPriorityFlood && pTileSize < 1) {
+            throw new ModelsIllegalargumentException("The tile size needs to be a positive number of cells.", this, pm);
+        }
 
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inElev);
         cols = regionMap.getCols();
@@ -120,71 +135,23 @@ public class OmsDePitter extends GridMultiProcessing {
         WritableRaster pitRaster = CoverageUtilities.renderedImage2DoubleWritableRaster(inElev.getRenderedImage(), false);
         WritableRandomIter pitIter = CoverageUtilities.getWritableRandomIterator(pitRaster);
         try {
-
-            ConcurrentLinkedQueue<GridNode> pitsList = getPitsList(cols, rows, xRes, yRes, pitIter);
-
-            AtomicInteger count = new AtomicInteger();
-            // int count = 0;
-            int iteration = 1;
-            while( pitsList.size() > 0 ) {
-                if (pm.isCanceled()) {
-                    return;
-                }
-
-                int pitCount = pitsList.size();
-                BitMatrix allPitsPositions = new BitMatrix(cols, rows);
-
-                // List<GridNode> processedNodesInPit = new ArrayList<>();
-
-                int shownCount = pitCount;
-                if (!verbose) {
-                    shownCount = IHMProgressMonitor.UNKNOWN;
-                }
-                pm.beginTask("Processing " + pitCount + " pits (iteration N." + iteration++ + ")... ", shownCount);
+            if (doPriorityFlood) {
+                double[] elevation = pitRaster.getSamples(0, 0, cols, rows, 0, (double[]) null);
+                PriorityFloodFiller filler = new PriorityFloodFiller(elevation, cols, rows, novalue, delta, pm);
                 if (doParallel) {
-                    pitsList.parallelStream().forEach(originalPitNode -> {
-                        int _count = count.incrementAndGet();
-                        if (pm.isCanceled()) {
-                            return;
-                        }
-                        processPitNode(originalPitNode, allPitsPositions, _count, pitIter);
-                    });
+                    filler.fillTiled(pTileSize);
                 } else {
-                    pitsList.stream().forEach(originalPitNode -> {
-                        int _count = count.incrementAndGet();
-                        if (pm.isCanceled()) {
-                            return;
-                        }
-                        processPitNode(originalPitNode, allPitsPositions, _count, pitIter);
-                    });
+                    filler.fillEpsilon();
                 }
-                // for( GridNode originalPitNode : pitsList ) {
-                // count++;
-                // if (pm.isCanceled()) {
-                // return;
-                // }
-                // processPitNode(originalPitNode, allPitsPositions, count, pitIter);
-                // }
-                pm.done();
-
-                // if (true && iteration < 3) {
-                // outPit = CoverageUtilities.buildCoverage("pitfiller", pitRaster, regionMap,
-                // inElev.getCoordinateReferenceSystem());
-                // OmsRasterWriter.writeRaster("/home/hydrologis/Dropbox/hydrologis/lavori/2017_06_mapzone/test/dtm_test2_pit_"
-                // + iteration + ".tiff", outPit);
-                // }
-
-                pitsList = getPitsList(cols, rows, xRes, yRes, pitIter, allPitsPositions);
-
-                int size = pitsList.size();
-                if (verbose) {
-                    pm.message("Left pits: " + size);
-                    pm.message("---------------------------------------------------------------------");
-                }
-                if (size < 10000) {
-                    verbose = false;
+                if (pm.isCanceled()) {
+                    return;
                 }
-
+                pitRaster.setSamples(0, 0, cols, rows, 0, elevation);
+            } else {
+                processPits(pitIter);
+            }
+            if (pm.isCanceled()) {
+                return;
             }
 
             outPit = CoverageUtilities.buildCoverageWithNovalue("pitfiller", pitRaster, regionMap,
@@ -238,24 +205,15 @@ public class OmsDePitter extends GridMultiProcessing {
                 WritableRandomIter flowIter = CoverageUtilities.getWritableRandomIterator(flowRaster);
                 try {
                     pm.beginTask("Calculating flowdirections...", rows * cols);
-                    processGrid(cols, rows, false, ( c, r ) -> {
-                        if (pm.isCanceled()) {
-                            return;
-                        }
-                        GridNode node = new GridNode(pitIter, cols, rows, xRes, yRes, c, r, novalue);
-                        boolean isValid = node.isValid();
-                        if (!isValid || node.touchesBound() || node.touchesNovalue()) {
+                    processGridCursors(pitIter, cols, rows, xRes, yRes, novalue, cursor -> {
+                        int c = cursor.getCol();
+                        int r = cursor.getRow();
+                        if (!cursor.isValid() || cursor.touchesBound() || cursor.touchesNovalue()) {
                             flowIter.setSample(c, r, 0, HMConstants.intNovalue);
                         } else {
-                            GridNode nextDown = node.goDownstreamSP();
-                            if (nextDown == null) {
-                                flowIter.setSample(c, r, 0, HMConstants.intNovalue);
-                            } else {
-                                int newFlow = node.getFlow();
-                                flowIter.setSample(c, r, 0, newFlow);
-                            }
+                            // novalue if there is no downstream cell
+                            flowIter.setSample(c, r, 0, cursor.getFlow());
                         }
-                        pm.worked(1);
                     });
                     pm.done();
 
@@ -271,6 +229,74 @@ public class OmsDePitter extends GridMultiProcessing {
         }
     }
 
+    private void processPits( WritableRandomIter pitIter ) {
+        ConcurrentLinkedQueue<GridNode> pitsList = getPitsList(cols, rows, xRes, yRes, pitIter);
+
+        AtomicInteger count = new AtomicInteger();
+        // int count = 0;
+        int iteration = 1;
+        while( pitsList.size() > 0 ) {
+            if (pm.isCanceled()) {
+                return;
+            }
+
+            int pitCount = pitsList.size();
+            BitMatrix allPitsPositions = new BitMatrix(cols, rows);
+
+            // List<GridNode> processedNodesInPit = new ArrayList<>();
+
+            int shownCount = pitCount;
+            if (!verbose) {
+                shownCount = IHMProgressMonitor.UNKNOWN;
+            }
+            pm.beginTask("Processing " + pitCount + " pits (iteration N." + iteration++ + ")... ", shownCount);
+            if (doParallel) {
+                pitsList.parallelStream().forEach(originalPitNode -> {
+                    int _count = count.incrementAndGet();
+                    if (pm.isCanceled()) {
+                        return;
+                    }
+                    processPitNode(originalPitNode, allPitsPositions, _count, pitIter);
+                });
+            } else {
+                pitsList.stream().forEach(originalPitNode -> {
+                    int _count = count.incrementAndGet();
+                    if (pm.isCanceled()) {
+                        return;
+                    }
+                    processPitNode(originalPitNode, allPitsPositions, _count, pitIter);
+                });
+            }
+            // for( GridNode originalPitNode : pitsList ) {
+            // count++;
+            // if (pm.isCanceled()) {
+            // return;
+            // }
+            // processPitNode(originalPitNode, allPitsPositions, count, pitIter);
+            // }
+            pm.done();
+
+            // if (true && iteration < 3) {
+            // outPit = CoverageUtilities.buildCoverage("pitfiller", pitRaster, regionMap,
+            // inElev.getCoordinateReferenceSystem());
+            // OmsRasterWriter.writeRaster("/home/hydrologis/Dropbox/hydrologis/lavori/2017_06_mapzone/test/dtm_test2_pit_"
+            // + iteration + ".tiff", outPit);
+            // }
+
+            pitsList = getPitsList(cols, rows, xRes, yRes, pitIter, allPitsPositions);
+
+            int size = pitsList.size();
+            if (verbose) {
+                pm.message("Left pits: " + size);
+                pm.message("---------------------------------------------------------------------");
+            }
+            if (size < 10000) {
+                verbose = false;
+            }
+
+        }
+    }
+
     private void processPitNode( GridNode originalPitNode, BitMatrix allPitsPositions, int count, WritableRandomIter pitIter ) {
         if (allPitsPositions.isMarked(originalPitNode.col, originalPitNode.row)) {
             if (verbose)
@@ -620,19 +646,20 @@ public class OmsDePitter extends GridMultiProcessing {
         ConcurrentLinkedQueue<GridNode> pitsList = new ConcurrentLinkedQueue<>();
         if (verbose)
             pm.beginTask("Extract pits from DTM...", nRows);
+        GridNodeCursor cursor = new GridNodeCursor(pitIter, nCols, nRows, xRes, yRes, novalue);
         for( int row = 0; row < nRows; row++ ) {
             for( int col = 0; col < nCols; col++ ) {
-                GridNode node = new GridNode(pitIter, nCols, nRows, xRes, yRes, col, row, novalue);
-                if (node.isPit()) {
-                    double surroundingMin = node.getSurroundingMin();
+                cursor.moveTo(col, row);
+                if (cursor.isPit()) {
+                    double surroundingMin = cursor.getSurroundingMin();
                     if (Double.isInfinite(surroundingMin)) {
                         continue;
                     }
-                    if (!node.isFlat()) {
+                    if (!cursor.isFlat()) {
                         // fill simple ones directly
-                        node.setValueInMap(pitIter, surroundingMin + delta);
+                        cursor.setValueInMap(pitIter, surroundingMin + delta);
                     } else {
-                        pitsList.add(node);
+                        pitsList.add(cursor.toGridNode());
                     }
                 }
             }
@@ -0,0 +1,483 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.demmanipulation.pitfiller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.DoubleIndexHeap;
+import org.hortonmachine.gears.utils.IntQueue;
+
+/**
+ * Depression filling based on the priority-flood algorithm.
+ *
+ * <p>The flood starts from the valid cells that touch the raster bounds or a novalue
+ * and proceeds always from the lowest cell of the border of the flooded area,
+ * so that every cell is reached at the lowest possible spill elevation.</p>
+ *
+ * <p>Two variants are available:</p>
+ * <ul>
+ *  <li>{@link #fillEpsilon()}: sequential priority-flood, where cells that need to be
+ *      raised get the elevation of the cell they are reached from plus a delta,
+ *      so that flat and filled areas always drain towards their exit.</li>
+ *  <li>{@link #fillTiled(int)}: the grid is split in tiles that are flooded in parallel
+ *      from their perimeter. The spill elevations between the tile watersheds are then
+ *      resolved on the (small) graph of the watershed labels, tiles are raised to the
+ *      resolved levels and finally flats get the same delta based gradient towards
+ *      their drain cells.</li>
+ * </ul>
+ *
+ * <p>All the work is done on a row-major elevation array that is modified in place.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PriorityFloodFiller {
+    private static final int[] DCOLS = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DROWS = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    /**
+     * The label of the cells draining outside of the raster.
+     */
+    private static final int OCEAN = 1;
+
+    private final double[] elev;
+    private final int cols;
+    private final int rows;
+    private final double novalue;
+    private final double delta;
+    private final IHMProgressMonitor pm;
+
+    /**
+     * Constructor.
+     *
+     * @param elevation the row-major elevation array, modified in place.
+     * @param cols the cols of the grid.
+     * @param rows the rows of the grid.
+     * @param novalue the novalue of the elevation.
+     * @param delta the elevation difference to add to create a gradient on filled areas.
+     * @param pm the monitor.
+     */
+    public PriorityFloodFiller( double[] elevation, int cols, int rows, double novalue, double delta, IHMProgressMonitor pm ) {
+        if (elevation.length != cols * rows) {
+            throw new IllegalArgumentException("The elevation array needs to be of size cols * rows.");
+        }
+        this.elev = elevation;
+        this.cols = cols;
+        this.rows = rows;
+        this.novalue = novalue;
+        this.delta = delta;
+        this.pm = pm;
+    }
+
+    private boolean isValid( int index ) {
+        return !HMConstants.isNovalue(elev[index], novalue);
+    }
+
+    /**
+     * Checks if a cell is a seed of the flood, i.e. it touches the grid bounds or a novalue.
+     */
+    private boolean isSeed( int col, int row ) {
+        if (col == 0 || row == 0 || col == cols - 1 || row == rows - 1) {
+            return true;
+        }
+        for( int d = 0; d < 8; d++ ) {
+            if (!isValid((row + DROWS[d]) * cols + col + DCOLS[d])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sequential priority-flood with a delta gradient on raised cells.
+     */
+    public void fillEpsilon() {
+        int size = elev.length;
+        boolean[] closed = new boolean[size];
+        DoubleIndexHeap heap = new DoubleIndexHeap(2 * (cols + rows));
+        IntQueue pitQueue = new IntQueue(cols);
+
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (!isValid(index)) {
+                    closed[index] = true;
+                } else if (isSeed(c, r)) {
+                    closed[index] = true;
+                    heap.add(elev[index], index);
+                }
+            }
+        }
+
+        pm.beginTask("Filling depressions with priority-flood...", rows);
+        int processed = 0;
+        while( !heap.isEmpty() || !pitQueue.isEmpty() ) {
+            int current;
+            if (!pitQueue.isEmpty() && (heap.isEmpty() || heap.peekKey() > elev[pitQueue.peek()])) {
+                current = pitQueue.poll();
+            } else {
+                current = heap.poll();
+            }
+            int col = current % cols;
+            int row = current / cols;
+            for( int d = 0; d < 8; d++ ) {
+                int newCol = col + DCOLS[d];
+                int newRow = row + DROWS[d];
+                if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                    continue;
+                }
+                int neighbour = newRow * cols + newCol;
+                if (closed[neighbour]) {
+                    continue;
+                }
+                closed[neighbour] = true;
+                if (elev[neighbour] <= elev[current]) {
+                    elev[neighbour] = elev[current] + delta;
+                    pitQueue.add(neighbour);
+                } else {
+                    heap.add(elev[neighbour], neighbour);
+                }
+            }
+            if (++processed % cols == 0) {
+                if (pm.isCanceled()) {
+                    pm.done();
+                    return;
+                }
+                pm.worked(1);
+            }
+        }
+        pm.done();
+    }
+
+    /**
+     * Tiled parallel priority-flood, followed by the resolution of flats.
+     *
+     * @param tileSize the size in cells of the side of the tiles.
+     */
+    public void fillTiled( int tileSize ) {
+        int tileCols = (cols + tileSize - 1) / tileSize;
+        int tileRows = (rows + tileSize - 1) / tileSize;
+        int tilesCount = tileCols * tileRows;
+
+        /*
+         * every perimeter cell of a tile gets its own watershed label
+         */
+        int[] labelOffsets = new int[tilesCount];
+        int labelsCount = OCEAN + 1;
+        for( int t = 0; t < tilesCount; t++ ) {
+            int[] bounds = getTileBounds(t, tileCols, tileSize);
+            labelOffsets[t] = labelsCount;
+            labelsCount += bounds[2] * bounds[3] - Math.max(0, bounds[2] - 2) * Math.max(0, bounds[3] - 2);
+        }
+
+        int[] labels = new int[elev.length];
+        List<Map<Long, Double>> tileSpills = new ArrayList<>(tilesCount);
+        for( int t = 0; t < tilesCount; t++ ) {
+            tileSpills.add(new HashMap<>());
+        }
+
+        pm.beginTask("Flooding " + tilesCount + " tiles...", IHMProgressMonitor.UNKNOWN);
+        IntStream.range(0, tilesCount).parallel().forEach(t -> {
+            if (pm.isCanceled()) {
+                return;
+            }
+            floodTile(getTileBounds(t, tileCols, tileSize), labelOffsets[t], labels, tileSpills.get(t));
+        });
+        IntStream.range(0, tilesCount).parallel().forEach(t -> {
+            if (pm.isCanceled()) {
+                return;
+            }
+            collectTileBorderSpills(getTileBounds(t, tileCols, tileSize), labels, tileSpills.get(t));
+        });
+        pm.done();
+        if (pm.isCanceled()) {
+            return;
+        }
+
+        double[] levels = resolveLabelLevels(labelsCount, tileSpills);
+
+        pm.beginTask("Raising tiles to the spill levels...", IHMProgressMonitor.UNKNOWN);
+        IntStream.range(0, tilesCount).parallel().forEach(t -> {
+            int[] bounds = getTileBounds(t, tileCols, tileSize);
+            for( int r = bounds[1]; r < bounds[1] + bounds[3]; r++ ) {
+                for( int c = bounds[0]; c < bounds[0] + bounds[2]; c++ ) {
+                    int index = r * cols + c;
+                    int label = labels[index];
+                    if (label > OCEAN && levels[label] != Double.POSITIVE_INFINITY && levels[label] > elev[index]) {
+                        elev[index] = levels[label];
+                    }
+                }
+            }
+        });
+        pm.done();
+
+        resolveFlats();
+    }
+
+    /**
+     * @return the tile bounds as [startCol, startRow, width, height].
+     */
+    private int[] getTileBounds( int tile, int tileCols, int tileSize ) {
+        int startCol = (tile % tileCols) * tileSize;
+        int startRow = (tile / tileCols) * tileSize;
+        return new int[]{startCol, startRow, Math.min(tileSize, cols - startCol), Math.min(tileSize, rows - startRow)};
+    }
+
+    private void floodTile( int[] bounds, int labelOffset, int[] labels, Map<Long, Double> spills ) {
+        int startCol = bounds[0];
+        int startRow = bounds[1];
+        int endCol = startCol + bounds[2] - 1;
+        int endRow = startRow + bounds[3] - 1;
+
+        DoubleIndexHeap heap = new DoubleIndexHeap(2 * (bounds[2] + bounds[3]));
+        int perimeterIndex = 0;
+        for( int r = startRow; r <= endRow; r++ ) {
+            for( int c = startCol; c <= endCol; c++ ) {
+                boolean isPerimeter = r == startRow || r == endRow || c == startCol || c == endCol;
+                int index = r * cols + c;
+                if (isPerimeter) {
+                    perimeterIndex++;
+                }
+                if (!isValid(index)) {
+                    continue;
+                }
+                if (isSeed(c, r)) {
+                    labels[index] = OCEAN;
+                    heap.add(elev[index], index);
+                } else if (isPerimeter) {
+                    labels[index] = labelOffset + perimeterIndex - 1;
+                    heap.add(elev[index], index);
+                }
+            }
+        }
+
+        while( !heap.isEmpty() ) {
+            int current = heap.poll();
+            int col = current % cols;
+            int row = current / cols;
+            for( int d = 0; d < 8; d++ ) {
+                int newCol = col + DCOLS[d];
+                int newRow = row + DROWS[d];
+                if (newCol < startCol || newCol > endCol || newRow < startRow || newRow > endRow) {
+                    continue;
+                }
+                int neighbour = newRow * cols + newCol;
+                if (!isValid(neighbour)) {
+                    continue;
+                }
+                if (labels[neighbour] != 0) {
+                    if (labels[neighbour] != labels[current]) {
+                        addSpill(spills, labels[current], labels[neighbour], Math.max(elev[current], elev[neighbour]));
+                    }
+                    continue;
+                }
+                labels[neighbour] = labels[current];
+                if (elev[neighbour] < elev[current]) {
+                    elev[neighbour] = elev[current];
+                }
+                heap.add(elev[neighbour], neighbour);
+            }
+        }
+    }
+
+    private void collectTileBorderSpills( int[] bounds, int[] labels, Map<Long, Double> spills ) {
+        int startCol = bounds[0];
+        int startRow = bounds[1];
+        int endCol = startCol + bounds[2] - 1;
+        int endRow = startRow + bounds[3] - 1;
+        for( int r = startRow; r <= endRow; r++ ) {
+            for( int c = startCol; c <= endCol; c++ ) {
+                if (r != startRow && r != endRow && c != startCol && c != endCol) {
+                    continue;
+                }
+                int index = r * cols + c;
+                if (labels[index] == 0) {
+                    continue;
+                }
+                for( int d = 0; d < 8; d++ ) {
+                    int newCol = c + DCOLS[d];
+                    int newRow = r + DROWS[d];
+                    if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                        continue;
+                    }
+                    if (newCol >= startCol && newCol <= endCol && newRow >= startRow && newRow <= endRow) {
+                        continue;
+                    }
+                    int neighbour = newRow * cols + newCol;
+                    if (labels[neighbour] != 0 && labels[neighbour] != labels[index]) {
+                        addSpill(spills, labels[index], labels[neighbour], Math.max(elev[index], elev[neighbour]));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addSpill( Map<Long, Double> spills, int label1, int label2, double elevation ) {
+        long key = label1 < label2 ? ((long) label1 << 32) | label2 : ((long) label2 << 32) | label1;
+        Double existing = spills.get(key);
+        if (existing == null || elevation < existing) {
+            spills.put(key, elevation);
+        }
+    }
+
+    /**
+     * Flood the graph of the watershed labels from the ocean.
+     *
+     * @return the minimum level each label needs to be raised to in order to drain.
+     */
+    private double[] resolveLabelLevels( int labelsCount, List<Map<Long, Double>> tileSpills ) {
+        Map<Long, Double> spills = new HashMap<>();
+        for( Map<Long, Double> tileSpill : tileSpills ) {
+            for( Entry<Long, Double> entry : tileSpill.entrySet() ) {
+                Long key = entry.getKey();
+                long label1 = key >>> 32;
+                long label2 = key & 0xFFFFFFFFL;
+                addSpill(spills, (int) label1, (int) label2, entry.getValue());
+            }
+        }
+
+        // compressed adjacency of the labels graph
+        int[] degree = new int[labelsCount + 1];
+        for( Long key : spills.keySet() ) {
+            degree[(int) (key >>> 32) + 1]++;
+            degree[(int) (key & 0xFFFFFFFFL) + 1]++;
+        }
+        for( int i = 1; i < degree.length; i++ ) {
+            degree[i] += degree[i - 1];
+        }
+        int[] fill = Arrays.copyOf(degree, labelsCount);
+        int[] neighbours = new int[degree[labelsCount]];
+        double[] weights = new double[degree[labelsCount]];
+        for( Entry<Long, Double> entry : spills.entrySet() ) {
+            long key = entry.getKey();
+            int label1 = (int) (key >>> 32);
+            int label2 = (int) (key & 0xFFFFFFFFL);
+            neighbours[fill[label1]] = label2;
+            weights[fill[label1]++] = entry.getValue();
+            neighbours[fill[label2]] = label1;
+            weights[fill[label2]++] = entry.getValue();
+        }
+
+        double[] levels = new double[labelsCount];
+        Arrays.fill(levels, Double.POSITIVE_INFINITY);
+        levels[OCEAN] = Double.NEGATIVE_INFINITY;
+        DoubleIndexHeap heap = new DoubleIndexHeap(labelsCount);
+        heap.add(levels[OCEAN], OCEAN);
+        while( !heap.isEmpty() ) {
+            double level = heap.peekKey();
+            int label = heap.poll();
+            if (level > levels[label]) {
+                // stale entry
+                continue;
+            }
+            for( int i = degree[label]; i < degree[label + 1]; i++ ) {
+                int other = neighbours[i];
+                double newLevel = Math.max(level, weights[i]);
+                if (newLevel < levels[other]) {
+                    levels[other] = newLevel;
+                    heap.add(newLevel, other);
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Add a delta based gradient to the flat areas, growing from their drain cells.
+     *
+     * <p>A flat cell is a cell that is not a seed and has no lower neighbour.</p>
+     */
+    private void resolveFlats() {
+        int size = elev.length;
+        boolean[] isFlat = new boolean[size];
+        int[] distance = new int[size];
+        IntQueue queue = new IntQueue(cols);
+
+        pm.beginTask("Resolving flat areas...", rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (!isValid(index) || isSeed(c, r)) {
+                    continue;
+                }
+                boolean hasLower = false;
+                for( int d = 0; d < 8; d++ ) {
+                    if (elev[(r + DROWS[d]) * cols + c + DCOLS[d]] < elev[index]) {
+                        hasLower = true;
+                        break;
+                    }
+                }
+                isFlat[index] = !hasLower;
+            }
+            pm.worked(1);
+        }
+        pm.done();
+
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (isFlat[index] || !isValid(index)) {
+                    continue;
+                }
+                for( int d = 0; d < 8; d++ ) {
+                    int newCol = c + DCOLS[d];
+                    int newRow = r + DROWS[d];
+                    if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                        continue;
+                    }
+                    int neighbour = newRow * cols + newCol;
+                    if (isFlat[neighbour] && elev[neighbour] == elev[index]) {
+                        queue.add(index);
+                        break;
+                    }
+                }
+            }
+        }
+
+        while( !queue.isEmpty() ) {
+            int current = queue.poll();
+            int col = current % cols;
+            int row = current / cols;
+            for( int d = 0; d < 8; d++ ) {
+                int newCol = col + DCOLS[d];
+                int newRow = row + DROWS[d];
+                if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                    continue;
+                }
+                int neighbour = newRow * cols + newCol;
+                if (isFlat[neighbour] && distance[neighbour] == 0 && elev[neighbour] == elev[current]) {
+                    distance[neighbour] = distance[current] + 1;
+                    queue.add(neighbour);
+                }
+            }
+        }
+
+        for( int i = 0; i < size; i++ ) {
+            if (distance[i] > 0) {
+                elev[i] += delta * distance[i];
+            }
+        }
+    }
+}
@@ -145,8 +145,6 @@ public class OmsAb extends GridMultiProcessing {
                     alungIter.setSample(c, r, 0, doubleNovalue);
                     bIter.setSample(c, r, 0, doubleNovalue);
                 }
-
-                pm.worked(1);
             });
             pm.done();
         } finally {
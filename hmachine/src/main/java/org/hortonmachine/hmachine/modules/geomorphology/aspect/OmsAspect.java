@@ -37,6 +37,7 @@ import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridNodeMultiProcessing;
 import org.hortonmachine.gears.utils.RegionMap;
@@ -122,13 +123,10 @@ public class OmsAspect extends GridNodeMultiProcessing {
         WritableRandomIter aspectIter = RandomIterFactory.createWritable(aspectWR, null);
         try {
             pm.beginTask(msg.message("aspect.calculating"), rows * cols);
-            processGridNodes(inElev, gridNode -> {
-                if (pm.isCanceled()) {
-                    return;
-                }
-                double aspect = calculateAspect(gridNode, radtodeg, doRound);
-                int col = gridNode.col;
-                int row = gridNode.row;
+            processGridNodeCursors(inElev, cursor -> {
+                double aspect = calculateAspect(cursor, radtodeg, doRound);
+                int col = cursor.getCol();
+                int row = cursor.getRow();
                 if (col == 0 || row == 0 || col == cols - 1 || row == rows - 1) {
                     aspectIter.setSample(col, row, 0, HMConstants.shortNovalue);
                 } else {
@@ -157,17 +155,29 @@ public class OmsAspect extends GridNodeMultiProcessing {
      * @return the value of aspect.
      */
     public static double calculateAspect( GridNode node, double radtodeg, boolean doRound ) {
+        return calculateAspect(node.elevation, node.getNorthElev(), node.getSouthElev(), node.getWestElev(),
+                node.getEastElev(), node.xRes, node.yRes, radtodeg, doRound);
+    }
+
+    /**
+     * Calculates the aspect in the cell a {@link GridNodeCursor} is positioned on.
+     * 
+     * @param cursor the positioned cursor.
+     * @param radtodeg radiants to degrees conversion factor.
+     * @param doRound if <code>true</code>, values are round to integer.
+     * @return the value of aspect.
+     */
+    public static double calculateAspect( GridNodeCursor cursor, double radtodeg, boolean doRound ) {
+        return calculateAspect(cursor.getElevation(), cursor.getNorthElev(), cursor.getSouthElev(), cursor.getWestElev(),
+                cursor.getEastElev(), cursor.xRes, cursor.yRes, radtodeg, doRound);
+    }
+
+    private static double calculateAspect( double centralValue, double nValue, double sValue, double wValue, double eValue,
+            double xRes, double yRes, double radtodeg, boolean doRound ) {
         double aspect = doubleNovalue;
         // the value of the x and y derivative
         double aData = 0.0;
         double bData = 0.0;
-        double xRes = node.xRes;
-        double yRes = node.yRes;
-        double centralValue = node.elevation;
-        double nValue = node.getNorthElev();
-        double sValue = node.getSouthElev();
-        double wValue = node.getWestElev();
-        double eValue = node.getEastElev();
 
         if (!isNovalue(centralValue)) {
             boolean sIsNovalue = isNovalue(sValue);
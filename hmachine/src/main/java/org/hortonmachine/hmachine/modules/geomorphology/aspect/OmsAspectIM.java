@@ -89,6 +89,7 @@ public class OmsAspectIM extends HMModelIM {
         }
 
         cellBuffer = 1;
+        tileThreads = Runtime.getRuntime().availableProcessors();
         addSource(new File(inElev));
         addDestination(new File(outAspect));
 
@@ -104,11 +105,11 @@ public class OmsAspectIM extends HMModelIM {
     protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
             int writeRows ) {
 
-        RandomIter elevIter = inRasterIterators.get(0);
-        Double novalue = inRasterNovalues.get(0);
+        RandomIter elevIter = getInRasterIterator(0);
+        Double novalue = getInRasterNovalue(0);
         GridNode node = new GridNode(elevIter, readCols, readRows, xRes, yRes, readCol, readRow, novalue);
         double aspect = OmsAspect.calculateAspect(node, radtodeg, doRound);
-        WritableRandomIter outDataIter = outRasterIterators.get(0);
+        WritableRandomIter outDataIter = getOutRasterIterator(0);
         outDataIter.setSample(writeCol, writeRow, 0, aspect);
     }
 
@@ -134,7 +134,6 @@ public class OmsCurvatures extends GridMultiProcessing {
                     tangWR.setSample(c, r, 0, planTangProf[1]);
                     profWR.setSample(c, r, 0, planTangProf[2]);
                 }
-                pm.worked(1);
             });
             pm.done();
         } finally {
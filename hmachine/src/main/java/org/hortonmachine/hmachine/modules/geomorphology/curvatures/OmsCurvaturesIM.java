@@ -65,8 +65,6 @@ public class OmsCurvaturesIM extends HMModelIM {
     @Out
     public String outProf = null;
 
-    private double[] planTangProf = new double[3];
-
     @Execute
     public void process() throws Exception {
         addSource(new File(inElev));
@@ -78,6 +76,7 @@ public class OmsCurvaturesIM extends HMModelIM {
             addDestination(new File(outProf), 2);
 
         cellBuffer = 1;
+        tileThreads = Runtime.getRuntime().availableProcessors();
 
         processByTileCells();
 
@@ -91,17 +90,18 @@ public class OmsCurvaturesIM extends HMModelIM {
     protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
             int writeRows ) {
 
-        RandomIter elevIter = inRasterIterators.get(0);
-        Double novalue = inRasterNovalues.get(0);
+        RandomIter elevIter = getInRasterIterator(0);
+        Double novalue = getInRasterNovalue(0);
 
         GridNode node = new GridNode(elevIter, readCols, readRows, xRes, yRes, readCol, readRow, novalue);
+        double[] planTangProf = new double[3];
         OmsCurvatures.calculateCurvatures2(node, planTangProf);
         if (outPlan != null)
-            outRasterIterators.get(0).setSample(writeCol, writeRow, 0, planTangProf[0]);
+            getOutRasterIterator(0).setSample(writeCol, writeRow, 0, planTangProf[0]);
         if (outTang != null)
-            outRasterIterators.get(1).setSample(writeCol, writeRow, 0, planTangProf[1]);
+            getOutRasterIterator(1).setSample(writeCol, writeRow, 0, planTangProf[1]);
         if (outProf != null)
-            outRasterIterators.get(2).setSample(writeCol, writeRow, 0, planTangProf[2]);
+            getOutRasterIterator(2).setSample(writeCol, writeRow, 0, planTangProf[2]);
 
     }
 }
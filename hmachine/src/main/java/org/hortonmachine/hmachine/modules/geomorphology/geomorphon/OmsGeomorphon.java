@@ -24,7 +24,6 @@ import java.awt.image.WritableRaster;
 import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -33,8 +32,11 @@ import org.geotools.geometry.Envelope2D;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster.Horizon;
 import org.hortonmachine.gears.utils.coverage.ProfilePoint;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.referencing.operation.TransformException;
@@ -94,6 +96,11 @@ public class OmsGeomorphon extends HMModel {
     public static final String pThreshold_UNIT = "degree";
     public static final String pRadius_UNIT = "m";
 
+    /**
+     * The 8 search directions as x and y signs, counterclockwise from east.
+     */
+    private static final int[][] DIRECTIONS = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+
     @Execute
     public void process() throws Exception {
         checkNull(inElev);
@@ -108,29 +115,65 @@ public class OmsGeomorphon extends HMModel {
         int cols = regionMap.getCols();
         final int rows = regionMap.getRows();
 
-        final RandomIter elevIter = CoverageUtilities.getRandomIterator(inElev);
-        final GridGeometry2D gridGeometry = inElev.getGridGeometry();
+        final GridRayCaster caster = GridRayCaster.fromCoverage(inElev);
 
         WritableRaster[] outWRHolder = new WritableRaster[1];
         outRaster = CoverageUtilities.createCoverageFromTemplate(inElev, HMConstants.doubleNovalue, outWRHolder);
-        final WritableRandomIter outIter = CoverageUtilities.getWritableRandomIterator(outWRHolder[0]);
-
-        pm.beginTask("Calculate classes...", cols);
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                try {
-                    double classification = calculateGeomorphon(elevIter, gridGeometry, pRadius, pThreshold, diagonalDelta, c, r);
-                    outIter.setSample(c, r, 0, classification);
-                } catch (TransformException e) {
-                    e.printStackTrace();
+        final WritableRaster outWR = outWRHolder[0];
+
+        pm.beginTask("Calculate classes...", cols * rows);
+        GridBlockScheduler.parallel().process(cols, rows, 0, 0, cols, rows, pm, true, block -> {
+            Horizon horizon = new Horizon();
+            for( int r = block.minRow; r < block.maxRow; r++ ) {
+                for( int c = block.minCol; c < block.maxCol; c++ ) {
+                    double classification = calculateGeomorphon(caster, pRadius, pThreshold, diagonalDelta, c, r, horizon);
+                    outWR.setSample(c, r, 0, classification);
                 }
             }
-            pm.worked(1);
-        }
+        });
         pm.done();
 
     }
 
+    /**
+     * Calculate the geomorphon for a given cell of an elevation grid.
+     * 
+     * @param caster the ray caster on the elevation grid.
+     * @param searchRadius the search radius to use.
+     * @param angleThreshold the angle threshold to apply.
+     * @param diagonalDelta the search radius for diagonal cells (usually radius/sqrt(2.0) )
+     * @param c the column of the cell to analyse.
+     * @param r the row of the cell to analyse.
+     * @param horizon a reusable holder for the rays results.
+     * @return the geomorphon classification for the cell.
+     */
+    public static double calculateGeomorphon( GridRayCaster caster, double searchRadius, double angleThreshold,
+            double diagonalDelta, int c, int r, Horizon horizon ) {
+        double elevation = caster.getElevation(c, r);
+        if (caster.isNovalue(elevation)) {
+            return HMConstants.doubleNovalue;
+        }
+
+        // calc 8 directions at max distance
+        int plusCount = 0;
+        int minusCount = 0;
+        for( int[] direction : DIRECTIONS ) {
+            boolean isDiagonal = direction[0] != 0 && direction[1] != 0;
+            double delta = isDiagonal ? diagonalDelta : searchRadius;
+            double deltaX = direction[0] * delta;
+            double deltaY = direction[1] * delta;
+            if (caster.castHorizon(c, r, deltaX, deltaY, horizon)) {
+                int sign = getSign(horizon.zenithAngle, horizon.nadirAngle, angleThreshold);
+                if (sign > 0) {
+                    plusCount++;
+                } else if (sign < 0) {
+                    minusCount++;
+                }
+            }
+        }
+        return GeomorphonClassification.getClassification(plusCount, minusCount);
+    }
+
     /**
      * Calculate the geomorphon for a given cell of an elevation map.
      * 
@@ -195,21 +238,31 @@ public class OmsGeomorphon extends HMModel {
         if (lastVisiblePointData != null) {
             double zenithAngle = lastVisiblePointData[4];
             double nadirAngle = 180 - lastVisiblePointData[9];
-
-            double diff = nadirAngle - zenithAngle;
-            int zeroCount = 0;
-            if (diff > angleThreshold) {
+            int sign = getSign(zenithAngle, nadirAngle, angleThreshold);
+            if (sign > 0) {
                 plusCount[0] = plusCount[0] + 1;
-            } else if (diff < -angleThreshold) {
+            } else if (sign < 0) {
                 minusCount[0] = minusCount[0] + 1;
-            } else if (abs(diff) < angleThreshold) {
-                zeroCount++;
-            } else {
-                throw new IllegalArgumentException();
             }
         }
     }
 
+    /**
+     * @return 1 if the direction counts as positive, -1 if negative, 0 if flat.
+     */
+    private static int getSign( double zenithAngle, double nadirAngle, double angleThreshold ) {
+        double diff = nadirAngle - zenithAngle;
+        if (diff > angleThreshold) {
+            return 1;
+        } else if (diff < -angleThreshold) {
+            return -1;
+        } else if (abs(diff) < angleThreshold) {
+            return 0;
+        } else {
+            throw new IllegalArgumentException();
+        }
+    }
+
     /**
      * Calculate a simple line of sight, given two coordinates on a raster.
      * 
@@ -84,6 +84,7 @@ public class OmsGeomorphonIM extends HMModelIM {
         // calculate cellbuffer through the search radius
         cellBuffer = (int) ceil(pRadius / max(xRes, yRes));
         pm.message("Using a cell buffer of: " + cellBuffer);
+        tileThreads = Runtime.getRuntime().availableProcessors();
 
         processByTileCells();
 
@@ -97,10 +98,10 @@ public class OmsGeomorphonIM extends HMModelIM {
     protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
             int writeRows ) {
         try {
-            RandomIter elevIter = inRasterIterators.get(0);
-            double classification = OmsGeomorphon.calculateGeomorphon(elevIter, readGridGeometry, pRadius, pThreshold,
+            RandomIter elevIter = getInRasterIterator(0);
+            double classification = OmsGeomorphon.calculateGeomorphon(elevIter, getReadGridGeometry(), pRadius, pThreshold,
                     diagonalDelta, readCol, readRow);
-            WritableRandomIter outDataIter = outRasterIterators.get(0);
+            WritableRandomIter outDataIter = getOutRasterIterator(0);
             outDataIter.setSample(writeCol, writeRow, 0, classification);
         } catch (TransformException e) {
             e.printStackTrace();
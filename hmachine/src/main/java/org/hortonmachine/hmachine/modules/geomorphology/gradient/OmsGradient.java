@@ -170,7 +170,6 @@ public class OmsGradient extends GridMultiProcessing {
             // extract the value to use for the algoritm. It is the finite difference approach.
             double value = doGradientHornOnCell(elevationIter, c, r, xRes, yRes, doDegrees);
             gradientWR.setSample(c, r, 0, value);
-            pm.worked(1);
         });
         pm.done();
         return gradientWR;
@@ -196,7 +195,6 @@ public class OmsGradient extends GridMultiProcessing {
             }
             double value = doGradientDiffOnCell(elevationIter, c, r, xRes, yRes, doDegrees);
             gradientWR.setSample(c, r, 0, value);
-            pm.worked(1);
         });
         pm.done();
         return gradientWR;
@@ -233,7 +231,6 @@ public class OmsGradient extends GridMultiProcessing {
             }
             double value = doGradientEvansOnCell(elevationIter, c, r, xRes, yRes, doDegrees);
             gradientWR.setSample(c, r, 0, value);
-            pm.worked(1);
         });
         pm.done();
         return gradientWR;
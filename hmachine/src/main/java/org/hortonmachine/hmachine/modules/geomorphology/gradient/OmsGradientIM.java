@@ -79,6 +79,7 @@ public class OmsGradientIM extends HMModelIM {
         checkNull(inElev);
 
         cellBuffer = 1;
+        tileThreads = Runtime.getRuntime().availableProcessors();
         if (pMode == 1) {
             pm.message("Using Horn formula");
         } else if (pMode == 2) {
@@ -101,7 +102,7 @@ public class OmsGradientIM extends HMModelIM {
     @Override
     protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
             int writeRows ) {
-        RandomIter elevIter = inRasterIterators.get(0);
+        RandomIter elevIter = getInRasterIterator(0);
         double gradient;
         switch( pMode ) {
         case 1:
@@ -114,7 +115,7 @@ public class OmsGradientIM extends HMModelIM {
             gradient = OmsGradient.doGradientDiffOnCell(elevIter, readCol, readRow, xRes, yRes, doDegrees);
             break;
         }
-        WritableRandomIter outDataIter = outRasterIterators.get(0);
+        WritableRandomIter outDataIter = getOutRasterIterator(0);
         outDataIter.setSample(writeCol, writeRow, 0, gradient);
     }
 
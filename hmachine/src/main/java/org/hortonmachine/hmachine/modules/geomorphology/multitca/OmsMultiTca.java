@@ -16,11 +16,10 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSMULTITCA_inPit_D
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSMULTITCA_outMultiTca_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -35,11 +34,11 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.Direction;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
-import org.hortonmachine.gears.libs.modules.ModelsSupporter;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.sorting.QuickSortAlgorithm;
 
 @Description(OMSMULTITCA_DESCRIPTION)
 @Documentation(OMSMULTITCA_DOCUMENTATION)
@@ -66,11 +65,6 @@ public class OmsMultiTca extends HMModel {
     @Out
     public GridCoverage2D outMultiTca = null;
 
-    // the flow direction.
-    private int[][] dir = ModelsSupporter.DIR_WITHFLOW_EXITING;
-    // the incoming flow direction.
-    private int[][] dirIn = ModelsSupporter.DIR_WITHFLOW_ENTERING;
-
     @Execute
     public void process() {
         if (!concatOr(outMultiTca == null, doReset)) {
@@ -78,210 +72,147 @@ public class OmsMultiTca extends HMModel {
         }
         checkNull(inPit, inFlow, inCp9);
         HashMap<String, Double> regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inFlow);
-        int cols = regionMap.get(CoverageUtilities.COLS).intValue();
-        int rows = regionMap.get(CoverageUtilities.ROWS).intValue();
-        // pm.message();
-
-        @SuppressWarnings("unused")
-        int ipos, jpos, i, j, ncicli = 0;
-        double sum, delta, pos;
-
-        // create new matrix
-        double[] elevationArray = new double[cols * rows];
-        double[] indexOfElevation = new double[cols * rows];
-
-        // pm.message();
+        final int cols = regionMap.get(CoverageUtilities.COLS).intValue();
+        final int rows = regionMap.get(CoverageUtilities.ROWS).intValue();
 
         RandomIter flowIter = CoverageUtilities.getRandomIterator(inFlow);
         RandomIter pitIter = CoverageUtilities.getRandomIterator(inPit);
         RandomIter cp9Iter = CoverageUtilities.getRandomIterator(inCp9);
-        WritableRaster alreadyDonePixelWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 0.0);
-        WritableRandomIter alreadyDoneIter = RandomIterFactory.createWritable(alreadyDonePixelWR, null);
-        WritableRaster multiTcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 1.0);
-        WritableRandomIter multiTcaIter = RandomIterFactory.createWritable(multiTcaWR, null);
 
         /*
-         * store the value of elevation in an array
+         * store the maps in row-major arrays. Only cells with novalue flow or cp9
+         * are novalue in the result, but all the cells take part in the drainage.
          */
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                elevationArray[((t) * cols) + s] = pitIter.getSampleDouble(s, t, 0);
-                indexOfElevation[((t) * cols) + s] = ((t) * cols) + s + 1;
+        final double[] pit = new double[cols * rows];
+        final int[] flow = new int[cols * rows];
+        final boolean[] valid = new boolean[cols * rows];
+        boolean[] inGraph = new boolean[cols * rows];
+        int[] cp9 = new int[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                pit[index] = pitIter.getSampleDouble(c, r, 0);
+                double flowValue = flowIter.getSampleDouble(c, r, 0);
+                double cp9Value = cp9Iter.getSampleDouble(c, r, 0);
+                valid[index] = !isNovalue(flowValue) && !isNovalue(cp9Value);
+                inGraph[index] = true;
+                flow[index] = (int) flowValue;
+                cp9[index] = (int) cp9Value;
             }
         }
+        pitIter.done();
+        flowIter.done();
+        cp9Iter.done();
 
         /*
-         * sorted the array of elevation.
-         */
-        // pm.message();
-        try {
-            QuickSortAlgorithm sortAlgorithm = new QuickSortAlgorithm(pm);
-            sortAlgorithm.sort(elevationArray, indexOfElevation);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        /*
-         * start to working with the highest value of elevation.
+         * build the multiple flow graph: divergent cells drain into all the lower
+         * neighbours and, on flat areas, along the flowdirection. Convergent
+         * cells drain only along the flowdirection. Cells not above zero don't drain.
+         * 
+         * Note that the sorting based version this replaces passed the flat area
+         * contribution of a divergent cell to the neighbour opposite to its
+         * flowdirection, unless the cell was reached while resolving the flat
+         * from downstream. That made the result depend on the order of the flat
+         * cells and could drop their area, so it is now always along the flowdirection.
          */
-        for( int l = cols * rows - 1; l >= 0; l-- ) {
-            ncicli = cols * rows - l;
-            if (elevationArray[l] <= 0) {
-                break;
-            } else {
-
-                pos = indexOfElevation[l];
-                // extract the index of the matrix from the arrays index.
-                i = (int) (pos - 1) % cols;
-                j = (int) (pos - 1) / cols;
-
-                if (alreadyDoneIter.getSampleDouble(i, j, 0) == 0.0) {
-
-                    alreadyDoneIter.setSample(i, j, 0, 1.0);
-                    if (cp9Iter.getSampleDouble(i, j, 0) == 10 || cp9Iter.getSampleDouble(i, j, 0) == 20
-                            || cp9Iter.getSampleDouble(i, j, 0) == 30 || cp9Iter.getSampleDouble(i, j, 0) == 40
-                            || cp9Iter.getSampleDouble(i, j, 0) == 50 || cp9Iter.getSampleDouble(i, j, 0) == 60) {
-                        sum = 0;
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            delta = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta == 0) {
-                                if (alreadyDoneIter.getSampleDouble(ipos, jpos, 0) == 0.0
-                                        && flowIter.getSampleDouble(ipos, jpos, 0) == dirIn[k][2]) {
-                                    resolveFlat(ipos, jpos, cols, rows, pitIter, multiTcaIter, alreadyDoneIter, flowIter, cp9Iter);
-                                }
-                            }
-                            if (delta > 0.0 && pitIter.getSampleDouble(ipos, jpos, 0) > 0.0) {
-                                sum += delta;
-                            }
-                        }
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            delta = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta > 0.0 && pitIter.getSampleDouble(ipos, jpos, 0) > 0.0) {
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0)
-                                                * (delta / sum));
-                            } else if (delta == 0.0 && flowIter.getSampleDouble(i, j, 0) == dirIn[k][2]) {
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0));
-                            }
+        Direction[] dirs = Direction.values();
+        final boolean[] isDivergent = new boolean[cols * rows];
+        byte[] receivers = new byte[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (!(pit[index] > 0)) {
+                    continue;
+                }
+                int mask = 0;
+                int cp9Value = cp9[index];
+                if (cp9Value == 10 || cp9Value == 20 || cp9Value == 30 || cp9Value == 40 || cp9Value == 50 || cp9Value == 60) {
+                    isDivergent[index] = true;
+                    for( Direction d : dirs ) {
+                        int neighbour = getNeighbourIndex(c, r, d, cols, rows);
+                        if (neighbour == -1) {
+                            continue;
                         }
-
-                    } else if (cp9Iter.getSampleDouble(i, j, 0) == 70 || cp9Iter.getSampleDouble(i, j, 0) == 80
-                            || cp9Iter.getSampleDouble(i, j, 0) == 90) {
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            double delta2 = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta2 == 0) {
-                                if (alreadyDoneIter.getSampleDouble(ipos, jpos, 0) == 0.0
-                                        && flowIter.getSampleDouble(ipos, jpos, 0) == dirIn[k][2]) {
-
-                                    resolveFlat(ipos, jpos, cols, rows, pitIter, multiTcaIter, alreadyDoneIter, flowIter, cp9Iter);
-                                }
-                            }
+                        double delta = pit[index] - pit[neighbour];
+                        if (delta > 0.0 && pit[neighbour] > 0.0) {
+                            mask |= 1 << d.ordinal();
+                        } else if (delta == 0.0 && flow[index] == d.getFlow()) {
+                            mask |= 1 << d.ordinal();
                         }
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            if (flowIter.getSampleDouble(i, j, 0) != 10 && flowIter.getSampleDouble(i, j, 0) == dir[k][2]) {
-
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0));
-                                break;
-                            }
+                    }
+                } else if (cp9Value == 70 || cp9Value == 80 || cp9Value == 90) {
+                    if (flow[index] >= 1 && flow[index] <= 8) {
+                        Direction d = Direction.forFlow(flow[index]);
+                        if (getNeighbourIndex(c, r, d, cols, rows) != -1) {
+                            mask |= 1 << d.ordinal();
                         }
                     }
-
                 }
-
-            }
-        }
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                if (isNovalue(cp9Iter.getSampleDouble(s, t, 0)) || isNovalue(flowIter.getSampleDouble(s, t, 0)))
-                    multiTcaIter.setSample(s, t, 0, HMConstants.doubleNovalue);
+                receivers[index] = (byte) mask;
             }
         }
 
-        outMultiTca = CoverageUtilities.buildCoverage("multiTca", multiTcaWR, regionMap, inFlow.getCoordinateReferenceSystem());
-
-    }
-    private int resolveFlat( int ipos, int jpos, int cols, int rows, RandomIter pitRandomIter,
-            WritableRandomIter multitcaRandomIter, WritableRandomIter segnaRandomIter, RandomIter flowRandomIter,
-            RandomIter cp3RandomIter ) {
-        double delta2 = 0;
-        double sum2 = 0;
-        int count = 0;
-
-        segnaRandomIter.setSample(ipos, jpos, 0, 1.0);
-        if (cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 10 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 20
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 30 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 40
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 50 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 60) {
-            for( int k = 1; k <= 8; k++ ) {
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 == 0) {
-                    if (segnaRandomIter.getSampleDouble(ipos2, jpos2, 0) == 0.0
-                            && flowRandomIter.getSampleDouble(ipos2, jpos2, 0) == dirIn[k][2]) {
-                        resolveFlat(ipos2, jpos2, cols, rows, pitRandomIter, multitcaRandomIter, segnaRandomIter, flowRandomIter,
-                                cp3RandomIter);
+        final double[] multiTca = new double[cols * rows];
+        Arrays.fill(multiTca, 1.0);
+
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(receivers, inGraph, cols, rows);
+        engine.process(index -> {
+            int c = index % cols;
+            int r = index / cols;
+            if (isDivergent[index]) {
+                double sum = 0;
+                for( Direction d : dirs ) {
+                    int neighbour = getNeighbourIndex(c, r, d, cols, rows);
+                    if (neighbour != -1) {
+                        double delta = pit[index] - pit[neighbour];
+                        if (delta > 0.0 && pit[neighbour] > 0.0) {
+                            sum += delta;
+                        }
                     }
                 }
-                if (delta2 > 0.0 && pitRandomIter.getSampleDouble(ipos2, jpos2, 0) > 0.0) {
-                    sum2 += delta2;
+                for( Direction d : dirs ) {
+                    int neighbour = getNeighbourIndex(c, r, d, cols, rows);
+                    if (neighbour == -1) {
+                        continue;
+                    }
+                    double delta = pit[index] - pit[neighbour];
+                    if (delta > 0.0 && pit[neighbour] > 0.0) {
+                        multiTca[neighbour] += multiTca[index] * (delta / sum);
+                    } else if (delta == 0.0 && flow[index] == d.getFlow()) {
+                        multiTca[neighbour] += multiTca[index];
+                    }
                 }
-            }
-            for( int k = 1; k <= 8; k++ ) {
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 > 0.0 && pitRandomIter.getSampleDouble(ipos2, jpos2, 0) > 0.0) {
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0) * (delta2 / sum2));
-                } else if (delta2 == 0.0 && flowRandomIter.getSampleDouble(ipos, jpos, 0) == dir[k][2]) {
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0));
+            } else {
+                int downIndex = engine.getDownstreamIndex(index);
+                if (downIndex != -1) {
+                    multiTca[downIndex] += multiTca[index];
                 }
             }
-        } else if (cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 70 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 80
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 90) {
-
-            for( int k = 1; k <= 8; k++ ) {
-
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 == 0) {
-                    if (segnaRandomIter.getSampleDouble(ipos2, jpos2, 0) == 0.0
-                            && flowRandomIter.getSampleDouble(ipos2, jpos2, 0) == dirIn[k][2]) {
-                        resolveFlat(ipos2, jpos2, cols, rows, pitRandomIter, multitcaRandomIter, segnaRandomIter, flowRandomIter,
-                                cp3RandomIter);
-                    }
-                }
+        }, pm);
+        if (pm.isCanceled()) {
+            return;
+        }
 
+        if (engine.hasLoops()) {
+            pm.errorMessage("The multiple flow graph contains loops, the affected cells are set to novalue.");
+        }
+        for( int i = 0; i < multiTca.length; i++ ) {
+            if (!valid[i] || !engine.isVisited(i)) {
+                multiTca[i] = HMConstants.doubleNovalue;
             }
+        }
 
-            for( int k = 1; k <= 8; k++ ) {
-
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-
-                if (flowRandomIter.getSampleDouble(ipos, jpos, 0) != 10
-                        && flowRandomIter.getSampleDouble(ipos, jpos, 0) == dir[k][2]) {
+        WritableRaster multiTcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
+        multiTcaWR.setSamples(0, 0, cols, rows, 0, multiTca);
+        outMultiTca = CoverageUtilities.buildCoverage("multiTca", multiTcaWR, regionMap, inFlow.getCoordinateReferenceSystem());
+    }
 
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0));
-                    break;
-                }
-            }
+    private static int getNeighbourIndex( int col, int row, Direction direction, int cols, int rows ) {
+        int newCol = col + direction.col;
+        int newRow = row + direction.row;
+        if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+            return -1;
         }
-
-        return count;
+        return newRow * cols + newCol;
     }
 }
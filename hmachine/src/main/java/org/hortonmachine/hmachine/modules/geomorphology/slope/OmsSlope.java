@@ -56,6 +56,7 @@ import oms3.annotations.Unit;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.Direction;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -110,12 +111,13 @@ public class OmsSlope extends HMModel {
 
         WritableRaster slopeWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
 
-        pm.beginTask(msg.message("slope.calculating"), nCols);
+        GridNodeCursor cursor = new GridNodeCursor(elevationIter, nCols, nRows, xRes, yRes, novalue);
+        pm.beginTask(msg.message("slope.calculating"), nRows);
         for( int r = 0; r < nRows; r++ ) {
             for( int c = 0; c < nCols; c++ ) {
                 double flowValue = flowIter.getSampleDouble(c, r, 0);
-                GridNode node = new GridNode(elevationIter, nCols, nRows, xRes, yRes, c, r, novalue);
-                double value = calculateSlope(node, flowValue);
+                cursor.moveTo(c, r);
+                double value = calculateSlope(cursor, flowValue);
                 if (doHandleNegativeSlope && value < 0) {
                     value = Double.MIN_VALUE;
                 }
@@ -151,4 +153,24 @@ public class OmsSlope extends HMModel {
         return value;
     }
 
+    /**
+     * Calculates the slope of a given flowdirection value in the cell the cursor is positioned on.
+     * 
+     * @param cursor the positioned {@link GridNodeCursor}.
+     * @param flowValue the value of the flowdirection.
+     * @return the slope.
+     */
+    public static double calculateSlope( GridNodeCursor cursor, double flowValue ) {
+        double value = doubleNovalue;
+        if (!isNovalue(flowValue)) {
+            int flowDir = (int) flowValue;
+            if (flowDir != 10) {
+                Direction direction = Direction.forFlow(flowDir);
+                double distance = direction.getDistance(cursor.xRes, cursor.yRes);
+                value = (cursor.getElevation() - cursor.getElevationAt(direction)) / distance;
+            }
+        }
+        return value;
+    }
+
 }
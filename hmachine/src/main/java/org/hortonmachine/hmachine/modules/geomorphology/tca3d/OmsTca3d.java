@@ -115,6 +115,9 @@ public class OmsTca3d extends HMModel {
         WritableRaster tca3dWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, doubleNovalue);
 
         tca3dWR = area3d(pitWR, flowWR, tca3dWR);
+        if (pm.isCanceled()) {
+            return;
+        }
         outTca = CoverageUtilities.buildCoverage("tca3d", tca3dWR, regionMap, //$NON-NLS-1$
                 inPit.getCoordinateReferenceSystem());
 
@@ -22,7 +22,6 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.GEOMORPHOLOGY;
 import java.awt.image.WritableRaster;
 import java.util.List;
 
-import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -32,6 +31,7 @@ import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
@@ -116,7 +116,7 @@ public class OmsViewshed extends HMModel {
 
         double novalue = HMConstants.getNovalue(inRaster);
 
-        RandomIter inIter = CoverageUtilities.getRandomIterator(inRaster);
+        GridRayCaster caster = GridRayCaster.fromCoverage(inRaster);
 
         WritableRaster outViewshedWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, novalue);
         WritableRandomIter outViewshedIter = CoverageUtilities.getWritableRandomIterator(outViewshedWR);
@@ -135,6 +135,15 @@ public class OmsViewshed extends HMModel {
         List<SimpleFeature> viewPoints = FeatureUtilities.featureCollectionToList(inViewPoints);
 
         GridGeometry2D gg = inRaster.getGridGeometry();
+        // the cell centers, the grid is not rotated, so x depends only on the col and y on the row
+        double[] centerXs = new double[cols];
+        double[] centerYs = new double[rows];
+        for( int col = 0; col < cols; col++ ) {
+            centerXs[col] = CoverageUtilities.coordinateFromColRow(col, 0, gg).x;
+        }
+        for( int row = 0; row < rows; row++ ) {
+            centerYs[row] = CoverageUtilities.coordinateFromColRow(0, row, gg).y;
+        }
         try {
             boolean isFirst = true;
             pm.beginTask("Processing viewpoints...", viewPoints.size());
@@ -171,8 +180,8 @@ public class OmsViewshed extends HMModel {
                             }
                         }
                     }
-                    calculateViewshed(viewPoint3D, stationColRow, cols, rows, novalue, inIter, tmpViewshedIter, viewAngleIter,
-                            maxViewAngleIter, gg);
+                    calculateViewshed(viewPoint3D, stationColRow, cols, rows, novalue, caster, tmpViewshedIter, viewAngleIter,
+                            maxViewAngleIter, centerXs, centerYs);
                     singleViewpointProcessListener.processViewPoint(viewPoint3D, tmpViewshedWR);
                     for( int r = 0; r < rows; r++ ) {
                         for( int c = 0; c < cols; c++ ) {
@@ -188,8 +197,8 @@ public class OmsViewshed extends HMModel {
                         }
                     }
                 } else {
-                    calculateViewshed(viewPoint3D, stationColRow, cols, rows, novalue, inIter, outViewshedIter, viewAngleIter,
-                            maxViewAngleIter, gg);
+                    calculateViewshed(viewPoint3D, stationColRow, cols, rows, novalue, caster, outViewshedIter, viewAngleIter,
+                            maxViewAngleIter, centerXs, centerYs);
                 }
 
                 isFirst = false;
@@ -197,7 +206,6 @@ public class OmsViewshed extends HMModel {
             pm.done();
 
         } finally {
-            inIter.done();
             viewAngleIter.done();
             maxViewAngleIter.done();
             if (tmpViewshedIter != null)
@@ -216,8 +224,8 @@ public class OmsViewshed extends HMModel {
     }
 
     private void calculateViewshed( Coordinate viewPoint3D, int[] stationColRow, int cols, int rows, double novalue,
-            RandomIter inIter, WritableRandomIter outViewshedIter, WritableRandomIter viewAngleIter,
-            WritableRandomIter maxViewAngleIter, GridGeometry2D gg ) {
+            GridRayCaster caster, WritableRandomIter outViewshedIter, WritableRandomIter viewAngleIter,
+            WritableRandomIter maxViewAngleIter, double[] centerXs, double[] centerYs ) {
         double value = CoverageUtilities.getValue(inRaster, viewPoint3D.x, viewPoint3D.y);
         if (!HMConstants.isNovalue(value, novalue)) {
             pm.message("Working on viewpoint: " + viewPoint3D);
@@ -230,11 +238,10 @@ public class OmsViewshed extends HMModel {
 
             for( int row = 0; row < rows; row++ ) {
                 for( int col = 0; col < cols; col++ ) {
-                    double z = inIter.getSampleDouble(col, row, 0);
+                    double z = caster.getElevation(col, row);
                     if (!HMConstants.isNovalue(z, novalue)) {
-                        Coordinate worldC = CoverageUtilities.coordinateFromColRow(col, row, gg);
-                        double x = worldC.x;
-                        double y = worldC.y;
+                        double x = centerXs[col];
+                        double y = centerYs[row];
                         double dZ = z - stationZ;
                         double dist = Math.sqrt((x - stationX) * (x - stationX) + (y - stationY) * (y - stationY));
                         if (dist != 0.0) {
@@ -39,6 +39,15 @@ public interface IAdigeEngine {
      */
     public void addDischargeContributor( IDischargeContributor dischargeContributor );
 
+    /**
+     * Set the hillslopes to be calculated in parallel.
+     * 
+     * <p>The results are the same as in the sequential calculation.</p>
+     * 
+     * @param doParallel if <code>true</code>, the hillslopes are calculated in parallel.
+     */
+    public void setParallel( boolean doParallel );
+
     /**
      * Calculate the solution for the current timestep.
      * 
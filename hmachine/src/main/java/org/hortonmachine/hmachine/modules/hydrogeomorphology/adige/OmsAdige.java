@@ -28,6 +28,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_LICENSE;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_doLog_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_doParallel_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_fMonpointid_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_inDams_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_inDamsdata_DESCRIPTION;
@@ -185,6 +186,10 @@ public class OmsAdige extends HMModel {
     @In
     public boolean doLog = false;
 
+    @Description(OMSADIGE_doParallel_DESCRIPTION)
+    @In
+    public boolean doParallel = false;
+
     @Description(OMSADIGE_tTimestep_DESCRIPTION)
     @In
     public int tTimestep = 0;
@@ -353,6 +358,7 @@ public class OmsAdige extends HMModel {
             } else {
                 throw new ModelsIllegalargumentException("No parameters for any model were defined. Check your syntax.", this, pm);
             }
+            adigeEngine.setParallel(doParallel);
 
             if (hydrometersHandler != null) {
                 adigeEngine.addDischargeContributor(hydrometersHandler);
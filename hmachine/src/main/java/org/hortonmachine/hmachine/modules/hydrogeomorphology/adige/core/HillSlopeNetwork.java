@@ -0,0 +1,148 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org 
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Array based view of the ordered hillslopes of a network.
+ * 
+ * <p>The upstream connections are kept in compressed rows: the hillslopes that flow
+ * into the hillslope at index <code>i</code> are at the indexes 
+ * <code>upstreamIndexes[upstreamStart[i]]</code> to <code>upstreamIndexes[upstreamStart[i + 1] - 1]</code>
+ * of the ordered list, in the order given by {@link IHillSlope#getConnectedUpstreamElements()}.</p>
+ * 
+ * <p>Since the hillslopes are ordered starting from the most downstream one, 
+ * upstream indexes are greater than the index of the hillslope they flow into.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HillSlopeNetwork {
+
+    private final int size;
+    private final int[] upstreamStart;
+    private final int[] upstreamIndexes;
+    private final int[] hillslopeIds;
+    private final String[] pfafstetterNumbers;
+    private final double[] hillslopeAreas;
+    private final double[] upstreamAreas;
+
+    /**
+     * Constructor.
+     * 
+     * @param orderedHillslopes the list of ordered hillslopes, starting from the most downstream one. 
+     *                  Hillslopes are identified by their pfafstetter number.
+     */
+    public HillSlopeNetwork( List<IHillSlope> orderedHillslopes ) {
+        size = orderedHillslopes.size();
+        hillslopeIds = new int[size];
+        pfafstetterNumbers = new String[size];
+        hillslopeAreas = new double[size];
+        upstreamAreas = new double[size];
+
+        HashMap<String, Integer> pfaff2Index = new HashMap<String, Integer>();
+        int upstreamCount = 0;
+        for( int i = 0; i < size; i++ ) {
+            IHillSlope hillSlope = orderedHillslopes.get(i);
+            hillslopeIds[i] = hillSlope.getHillslopeId();
+            pfafstetterNumbers[i] = hillSlope.getPfafstetterNumber().toString();
+            hillslopeAreas[i] = hillSlope.getHillslopeArea();
+            upstreamAreas[i] = hillSlope.getUpstreamArea(null);
+            pfaff2Index.putIfAbsent(pfafstetterNumbers[i], i);
+
+            List<IHillSlope> upstreamElements = hillSlope.getConnectedUpstreamElements();
+            if (upstreamElements != null) {
+                upstreamCount += upstreamElements.size();
+            }
+        }
+
+        upstreamStart = new int[size + 1];
+        upstreamIndexes = new int[upstreamCount];
+        int position = 0;
+        for( int i = 0; i < size; i++ ) {
+            upstreamStart[i] = position;
+            List<IHillSlope> upstreamElements = orderedHillslopes.get(i).getConnectedUpstreamElements();
+            if (upstreamElements == null) {
+                continue;
+            }
+            for( IHillSlope upstreamElement : upstreamElements ) {
+                String pfaf = upstreamElement.getPfafstetterNumber().toString();
+                Integer index = pfaff2Index.get(pfaf);
+                if (index == null) {
+                    throw new IllegalArgumentException("The hillslope " + pfaf + " upstream of " + pfafstetterNumbers[i]
+                            + " is not part of the ordered hillslopes.");
+                }
+                upstreamIndexes[position++] = index;
+            }
+        }
+        upstreamStart[size] = position;
+    }
+
+    /**
+     * @return the number of hillslopes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the start positions of the upstream rows in {@link #getUpstreamIndexes()}, 
+     *              one more than the number of hillslopes.
+     */
+    public int[] getUpstreamStart() {
+        return upstreamStart;
+    }
+
+    /**
+     * @return the indexes of the upstream hillslopes, by row.
+     */
+    public int[] getUpstreamIndexes() {
+        return upstreamIndexes;
+    }
+
+    /**
+     * @return the hillslope ids by index.
+     */
+    public int[] getHillslopeIds() {
+        return hillslopeIds;
+    }
+
+    /**
+     * @return the pfafstetter numbers by index.
+     */
+    public String[] getPfafstetterNumbers() {
+        return pfafstetterNumbers;
+    }
+
+    /**
+     * @return the hillslope areas in m2 by index.
+     */
+    public double[] getHillslopeAreas() {
+        return hillslopeAreas;
+    }
+
+    /**
+     * @return the upstream areas in m2 by index.
+     */
+    public double[] getUpstreamAreas() {
+        return upstreamAreas;
+    }
+
+}
@@ -157,6 +157,10 @@ public class DuffyAdigeEngine implements IAdigeEngine {
         duffyEvaluator.addDischargeContributor(dischargeContributor);
     }
 
+    public void setParallel( boolean doParallel ) {
+        duffyEvaluator.setParallel(doParallel);
+    }
+
     public void addDischargeDistributor( HashMap<Integer, ADischargeDistributor> hillslopeId2DischargeDistributor ) {
         duffyEvaluator.addDischargeDistributor(hillslopeId2DischargeDistributor);
     }
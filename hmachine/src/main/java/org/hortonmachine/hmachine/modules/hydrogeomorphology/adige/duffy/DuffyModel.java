@@ -30,15 +30,16 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeDuffy;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeDuffy.Parameters;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeNetwork;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IDischargeContributor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
-import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeDuffy.Parameters;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils.AdigeUtilities;
-import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
 /**
  * The duffy model.
  * 
@@ -47,16 +48,18 @@ import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
  * {@link IBasicFunction.util.ordDiffEqSolver.BasicFunction} that is used by the
  * {@link hydroScalingAPI.util.ordDiffEqSolver.RungeKuttaFelberg}
  * 
+ * <p>The network is compiled once into a {@link HillSlopeNetwork}. In an evaluation
+ * the hillslopes depend on each other only through the upstream discharges
+ * of the input, which are gathered first, so that the hillslopes
+ * can then be evaluated in parallel (see {@link #setParallel(boolean)}).</p>
+ * 
  * @author Peter Furey
  * @author Andrea Antonello (www.hydrologis.com)
  * @author Silvia Franceschi (www.hydrologis.com)
  */
 public class DuffyModel {
-    private double qd, qs, Q_trib, Qs_trib;
     // public double pcoe;
 
-    private double satsurf, mst, qdh, qds, inf, re, qe1, qe2;
-
     private double THRESHOLD_AREA = 500000; // 0.1Km2
     /*
      * HydroloGIS addons
@@ -66,13 +69,19 @@ public class DuffyModel {
     public static final int ROUTING_MANNING = 4;
     private static final double MSTMAX = 1;
     private int routingType = ROUTING_CHEZY;
-    private List<IHillSlope> orderedHillslopes = null;
     private boolean doLog = false;
     private final IHMProgressMonitor pm;
 
     private boolean doPrint = false;
+    private boolean doParallel = false;
     private List<IDischargeContributor> dischargeContributorList = new ArrayList<IDischargeContributor>();
-    private HashMap<Integer, ADischargeDistributor> hillslopeId2DischargeDistributor;
+    private ADischargeDistributor[] dischargeDistributors;
+
+    private final HillSlopeNetwork network;
+    private final Parameters[] parameters;
+    private final double[][] routingTerms;
+    private final double[] Q_trib;
+    private final double[] Qs_trib;
 
     /**
      * Duffy model function.
@@ -89,11 +98,33 @@ public class DuffyModel {
      * @param doLog
      */
     public DuffyModel( List<IHillSlope> orderedHillslopes, int routingType, IHMProgressMonitor pm, boolean doLog ) {
-        this.orderedHillslopes = orderedHillslopes;
         this.routingType = routingType;
         this.pm = pm;
         this.doLog = doLog;
 
+        network = new HillSlopeNetwork(orderedHillslopes);
+        int linksNum = network.getSize();
+        parameters = new Parameters[linksNum];
+        routingTerms = new double[linksNum][];
+        for( int i = 0; i < linksNum; i++ ) {
+            HillSlopeDuffy hillslope = (HillSlopeDuffy) orderedHillslopes.get(i);
+            parameters[i] = hillslope.getParameters();
+            routingTerms[i] = AdigeUtilities.getRoutingTerms(hillslope, routingType);
+        }
+        Q_trib = new double[linksNum];
+        Qs_trib = new double[linksNum];
+    }
+
+    /**
+     * Set the hillslopes to be evaluated in parallel.
+     * 
+     * <p>The result is the same as in the sequential evaluation, only the progress
+     * messages are emitted at the end of the evaluation.</p>
+     * 
+     * @param doParallel if <code>true</code>, the hillslopes are evaluated in parallel.
+     */
+    public void setParallel( boolean doParallel ) {
+        this.doParallel = doParallel;
     }
 
     /**
@@ -135,259 +166,244 @@ public class DuffyModel {
         // the input's length is twice the number of links... the first half
         // corresponds to links
         // discharge and the second to hillslopes storage
-        // System.out.println(input.length);
 
         // define the month
         long currentTimeInMillis = (long) (currentTimeInMinutes * 60.0 * 1000.0);
-        int linksNum = orderedHillslopes.size(); // linksConectionStruct.headsArray.length;
-        // double mstold = 0.0;
+        int linksNum = network.getSize();
 
         double[] output = new double[input.length];
 
+        /*
+         * NOTE: Initial conditions are ... input[i] for link discharge
+         * input[i+nLi] for link base flow input[i+2*nLi] for unsaturated
+         * hillslope S1 input[i+3*nLi] for saturated hillslope S2 . input[]
+         * is updated for each time step in DiffEqSolver.RKF .
+         */
+        double[] upstreamAreas = network.getUpstreamAreas();
         for( int i = linksNum - 1; i >= 0; i-- ) {
-            // start from the last pieces
-            HillSlopeDuffy currentHillslope = (HillSlopeDuffy) orderedHillslopes.get(i);
-            Parameters parameters = currentHillslope.getParameters();
-            /*
-             * NOTE: Initial conditions are ... input[i] for link discharge
-             * input[i+nLi] for link base flow input[i+2*nLi] for unsaturated
-             * hillslope S1 input[i+3*nLi] for saturated hillslope S2 . input[]
-             * is updated for each time step in DiffEqSolver.RKF .
-             */
-
-            double prec_mphr = rainArray[i] / 1000.0; // input precipitation is in mm/h
-
-            double area_m2 = currentHillslope.getHillslopeArea();
-            // automatically in m2 from the features
             /*
              * Added some check for phisic consistency of the parameters
              */
-            // if (input[i + 3 * linksNum] != input[i + 3 * linksNum]) {
-            // System.out.println();
-            // }
-            double minsupdischarge = parameters.getqqsupmin() * currentHillslope.getUpstreamArea(null) / 1E6;
+            Parameters params = parameters[i];
+            double minsupdischarge = params.getqqsupmin() * upstreamAreas[i] / 1E6;
             if (input[i] < minsupdischarge) {
                 input[i] = minsupdischarge;
-                // System.out
-                // .println(
-                // "Current superficial discharge is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
             }
-            double minsubdischarge = parameters.getqqsubmin() * currentHillslope.getUpstreamArea(null) / 1E6;
+            double minsubdischarge = params.getqqsubmin() * upstreamAreas[i] / 1E6;
             if (input[i + linksNum] < minsubdischarge) {
                 input[i + linksNum] = minsubdischarge;
-                // System.out
-                // .println(
-                // "Current subsuperficial discharge is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
             }
-            if (input[i + 2 * linksNum] < parameters.getS1residual()) {
-                input[i + 2 * linksNum] = parameters.getS1residual();
-                // System.out
-                // .println(
-                // "Current S1 parameter is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
+            if (input[i + 2 * linksNum] < params.getS1residual()) {
+                input[i + 2 * linksNum] = params.getS1residual();
             }
-            if (input[i + 3 * linksNum] < parameters.getS2residual()) {
-                input[i + 3 * linksNum] = parameters.getS2residual();
-                // System.out
-                // .println(
-                // "Current S2 parameter is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-
-            /* HILLSLOPE FLUX CONDITIONS */
-            satsurf = parameters.getS2Param() * (input[i + 3 * linksNum]); // dimless
-            // double areasat = satsurf * area_m2;
-            mst = (input[i + 2 * linksNum]) / (parameters.getS2max() - (input[i + 3 * linksNum])); // dimless
-            if (Double.isInfinite(mst)) {
-                mst = MSTMAX;
+            if (input[i + 3 * linksNum] < params.getS2residual()) {
+                input[i + 3 * linksNum] = params.getS2residual();
             }
+        }
 
-            // if ((mst - mstold) > 0.01) {
-            // System.out.println("mst " + mst + "mstold " + mstold);
-            // mstold = mst;
-            // }
-            // Ku = hillSlopesInfo.Ks(currentHillslope)
-            // * (Math.pow(mst, hillSlopesInfo.MstExp(currentHillslope))); //
-            // mphr
-
-            /* HILLSLOPE S1-SURFACE FLUX VALUES */
-            if (prec_mphr < parameters.getKs()) {
-                inf = (1.0 - satsurf) * area_m2 * prec_mphr; // m3phr
-                qdh = 0.0; // m3phr
-            } else {
-                inf = (1.0 - satsurf) * area_m2 * parameters.getKs(); // m3phr
-                qdh = (1.0 - satsurf) * area_m2 * (prec_mphr - parameters.getKs()); // m3phr
+        /* LINK FLUX ( Q ) */
+        /*
+         * the upstream discharges are gathered sequentially, since the 
+         * discharge contributors are not thread safe
+         */
+        int[] upstreamStart = network.getUpstreamStart();
+        int[] upstreamIndexes = network.getUpstreamIndexes();
+        String[] pfafstetterNumbers = network.getPfafstetterNumbers();
+        for( int i = linksNum - 1; i >= 0; i-- ) {
+            double qTrib = 0.0D;
+            double qsTrib = 0.0D;
+            for( int k = upstreamStart[i]; k < upstreamStart[i + 1]; k++ ) {
+                int index = upstreamIndexes[k];
+                String pNum = pfafstetterNumbers[index];
+                boolean doCalculate = true;
+                for( IDischargeContributor dContributor : dischargeContributorList ) {
+                    Double contributedDischarge = dContributor.getDischarge(pNum);
+                    contributedDischarge = dContributor.mergeWithDischarge(contributedDischarge, input[index]);
+                    if (!isNovalue(contributedDischarge)) {
+                        if (doLog && doPrint) {
+                            pm.message("----> For hillslope " + pfafstetterNumbers[i]
+                                    + " using hydrometer/dams data in pfafstetter: " + pNum + "(meaning added "
+                                    + contributedDischarge + " instead of " + input[index] + ")");
+                        }
+                        double dischargeRatio = 0.3;// input[index] / (input[index] +
+                        // input[index + linksNum]);
+                        qTrib = dischargeRatio * contributedDischarge; // units m^3/s
+                        qsTrib = contributedDischarge - qTrib; // units m^3/s
+                        doCalculate = false;
+                    }
+                }
+                if (doCalculate) {
+                    // at the same position we can query the input array
+                    qTrib += input[index]; // units m^3/s
+                    qsTrib += input[index + linksNum]; // units m^3/s
+                }
             }
+            Q_trib[i] = qTrib;
+            Qs_trib[i] = qsTrib;
+        }
 
-            Double eTrate = parameters.getETrate();
-            if (etpArray != null) {
-                qe1 = etpArray[i];
-            } else {
-                if (input[i + 2 * linksNum] > parameters.getS1residual()) {
-                    qe1 = eTrate * area_m2 * (1.0 - satsurf) * mst; // m3phr
-                } else {
-                    qe1 = 0.0;
+        if (doParallel) {
+            String[] messages = isAtFinalSubtimestep ? new String[linksNum] : null;
+            IntStream.range(0, linksNum).parallel().forEach(i -> evalHillslope(i, currentTimeInMinutes, currentTimeInMillis,
+                    input, rainArray, etpArray, output, isAtFinalSubtimestep, messages));
+            if (messages != null) {
+                for( int i = linksNum - 1; i >= 0; i-- ) {
+                    pm.message(messages[i]);
                 }
             }
+        } else {
+            for( int i = linksNum - 1; i >= 0; i-- ) {
+                // start from the last pieces
+                evalHillslope(i, currentTimeInMinutes, currentTimeInMillis, input, rainArray, etpArray, output,
+                        isAtFinalSubtimestep, null);
+            }
+        }
+        doPrint = false;
 
-            /* HILLSLOPE S1-S2 FLUX VALUE */
-            // re = 1100.0
-            // * (input[i + 2 * linksNum] / parameters.getS2max())
-            // + 300.0
-            // * ((input[i + 2 * linksNum] / parameters.getS2max()) + 5)
-            // * Math.pow((input[i + 3 * linksNum] / parameters.getS2max()),
-            // 2.0);
-            re = parameters.getKs() * area_m2 * (1.0 - satsurf) * (Math.pow(mst, parameters.getMstExp())); // m3phr
+        return output;
+    }
 
-            /* HILLSLOPE S2-SURFACE FLUX VALUES */
-            qds = satsurf * area_m2 * prec_mphr; // m3phr
+    /**
+     * Evaluates a single hillslope, once the input is checked and the upstream discharges gathered.
+     * 
+     * @param messages if not <code>null</code>, the progress messages are put there by 
+     *              hillslope index instead of being emitted.
+     */
+    private void evalHillslope( int i, double currentTimeInMinutes, long currentTimeInMillis, double[] input,
+            double[] rainArray, double[] etpArray, double[] output, boolean isAtFinalSubtimestep, String[] messages ) {
+        int linksNum = network.getSize();
+        int hillslopeId = network.getHillslopeIds()[i];
+        Parameters parameters = this.parameters[i];
+
+        double prec_mphr = rainArray[i] / 1000.0; // input precipitation is in mm/h
+
+        double area_m2 = network.getHillslopeAreas()[i];
+        // automatically in m2 from the features
+
+        /* HILLSLOPE FLUX CONDITIONS */
+        double satsurf = parameters.getS2Param() * (input[i + 3 * linksNum]); // dimless
+        // double areasat = satsurf * area_m2;
+        double mst = (input[i + 2 * linksNum]) / (parameters.getS2max() - (input[i + 3 * linksNum])); // dimless
+        if (Double.isInfinite(mst)) {
+            mst = MSTMAX;
+        }
 
-            if (etpArray != null) {
-                qe2 = etpArray[i];
+        /* HILLSLOPE S1-SURFACE FLUX VALUES */
+        double inf, qdh;
+        if (prec_mphr < parameters.getKs()) {
+            inf = (1.0 - satsurf) * area_m2 * prec_mphr; // m3phr
+            qdh = 0.0; // m3phr
+        } else {
+            inf = (1.0 - satsurf) * area_m2 * parameters.getKs(); // m3phr
+            qdh = (1.0 - satsurf) * area_m2 * (prec_mphr - parameters.getKs()); // m3phr
+        }
+
+        Double eTrate = parameters.getETrate();
+        double qe1;
+        if (etpArray != null) {
+            qe1 = etpArray[i];
+        } else {
+            if (input[i + 2 * linksNum] > parameters.getS1residual()) {
+                qe1 = eTrate * area_m2 * (1.0 - satsurf) * mst; // m3phr
             } else {
-                qe2 = eTrate * area_m2 * satsurf; // m3phr,
+                qe1 = 0.0;
             }
+        }
 
-            qs = parameters.getRecParam() * (input[i + 3 * linksNum]); // m3phr
-
-            /* HILLSLOPE DIRECT RUNOFF (TOTAL) FLUXES */
-            // System.out.println("qdh = " + qdh);
-            // System.out.println("qds = " + qds);
-            qd = qdh + qds; // m3phr
-
-            if (Double.isNaN(qs) || Double.isNaN(qd)) {
-                if (Double.isNaN(qs)) {
-                    throw new ModelsIllegalargumentException("Subsuperficial discharge for the hillslope "
-                            + currentHillslope.getHillslopeId() + " " + i + " is NaN", this.getClass().getSimpleName(), pm);
-                } else {
-                    throw new ModelsIllegalargumentException("Timestep " + currentTimeInMinutes
-                            + "Superficial discharge for the hillslope " + currentHillslope.getHillslopeId() + " " + i
-                            + " is NaN" + "\nValue of qdh " + qdh + "\nValue of qds " + qds + "\nPrecipitation " + prec_mphr
-                            + "\nSatsurf " + satsurf, this.getClass().getSimpleName(), pm);
-                }
-            }
+        /* HILLSLOPE S1-S2 FLUX VALUE */
+        double re = parameters.getKs() * area_m2 * (1.0 - satsurf) * (Math.pow(mst, parameters.getMstExp())); // m3phr
 
-            if (isAtFinalSubtimestep) {
-                pm.message("timeinmin = " + currentTimeInMinutes + "\tbacino: " + i + "\tqdh = " + qdh + "\tqds = " + qds
-                        + "\tre = " + re + "\tqs = " + qs + "\tmst = " + mst + "\tinf = " + inf + "\tqe1 = " + qe1 + "\tqe2 = "
-                        + qe2);
-            }
-            /*
-             * if the area is > 0.1 km2, we consider the delay effect
-             * of the hillslope.
-             */
-            if (area_m2 > THRESHOLD_AREA) {
-                // distribute the discharge
-                int hillslopeId = currentHillslope.getHillslopeId();
-                ADischargeDistributor dischargeDistributor = hillslopeId2DischargeDistributor.get(hillslopeId);
-                qs = dischargeDistributor.calculateSubsuperficialDischarge(qs, satsurf, currentTimeInMillis);
-                qd = dischargeDistributor.calculateSuperficialDischarge(qd, satsurf, currentTimeInMillis);
-            }
+        /* HILLSLOPE S2-SURFACE FLUX VALUES */
+        double qds = satsurf * area_m2 * prec_mphr; // m3phr
 
-            /* LINK FLUX ( Q ) */
-            /*
-             * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
-             * connecting link
-             */
-            /* LINK FLUX ( Q SUBSURFACE, BASE FLOW ) */
-            /*
-             * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
-             * connecting link
-             */
-            Q_trib = 0.0D;
-            Qs_trib = 0.0D;
-
-            List<IHillSlope> connectedUpstreamHillSlopes = currentHillslope.getConnectedUpstreamElements();
-
-            if (connectedUpstreamHillSlopes != null) {
-                for( IHillSlope hillSlope : connectedUpstreamHillSlopes ) {
-                    PfafstetterNumber pNum = hillSlope.getPfafstetterNumber();
-                    int index = orderedHillslopes.indexOf(hillSlope);
-                    boolean doCalculate = true;
-                    for( IDischargeContributor dContributor : dischargeContributorList ) {
-                        Double contributedDischarge = dContributor.getDischarge(pNum.toString());
-                        contributedDischarge = dContributor.mergeWithDischarge(contributedDischarge, input[index]);
-                        if (!isNovalue(contributedDischarge)) {
-                            if (doLog && doPrint) {
-                                pm.message("----> For hillslope " + currentHillslope.getPfafstetterNumber()
-                                        + " using hydrometer/dams data in pfafstetter: " + pNum.toString() + "(meaning added "
-                                        + contributedDischarge + " instead of " + input[index] + ")");
-                            }
-                            double dischargeRatio = 0.3;// input[index] / (input[index] +
-                            // input[index + linksNum]);
-                            Q_trib = dischargeRatio * contributedDischarge; // units m^3/s
-                            Qs_trib = contributedDischarge - Q_trib; // units m^3/s
-                            doCalculate = false;
-                        }
-                    }
-                    if (doCalculate) {
-                        // at the same position we can query the input array
-                        Q_trib += input[index]; // units m^3/s
-                        Qs_trib += input[index + linksNum]; // units m^3/s
-                    }
-                }
+        double qe2;
+        if (etpArray != null) {
+            qe2 = etpArray[i];
+        } else {
+            qe2 = eTrate * area_m2 * satsurf; // m3phr,
+        }
 
-            }
+        double qs = parameters.getRecParam() * (input[i + 3 * linksNum]); // m3phr
 
-            double K_Q = AdigeUtilities.doRouting(input[i], currentHillslope, routingType);
+        /* HILLSLOPE DIRECT RUNOFF (TOTAL) FLUXES */
+        double qd = qdh + qds; // m3phr
 
-            /*
-             * if (i == 62) { System.out.println(" WD ratio ="+
-             * linksHydraulicInfo.Width(i)/flowdepth); System.out.println("
-             * Mannings v (m/s) =" +
-             * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n) );
-             * System.out.println(" K_Q =" +
-             * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n)
-             * *Math.pow(linksHydraulicInfo.Length(i),-1) ); }
-             */
-            if (input[i] == 0.0D)
-                K_Q = 1e-10;
-
-            if (Double.isNaN(qs) || Double.isNaN(qd)) {
-                pm.errorMessage("Problems in basin: " + currentHillslope.getHillslopeId() + " " + i); //$NON-NLS-1$ //$NON-NLS-2$
-                if (area_m2 < THRESHOLD_AREA) {
-                    qd = 0.0;
-                    qs = 0.0;
-                    inf = 0.0;
-                    qe1 = 0.0;
-                    qe2 = 0.0;
-                    re = 0.0;
-                    System.out.println("All the contributes are set to zero.");
-                }
+        if (Double.isNaN(qs) || Double.isNaN(qd)) {
+            if (Double.isNaN(qs)) {
+                throw new ModelsIllegalargumentException("Subsuperficial discharge for the hillslope " + hillslopeId + " " + i
+                        + " is NaN", this.getClass().getSimpleName(), pm);
+            } else {
+                throw new ModelsIllegalargumentException("Timestep " + currentTimeInMinutes
+                        + "Superficial discharge for the hillslope " + hillslopeId + " " + i + " is NaN" + "\nValue of qdh "
+                        + qdh + "\nValue of qds " + qds + "\nPrecipitation " + prec_mphr + "\nSatsurf " + satsurf,
+                        this.getClass().getSimpleName(), pm);
             }
+        }
 
-            /* OUTPUT */
-            if (area_m2 > THRESHOLD_AREA) {
-                // LINK dQ/dt; big () term is m^3/s, 60*K_Q is 1/min
-                output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
-                // 60.0 * K_Q * (Q_trib - input[i]) + (1.0 / 3600.0) * qd / deltaTinMinutes;
-                // LINK dQs/dt -> (m^3/s)/min
-                output[i + linksNum] = 60.0 * K_Q * (Qs_trib - input[i + linksNum]) + 60.0 * K_Q * (1.0 / 3600.) * (qs);
-                // HILLSLOPE dS1/dt -> m3/min
-                output[i + (2 * linksNum)] = (1.0 / 60.0) * (inf - re - qe1);
-                // HILLSLOPE dS2/dt -> m3/min
-                output[i + (3 * linksNum)] = (1.0 / 60.0) * (re - qs - qe2);
+        if (isAtFinalSubtimestep) {
+            String message = "timeinmin = " + currentTimeInMinutes + "\tbacino: " + i + "\tqdh = " + qdh + "\tqds = " + qds
+                    + "\tre = " + re + "\tqs = " + qs + "\tmst = " + mst + "\tinf = " + inf + "\tqe1 = " + qe1 + "\tqe2 = "
+                    + qe2;
+            if (messages == null) {
+                pm.message(message);
             } else {
-                output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
-                output[i + linksNum] = 60.0D * K_Q * ((1.0D / 3600.) * (qs) + Qs_trib - input[i + linksNum]);
-                output[i + (2 * linksNum)] = (1.0D / 60.0) * (inf - re - qe1);
-                if (output[i + (2 * linksNum)] != output[i + (2 * linksNum)] || output[i + (2 * linksNum)] == 0.0) {
-                    throw new ModelsIllegalargumentException("Invalid value of S1, please check the parameters."
-                            + output[i + (2 * linksNum)], this, pm);
-                }
-                output[i + (3 * linksNum)] = (1.0D / 60.0) * (re - qs - qe2);
-            }
-            if (output[i + (3 * linksNum)] != output[i + (3 * linksNum)] || output[i + (2 * linksNum)] == 0.) {
-                throw new ModelsIllegalargumentException("Invalid value of S2, please check the parameters.", this.getClass()
-                        .getSimpleName(), pm);
+                messages[i] = message;
             }
+        }
+        /*
+         * if the area is > 0.1 km2, we consider the delay effect
+         * of the hillslope.
+         */
+        if (area_m2 > THRESHOLD_AREA) {
+            // distribute the discharge
+            ADischargeDistributor dischargeDistributor = dischargeDistributors[i];
+            qs = dischargeDistributor.calculateSubsuperficialDischarge(qs, satsurf, currentTimeInMillis);
+            qd = dischargeDistributor.calculateSuperficialDischarge(qd, satsurf, currentTimeInMillis);
+        }
 
+        double K_Q = AdigeUtilities.doRouting(input[i], routingTerms[i], routingType);
+
+        if (input[i] == 0.0D)
+            K_Q = 1e-10;
+
+        if (Double.isNaN(qs) || Double.isNaN(qd)) {
+            pm.errorMessage("Problems in basin: " + hillslopeId + " " + i); //$NON-NLS-1$ //$NON-NLS-2$
+            if (area_m2 < THRESHOLD_AREA) {
+                qd = 0.0;
+                qs = 0.0;
+                inf = 0.0;
+                qe1 = 0.0;
+                qe2 = 0.0;
+                re = 0.0;
+                System.out.println("All the contributes are set to zero.");
+            }
         }
-        doPrint = false;
 
-        return output;
+        /* OUTPUT */
+        if (area_m2 > THRESHOLD_AREA) {
+            // LINK dQ/dt; big () term is m^3/s, 60*K_Q is 1/min
+            output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib[i] - input[i]);
+            // 60.0 * K_Q * (Q_trib - input[i]) + (1.0 / 3600.0) * qd / deltaTinMinutes;
+            // LINK dQs/dt -> (m^3/s)/min
+            output[i + linksNum] = 60.0 * K_Q * (Qs_trib[i] - input[i + linksNum]) + 60.0 * K_Q * (1.0 / 3600.) * (qs);
+            // HILLSLOPE dS1/dt -> m3/min
+            output[i + (2 * linksNum)] = (1.0 / 60.0) * (inf - re - qe1);
+            // HILLSLOPE dS2/dt -> m3/min
+            output[i + (3 * linksNum)] = (1.0 / 60.0) * (re - qs - qe2);
+        } else {
+            output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib[i] - input[i]);
+            output[i + linksNum] = 60.0D * K_Q * ((1.0D / 3600.) * (qs) + Qs_trib[i] - input[i + linksNum]);
+            output[i + (2 * linksNum)] = (1.0D / 60.0) * (inf - re - qe1);
+            if (output[i + (2 * linksNum)] != output[i + (2 * linksNum)] || output[i + (2 * linksNum)] == 0.0) {
+                throw new ModelsIllegalargumentException("Invalid value of S1, please check the parameters."
+                        + output[i + (2 * linksNum)], this, pm);
+            }
+            output[i + (3 * linksNum)] = (1.0D / 60.0) * (re - qs - qe2);
+        }
+        if (output[i + (3 * linksNum)] != output[i + (3 * linksNum)] || output[i + (2 * linksNum)] == 0.) {
+            throw new ModelsIllegalargumentException("Invalid value of S2, please check the parameters.", this.getClass()
+                    .getSimpleName(), pm);
+        }
     }
 
     public void addDischargeContributor( IDischargeContributor dischargeContributor ) {
@@ -395,6 +411,10 @@ public class DuffyModel {
     }
 
     public void addDischargeDistributor( HashMap<Integer, ADischargeDistributor> hillslopeId2DischargeDistributor ) {
-        this.hillslopeId2DischargeDistributor = hillslopeId2DischargeDistributor;
+        int[] hillslopeIds = network.getHillslopeIds();
+        dischargeDistributors = new ADischargeDistributor[hillslopeIds.length];
+        for( int i = 0; i < hillslopeIds.length; i++ ) {
+            dischargeDistributors[i] = hillslopeId2DischargeDistributor.get(hillslopeIds[i]);
+        }
     }
 }
@@ -26,13 +26,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.IAdigeEngine;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.OmsAdige;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeNetwork;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IDischargeContributor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
-import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
 import org.joda.time.DateTime;
 
 /**
@@ -52,15 +53,18 @@ public class HymodAdigeEngine implements IAdigeEngine {
     private double[][] xQuick = null;
     private final HashMap<Integer, double[]> outDischarge;
     private final HashMap<Integer, double[]> outSubDischarge;
-    private final HashMap<Integer, double[]> outDischargeInternal;
+    private final HillSlopeNetwork network;
+    private final boolean[] isMonitored;
+    private final double[] outDischargeInternal;
+    private final double[] basinDischarges;
+    private final double[] basinSubDischarges;
     private final HashMap<Integer, Integer> index2Basinid;
     private List<IDischargeContributor> dischargeContributorList = new ArrayList<IDischargeContributor>();
     private final boolean doPrint;
     private final boolean doLog;
     private final IHMProgressMonitor pm;
-    private final List<String> pfaffsList;
     private double[] coeffs;
-    int conta = 0;
+    private boolean doParallel = false;
 
     public HymodAdigeEngine( HymodInputs hymodInputs, List<IHillSlope> orderedHillslopes,
             HashMap<Integer, Integer> index2Basinid, HashMap<Integer, double[]> outDischarge,
@@ -71,17 +75,29 @@ public class HymodAdigeEngine implements IAdigeEngine {
         this.index2Basinid = index2Basinid;
         this.outDischarge = outDischarge;
         this.outSubDischarge = outSubDischarge;
-        this.pfaffsList = pfaffsList;
         this.doLog = doLog;
         this.doPrint = doPrint;
         this.pm = pm;
-        outDischargeInternal = new HashMap<Integer, double[]>();
+
+        network = new HillSlopeNetwork(orderedHillslopes);
+        int hillslopesNum = network.getSize();
+        isMonitored = new boolean[hillslopesNum];
+        for( int i = 0; i < hillslopesNum; i++ ) {
+            isMonitored[i] = pfaffsList.contains(network.getPfafstetterNumbers()[i]);
+        }
+        outDischargeInternal = new double[hillslopesNum];
+        basinDischarges = new double[hillslopesNum];
+        basinSubDischarges = new double[hillslopesNum];
     }
 
     public void addDischargeContributor( IDischargeContributor dischargeContributor ) {
         dischargeContributorList.add(dischargeContributor);
     }
 
+    public void setParallel( boolean doParallel ) {
+        this.doParallel = doParallel;
+    }
+
     public HashMap<Integer, double[]> getDischarge() {
         return outDischarge;
     }
@@ -122,84 +138,24 @@ public class HymodAdigeEngine implements IAdigeEngine {
             }
         }
 
-        for( int i = orderedHillslopes.size() - 1; i >= 0; i-- ) {
-            IHillSlope hillSlope = orderedHillslopes.get(i);
-
-            // /////////////FISSATO PER CHECK///////////////
-            // hymodInputs.pAlpha=0.323;
-            // hymodInputs.pCmax=999.0;
-            // hymodInputs.pB=0.515;
-            // hymodInputs.pRq=0.135;
-            // hymodInputs.pRs=0.0091;
-            // /////////////FISSATO PER CHECK///////////////
-
-            double rain = rainArray[i];
-            double etp = etpArray[i];
-            // funziona
-            // if (rain == -999 || etp ==-999) {
-            // rain=0;etp=0;
-            // }
-            // modificato
-            // System.out.println("rain= "+rain+" etp= "+etp);
-            // if (isNovalue(rain) || isNovalue(etp)) {
-            // rain=0;
-            // etp=0;
-            // }
-            //
-            //
-            // /*
-            // * sum together the discharge contributed by the current
-            // * hillslope plus the contributions coming from upstream
-            // */
-            //
-            // PfafstetterNumber pfaf = hillSlope.getPfafstetterNumber();
-            // if (pfaffsList.contains(pfaf.toString())) {
-            // outDischarge.put(basinId, new double[] { -999 });
-            // outSubDischarge.put(basinId, new double[] { -999 });
-            // }
-            //
-            // outDischargeInternal.put(basinId,
-            // new double[] { -999 });
-            // System.out.println(basinId+" rain= "+rain+" etp="+etp+ "outDischargeInternal="+
-            // outDischargeInternal.get(basinId));
-            // // if (i == 2) {
-            // // //
-            // // System.out.println(conta+" basinDischarge"+(-999)
-            // // +" xloss="+xLoss[i]);
-            // // conta++;
-            // // }
-
-            // } else {
-
-            double[] out_excess = excess(xLoss[i], rain, etp);
-            double UT1 = out_excess[0];
-            double UT2 = out_excess[1];
-            xLoss[i] = out_excess[2];
-
-            double UQ = hymodInputs.pAlpha * UT2 + UT1;
-            double US = (1.0 - hymodInputs.pAlpha) * UT2;
-
-            double inflow = US;
-            double[] out_linres1 = linres(xSlow[i], inflow, hymodInputs.pRs, 1);
-
-            xSlow[i] = out_linres1[0];
-            double outflow1 = out_linres1[1];
-            double QS = outflow1;
-            inflow = UQ;
-            double outflow2 = 0;
-
-            for( int k = 0; k < 3; k++ ) {
-                double[] out_linres2 = linres(xQuick[k][i], inflow, hymodInputs.pRq, 1);
-                xQuick[k][i] = out_linres2[0];
-                outflow2 = out_linres2[1];
-                inflow = outflow2;
+        /*
+         * the hillslope balances are independent, only the summing of the 
+         * upstream discharges has to go from upstream to downstream
+         */
+        double[] currentConditions = initialConditions;
+        if (doParallel) {
+            IntStream.range(0, network.getSize()).parallel()
+                    .forEach(i -> calculateHillslope(i, rainArray, etpArray, currentConditions));
+        } else {
+            for( int i = network.getSize() - 1; i >= 0; i-- ) {
+                calculateHillslope(i, rainArray, etpArray, currentConditions);
             }
+        }
 
-            Integer basinId = index2Basinid.get(i);
-            double basinDischarge = (QS + outflow2) / coeffs[i];
-            double basinSubDischarge = QS / coeffs[i];
+        for( int i = network.getSize() - 1; i >= 0; i-- ) {
+            double basinDischarge = basinDischarges[i];
 
-            double allContributionsDischarge = handleContributors(hillSlope, basinDischarge);
+            double allContributionsDischarge = handleContributors(i, basinDischarge);
 
             /*
              * sum together the discharge contributed by the current
@@ -207,92 +163,100 @@ public class HymodAdigeEngine implements IAdigeEngine {
              */
             basinDischarge = basinDischarge + allContributionsDischarge;
 
-            PfafstetterNumber pfaf = hillSlope.getPfafstetterNumber();
-            if (pfaffsList.contains(pfaf.toString())) {
+            if (isMonitored[i]) {
+                Integer basinId = index2Basinid.get(i);
                 outDischarge.put(basinId, new double[]{basinDischarge});
-                outSubDischarge.put(basinId, new double[]{basinSubDischarge});
+                outSubDischarge.put(basinId, new double[]{basinSubDischarges[i]});
             }
-            initialConditions[i] = xLoss[i];
-            initialConditions[i + orderedHillslopes.size()] = xSlow[i];
-            initialConditions[i + 2 * orderedHillslopes.size()] = xQuick[0][i];
-            initialConditions[i + 3 * orderedHillslopes.size()] = xQuick[1][i];
-            initialConditions[i + 4 * orderedHillslopes.size()] = xQuick[2][i];
-
-            outDischargeInternal.put(basinId, new double[]{basinDischarge});
-            // System.out.println(basinId+" rain= "+rain+" etp="+etp+ "outDischargeInternal="+
-            // outDischargeInternal.get(basinId));
-            // if (i == 61) {
-            // System.out.println("rain= "+rain+" etp= "+etp+" basinId= "+basinId+
-            // " basinDischarge"+basinDischarge+" allcontributions= "+allContributionsDischarge+" xloss= "+xLoss[i]);
-            // }
-            // if (i == 61) {
-            // //
-            // System.out.println(conta+"rain= "+rain+" etp= "+etp+" basinDischarge"+(basinDischarge-allContributionsDischarge)
-            // +" xloss="+xLoss[i]);
-            // conta++;
-            // }
-            // }
+            outDischargeInternal[i] = basinDischarge;
         }
 
-        // System.out.println("out=" + outDischarge.get(basinId)[0] + " x_slow="
-        // + xSlow[0] + "rain=" + rainArray[0] + " etp="
-        // + etpArray[0]);
         return initialConditions;
     }
 
-    private double handleContributors( IHillSlope hillSlope, final double basinDischarge ) {
+    /**
+     * Calculates the discharge produced by the hillslope alone and updates its state.
+     */
+    private void calculateHillslope( int i, double[] rainArray, double[] etpArray, double[] initialConditions ) {
+        int hillslopesNum = network.getSize();
+        double rain = rainArray[i];
+        double etp = etpArray[i];
+
+        double[] out_excess = excess(xLoss[i], rain, etp);
+        double UT1 = out_excess[0];
+        double UT2 = out_excess[1];
+        xLoss[i] = out_excess[2];
+
+        double UQ = hymodInputs.pAlpha * UT2 + UT1;
+        double US = (1.0 - hymodInputs.pAlpha) * UT2;
+
+        double inflow = US;
+        double[] out_linres1 = linres(xSlow[i], inflow, hymodInputs.pRs, 1);
+
+        xSlow[i] = out_linres1[0];
+        double outflow1 = out_linres1[1];
+        double QS = outflow1;
+        inflow = UQ;
+        double outflow2 = 0;
+
+        for( int k = 0; k < 3; k++ ) {
+            double[] out_linres2 = linres(xQuick[k][i], inflow, hymodInputs.pRq, 1);
+            xQuick[k][i] = out_linres2[0];
+            outflow2 = out_linres2[1];
+            inflow = outflow2;
+        }
+
+        basinDischarges[i] = (QS + outflow2) / coeffs[i];
+        basinSubDischarges[i] = QS / coeffs[i];
+
+        initialConditions[i] = xLoss[i];
+        initialConditions[i + hillslopesNum] = xSlow[i];
+        initialConditions[i + 2 * hillslopesNum] = xQuick[0][i];
+        initialConditions[i + 3 * hillslopesNum] = xQuick[1][i];
+        initialConditions[i + 4 * hillslopesNum] = xQuick[2][i];
+    }
+
+    private double handleContributors( int index, final double basinDischarge ) {
         double summedContributions = 0;
 
-        List<IHillSlope> connectedUpstreamHillSlopes = hillSlope.getConnectedUpstreamElements();
-        if (connectedUpstreamHillSlopes != null) {
-            for( IHillSlope tmpHillSlope : connectedUpstreamHillSlopes ) {
-                PfafstetterNumber pNum = tmpHillSlope.getPfafstetterNumber();
-                int hillslopeId = tmpHillSlope.getHillslopeId();
-
-                /*
-                 * get the inflow from upstream basins
-                 */
-                double upstreamDischarge = outDischargeInternal.get(hillslopeId)[0];
-
-                /*
-                 * handle the contributors
-                 */
-                for( IDischargeContributor dContributor : dischargeContributorList ) {
-                    Double contributedDischarge = dContributor.getDischarge(pNum.toString());
-                    if (!isNovalue(contributedDischarge)) {
-                        if (doLog && doPrint) {
-                            pm.message("----> For hillslope " + hillSlope.getPfafstetterNumber()
-                                    + " using hydrometer/dams data in pfafstetter: " + pNum.toString() + "(meaning added "
-                                    + contributedDischarge + " instead of " + upstreamDischarge + ")");
-                        }
-
-                        /*
-                         * here the contributor will give its contribution,
-                         * which depends on the type of contributor. For example
-                         * a Hydrometer will completely substitute the
-                         * calculated discharge of the current hillslope
-                         * (tmpHillSlope) with the measure supplied by the
-                         * Hydrometer.
-                         */
-
-                        // funziona
-                        // if (contributedDischarge != -9999) {
-                        // upstreamDischarge = dContributor
-                        // .mergeWithDischarge(contributedDischarge,
-                        // upstreamDischarge);
-                        // }
-
-                        // modificato
-                        if (!isNovalue(contributedDischarge)) {
-                            upstreamDischarge = dContributor.mergeWithDischarge(contributedDischarge, upstreamDischarge);
-                        }
+        int[] upstreamStart = network.getUpstreamStart();
+        int[] upstreamIndexes = network.getUpstreamIndexes();
+        String[] pfafstetterNumbers = network.getPfafstetterNumbers();
+        for( int k = upstreamStart[index]; k < upstreamStart[index + 1]; k++ ) {
+            int upstreamIndex = upstreamIndexes[k];
+            String pNum = pfafstetterNumbers[upstreamIndex];
 
+            /*
+             * get the inflow from upstream basins
+             */
+            double upstreamDischarge = outDischargeInternal[upstreamIndex];
+
+            /*
+             * handle the contributors
+             */
+            for( IDischargeContributor dContributor : dischargeContributorList ) {
+                Double contributedDischarge = dContributor.getDischarge(pNum);
+                if (!isNovalue(contributedDischarge)) {
+                    if (doLog && doPrint) {
+                        pm.message("----> For hillslope " + pfafstetterNumbers[index]
+                                + " using hydrometer/dams data in pfafstetter: " + pNum + "(meaning added "
+                                + contributedDischarge + " instead of " + upstreamDischarge + ")");
                     }
-                }
-                double routedDischarge = doRouting(upstreamDischarge, basinDischarge, tmpHillSlope);
 
-                summedContributions = summedContributions + routedDischarge;
+                    /*
+                     * here the contributor will give its contribution,
+                     * which depends on the type of contributor. For example
+                     * a Hydrometer will completely substitute the
+                     * calculated discharge of the current hillslope
+                     * (tmpHillSlope) with the measure supplied by the
+                     * Hydrometer.
+                     */
+                    upstreamDischarge = dContributor.mergeWithDischarge(contributedDischarge, upstreamDischarge);
+                }
             }
+            double routedDischarge = doRouting(upstreamDischarge, basinDischarge, orderedHillslopes.get(upstreamIndex));
+
+            summedContributions = summedContributions + routedDischarge;
         }
 
         return summedContributions;
@@ -185,6 +185,20 @@ public class AdigeUtilities {
      * @return the routing cuencas coefficient.
      */
     public static double doRouting( double discharge, IHillSlope hillslope, int routingType ) {
+        return doRouting(discharge, getRoutingTerms(hillslope, routingType), routingType);
+    }
+
+    /**
+     * Calculates the terms of the routing coefficient that depend only on the link.
+     * 
+     * <p>They can be calculated once per link and then passed to 
+     * {@link #doRouting(double, double[], int)} at every evaluation.</p>
+     * 
+     * @param hillslope the hillslope.
+     * @param routingType the routing type to use, as in {@link #doRouting(double, IHillSlope, int)}.
+     * @return the link terms.
+     */
+    public static double[] getRoutingTerms( IHillSlope hillslope, int routingType ) {
         double linkWidth = hillslope.getLinkWidth(8.66, 0.6, 0.0);
         double linkLength = hillslope.getLinkLength();
         double linkSlope = hillslope.getLinkSlope();
@@ -192,24 +206,44 @@ public class AdigeUtilities {
         double chezLawCoeff = 200. / Math.pow(0.000357911, chezLawExpon);
         double linkChezy = hillslope.getLinkChezi(chezLawCoeff, chezLawExpon);
 
+        switch( routingType ) {
+        case 2: /* No Chezi explicitly */
+            return new double[]{Math.pow(linkWidth, -1 / 3.), Math.pow(linkLength, -1), Math.pow(linkSlope, 2 / 9.)};
+        case 3: /* Chezi explicit */
+            return new double[]{Math.pow(linkChezy, 2. / 3.), Math.pow(linkWidth, -1. / 3.), Math.pow(linkLength, -1),
+                    Math.pow(linkSlope, 1. / 3.)};
+        case 4: /* Mannings equation */
+            return new double[]{linkWidth, Math.pow(linkSlope, 1 / 2.), Math.pow(linkLength, -1)};
+        default:
+            return new double[0];
+        }
+    }
+
+    /**
+     * Method to do the routing of a  discharge along a link.
+     * 
+     * @param discharge the discharge to be transported.
+     * @param routingTerms the link terms as given by {@link #getRoutingTerms(IHillSlope, int)}.
+     * @param routingType the routing type to use, as in {@link #doRouting(double, IHillSlope, int)}.
+     * @return the routing cuencas coefficient.
+     */
+    public static double doRouting( double discharge, double[] routingTerms, int routingType ) {
         double K_Q = 0;
 
         /* ROUTING RATE (K_Q) and CHANNEL VELOCITY (vc) */
-        // System.out.println(routingtype);
         switch( routingType ) {
         case 2: /* No Chezi explicitly */
-            K_Q = 8.796 * Math.pow(discharge, 1 / 3.) * Math.pow(linkWidth, -1 / 3.) * Math.pow(linkLength, -1)
-                    * Math.pow(linkSlope, 2 / 9.); // units
+            K_Q = 8.796 * Math.pow(discharge, 1 / 3.) * routingTerms[0] * routingTerms[1] * routingTerms[2]; // units
             // 1/s*/
             break;
 
         case 3: /* Chezi explicit */
-            // System.out.println("Chezy");
-            K_Q = 3 / 2. * Math.pow(discharge, 1. / 3.) * Math.pow(linkChezy, 2. / 3.) * Math.pow(linkWidth, -1. / 3.)
-                    * Math.pow(linkLength, -1) * Math.pow(linkSlope, 1. / 3.); // units 1/s
+            K_Q = 3 / 2. * Math.pow(discharge, 1. / 3.) * routingTerms[0] * routingTerms[1] * routingTerms[2]
+                    * routingTerms[3]; // units 1/s
             break;
 
         case 4: /* Mannings equation */
+            double linkWidth = routingTerms[0];
             double flowdepth = (1. / 3.) * Math.pow(discharge, 1. / 3.); // depth
             // m,
             // input m^3/s;
@@ -224,7 +258,7 @@ public class AdigeUtilities {
             // observations at
             // Whitewater for high flows. Low flows will have higher
             // n ... up to 2x more.
-            K_Q = (Math.pow(hydrad, 2. / 3.) * Math.pow(linkSlope, 1 / 2.) / mannings_n) // m/s
+            K_Q = (Math.pow(hydrad, 2. / 3.) * routingTerms[1] / mannings_n) // m/s
                     // ;
                     // this
                     // term
@@ -232,7 +266,7 @@ public class AdigeUtilities {
                     // from
                     // mannings
                     // eqn
-                    * Math.pow(linkLength, -1); // 1/s
+                    * routingTerms[2]; // 1/s
             break;
 
         }
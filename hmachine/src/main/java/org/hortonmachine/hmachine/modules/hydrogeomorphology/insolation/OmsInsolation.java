@@ -30,14 +30,18 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_LICEN
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_inElev_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_inHorizons_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pSectors_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.util.HashMap;
+import java.util.stream.IntStream;
 
 import javax.media.jai.RasterFactory;
 import javax.media.jai.iterator.RandomIter;
@@ -54,13 +58,17 @@ import oms3.annotations.License;
 import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
+import oms3.annotations.UI;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster;
+import org.hortonmachine.gears.utils.coverage.HorizonAngles;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 import org.joda.time.DateTime;
@@ -93,6 +101,15 @@ public class OmsInsolation extends HMModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
+    @Description(OMSINSOLATION_inHorizons_DESCRIPTION)
+    @UI(HMConstants.FILEIN_UI_HINT_GENERIC)
+    @In
+    public String inHorizons = null;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @Out
     public GridCoverage2D outIns;
@@ -117,10 +134,6 @@ public class OmsInsolation extends HMModel {
 
     private double lambda;
 
-    private double delta;
-
-    private double omega;
-
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
     @Execute
@@ -167,14 +180,43 @@ public class OmsInsolation extends HMModel {
         WritableRandomIter insolationIterator = RandomIterFactory.createWritable(insolationWR, null);
 
         WritableRaster gradientWR = normalVector(pitWR, dx);
-
-        pm.beginTask(msg.message("insolation.calculating"), endDay - startDay);
-
-        for( int i = startDay; i <= endDay; i++ ) {
-            calcInsolation(lambda, pitWR, gradientWR, insolationWR, i, dx);
-            pm.worked(i - startDay);
+        // the elevations are read once for all the hourly shadows
+        GridRayCaster caster = GridRayCaster.fromRaster(pitWR, dx, dx, HMConstants.doubleNovalue);
+        HorizonAngles horizons = null;
+        if (pSectors > 0) {
+            horizons = HorizonAngles.getOrCalculate(caster, pSectors, inHorizons == null ? null : new File(inHorizons));
         }
+        HorizonAngles dayHorizons = horizons;
+
+        /*
+         * the days are split in consecutive chunks processed in parallel, each
+         * summing into its own map. The chunks are then summed in order.
+         */
+        int days = endDay - startDay + 1;
+        int chunks = Math.max(1, Math.min(days, GridBlockScheduler.defaultPool.getParallelism()));
+        double[][] chunkInsolations = new double[chunks][];
+        pm.beginTask(msg.message("insolation.calculating"), days);
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            double[] insolation = new double[width * height];
+            int fromDay = startDay + (int) ((long) days * chunk / chunks);
+            int toDay = startDay + (int) ((long) days * (chunk + 1) / chunks);
+            for( int i = fromDay; i < toDay; i++ ) {
+                calcInsolation(lambda, pitWR, caster, dayHorizons, gradientWR, insolation, i, dx);
+                synchronized (pm) {
+                    pm.worked(1);
+                }
+            }
+            chunkInsolations[chunk] = insolation;
+        });
         pm.done();
+        double[] insolation = chunkInsolations[0];
+        for( int chunk = 1; chunk < chunks; chunk++ ) {
+            double[] chunkInsolation = chunkInsolations[chunk];
+            for( int k = 0; k < insolation.length; k++ ) {
+                insolation[k] += chunkInsolation[k];
+            }
+        }
+        insolationWR.setSamples(0, 0, width, height, 0, insolation);
         for( int y = 2; y < height - 2; y++ ) {
             for( int x = 2; x < width - 2; x++ ) {
                 if (HMConstants.isNovalue(pitWR.getSampleDouble(x, y, 0))) {
@@ -194,41 +236,52 @@ public class OmsInsolation extends HMModel {
      *            the latitude.
      * @param demWR
      *            the raster of elevation
+     * @param caster
+     *            the ray caster of the elevation.
+     * @param horizons
+     *            the horizons of the cells, if <code>null</code> the shadows
+     *            are calculated for every sun position.
      * @param gradientWR
      *            the raster of the gradient value of the dem.
-     * @param insolationWR
-     *            the wr where to store the result.
+     * @param insolation
+     *            the row-major map where to sum the result.
      * @param the
      *            day in the year.
      * @paradx the resolutiono of the dem.
      */
-    private void calcInsolation( double lambda, WritableRaster demWR, WritableRaster gradientWR, WritableRaster insolationWR,
-            int day, double dx ) {
+    private void calcInsolation( double lambda, WritableRaster demWR, GridRayCaster caster, HorizonAngles horizons,
+            WritableRaster gradientWR, double[] insolation, int day, double dx ) {
         // calculating the day angle
         // double dayang = 2 * Math.PI * (day - 1) / 365.0;
         double dayangb = (360 / 365.25) * (day - 79.436);
         dayangb = Math.toRadians(dayangb);
         // Evaluate the declination of the sun.
-        delta = getDeclination(dayangb);
+        double delta = getDeclination(dayangb);
         // Evaluate the radiation in this day.
         double ss = Math.acos(-Math.tan(delta) * Math.tan(lambda));
         double hour = -ss + (Math.PI / 48.0);
+        int height = demWR.getHeight();
+        int width = demWR.getWidth();
+        double[] sOmbra = new double[width * height];
         while( hour <= ss - (Math.PI / 48) ) {
-            omega = hour;
+            double omega = hour;
             // calculating the vector related to the sun
-            double sunVector[] = calcSunVector();
+            double sunVector[] = calcSunVector(delta, omega);
             double zenith = calcZenith(sunVector[2]);
-            double[] inverseSunVector = calcInverseSunVector(sunVector);
-            double[] normalSunVector = calcNormalSunVector(sunVector);
-
-            int height = demWR.getHeight();
-            int width = demWR.getWidth();
-            WritableRaster sOmbraWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, demWR, dx);
+            if (horizons == null) {
+                double[] inverseSunVector = calcInverseSunVector(sunVector);
+                double[] normalSunVector = calcNormalSunVector(sunVector);
+                WritableRaster sOmbraWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, caster,
+                        dx);
+                sOmbraWR.getSamples(0, 0, width, height, 0, sOmbra);
+            } else {
+                horizons.fillShadows(HorizonAngles.azimuth(sunVector), HorizonAngles.elevation(sunVector), sOmbra);
+            }
             double mr = 1 / (sunVector[2] + 0.15 * Math.pow((93.885 - zenith), (-1.253)));
             for( int j = 0; j < height; j++ ) {
                 for( int i = 0; i < width; i++ ) {
                     // evaluate the radiation.
-                    calcRadiation(i, j, demWR, sOmbraWR, insolationWR, sunVector, gradientWR, mr);
+                    calcRadiation(i, j, demWR, sOmbra[j * width + i], insolation, sunVector, gradientWR, mr);
                 }
             }
             hour = hour + Math.PI / 24.0;
@@ -248,8 +301,8 @@ public class OmsInsolation extends HMModel {
      * evaluate several component of the radiation and then multiply by the
      * sOmbra factor.
      */
-    private void calcRadiation( int i, int j, WritableRaster demWR, WritableRaster sOmbraWR, WritableRaster insolationWR,
-            double[] sunVector, WritableRaster gradientWR, double mr ) {
+    private void calcRadiation( int i, int j, WritableRaster demWR, double sOmbra, double[] insolation, double[] sunVector,
+            WritableRaster gradientWR, double mr ) {
         double z = demWR.getSampleDouble(i, j, 0);
         double pressure = ATM * Math.exp(-0.0001184 * z);
         double ma = mr * pressure / ATM;
@@ -271,11 +324,11 @@ public class OmsInsolation extends HMModel {
         if (cosinc < 0) {
             cosinc = 0;
         }
-        double tmp = insolationWR.getSampleDouble(i, j, 0);
-        insolationWR.setSample(i, j, 0, In * cosinc * sOmbraWR.getSampleDouble(i, j, 0) / 1000 + tmp);
+        int index = j * demWR.getWidth() + i;
+        insolation[index] = In * cosinc * sOmbra / 1000 + insolation[index];
     }
 
-    protected double[] calcSunVector() {
+    protected double[] calcSunVector( double delta, double omega ) {
         double sunVector[] = new double[3];
         sunVector[0] = -Math.sin(omega) * Math.cos(delta);
         sunVector[1] = Math.sin(lambda) * Math.cos(omega) * Math.cos(delta) - Math.cos(lambda) * Math.sin(delta);
@@ -23,7 +23,6 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
 import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcInverseSunVector;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcNormalSunVector;
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.scalarProduct;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_AUTHORCONTACTS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_AUTHORNAMES;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_DESCRIPTION;
@@ -33,12 +32,17 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_LICENSE;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_inElev_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_inHorizons_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_outSky_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pSectors_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.stream.IntStream;
 
 import javax.media.jai.RasterFactory;
 
@@ -52,10 +56,14 @@ import oms3.annotations.License;
 import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
+import oms3.annotations.UI;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.GridRayCaster;
+import org.hortonmachine.gears.utils.coverage.HorizonAngles;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 
 @Description(OMSSKYVIEW_DESCRIPTION)
@@ -71,6 +79,15 @@ public class OmsSkyview extends HMModel {
     @In
     public GridCoverage2D inElev = null;
 
+    @Description(OMSSKYVIEW_pSectors_DESCRIPTION)
+    @In
+    public int pSectors = 0;
+
+    @Description(OMSSKYVIEW_inHorizons_DESCRIPTION)
+    @UI(HMConstants.FILEIN_UI_HINT_GENERIC)
+    @In
+    public String inHorizons = null;
+
     @Description(OMSSKYVIEW_outSky_DESCRIPTION)
     @Out
     public GridCoverage2D outSky;
@@ -85,6 +102,10 @@ public class OmsSkyview extends HMModel {
     private int rows = 0;
     private int cols = 0;
     private WritableRaster normalVectorWR;
+    /**
+     * The normal vectors as pixels, three components per cell.
+     */
+    private double[] normalVectors;
 
     @Execute
     public void process() throws Exception {
@@ -224,8 +245,9 @@ public class OmsSkyview extends HMModel {
      *            the dem ( the map of elevation).
      * @param res the resolution of the map.
      * @return the map of sky view factor.
+     * @throws IOException
      */
-    private WritableRaster skyviewfactor( WritableRaster pitWR, double res ) {
+    private WritableRaster skyviewfactor( WritableRaster pitWR, double res ) throws IOException {
 
         /*
          * evalutating the normal vector (in the center of the square compound
@@ -233,6 +255,14 @@ public class OmsSkyview extends HMModel {
          */
 
         normalVectorWR = normalVector(pitWR, res);
+        normalVectors = normalVectorWR.getPixels(normalVectorWR.getMinX(), normalVectorWR.getMinY(), cols, rows,
+                new double[cols * rows * 3]);
+        GridRayCaster caster = GridRayCaster.fromRaster(pitWR, res, res, doubleNovalue);
+        if (pSectors > 0) {
+            HorizonAngles horizons = HorizonAngles.getOrCalculate(caster, pSectors,
+                    inHorizons == null ? null : new File(inHorizons));
+            return skyviewfactor(horizons, pitWR);
+        }
 
         WritableRaster skyviewFactorWR = CoverageUtilities.createWritableRaster(cols, rows, null, pitWR.getSampleModel(),
                 0.0);
@@ -247,7 +277,7 @@ public class OmsSkyview extends HMModel {
                 double[] sunVector = calcSunVector();
                 double[] inverseSunVector = calcInverseSunVector(sunVector);
                 double[] normalSunVector = calcNormalSunVector(sunVector);
-                calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, skyViewWR, res);
+                calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, caster, skyViewWR, res);
 
             }
             for( int t = normalVectorWR.getMinY(); t < normalVectorWR.getMinY() + normalVectorWR.getHeight(); t++ ) {
@@ -269,53 +299,89 @@ public class OmsSkyview extends HMModel {
         return skyviewFactorWR;
     }
 
+    /**
+     * Calculate the skyview factor from the horizons of the cells.
+     * 
+     * <p>For every azimuth the sky angle is the lowest elevation step above the
+     * horizon that lights the cell. Differently from the sweep of the sky, in which
+     * only the cells facing the sun of the step cast shadows, the horizon is made
+     * by all the terrain, so on rugged terrain the factors are lower.</p>
+     * 
+     * @param horizons the horizons of the cells.
+     * @param pitWR the dem.
+     * @return the map of sky view factor.
+     */
+    private WritableRaster skyviewfactor( HorizonAngles horizons, WritableRaster pitWR ) {
+        int maxElevation = (int) maxSlope;
+        double maxSkyAngle = Math.toRadians(maxSlope);
+        double[] skyviewFactor = new double[cols * rows];
+        pm.beginTask(msg.message("skyview.calculating"), rows);
+        IntStream.range(0, rows).parallel().forEach(y -> {
+            for( int x = 0; x < cols; x++ ) {
+                int n = 3 * (y * cols + x);
+                double sum = 0;
+                for( int i = 0; i < 360 - 10; i = i + 10 ) {
+                    double azimuthRad = Math.toRadians(i * 1.0);
+                    double horizon = horizons.getHorizon(x, y, i);
+                    double skyAngle = maxSkyAngle;
+                    for( int j = Math.max(0, (int) Math.floor(horizon) + 1); j <= maxElevation; j++ ) {
+                        double elevationRad = Math.toRadians(j * 1.0);
+                        double cosinc = sin(azimuthRad) * cos(elevationRad) * normalVectors[n]
+                                - cos(azimuthRad) * cos(elevationRad) * normalVectors[n + 1]
+                                + sin(elevationRad) * normalVectors[n + 2];
+                        if (cosinc >= 0) {
+                            skyAngle = elevationRad;
+                            break;
+                        }
+                    }
+                    sum = sum + Math.cos(skyAngle) * Math.cos(skyAngle) * 10.0 / 360.0;
+                }
+                skyviewFactor[y * cols + x] = sum;
+            }
+            synchronized (pm) {
+                pm.worked(1);
+            }
+        });
+        pm.done();
+        WritableRaster skyviewFactorWR = CoverageUtilities.createWritableRaster(cols, rows, null, pitWR.getSampleModel(),
+                0.0);
+        skyviewFactorWR.setSamples(0, 0, cols, rows, 0, skyviewFactor);
+        return skyviewFactorWR;
+    }
+
     /**
      * Calculate the angle.
      * 
      * @param x the x index.
      * @param y the y index.
      * @param tmpWR the sky map.
-     * @param pitWR the elevation map.
+     * @param caster the ray caster of the elevation map.
      * @param res the resolution of the map.
      * @param normalSunVector
      * @param inverseSunVector
      * @param sunVector
      */
-    protected WritableRaster shadow( int x, int y, WritableRaster tmpWR, WritableRaster pitWR, double res,
+    protected WritableRaster shadow( int x, int y, WritableRaster tmpWR, GridRayCaster caster, double res,
             double[] normalSunVector, double[] inverseSunVector, double[] sunVector ) {
-        int n = 0;
-        double zcompare = -Double.MAX_VALUE;
-        double dx = (inverseSunVector[0] * n);
-        double dy = (inverseSunVector[1] * n);
-        int nCols = tmpWR.getWidth();
-        int nRows = tmpWR.getHeight();
-        int idx = (int) (x + dx);
-        int jdy = (int) (y + dy);
-        double vectorToOrigin[] = new double[3];
-        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
-            vectorToOrigin[0] = dx * res;
-            vectorToOrigin[1] = dy * res;
-            vectorToOrigin[2] = pitWR.getSampleDouble(idx, jdy, 0);
-            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
-            double nGrad[] = normalVectorWR.getPixel(idx, jdy, new double[3]);
-            double cosinc = scalarProduct(sunVector, nGrad);
-            double elevRad = elevation;
-            if ((cosinc >= 0) && (zprojection > zcompare)) {
+        double[] zcompare = {-Double.MAX_VALUE};
+        double elevRad = elevation;
+        caster.walk(x, y, inverseSunVector[0], inverseSunVector[1], ( idx, jdy, dx, dy, elev ) -> {
+            double zprojection = dx * res * normalSunVector[0] + dy * res * normalSunVector[1] + elev * normalSunVector[2];
+            int n = 3 * (jdy * cols + idx);
+            double cosinc = sunVector[0] * normalVectors[n] + sunVector[1] * normalVectors[n + 1]
+                    + sunVector[2] * normalVectors[n + 2];
+            if ((cosinc >= 0) && (zprojection > zcompare[0])) {
                 tmpWR.setSample(idx, jdy, 0, elevRad);
-                zcompare = zprojection;
+                zcompare[0] = zprojection;
             }
-            n = n + 1;
-            dy = (inverseSunVector[1] * n);
-            dx = (inverseSunVector[0] * n);
-            idx = (int) Math.round(x + dx);
-            jdy = (int) Math.round(y + dy);
-        }
+            return true;
+        });
         return tmpWR;
 
     }
 
     protected void calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector, double[] normalSunVector,
-            WritableRaster demWR, WritableRaster skyViewWR, double dx ) {
+            GridRayCaster caster, WritableRaster skyViewWR, double dx ) {
 
         double casx = 1e6 * sunVector[0];
         double casy = 1e6 * sunVector[1];
@@ -336,11 +402,11 @@ public class OmsSkyview extends HMModel {
 
         int j = f_j;
         for( int i = 0; i < skyViewWR.getWidth(); i++ ) {
-            shadow(i, j, skyViewWR, demWR, dx, normalSunVector, inverseSunVector, sunVector);
+            shadow(i, j, skyViewWR, caster, dx, normalSunVector, inverseSunVector, sunVector);
         }
         int i = f_i;
         for( int k = 0; k < skyViewWR.getHeight(); k++ ) {
-            shadow(i, k, skyViewWR, demWR, dx, normalSunVector, inverseSunVector, sunVector);
+            shadow(i, k, skyViewWR, caster, dx, normalSunVector, inverseSunVector, sunVector);
         }
 
     }
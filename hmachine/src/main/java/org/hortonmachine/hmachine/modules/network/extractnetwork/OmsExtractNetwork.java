@@ -182,7 +182,6 @@ public class OmsExtractNetwork extends GridMultiProcessing {
                         netIter.setSample(c, r, 0, NETVALUE);
                     }
                 }
-                pm.worked(1);
             });
             pm.done();
             return netWR;
@@ -246,7 +245,6 @@ public class OmsExtractNetwork extends GridMultiProcessing {
                 } else {
                     netRandomIter.setSample(c, r, 0, shortNovalue);
                 }
-                pm.worked(1);
             });
             pm.done();
             return networkWR;
@@ -311,7 +309,6 @@ public class OmsExtractNetwork extends GridMultiProcessing {
                         }
                     }
                 }
-                pm.worked(1);
             });
             pm.done();
             return netImage;
@@ -21,12 +21,7 @@ package org.hortonmachine.hmachine.modules.statistics.kriging;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Set;
-
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridGeometry2D;
@@ -35,21 +30,19 @@ import org.geotools.geometry.DirectPosition2D;
 import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.math.matrixes.ColumnVector;
 import org.hortonmachine.gears.utils.math.regressions.PolyTrendLine;
 import org.hortonmachine.gears.utils.math.regressions.RegressionLine;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
-import org.hortonmachine.hmachine.modules.statistics.kriging.utils.SimpleLinearSystemSolverFactory;
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.KrigingSystems;
 import org.hortonmachine.hmachine.modules.statistics.kriging.utils.StationsSelection;
 import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.ITheoreticalVariogram;
-import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.TheoreticalVariogram;
-import org.locationtech.jts.geom.Coordinate;
 import org.opengis.geometry.DirectPosition;
-import org.opengis.geometry.MismatchedDimensionException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 
 import oms3.annotations.Author;
@@ -157,11 +150,13 @@ public class OmsKrigingRasterMode extends HMModel {
 
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
-    /** The id of the cosidered station */
-    int id;
-
     private WritableRaster outWR;
 
+    /**
+     * The factorized systems, kept between the time steps.
+     */
+    private KrigingSystems krigingSystems;
+
     public GridGeometry2D inInterpolationGrid;
     WritableRaster demWR;
 
@@ -169,10 +164,13 @@ public class OmsKrigingRasterMode extends HMModel {
      * Executing ordinary kriging.
      * <p>
      * <li>Verify if the parameters are correct.
-     * <li>Calculating the matrix of the covariance (a).
+     * <li>Calculating the matrix of the covariance (a), once for every set of stations.
      * <li>For each point to interpolated, evalutate the know term vector (b)
      * and solve the system (a x)=b where x is the weight.
      * </p>
+     * <p>
+     * The points are interpolated in parallel, in blocks of rows.
+     * </p>
      *
      * @throws Exception the exception
      */
@@ -186,206 +184,158 @@ public class OmsKrigingRasterMode extends HMModel {
 
         demWR = mapsTransform(inGridCoverage2D);
 
-        LinkedHashMap<Integer, Coordinate> pointsToInterpolateId2Coordinates = null;
-
-        pointsToInterpolateId2Coordinates = getCoordinate(inInterpolationGrid);
-
-        Set<Integer> pointsToInterpolateIdSet = pointsToInterpolateId2Coordinates.keySet();
-        Iterator<Integer> idIterator = pointsToInterpolateIdSet.iterator();
+        /**
+         * StationsSelection is an external class that allows the 
+         * selection of the stations involved in the study.
+         * It is possible to define if to include stations with zero values,
+         * station in a define neighborhood or within a max distance from 
+         * the considered point.
+         * The stations are read once, the neighborhood is then selected
+         * for every point.
+         */
+        StationsSelection stations = new StationsSelection();
+        stations.inStations = inStations;
+        stations.inData = inData;
+        stations.doIncludezero = doIncludezero;
+        stations.maxdist = maxdist;
+        stations.inNumCloserStations = inNumCloserStations;
+        stations.fStationsid = fStationsid;
+        stations.fStationsZ = fStationsZ;
+        stations.readStations();
+
+        if (krigingSystems == null || !krigingSystems.isFor(pSemivariogramType, nugget, range, sill, linearSystemSolverType)) {
+            krigingSystems = new KrigingSystems(pSemivariogramType, nugget, range, sill, linearSystemSolverType);
+        }
 
-        int j = 0;
+        RegionMap regionMap = CoverageUtilities.gridGeometry2RegionParamsMap(inInterpolationGrid);
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        double south = regionMap.getSouth();
+        double west = regionMap.getWest();
+        double xres = regionMap.getXres();
+        double yres = regionMap.getYres();
 
-        double[] result = new double[pointsToInterpolateId2Coordinates.size()];
-        int[] idArray = new int[pointsToInterpolateId2Coordinates.size()];
+        outWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
 
-        final DirectPosition gridPoint = new DirectPosition2D();
         MathTransform transf = inInterpolationGrid.getCRSToGrid2D();
-
-        while( idIterator.hasNext() ) {
-
-            double sum = 0.;
-            id = idIterator.next();
-            idArray[j] = id;
-
-            Coordinate coordinate = (Coordinate) pointsToInterpolateId2Coordinates.get(id);
-
-            DirectPosition point = new DirectPosition2D(inInterpolationGrid.getCoordinateReferenceSystem(), coordinate.x,
-                    coordinate.y);
-            transf.transform(point, gridPoint);
-
-            double[] gridCoord = gridPoint.getCoordinate();
-            int x = (int) gridCoord[0];
-            int y = (int) gridCoord[1];
-
-            /**
-             * StationsSelection is an external class that allows the 
-             * selection of the stations involved in the study.
-             * It is possible to define if to include stations with zero values,
-             * station in a define neighborhood or within a max distance from 
-             * the considered point.
-             */
-
-            StationsSelection stations = new StationsSelection();
-
-            stations.idx = coordinate.x;
-            stations.idy = coordinate.y;
-            stations.inStations = inStations;
-            stations.inData = inData;
-            stations.doIncludezero = doIncludezero;
-            stations.maxdist = maxdist;
-            stations.inNumCloserStations = inNumCloserStations;
-            stations.fStationsid = fStationsid;
-            stations.fStationsZ = fStationsZ;
-
-            stations.execute();
-
-            double[] xStations = stations.xStationInitialSet;
-            double[] yStations = stations.yStationInitialSet;
-            double[] zStations = stations.zStationInitialSet;
-            double[] hStations = stations.hStationInitialSet;
-            boolean areAllEquals = stations.areAllEquals;
-            int n1 = xStations.length - 1;
-
-            xStations[n1] = coordinate.x;
-            yStations[n1] = coordinate.y;
-            zStations[n1] = demWR.getSample(x, y, 0);
-
-            double[] hresiduals = hStations;
-
-            if (doDetrended == true) {
-                if (zStations[n1] < 0) {
-                    doDetrended = false;
-                } else {
-                    doDetrended = true;
+        CoordinateReferenceSystem crs = inInterpolationGrid.getCoordinateReferenceSystem();
+
+        AtomicBoolean noValueWarned = new AtomicBoolean();
+        AtomicBoolean equalsValueWarned = new AtomicBoolean();
+
+        // whole rows in every block, since every row of points goes to a row of the output
+        GridBlockScheduler scheduler = GridBlockScheduler.parallel();
+        int blockRows = Math.max(1, rows / (GridBlockScheduler.defaultPool.getParallelism() * 4));
+        scheduler.setBlockSize(cols, blockRows);
+
+        pm.beginTask(msg.message("kriging.working"), cols * rows);
+        scheduler.process(cols, rows, 0, 0, cols, rows, pm, true, block -> {
+            final DirectPosition gridPoint = new DirectPosition2D();
+            for( int j = block.minRow; j < block.maxRow; j++ ) {
+                for( int i = block.minCol; i < block.maxCol; i++ ) {
+                    double xPoint = west + i * xres;
+                    double yPoint = south + j * yres;
+
+                    DirectPosition point = new DirectPosition2D(crs, xPoint, yPoint);
+                    transf.transform(point, gridPoint);
+
+                    double[] gridCoord = gridPoint.getCoordinate();
+                    int x = (int) gridCoord[0];
+                    int y = (int) gridCoord[1];
+
+                    StationsSelection pointStations = stations.selectAround(xPoint, yPoint);
+                    double value = interpolate(pointStations, krigingSystems, xPoint, yPoint, demWR.getSample(x, y, 0),
+                            noValueWarned, equalsValueWarned);
+                    outWR.setSample(x, y, 0, value);
                 }
             }
+        });
+        pm.done();
 
-            if (doDetrended) {
-                
-                
-                RegressionLine t = new PolyTrendLine(regressionOrder);
-                t.setValues(zStations, hStations);
-
-                double[] regressionParameters = t.getRegressionParameters();
-                trend_intercept = regressionParameters[0];
-                trend_coefficient = regressionParameters[1];
-                hresiduals = t.getResiduals();
-                
-
-//                Regression r = new Regression();
-//
-//                r = new Regression(zStations, hStations);
-//                r.polynomial(regressionOrder);
-//
-//                /*If there is a trend for meteorological
-//                 * variables and elevation and it is statistically significant 
-//                 * then the residuals from this linear trend
-//                 * are computed for each meteorological stations.
-//                 */
-//                // if (Math.abs(r.getXYcorrCoeff()) > thresholdCorrelation) {
-//
-//                trend_intercept = r.getBestEstimates()[0];
-//                trend_coefficient = r.getBestEstimates()[1];
-//                hresiduals = r.getResiduals();
-//
-//                // } else {
-//                // System.out.println("The trend is not significant");
-//                // doDetrended=false;
-//                // hresiduals=hStations;
-//
-//                // }
-
-            }
-
-            if (n1 != 0) {
-
-                if (!areAllEquals && n1 > 1) {
-                    pm.beginTask(msg.message("kriging.working"), pointsToInterpolateId2Coordinates.size());
-
-                    double h0 = 0.0;
-
-                    /*
-                     * calculating the covariance matrix.
-                     */
-                    double[][] covarianceMatrix = covMatrixCalculating(xStations, yStations, zStations, n1);
-
-                    double[] knownTerm = knownTermsCalculation(xStations, yStations, zStations, n1);
-
-                    /*
-                     * solve the linear system, where the result is the weight (moltiplicativeFactor).
-                     */
-                    ColumnVector solution = SimpleLinearSystemSolverFactory.solve(knownTerm, covarianceMatrix,
-                            linearSystemSolverType);
-
-                    double[] moltiplicativeFactor = solution.copyValues1D();
-
-                    for( int k = 0; k < n1; k++ ) {
-                        h0 = h0 + moltiplicativeFactor[k] * hresiduals[k];
-
-                        // sum is computed to check that
-                        // the sum of all the weights is 1
-                        sum = sum + moltiplicativeFactor[k];
-
-                    }
-
-                    double trend = (doDetrended) ? zStations[n1] * trend_coefficient + trend_intercept : 0;
-
-                    h0 = h0 + trend;
-                    // System.out.println(doDetrended);
-                    // System.out.println("prova");
-
-                    if (zStations[n1] < 0) {
-                        result[j] = HMConstants.doubleNovalue;
-                    } else {
-                        result[j] = h0;
-                    }
-
-                    j++;
-
-                    if (Math.abs(sum - 1) >= TOLL) {
-                        throw new ModelsRuntimeException("Error in the coffeicients calculation",
-                                this.getClass().getSimpleName());
-                    }
-                    pm.worked(1);
-                } else if (n1 == 1 || areAllEquals) {
-
-                    double tmp = hresiduals[0];
-                    pm.message(msg.message("kriging.setequalsvalue"));
-                    pm.beginTask(msg.message("kriging.working"), pointsToInterpolateId2Coordinates.size());
-
-                    if (zStations[n1] < 0) {
-                        result[j] = HMConstants.doubleNovalue;
-                    } else {
-                        result[j] = tmp;
-                    }
-
-                    j++;
-                    n1 = 0;
-                    pm.worked(1);
-
-                }
+        outGrid = CoverageUtilities.buildCoverage("gridded", outWR, regionMap, crs);
+    }
 
-                pm.done();
+    /**
+     * Interpolate a point.
+     *
+     * @param stations the stations selected for the point.
+     * @param krigingSystems the factorized systems of the stations.
+     * @param xPoint the x coordinate of the point.
+     * @param yPoint the y coordinate of the point.
+     * @param zPoint the elevation of the point.
+     * @param noValueWarned the flag of the no value warning, given once.
+     * @param equalsValueWarned the flag of the equal values message, given once.
+     * @return the interpolated value.
+     * @throws Exception the exception
+     */
+    private double interpolate( StationsSelection stations, KrigingSystems krigingSystems, double xPoint, double yPoint,
+            double zPoint, AtomicBoolean noValueWarned, AtomicBoolean equalsValueWarned ) throws Exception {
+        if (zPoint < 0) {
+            return HMConstants.doubleNovalue;
+        }
 
-            } else {
+        double[] xStations = stations.xStationInitialSet;
+        double[] yStations = stations.yStationInitialSet;
+        double[] zStations = stations.zStationInitialSet;
+        double[] hStations = stations.hStationInitialSet;
+        int[] idStations = stations.idStationInitialSet;
+        boolean areAllEquals = stations.areAllEquals;
+        int n1 = xStations.length - 1;
+
+        xStations[n1] = xPoint;
+        yStations[n1] = yPoint;
+        zStations[n1] = zPoint;
+
+        double[] hresiduals = hStations;
+        double trend = 0;
+
+        if (doDetrended) {
+            RegressionLine t = new PolyTrendLine(regressionOrder);
+            t.setValues(zStations, hStations);
+
+            double[] regressionParameters = t.getRegressionParameters();
+            double intercept = regressionParameters[0];
+            double coefficient = regressionParameters[1];
+            hresiduals = t.getResiduals();
+            trend = zPoint * coefficient + intercept;
+        }
 
+        if (n1 == 0) {
+            if (!noValueWarned.getAndSet(true)) {
                 pm.errorMessage("No value for this time step");
-                j = 0;
-                double[] value = inData.values().iterator().next();
+            }
+            double[] value = inData.values().iterator().next();
+            return value[0];
+        }
 
-                if (zStations[n1] < 0) {
-                    result[j] = HMConstants.doubleNovalue;
-                } else {
-                    result[j] = value[0];
-                }
+        if (n1 == 1 || areAllEquals) {
+            if (!equalsValueWarned.getAndSet(true)) {
+                pm.message(msg.message("kriging.setequalsvalue"));
+            }
+            return hresiduals[0];
+        }
 
-                j++;
+        /*
+         * solve the linear system, where the result is the weight (moltiplicativeFactor).
+         */
+        double[] moltiplicativeFactor = krigingSystems.weights(idStations, xStations, yStations, zStations, n1, xPoint,
+                yPoint, zPoint);
 
-            }
+        double h0 = 0.0;
+        double sum = 0.0;
+        for( int k = 0; k < n1; k++ ) {
+            h0 = h0 + moltiplicativeFactor[k] * hresiduals[k];
 
+            // sum is computed to check that
+            // the sum of all the weights is 1
+            sum = sum + moltiplicativeFactor[k];
         }
 
-        storeResult(result, pointsToInterpolateId2Coordinates);
+        if (Math.abs(sum - 1) >= TOLL) {
+            throw new ModelsRuntimeException("Error in the coffeicients calculation", this.getClass().getSimpleName());
+        }
+
+        return h0 + trend;
     }
 
     /**
@@ -415,42 +365,6 @@ public class OmsKrigingRasterMode extends HMModel {
         return (double) tmp / factor;
     }
 
-    /**
-     * Gets the coordinate of each pixel of the given map.
-     *
-     * @param grid is the map
-     * @return the coordinate of each point
-     */
-    private LinkedHashMap<Integer, Coordinate> getCoordinate( GridGeometry2D grid ) {
-        LinkedHashMap<Integer, Coordinate> out = new LinkedHashMap<Integer, Coordinate>();
-        int count = 0;
-        RegionMap regionMap = CoverageUtilities.gridGeometry2RegionParamsMap(grid);
-        int cols = regionMap.getCols();
-        int rows = regionMap.getRows();
-        double south = regionMap.getSouth();
-        double west = regionMap.getWest();
-        double xres = regionMap.getXres();
-        double yres = regionMap.getYres();
-
-        outWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
-
-        double northing = south;
-        double easting = west;
-        for( int i = 0; i < cols; i++ ) {
-            easting = easting + xres;
-            for( int j = 0; j < rows; j++ ) {
-                northing = northing + yres;
-                Coordinate coordinate = new Coordinate();
-                coordinate.x = west + i * xres;
-                coordinate.y = south + j * yres;
-                out.put(count, coordinate);
-                count++;
-            }
-        }
-
-        return out;
-    }
-
     /**
      * Maps reader transform the GrifCoverage2D in to the writable raster and
      * replace the -9999.0 value with no value.
@@ -465,128 +379,4 @@ public class OmsKrigingRasterMode extends HMModel {
         return inValuesWR;
     }
 
-    /**
-     * Covariance matrix calculation.
-     *
-     * @param x the x coordinates.
-     * @param y the y coordinates.
-     * @param z the z coordinates.
-     * @param n the number of the stations points.
-     * @return the double[][] matrix with the covariance
-     */
-    private double[][] covMatrixCalculating( double[] x, double[] y, double[] z, int n ) {
-
-        double[][] covarianceMatrix = new double[n + 1][n + 1];
-
-        for( int j = 0; j < n; j++ ) {
-            for( int i = 0; i < n; i++ ) {
-                double rx = x[i] - x[j];
-                double ry = y[i] - y[j];
-                double rz = z[i] - z[j];
-
-                covarianceMatrix[j][i] = variogram(nugget, range, sill, rx, ry, rz);
-                covarianceMatrix[i][j] = variogram(nugget, range, sill, rx, ry, rz);
-
-            }
-        }
-
-        for( int i = 0; i < n; i++ ) {
-            covarianceMatrix[i][n] = 1.0;
-            covarianceMatrix[n][i] = 1.0;
-
-        }
-        covarianceMatrix[n][n] = 0;
-        return covarianceMatrix;
-
-    }
-
-    /**
-     * Known terms calculation.
-     *
-     * @param x the x coordinates.
-     * @param y the y coordinates.
-     * @param z the z coordinates.
-     * @param n the number of the stations points.
-     * @return the double[] vector of the known terms
-     */
-    private double[] knownTermsCalculation( double[] x, double[] y, double[] z, int n ) {
-
-        // known terms vector
-        double[] gamma = new double[n + 1];
-
-        for( int i = 0; i < n; i++ ) {
-            double rx = x[i] - x[n];
-            double ry = y[i] - y[n];
-            double rz = z[i] - z[n];
-            gamma[i] = variogram(nugget, range, sill, rx, ry, rz);
-        }
-
-        gamma[n] = 1.0;
-        return gamma;
-
-    }
-
-    /**
-     * Variogram.
-     *
-     * @param nug is the nugget
-     * @param range is the range
-     * @param sill is the sill
-     * @param rx is the x distance
-     * @param ry is the y distance
-     * @param rz is the z distance
-     * @return the double value of the variance
-     */
-    private double variogram( double nug, double range, double sill, double rx, double ry, double rz ) {
-        if (HMConstants.isNovalue(rz)) {
-            rz = 0;
-        }
-        double h2 = Math.sqrt(rx * rx + rz * rz + ry * ry);
-        double vgmResult;
-
-        if (h2 != 0) {
-            TheoreticalVariogram vgm = new TheoreticalVariogram();
-            vgmResult = vgm.calculateVGM(pSemivariogramType, h2, sill, range, nug);
-        } else {
-            vgmResult = 0;
-        }
-        return vgmResult;
-    }
-
-    private void storeResult( double[] interpolatedValues, HashMap<Integer, Coordinate> interpolatedCoordinatesMap )
-            throws MismatchedDimensionException, Exception {
-
-        WritableRandomIter outIter = RandomIterFactory.createWritable(outWR, null);
-
-        Set<Integer> pointsToInterpolateIdSett = interpolatedCoordinatesMap.keySet();
-        Iterator<Integer> idIterator = pointsToInterpolateIdSett.iterator();
-        int c = 0;
-        MathTransform transf = inInterpolationGrid.getCRSToGrid2D();
-
-        final DirectPosition gridPoint = new DirectPosition2D();
-
-        while( idIterator.hasNext() ) {
-            int id = idIterator.next();
-            Coordinate coordinate = (Coordinate) interpolatedCoordinatesMap.get(id);
-
-            DirectPosition point = new DirectPosition2D(inInterpolationGrid.getCoordinateReferenceSystem(), coordinate.x,
-                    coordinate.y);
-            transf.transform(point, gridPoint);
-
-            double[] gridCoord = gridPoint.getCoordinate();
-            int x = (int) gridCoord[0];
-            int y = (int) gridCoord[1];
-
-            outIter.setSample(x, y, 0, interpolatedValues[c]);
-            c++;
-
-        }
-
-        RegionMap regionMap = CoverageUtilities.gridGeometry2RegionParamsMap(inInterpolationGrid);
-
-        outGrid = CoverageUtilities.buildCoverage("gridded", outWR, regionMap,
-                inInterpolationGrid.getCoordinateReferenceSystem());
-
-    }
-
 }
@@ -0,0 +1,256 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.statistics.kriging.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.math.matrixes.ColumnVector;
+import org.hortonmachine.gears.utils.math.matrixes.LinearSystem;
+import org.hortonmachine.gears.utils.math.matrixes.MatrixException;
+import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.ITheoreticalVariogram;
+
+/**
+ * The ordinary kriging systems of the sets of stations used in an interpolation.
+ *
+ * <p>The covariance matrix of a set of stations is the same for every point interpolated
+ * with it, so it is built and factorized once and kept by the ids of the stations. For every
+ * point only the known terms are calculated and the factorized system is solved by substitution.</p>
+ *
+ * <p>The weights can be calculated from several threads.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class KrigingSystems {
+
+    /**
+     * The max number of station sets kept.
+     * <p/>
+     * Set this to change the default.
+     */
+    public static int DEFAULT_CACHE_SIZE = 1000;
+
+    private final String semivariogramType;
+    private final double nugget;
+    private final double range;
+    private final double sill;
+    private final String linearSystemSolverType;
+
+    private final Map<StationsKey, FactorizedSystem> systems;
+    private final AtomicInteger factorizedCount = new AtomicInteger();
+
+    /**
+     * @param semivariogramType the type of theoretical semivariogram.
+     * @param nugget the nugget.
+     * @param range the range.
+     * @param sill the sill.
+     * @param linearSystemSolverType the type of linear system solver.
+     */
+    public KrigingSystems( String semivariogramType, double nugget, double range, double sill, String linearSystemSolverType ) {
+        this.semivariogramType = semivariogramType;
+        this.nugget = nugget;
+        this.range = range;
+        this.sill = sill;
+        this.linearSystemSolverType = linearSystemSolverType;
+        final int cacheSize = DEFAULT_CACHE_SIZE;
+        systems = new LinkedHashMap<StationsKey, FactorizedSystem>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<StationsKey, FactorizedSystem> eldest ) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Calculate the kriging weights of the stations for a point.
+     *
+     * @param ids the ids of the stations.
+     * @param x the x coordinates of the stations.
+     * @param y the y coordinates of the stations.
+     * @param z the z coordinates of the stations.
+     * @param n the number of stations, taken from the start of the arrays.
+     * @param xPoint the x coordinate of the point.
+     * @param yPoint the y coordinate of the point.
+     * @param zPoint the z coordinate of the point.
+     * @return the weights of the stations, in the order of the arrays.
+     * @throws MatrixException if the system of the stations is singular.
+     */
+    public double[] weights( int[] ids, double[] x, double[] y, double[] z, int n, double xPoint, double yPoint,
+            double zPoint ) throws MatrixException {
+        // the stations are sorted by id, so that the same set always gives the same system
+        int[] order = new int[n];
+        for( int i = 0; i < n; i++ ) {
+            int position = i;
+            while( position > 0 && ids[order[position - 1]] > ids[i] ) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = i;
+        }
+        int[] sortedIds = new int[n];
+        for( int k = 0; k < n; k++ ) {
+            sortedIds[k] = ids[order[k]];
+        }
+
+        StationsKey key = new StationsKey(sortedIds);
+        FactorizedSystem system;
+        synchronized (systems) {
+            system = systems.get(key);
+        }
+        // the systems are kept between runs, stations moved since then are factorized again
+        if (system == null || !system.isAt(order, x, y, z)) {
+            system = factorize(order, x, y, z);
+            synchronized (systems) {
+                systems.put(key, system);
+            }
+        }
+
+        ITheoreticalVariogram model = ITheoreticalVariogram.create(semivariogramType);
+        double[] knownTerm = new double[n + 1];
+        for( int k = 0; k < n; k++ ) {
+            knownTerm[k] = variogram(model, system.x[k] - xPoint, system.y[k] - yPoint, system.z[k] - zPoint);
+        }
+        knownTerm[n] = 1.0;
+
+        double[] sortedWeights = system.system.solve(new ColumnVector(knownTerm), true).copyValues1D();
+        double[] weights = new double[n];
+        for( int k = 0; k < n; k++ ) {
+            weights[order[k]] = sortedWeights[k];
+        }
+        return weights;
+    }
+
+    /**
+     * Check if the systems are built with the given parameters.
+     *
+     * @param semivariogramType the type of theoretical semivariogram.
+     * @param nugget the nugget.
+     * @param range the range.
+     * @param sill the sill.
+     * @param linearSystemSolverType the type of linear system solver.
+     * @return <code>true</code> if the kept systems can be used with the parameters.
+     */
+    public boolean isFor( String semivariogramType, double nugget, double range, double sill, String linearSystemSolverType ) {
+        return Objects.equals(this.semivariogramType, semivariogramType) && Double.compare(this.nugget, nugget) == 0
+                && Double.compare(this.range, range) == 0 && Double.compare(this.sill, sill) == 0
+                && Objects.equals(this.linearSystemSolverType, linearSystemSolverType);
+    }
+
+    /**
+     * @return the number of station sets factorized so far.
+     */
+    public int getFactorizedCount() {
+        return factorizedCount.get();
+    }
+
+    private FactorizedSystem factorize( int[] order, double[] x, double[] y, double[] z ) throws MatrixException {
+        int n = order.length;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double[] zs = new double[n];
+        for( int k = 0; k < n; k++ ) {
+            xs[k] = x[order[k]];
+            ys[k] = y[order[k]];
+            zs[k] = z[order[k]];
+        }
+
+        ITheoreticalVariogram model = ITheoreticalVariogram.create(semivariogramType);
+        double[][] covarianceMatrix = new double[n + 1][n + 1];
+        for( int j = 0; j < n; j++ ) {
+            for( int i = 0; i < n; i++ ) {
+                covarianceMatrix[j][i] = variogram(model, xs[i] - xs[j], ys[i] - ys[j], zs[i] - zs[j]);
+            }
+        }
+        for( int i = 0; i < n; i++ ) {
+            covarianceMatrix[i][n] = 1.0;
+            covarianceMatrix[n][i] = 1.0;
+        }
+        covarianceMatrix[n][n] = 0;
+
+        LinearSystem system = SimpleLinearSystemSolverFactory.factorize(covarianceMatrix, linearSystemSolverType);
+        if (system == null) {
+            throw new ModelsIllegalargumentException("Not a valid linear system solver type: " + linearSystemSolverType, this);
+        }
+        factorizedCount.incrementAndGet();
+        return new FactorizedSystem(system, xs, ys, zs);
+    }
+
+    private double variogram( ITheoreticalVariogram model, double rx, double ry, double rz ) {
+        if (HMConstants.isNovalue(rz)) {
+            rz = 0;
+        }
+        double h2 = Math.sqrt(rx * rx + rz * rz + ry * ry);
+        if (h2 != 0) {
+            model.init(h2, sill, range, nugget);
+            return model.computeSemivariance();
+        }
+        return 0;
+    }
+
+    private static class FactorizedSystem {
+        final LinearSystem system;
+        final double[] x;
+        final double[] y;
+        final double[] z;
+
+        FactorizedSystem( LinearSystem system, double[] x, double[] y, double[] z ) {
+            this.system = system;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        boolean isAt( int[] order, double[] x, double[] y, double[] z ) {
+            for( int k = 0; k < order.length; k++ ) {
+                if (Double.compare(this.x[k], x[order[k]]) != 0 || Double.compare(this.y[k], y[order[k]]) != 0
+                        || Double.compare(this.z[k], z[order[k]]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class StationsKey {
+        private final int[] ids;
+        private final int hash;
+
+        StationsKey( int[] ids ) {
+            this.ids = ids;
+            hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            return obj instanceof StationsKey && Arrays.equals(ids, ((StationsKey) obj).ids);
+        }
+    }
+
+}
@@ -15,4 +15,23 @@ public class SimpleLinearSystemSolverFactory {
 
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Factorize a system once, to solve it for many known terms.
+     *
+     * @param covarianceMatrix the matrix of the system.
+     * @param type the type of solver.
+     * @return the decomposed system or <code>null</code> if the type is not supported.
+     * @throws MatrixException if the matrix is singular.
+     */
+    public static LinearSystem factorize(double[][] covarianceMatrix, String type) throws MatrixException {
+
+        if (type.equals("default")) {
+            LinearSystem system = new LinearSystem(covarianceMatrix);
+            system.decompose();
+            return system;
+        }
+
+        return null;
+    }
+}
@@ -85,6 +85,52 @@ public class StationsSelection {
      * @throws Exception the exception
      */
     public void execute() throws Exception {
+        readStations();
+        selectNeighbours();
+    }
+
+    /**
+     * Select the stations to use for a point, out of the stations read once
+     * through {@link #readStations()}.
+     * <p>
+     * The arrays of the returned selection are not shared with this one, so that
+     * they can be modified and several points can be selected concurrently.
+     * </p>
+     *
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @return the selection for the point.
+     */
+    public StationsSelection selectAround( double x, double y ) {
+        StationsSelection selection = new StationsSelection();
+        selection.inStations = inStations;
+        selection.inData = inData;
+        selection.doIncludezero = doIncludezero;
+        selection.maxdist = maxdist;
+        selection.inNumCloserStations = inNumCloserStations;
+        selection.fStationsid = fStationsid;
+        selection.fStationsZ = fStationsZ;
+        selection.pm = pm;
+        selection.idOut = idOut;
+        selection.idx = x;
+        selection.idy = y;
+        selection.areAllEquals = areAllEquals;
+        selection.n1 = n1;
+        selection.xStationInitialSet = xStationInitialSet.clone();
+        selection.yStationInitialSet = yStationInitialSet.clone();
+        selection.zStationInitialSet = zStationInitialSet.clone();
+        selection.hStationInitialSet = hStationInitialSet.clone();
+        selection.idStationInitialSet = idStationInitialSet.clone();
+        selection.selectNeighbours();
+        return selection;
+    }
+
+    /**
+     * Read all the stations with valid data, without neighbour selection.
+     *
+     * @throws Exception the exception
+     */
+    public void readStations() throws Exception {
 
         // create the arraylist containing the station with the measurements
         List<Double> xStationList = new ArrayList<Double>();
@@ -205,6 +251,11 @@ public class StationsSelection {
             }
         }
 
+    }
+
+    private void selectNeighbours() {
+        int nStaz = xStationInitialSet.length - 1;
+
         /* in case of kriging with neighbor computes the distances between the
          * point where is going to interpolate and the other stations and it
          * sorts them
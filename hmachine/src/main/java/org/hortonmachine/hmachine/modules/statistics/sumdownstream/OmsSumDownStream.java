@@ -99,6 +99,9 @@ public class OmsSumDownStream extends HMModel {
 
         flowIter.done();
         toSumIter.done();
+        if (pm.isCanceled()) {
+            return;
+        }
 
         HashMap<String, Double> params = CoverageUtilities.getRegionParamsFromGridCoverage(inFlow);
         outSummed = CoverageUtilities.buildCoverage("summeddownstream", summedWR, params, inFlow.getCoordinateReferenceSystem()); //$NON-NLS-1$
@@ -0,0 +1,74 @@
+package org.hortonmachine.hmachine.models.hm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.duffy.DuffyModel;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.hymod.HymodAdigeEngine;
+
+/**
+ * Times the sequential and parallel evaluation of the adige engines on a synthetic
+ * network of 10000 hillslopes.
+ *
+ * <p>Not a unit test, run it through its main method.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class AdigeNetworkBenchmark {
+
+    private static final int HILLSLOPES = 10000;
+    private static final int RUNS = 5;
+
+    public static void main( String[] args ) throws Exception {
+        List<IHillSlope> hillslopes = TestHillSlopeNetwork.createNetwork(HILLSLOPES, 42);
+        List<IHillSlope> duffyHillslopes = TestHillSlopeNetwork.createDuffyNetwork(hillslopes);
+        double[] rain = new double[HILLSLOPES];
+        double[] etp = new double[HILLSLOPES];
+        Random random = new Random(42);
+        for( int i = 0; i < HILLSLOPES; i++ ) {
+            rain[i] = random.nextDouble() * 20;
+            etp[i] = random.nextDouble();
+        }
+
+        for( boolean doParallel : new boolean[]{false, true} ) {
+            DuffyModel duffy = new DuffyModel(duffyHillslopes, DuffyModel.ROUTING_CHEZY, new DummyProgressMonitor(), false);
+            duffy.setParallel(doParallel);
+            double[] initialConditions = TestHillSlopeNetwork.initialConditions(duffyHillslopes);
+            for( int run = 0; run < RUNS; run++ ) {
+                // as many evaluations as in 100 runge kutta steps
+                long start = System.nanoTime();
+                for( int i = 0; i < 600; i++ ) {
+                    duffy.eval(i, initialConditions.clone(), rain, null, false);
+                }
+                long millis = (System.nanoTime() - start) / 1000000;
+                System.out.println("duffy " + (doParallel ? "parallel" : "sequential") + ": 600 evaluations in " + millis
+                        + " ms");
+            }
+
+            HashMap<Integer, Integer> index2Basinid = new HashMap<Integer, Integer>();
+            for( int i = 0; i < HILLSLOPES; i++ ) {
+                index2Basinid.put(i, hillslopes.get(i).getHillslopeId());
+            }
+            HymodAdigeEngine hymod = new HymodAdigeEngine(TestHillSlopeNetwork.hymodInputs(), hillslopes, index2Basinid,
+                    new HashMap<Integer, double[]>(), new HashMap<Integer, double[]>(),
+                    Collections.singletonList(hillslopes.get(0).getPfafstetterNumber().toString()), false, false,
+                    new DummyProgressMonitor());
+            hymod.setParallel(doParallel);
+            for( int run = 0; run < RUNS; run++ ) {
+                double[] conditions = null;
+                long start = System.nanoTime();
+                for( int i = 0; i < 1000; i++ ) {
+                    conditions = hymod.solve(null, 60, 1, conditions, rain, etp);
+                }
+                long millis = (System.nanoTime() - start) / 1000000;
+                System.out.println("hymod " + (doParallel ? "parallel" : "sequential") + ": 1000 timesteps in " + millis
+                        + " ms");
+            }
+        }
+    }
+
+}
@@ -22,13 +22,16 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import java.awt.image.RenderedImage;
 import java.util.HashMap;
 
+import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
 import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.libs.modules.Direction;
 import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.time.EggClock;
 import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsDePitter;
@@ -125,6 +128,166 @@ public class TestDePitter extends HMTestCase {
 //    
 //     }
 
+    public void testPriorityFlood() throws Exception {
+        double[][] elevationData = new double[][]{//
+                {800, 900, 1000, 1000, 1200, 1250, 1300, 1350, 1450, 1500}, //
+                {600, ND, 750, 850, 860, 900, 1000, 1200, 1250, 1500}, //
+                {500, 550, 700, 750, 800, 850, 900, 1000, 1100, 1500}, //
+                {400, 410, 650, 700, 750, 800, 850, 490, 450, 1500}, //
+                {450, 550, 430, 500, 600, 700, 800, 500, 450, 1500}, //
+                {500, 600, 700, 750, 760, 770, 850, 1000, 1150, 1500}, //
+                {600, 700, 750, 800, 780, 790, 1000, 1100, 1250, 1500}, //
+                {800, 910, 980, 1001, 1150, 1200, 1250, 1300, 1450, 1500} //
+        };
+        double[][] expectedPitData = new double[][]{ //
+                {800, 900, 1000, 1000, 1200, 1250, 1300, 1350, 1450, 1500}, //
+                {600, ND, 750, 850, 860, 900, 1000, 1200, 1250, 1500}, //
+                {500, 550, 700, 750, 800, 850, 900, 1000, 1100, 1500}, //
+                {400, 410, 650, 700, 750, 800, 850, 800.000002, 800.000004, 1500}, //
+                {450, 550, 430, 500, 600, 700, 800, 800.000002, 800.000004, 1500}, //
+                {500, 600, 700, 750, 760, 770, 850, 1000, 1150, 1500}, //
+                {600, 700, 750, 800, 780, 790, 1000, 1100, 1250, 1500}, //
+                {800, 910, 980, 1001, 1150, 1200, 1250, 1300, 1450, 1500} //
+        };
+        // same flowdirections as the legacy pitfiller
+        int[][] expectedFlowData = new int[][]{ //
+                {NI, NI, NI, NI, NI, NI, NI, NI, NI, NI}, //
+                {NI, NI, NI, 6, 6, 6, 6, 6, 6, NI}, //
+                {NI, NI, NI, 6, 6, 6, 6, 7, 7, NI}, //
+                {NI, 5, 5, 7, 6, 6, 6, 6, 5, NI}, //
+                {NI, 3, 4, 5, 5, 5, 5, 5, 5, NI}, //
+                {NI, 2, 3, 3, 4, 4, 4, 3, 3, NI}, //
+                {NI, 4, 4, 4, 4, 4, 5, 4, 4, NI}, //
+                {NI, NI, NI, NI, NI, NI, NI, NI, NI, NI} //
+        };
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs,
+                true);
+
+        for( boolean doParallel : new boolean[]{false, true} ) {
+            OmsDePitter pitfiller = new OmsDePitter();
+            pitfiller.inElev = elevationCoverage;
+            pitfiller.doPriorityFlood = true;
+            pitfiller.doParallel = doParallel;
+            pitfiller.pm = pm;
+            pitfiller.process();
+
+            checkMatrixEqualLimit(pitfiller.outPit.getRenderedImage(), expectedPitData, 0.000_000_1);
+            checkMatrixEqual(pitfiller.outFlow.getRenderedImage(), expectedFlowData);
+            checkFlowDrains(pitfiller.outFlow, pitfiller.outPit);
+        }
+    }
+
+    public void testPriorityFloodSmallTiles() throws Exception {
+        // the depression spans several tiles of side 2, 3 and 4
+        double[][] elevationData = new double[][]{//
+                {900, 900, 900, 900, 900, 900, 900, 900, 900, 900}, //
+                {900, 700, 700, 700, 700, 700, 700, 700, 700, 900}, //
+                {900, 700, 500, 520, 540, 560, 580, 600, 700, 900}, //
+                {600, 650, 500, 300, 310, 320, 590, 610, 700, 900}, //
+                {900, 700, 520, 300, 200, 330, 600, 620, 700, 900}, //
+                {900, 700, 540, 310, 330, 340, 610, 630, 700, 900}, //
+                {900, 700, 560, 580, 600, 350, 400, 640, 700, 900}, //
+                {900, 900, 900, 900, 900, 900, 900, 900, 900, 900} //
+        };
+        double[][] expectedPitData = new double[][]{ //
+                {900, 900, 900, 900, 900, 900, 900, 900, 900, 900}, //
+                {900, 700, 700, 700, 700, 700, 700, 700, 700, 900}, //
+                {900, 700, 650.000002, 650.000004, 650.000006, 650.000008, 650.000010, 650.000012, 700, 900}, //
+                {600, 650, 650.000002, 650.000004, 650.000006, 650.000008, 650.000010, 650.000012, 700, 900}, //
+                {900, 700, 650.000002, 650.000004, 650.000006, 650.000008, 650.000010, 650.000012, 700, 900}, //
+                {900, 700, 650.000004, 650.000004, 650.000006, 650.000008, 650.000010, 650.000012, 700, 900}, //
+                {900, 700, 650.000006, 650.000006, 650.000006, 650.000008, 650.000010, 650.000012, 700, 900}, //
+                {900, 900, 900, 900, 900, 900, 900, 900, 900, 900} //
+        };
+        int[][] expectedFlowData = new int[][]{ //
+                {NI, NI, NI, NI, NI, NI, NI, NI, NI, NI}, //
+                {NI, 8, 7, 7, 7, 7, 7, 7, 6, NI}, //
+                {NI, 6, 6, 5, 5, 5, 5, 5, 5, NI}, //
+                {NI, 5, 5, 5, 5, 5, 5, 5, 5, NI}, //
+                {NI, 4, 4, 5, 5, 5, 5, 5, 5, NI}, //
+                {NI, 1, 3, 4, 5, 5, 5, 5, 5, NI}, //
+                {NI, 1, 3, 3, 4, 5, 5, 5, 5, NI}, //
+                {NI, NI, NI, NI, NI, NI, NI, NI, NI, NI} //
+        };
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs,
+                true);
+
+        OmsDePitter untiled = new OmsDePitter();
+        untiled.inElev = elevationCoverage;
+        untiled.doPriorityFlood = true;
+        untiled.doParallel = false;
+        untiled.pm = pm;
+        untiled.process();
+        checkMatrixEqualLimit(untiled.outPit.getRenderedImage(), expectedPitData, 0.000_000_1);
+        checkMatrixEqual(untiled.outFlow.getRenderedImage(), expectedFlowData);
+        checkFlowDrains(untiled.outFlow, untiled.outPit);
+
+        for( int tileSize : new int[]{2, 3, 4} ) {
+            OmsDePitter tiled = new OmsDePitter();
+            tiled.inElev = elevationCoverage;
+            tiled.doPriorityFlood = true;
+            tiled.doParallel = true;
+            tiled.pTileSize = tileSize;
+            tiled.pm = pm;
+            tiled.process();
+
+            checkMatrixEqualLimit(tiled.outPit.getRenderedImage(), expectedPitData, 0.000_000_1);
+            checkSameRaster(untiled.outPit, tiled.outPit);
+            checkSameRaster(untiled.outFlow, tiled.outFlow);
+        }
+    }
+
+    /**
+     * Check that every flowdirection points to a lower cell and that 
+     * no cell away from the borders is left without a flowdirection.
+     */
+    private void checkFlowDrains( GridCoverage2D flow, GridCoverage2D pit ) {
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(flow);
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        RandomIter flowIter = CoverageUtilities.getRandomIterator(flow);
+        RandomIter pitIter = CoverageUtilities.getRandomIterator(pit);
+        for( int r = 1; r < rows - 1; r++ ) {
+            for( int c = 1; c < cols - 1; c++ ) {
+                boolean touchesNovalue = false;
+                for( int dr = -1; dr <= 1; dr++ ) {
+                    for( int dc = -1; dc <= 1; dc++ ) {
+                        touchesNovalue |= isNovalue(pitIter.getSampleDouble(c + dc, r + dr, 0));
+                    }
+                }
+                int flowValue = flowIter.getSample(c, r, 0);
+                if (touchesNovalue) {
+                    assertTrue(c + " " + r, HMConstants.isNovalue(flowValue));
+                    continue;
+                }
+                assertFalse("no flowdirection at " + c + " " + r, HMConstants.isNovalue(flowValue));
+                Direction direction = Direction.forFlow(flowValue);
+                double elev = pitIter.getSampleDouble(c, r, 0);
+                double downElev = pitIter.getSampleDouble(c + direction.col, r + direction.row, 0);
+                assertTrue("flow not draining at " + c + " " + r, downElev < elev);
+            }
+        }
+        flowIter.done();
+        pitIter.done();
+    }
+
+    private void checkSameRaster( GridCoverage2D expected, GridCoverage2D actual ) {
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(expected);
+        RandomIter expectedIter = CoverageUtilities.getRandomIterator(expected);
+        RandomIter actualIter = CoverageUtilities.getRandomIterator(actual);
+        for( int r = 0; r < regionMap.getRows(); r++ ) {
+            for( int c = 0; c < regionMap.getCols(); c++ ) {
+                assertEquals(c + " " + r, expectedIter.getSampleDouble(c, r, 0), actualIter.getSampleDouble(c, r, 0), 0.0);
+            }
+        }
+        expectedIter.done();
+        actualIter.done();
+    }
+
     protected void checkMatrixEqualLimit( RenderedImage image, double[][] matrix, double delta ) {
         RectIter rectIter = RectIterFactory.create(image, null);
         int y = 0;
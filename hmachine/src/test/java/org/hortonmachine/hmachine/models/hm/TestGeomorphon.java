@@ -65,6 +65,16 @@ public class TestGeomorphon extends HMTestCase {
         GridCoverage2D outRaster = g.outRaster;
         // PrintUtilities.printCoverageData(outRaster);
 
+        // the ray caster has to give the same classes as the vector profiles
+        RandomIter elevIter = CoverageUtilities.getRandomIterator(inElev);
+        RandomIter outIter = CoverageUtilities.getRandomIterator(outRaster);
+        GridGeometry2D gridGeometry = inElev.getGridGeometry();
+        for( int r = 0; r < mapData.length; r++ ) {
+            for( int c = 0; c < mapData[0].length; c++ ) {
+                double expected = OmsGeomorphon.calculateGeomorphon(elevIter, gridGeometry, 90, 1, 90 / Math.sqrt(2.0), c, r);
+                assertEquals(expected, outIter.getSampleDouble(c, r, 0), DELTA);
+            }
+        }
     }
 
     public void testLastVisible2() throws Exception {
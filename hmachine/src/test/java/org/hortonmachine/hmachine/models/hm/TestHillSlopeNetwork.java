@@ -0,0 +1,505 @@
+package org.hortonmachine.hmachine.models.hm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeDuffy;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeNetwork;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Hydrometers;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.duffy.DuffyInputs;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.duffy.DuffyModel;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.hymod.HymodAdigeEngine;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.hymod.HymodInputs;
+import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Test {@link HillSlopeNetwork} and the parallel evaluation of the adige engines.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHillSlopeNetwork extends HMTestCase {
+
+    private static final int GOLDEN_SIZE = 10;
+    private static final int GOLDEN_STEPS = 2;
+
+    private IHMProgressMonitor dummyPm = new DummyProgressMonitor();
+
+    public void testUpstreamRows() throws Exception {
+        List<IHillSlope> hillslopes = createNetwork(200, 1);
+        HillSlopeNetwork network = new HillSlopeNetwork(hillslopes);
+
+        assertEquals(200, network.getSize());
+        int[] upstreamStart = network.getUpstreamStart();
+        int[] upstreamIndexes = network.getUpstreamIndexes();
+        assertEquals(199, upstreamStart[200]);
+        for( int i = 0; i < hillslopes.size(); i++ ) {
+            List<IHillSlope> upstream = hillslopes.get(i).getConnectedUpstreamElements();
+            assertEquals(upstream.size(), upstreamStart[i + 1] - upstreamStart[i]);
+            for( int k = 0; k < upstream.size(); k++ ) {
+                int index = upstreamIndexes[upstreamStart[i] + k];
+                assertEquals(hillslopes.indexOf(upstream.get(k)), index);
+                assertTrue(index > i);
+            }
+            assertEquals(hillslopes.get(i).getUpstreamArea(null), network.getUpstreamAreas()[i], 0.0);
+        }
+    }
+
+    public void testDuffyParallel() throws Exception {
+        List<IHillSlope> hillslopes = createDuffyNetwork(createNetwork(2000, 2));
+        int n = hillslopes.size();
+
+        DuffyModel sequential = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY, dummyPm, false);
+        DuffyModel parallel = new DuffyModel(hillslopes, DuffyModel.ROUTING_CHEZY, dummyPm, false);
+        parallel.setParallel(true);
+        Hydrometers hydrometers = createHydrometers(hillslopes);
+        sequential.addDischargeContributor(hydrometers);
+        parallel.addDischargeContributor(hydrometers);
+
+        double[] rain = new double[n];
+        double[] input = initialConditions(hillslopes);
+        Random random = new Random(3);
+        for( int step = 0; step < 10; step++ ) {
+            for( int i = 0; i < n; i++ ) {
+                rain[i] = random.nextDouble() * 20;
+            }
+            double[] sequentialInput = input.clone();
+            double[] parallelInput = input.clone();
+            double[] sequentialOutput = sequential.eval(step, sequentialInput, rain, null, step == 9);
+            double[] parallelOutput = parallel.eval(step, parallelInput, rain, null, step == 9);
+            for( int i = 0; i < input.length; i++ ) {
+                assertEquals(sequentialInput[i], parallelInput[i], 0.0);
+                assertEquals(sequentialOutput[i], parallelOutput[i], 0.0);
+                input[i] = Math.max(0, sequentialInput[i] + 0.1 * sequentialOutput[i]);
+            }
+        }
+    }
+
+    public void testHymodParallel() throws Exception {
+        List<IHillSlope> hillslopes = createNetwork(2000, 4);
+        int n = hillslopes.size();
+        List<String> monitored = new ArrayList<String>();
+        HashMap<Integer, Integer> index2Basinid = new HashMap<Integer, Integer>();
+        for( int i = 0; i < n; i++ ) {
+            index2Basinid.put(i, hillslopes.get(i).getHillslopeId());
+            if (i % 50 == 0) {
+                monitored.add(hillslopes.get(i).getPfafstetterNumber().toString());
+            }
+        }
+
+        HymodAdigeEngine sequential = new HymodAdigeEngine(hymodInputs(), hillslopes, index2Basinid,
+                new HashMap<Integer, double[]>(), new HashMap<Integer, double[]>(), monitored, false, false, dummyPm);
+        HymodAdigeEngine parallel = new HymodAdigeEngine(hymodInputs(), hillslopes, index2Basinid,
+                new HashMap<Integer, double[]>(), new HashMap<Integer, double[]>(), monitored, false, false, dummyPm);
+        parallel.setParallel(true);
+        Hydrometers hydrometers = createHydrometers(hillslopes);
+        sequential.addDischargeContributor(hydrometers);
+        parallel.addDischargeContributor(hydrometers);
+
+        double[] rain = new double[n];
+        double[] etp = new double[n];
+        double[] sequentialConditions = null;
+        double[] parallelConditions = null;
+        Random random = new Random(5);
+        for( int step = 0; step < 10; step++ ) {
+            for( int i = 0; i < n; i++ ) {
+                rain[i] = random.nextDouble() * 10;
+                etp[i] = random.nextDouble();
+            }
+            sequentialConditions = sequential.solve(null, 60, 1, sequentialConditions, rain, etp);
+            parallelConditions = parallel.solve(null, 60, 1, parallelConditions, rain, etp);
+            for( int i = 0; i < sequentialConditions.length; i++ ) {
+                assertEquals(sequentialConditions[i], parallelConditions[i], 0.0);
+            }
+            assertEquals(monitored.size(), sequential.getDischarge().size());
+            for( Integer basinId : sequential.getDischarge().keySet() ) {
+                assertEquals(sequential.getDischarge().get(basinId)[0], parallel.getDischarge().get(basinId)[0], 0.0);
+                assertEquals(sequential.getSubDischarge().get(basinId)[0], parallel.getSubDischarge().get(basinId)[0], 0.0);
+            }
+        }
+        // the outlet collects the discharge of the whole network
+        double outletDischarge = sequential.getDischarge().get(hillslopes.get(0).getHillslopeId())[0];
+        assertTrue(outletDischarge > 0);
+    }
+
+    public void testDuffyGoldenOutputs() throws Exception {
+        // the sequential evaluation gives exactly the results of the engine before the network arrays
+        assertExactly(DUFFY_CHEZY, runDuffy(DuffyModel.ROUTING_CHEZY));
+        assertExactly(DUFFY_MANNING, runDuffy(DuffyModel.ROUTING_MANNING));
+    }
+
+    public void testHymodGoldenOutputs() throws Exception {
+        assertExactly(HYMOD, runHymod());
+    }
+
+    private void assertExactly( double[] expected, double[] results ) {
+        assertEquals(expected.length, results.length);
+        for( int i = 0; i < expected.length; i++ ) {
+            assertEquals("value " + i, expected[i], results[i], 0.0);
+        }
+    }
+
+    /**
+     * Run a few duffy evaluations on a small network.
+     *
+     * @return the outputs of all the evaluations, one after the other.
+     */
+    private double[] runDuffy( int routingType ) throws Exception {
+        List<IHillSlope> hillslopes = createDuffyNetwork(createNetwork(GOLDEN_SIZE, 7));
+        int n = hillslopes.size();
+        DuffyModel duffy = new DuffyModel(hillslopes, routingType, dummyPm, false);
+        duffy.addDischargeContributor(createHydrometers(hillslopes));
+
+        double[] results = new double[GOLDEN_STEPS * 4 * n];
+        double[] rain = new double[n];
+        double[] input = initialConditions(hillslopes);
+        Random random = new Random(11);
+        for( int step = 0; step < GOLDEN_STEPS; step++ ) {
+            for( int i = 0; i < n; i++ ) {
+                rain[i] = random.nextDouble() * 20;
+            }
+            double[] output = duffy.eval(step, input, rain, null, false);
+            System.arraycopy(output, 0, results, step * 4 * n, 4 * n);
+            for( int i = 0; i < input.length; i++ ) {
+                input[i] = Math.max(0, input[i] + 0.1 * output[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run a few hymod time steps on a small network.
+     *
+     * @return the conditions and then the discharges of the monitored basins, for every step.
+     */
+    private double[] runHymod() throws Exception {
+        List<IHillSlope> hillslopes = createNetwork(GOLDEN_SIZE, 9);
+        int n = hillslopes.size();
+        List<String> monitored = new ArrayList<String>();
+        HashMap<Integer, Integer> index2Basinid = new HashMap<Integer, Integer>();
+        for( int i = 0; i < n; i++ ) {
+            index2Basinid.put(i, hillslopes.get(i).getHillslopeId());
+            if (i % 3 == 0) {
+                monitored.add(hillslopes.get(i).getPfafstetterNumber().toString());
+            }
+        }
+        HymodAdigeEngine hymod = new HymodAdigeEngine(hymodInputs(), hillslopes, index2Basinid,
+                new HashMap<Integer, double[]>(), new HashMap<Integer, double[]>(), monitored, false, false, dummyPm);
+        hymod.addDischargeContributor(createHydrometers(hillslopes));
+
+        List<Double> results = new ArrayList<Double>();
+        double[] rain = new double[n];
+        double[] etp = new double[n];
+        double[] conditions = null;
+        Random random = new Random(13);
+        for( int step = 0; step < GOLDEN_STEPS; step++ ) {
+            for( int i = 0; i < n; i++ ) {
+                rain[i] = random.nextDouble() * 10;
+                etp[i] = random.nextDouble();
+            }
+            conditions = hymod.solve(null, 60, 1, conditions, rain, etp);
+            for( double condition : conditions ) {
+                results.add(condition);
+            }
+            for( int i = 0; i < n; i += 3 ) {
+                int basinId = hillslopes.get(i).getHillslopeId();
+                results.add(hymod.getDischarge().get(basinId)[0]);
+                results.add(hymod.getSubDischarge().get(basinId)[0]);
+            }
+        }
+        double[] resultsArray = new double[results.size()];
+        for( int i = 0; i < resultsArray.length; i++ ) {
+            resultsArray[i] = results.get(i);
+        }
+        return resultsArray;
+    }
+
+    static HymodInputs hymodInputs() {
+        HymodInputs inputs = new HymodInputs();
+        inputs.pCmax = 300.0;
+        inputs.pB = 0.5;
+        inputs.pAlpha = 0.3;
+        inputs.pRs = 0.01;
+        inputs.pRq = 0.1;
+        inputs.pQ0 = 1.0;
+        return inputs;
+    }
+
+    static double[] initialConditions( List<IHillSlope> hillslopes ) {
+        int n = hillslopes.size();
+        double[] initialConditions = new double[4 * n];
+        for( int i = 0; i < n; i++ ) {
+            HillSlopeDuffy hillslope = (HillSlopeDuffy) hillslopes.get(i);
+            double discharge = 0.01 * hillslope.getUpstreamArea(null) / 1E6;
+            initialConditions[i] = 0.3 * discharge;
+            initialConditions[i + n] = 0.7 * discharge;
+            double maxSaturatedVolume = hillslope.getParameters().getS2max();
+            initialConditions[i + 2 * n] = 0.2 * maxSaturatedVolume;
+            initialConditions[i + 3 * n] = 0.25 * maxSaturatedVolume;
+        }
+        return initialConditions;
+    }
+
+    private Hydrometers createHydrometers( List<IHillSlope> hillslopes ) {
+        HashMap<String, Integer> pfaff2id = new HashMap<String, Integer>();
+        HashMap<Integer, double[]> data = new HashMap<Integer, double[]>();
+        for( int i = 7; i < hillslopes.size(); i += 97 ) {
+            pfaff2id.put(hillslopes.get(i).getPfafstetterNumber().toString(), i);
+            data.put(i, new double[]{0.5 + i / 1000.0});
+        }
+        Hydrometers hydrometers = new Hydrometers(pfaff2id);
+        hydrometers.setCurrentData(data);
+        return hydrometers;
+    }
+
+    static List<IHillSlope> createDuffyNetwork( List<IHillSlope> hillslopes ) {
+        DuffyInputs duffyInputs = new DuffyInputs();
+        duffyInputs.pEtrate = 0.1;
+        List<IHillSlope> duffyHillslopes = new ArrayList<IHillSlope>();
+        for( IHillSlope hillSlope : hillslopes ) {
+            duffyHillslopes.add(new HillSlopeDuffy(hillSlope, duffyInputs));
+        }
+        return duffyHillslopes;
+    }
+
+    /**
+     * Create a random tree of hillslopes, ordered from the outlet upwards.
+     *
+     * <p>The areas are below the threshold over which the duffy model distributes the discharge.</p>
+     */
+    static List<IHillSlope> createNetwork( int size, long seed ) {
+        Random random = new Random(seed);
+        List<IHillSlope> hillslopes = new ArrayList<IHillSlope>();
+        for( int i = 0; i < size; i++ ) {
+            SyntheticHillSlope hillSlope = new SyntheticHillSlope(i + 1, new PfafstetterNumber("1." + (i + 1)),
+                    100000 + random.nextDouble() * 390000, 500 + random.nextDouble() * 1500, 0.001 + random.nextDouble() * 0.1);
+            if (i > 0) {
+                // attach to one of the last hillslopes, to have long branches
+                int downstream = Math.max(0, i - 1 - random.nextInt(Math.min(i, 10)));
+                hillSlope.downstream = (SyntheticHillSlope) hillslopes.get(downstream);
+                hillSlope.downstream.upstream.add(hillSlope);
+            }
+            hillslopes.add(hillSlope);
+        }
+        for( int i = size - 1; i >= 0; i-- ) {
+            SyntheticHillSlope hillSlope = (SyntheticHillSlope) hillslopes.get(i);
+            hillSlope.upstreamArea += hillSlope.area;
+            if (hillSlope.downstream != null) {
+                hillSlope.downstream.upstreamArea += hillSlope.upstreamArea;
+            }
+        }
+        return hillslopes;
+    }
+
+    /*
+     * The outputs of the golden runs, taken from the duffy and hymod engines before the network arrays.
+     */
+    private static final double[] DUFFY_CHEZY = {
+            0.006511040940413217, 0.004448828817482531, 0.0028522806831862597, 1.5547534731512368E-4,
+            0.0043510850484019805, 2.2381187722857342E-4, 0.006986533608375285, 0.0038571256920975298,
+            0.0027502363689099847, 0.002160291944285618, 1.3965164481350817E-4, 1.3143565848075994E-4,
+            1.6148458371754193E-4, 1.147084028866168E-4, 0.006853867539854396, 2.085849989512393E-4,
+            1.8455117363985204E-4, 1.0931852360426926E-4, 1.0224876316947897E-4, 1.2251130861782713E-4,
+            66.99277448745613, 43.13668839405923, 29.38585632717147, -2.6404401763875898,
+            11.3649715937985, -0.5806605037320428, 46.93468871153824, 52.762080209457196,
+            33.72188989093968, 31.51455174270706, -6.656393065440652, -7.675898994393432,
+            -3.730672773373225, -6.111173388107583, -5.799042190792008, -3.530449137941741,
+            -8.146604403604119, -5.840315283242493, -7.462602003737579, -2.853907389153332,
+            0.0011717909960493043, 0.0070165762973890405, 8.314894079344025E-4, 0.002625297090617608,
+            0.007435514186723465, 0.0033325670060243523, 0.018227092754715762, 0.002209757843812083,
+            0.0014928249551474971, 8.622884503411928E-4, 1.4283172016841812E-4, 1.4700588528649834E-4,
+            1.6599644907995707E-4, 1.151192601332754E-4, 0.007210002449237472, 2.1084569140282765E-4,
+            2.0999678014967167E-4, 1.2171871310422046E-4, 1.0880326241328425E-4, 1.402003811760012E-4,
+            7.433169856082984, 70.0472445474475, 6.306394832953595, 31.64531331250994,
+            40.529996410349746, 26.4112911200623, 115.94416207706305, 24.966362115232133,
+            14.293442106037896, 9.744861494921016, -6.656328633476454, -7.675829853864036,
+            -3.7306349592812453, -6.1111218364805024, -5.798991227716869, -3.530416560583087,
+            -8.146531217556573, -5.840258797721768, -7.462535663814731, -2.8538756350286896};
+
+    private static final double[] DUFFY_MANNING = {
+            4.222231445805233E-4, 2.822039202812967E-4, 2.181547995805817E-4, 1.0363398281744025E-5,
+            3.115977179086281E-4, 1.582172281531927E-5, 4.6633948989110763E-4, 2.1237493412966252E-4,
+            1.6363600404175753E-4, 8.4975897351742E-5, 9.056026088396803E-6, 8.337398360275248E-6,
+            1.2351041467945716E-5, 7.646028041779005E-6, 4.908314731864436E-4, 1.4745303411533359E-5,
+            1.2318483671336387E-5, 6.019123073218637E-6, 6.083687646781023E-6, 4.819028471162814E-6,
+            66.99277448745613, 43.13668839405923, 29.38585632717147, -2.6404401763875898,
+            11.3649715937985, -0.5806605037320428, 46.93468871153824, 52.762080209457196,
+            33.72188989093968, 31.51455174270706, -6.656393065440652, -7.675898994393432,
+            -3.730672773373225, -6.111173388107583, -5.799042190792008, -3.530449137941741,
+            -8.146604403604119, -5.840315283242493, -7.462602003737579, -2.853907389153332,
+            7.43775097782892E-5, 4.365902820981257E-4, 6.148456435159491E-5, 1.7422083669814872E-4,
+            5.071221615645135E-4, 2.3269270952019745E-4, 0.0010749827881953947, 1.0990499054192505E-4,
+            8.379761290374617E-5, 2.9835160013011455E-5, 9.065087299047838E-6, 8.402435509316629E-6,
+            1.2368791622581215E-5, 7.64684001198999E-6, 4.920767835783844E-4, 1.4751848579046513E-5,
+            1.2402504006994388E-5, 6.046386079413688E-6, 6.099687056158252E-6, 4.839434622587164E-6,
+            7.433169856082984, 70.0472445474475, 6.306394832953595, 31.64531331250994,
+            40.529996410349746, 26.4112911200623, 115.94416207706305, 24.966362115232133,
+            14.293442106037896, 9.744861494921016, -6.656328633476454, -7.675829853864036,
+            -3.7306349592812453, -6.1111218364805024, -5.798991227716869, -3.530416560583087,
+            -8.146531217556573, -5.840258797721768, -7.462535663814731, -2.8538756350286896};
+
+    private static final double[] HYMOD = {
+            6.808852669755738, 0.0, 4.007871367218593, 8.590036553032542,
+            6.697593301353196, 7.6047346282634605, 0.32945023221612557, 8.948743461043554,
+            2.702414215716773, 9.287909758373798, 0.031196208598376705, 1.5346277840466716E-4,
+            0.009841890682297637, 0.04811440833631994, 0.03413599747200706, 0.04373850193694473,
+            2.354578613600333E-4, 0.05255844875210229, 0.006161873420841779, 0.0571504005388789,
+            0.013369803685018588, 6.576976217342878E-5, 0.0042179531495561305, 0.02062046071556569,
+            0.01462971320228874, 0.018745072258690598, 1.0091051201144285E-4, 0.022525049465186697,
+            0.0026408028946464765, 0.02449302880237667, 0.001336980368501859, 6.576976217342878E-6,
+            4.2179531495561306E-4, 0.002062046071556569, 0.0014629713202288742, 0.0018745072258690599,
+            1.0091051201144285E-5, 0.0022525049465186697, 2.6408028946464765E-4, 0.002449302880237667,
+            1.336980368501859E-4, 6.576976217342879E-7, 4.217953149556131E-5, 2.062046071556569E-4,
+            1.4629713202288743E-4, 1.87450722586906E-4, 1.0091051201144286E-6, 2.2525049465186697E-4,
+            2.6408028946464768E-5, 2.449302880237667E-4, 0.5072303586720212, 3.3342074907443055E-5,
+            3.4318677492581064E-5, 3.290832088329691E-5, 2.1347401853073222E-7, 2.0470111365960625E-7,
+            7.360028986387247E-5, 7.057562041741195E-5, 7.625679913852298, 1.1003555795557762,
+            11.749502688830551, 17.51128199976129, 14.811807967670077, 10.42286239012903,
+            5.510623515706832, 15.405645788789936, 10.621185641859531, 9.3963862195122,
+            0.043840952166332256, 8.637338642420145E-4, 0.09450663495264337, 0.19625103900002214,
+            0.15203205001279502, 0.08343977374963615, 0.020645086778816706, 0.16680039266445523,
+            0.06934517906131975, 0.06381232087139783, 0.017585697168205006, 3.642523775081119E-4,
+            0.040123227767672826, 0.08225174667846571, 0.06383991867442046, 0.0340728465322762,
+            0.008838812387697558, 0.069458628118614, 0.029481690194333138, 0.025143764924099452,
+            0.002961852048472174, 4.234451634641979E-5, 0.004391938560227335, 0.010081016132247484,
+            0.007700666055648033, 0.005094341156509774, 8.929631848507857E-4, 0.008973117263728203,
+            0.003185841279951497, 0.004718749084623846, 4.165134380123847E-4, 4.8263794942028386E-6,
+            4.7715543436873867E-4, 0.0011936857596648396, 9.017340243854021E-4, 6.781397659791929E-4,
+            9.020451309318157E-5, 0.0011000371715595007, 3.42351354046968E-4, 6.923121676837747E-4,
+            0.5076983414876637, 4.6856601389039946E-5, 1.4239215116878403E-4, 1.34227820488816E-4,
+            1.873253189602205E-5, 1.7948316657650268E-5, 8.735192923006339E-5, 7.88024947036043E-5};
+
+    private static class SyntheticHillSlope implements IHillSlope {
+        private final int id;
+        private final PfafstetterNumber pfafstetterNumber;
+        private final double area;
+        private final double linkLength;
+        private final double linkSlope;
+        private double upstreamArea = 0;
+        private SyntheticHillSlope downstream;
+        private final List<IHillSlope> upstream = new ArrayList<IHillSlope>();
+
+        SyntheticHillSlope( int id, PfafstetterNumber pfafstetterNumber, double area, double linkLength, double linkSlope ) {
+            this.id = id;
+            this.pfafstetterNumber = pfafstetterNumber;
+            this.area = area;
+            this.linkLength = linkLength;
+            this.linkSlope = linkSlope;
+        }
+
+        public int getHillslopeId() {
+            return id;
+        }
+
+        public SimpleFeature getLinkFeature() {
+            return null;
+        }
+
+        public double getLinkLength() {
+            return linkLength;
+        }
+
+        public double getLinkSlope() {
+            return linkSlope;
+        }
+
+        public double getLinkWidth( double coefficient, double exponent, double sdResiduals ) {
+            return coefficient * Math.pow(upstreamArea / 1000000.0, exponent);
+        }
+
+        public double getLinkChezi( double coefficient, double exponent ) {
+            return coefficient * Math.pow(linkSlope, exponent);
+        }
+
+        public SimpleFeature getHillslopeFeature() {
+            return null;
+        }
+
+        public double getHillslopeArea() {
+            return area;
+        }
+
+        public double getBaricenterElevation() {
+            return 0;
+        }
+
+        public Coordinate getHillslopeClosure() {
+            return null;
+        }
+
+        public Geometry getGeometry( List<PfafstetterNumber> limit, IHMProgressMonitor pm, boolean doMonitor ) {
+            return null;
+        }
+
+        public double getUpstreamArea( List<PfafstetterNumber> limit ) {
+            return upstreamArea;
+        }
+
+        public PfafstetterNumber getPfafstetterNumber() {
+            return pfafstetterNumber;
+        }
+
+        public IHillSlope getFirstOfMaiorBasinElement() {
+            return null;
+        }
+
+        public boolean addConnectedUpstreamElementWithCheck( IHillSlope element ) {
+            return false;
+        }
+
+        public boolean addConnectedDownstreamElementWithCheck( IHillSlope element ) {
+            return false;
+        }
+
+        public IHillSlope getUpstreamElementAtPfafstetter( PfafstetterNumber pNum ) {
+            return null;
+        }
+
+        public IHillSlope getConnectedDownstreamElement() {
+            return downstream;
+        }
+
+        public List<IHillSlope> getConnectedUpstreamElements() {
+            return upstream;
+        }
+
+        public void getAllUpstreamElements( List<IHillSlope> elems, List<PfafstetterNumber> limit ) {
+            elems.add(this);
+            for( IHillSlope hillSlope : upstream ) {
+                hillSlope.getAllUpstreamElements(elems, limit);
+            }
+        }
+
+        public void getAllUpstreamElementsGeometries( List<Geometry> elems, List<PfafstetterNumber> limit,
+                IHillSlope firstOfMaiorBasin ) {
+        }
+
+        public int compare( IHillSlope o1, IHillSlope o2 ) {
+            return o1.getPfafstetterNumber().compareTo(o2.getPfafstetterNumber());
+        }
+
+        public String toString() {
+            return pfafstetterNumber.toString();
+        }
+
+        public boolean equals( Object obj ) {
+            if (obj instanceof IHillSlope) {
+                return pfafstetterNumber.compareTo(((IHillSlope) obj).getPfafstetterNumber()) == 0;
+            }
+            return false;
+        }
+
+        public int hashCode() {
+            return pfafstetterNumber.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.hortonmachine.hmachine.models.hm;
+
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.KrigingSystems;
+import org.hortonmachine.hmachine.modules.statistics.kriging.utils.SimpleLinearSystemSolverFactory;
+import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.ITheoreticalVariogram;
+import org.hortonmachine.hmachine.modules.statistics.kriging.variogram.theoretical.TheoreticalVariogram;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+
+/**
+ * Test {@link KrigingSystems}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestKrigingSystems extends HMTestCase {
+
+    private static final double NUGGET = 0.1;
+    private static final double RANGE = 3000;
+    private static final double SILL = 2.0;
+
+    private int[] ids = {7, 3, 12, 5, 9};
+    private double[] x = {1200, 5400, 300, 8800, 4100};
+    private double[] y = {900, 7300, 5100, 2200, 3900};
+    private double[] z = {120, 640, 380, 90, 410};
+
+    public void testWeightsAgainstFullSolve() throws Exception {
+        KrigingSystems systems = new KrigingSystems(ITheoreticalVariogram.EXPONENTIAL, NUGGET, RANGE, SILL, "default");
+
+        double[][] points = {{2000, 3000, 200}, {6000, 6000, 500}, {4100, 3900, 410}};
+        for( double[] point : points ) {
+            double[] weights = systems.weights(ids, x, y, z, ids.length, point[0], point[1], point[2]);
+            double[] expected = solve(ids.length, point);
+
+            double sum = 0;
+            for( int i = 0; i < ids.length; i++ ) {
+                assertEquals(expected[i], weights[i], 1E-12);
+                sum += weights[i];
+            }
+            assertEquals(1.0, sum, 1E-9);
+        }
+        assertEquals(1, systems.getFactorizedCount());
+    }
+
+    public void testSystemsCachedByStationsSet() throws Exception {
+        KrigingSystems systems = new KrigingSystems(ITheoreticalVariogram.GAUSSIAN, NUGGET, RANGE, SILL, "default");
+        double[] point = {3000, 4000, 250};
+
+        double[] weights = systems.weights(ids, x, y, z, ids.length, point[0], point[1], point[2]);
+
+        // the same stations in a different order use the same system
+        int[] order = {4, 2, 0, 3, 1};
+        int[] ids2 = new int[order.length];
+        double[] x2 = new double[order.length];
+        double[] y2 = new double[order.length];
+        double[] z2 = new double[order.length];
+        for( int i = 0; i < order.length; i++ ) {
+            ids2[i] = ids[order[i]];
+            x2[i] = x[order[i]];
+            y2[i] = y[order[i]];
+            z2[i] = z[order[i]];
+        }
+        double[] weights2 = systems.weights(ids2, x2, y2, z2, order.length, point[0], point[1], point[2]);
+        assertEquals(1, systems.getFactorizedCount());
+        for( int i = 0; i < order.length; i++ ) {
+            assertEquals(weights[order[i]], weights2[i], 1E-12);
+        }
+
+        // a subset is a new system
+        systems.weights(ids, x, y, z, 3, point[0], point[1], point[2]);
+        assertEquals(2, systems.getFactorizedCount());
+    }
+
+    public void testSystemsKeptBetweenRuns() throws Exception {
+        KrigingSystems systems = new KrigingSystems(ITheoreticalVariogram.EXPONENTIAL, NUGGET, RANGE, SILL, "default");
+        assertTrue(systems.isFor(ITheoreticalVariogram.EXPONENTIAL, NUGGET, RANGE, SILL, "default"));
+        assertFalse(systems.isFor(ITheoreticalVariogram.GAUSSIAN, NUGGET, RANGE, SILL, "default"));
+        assertFalse(systems.isFor(ITheoreticalVariogram.EXPONENTIAL, NUGGET, RANGE * 2, SILL, "default"));
+
+        double[] point = {2000, 3000, 200};
+        systems.weights(ids, x, y, z, ids.length, point[0], point[1], point[2]);
+        systems.weights(ids, x, y, z, ids.length, point[0], point[1], point[2]);
+        assertEquals(1, systems.getFactorizedCount());
+
+        // a station that moved with the same id gives a new system
+        double[] movedX = x.clone();
+        movedX[2] += 500;
+        double[] weights = systems.weights(ids, movedX, y, z, ids.length, point[0], point[1], point[2]);
+        assertEquals(2, systems.getFactorizedCount());
+
+        double[] originalX = x;
+        x = movedX;
+        double[] expected = solve(ids.length, point);
+        x = originalX;
+        for( int i = 0; i < ids.length; i++ ) {
+            assertEquals(expected[i], weights[i], 1E-12);
+        }
+    }
+
+    private double[] solve( int n, double[] point ) throws Exception {
+        double[][] covarianceMatrix = new double[n + 1][n + 1];
+        for( int j = 0; j < n; j++ ) {
+            for( int i = 0; i < n; i++ ) {
+                covarianceMatrix[j][i] = variogram(x[i] - x[j], y[i] - y[j], z[i] - z[j]);
+            }
+            covarianceMatrix[j][n] = 1.0;
+            covarianceMatrix[n][j] = 1.0;
+        }
+        double[] knownTerm = new double[n + 1];
+        for( int i = 0; i < n; i++ ) {
+            knownTerm[i] = variogram(x[i] - point[0], y[i] - point[1], z[i] - point[2]);
+        }
+        knownTerm[n] = 1.0;
+        return SimpleLinearSystemSolverFactory.solve(knownTerm, covarianceMatrix, "default").copyValues1D();
+    }
+
+    private double variogram( double rx, double ry, double rz ) {
+        double distance = Math.sqrt(rx * rx + ry * ry + rz * rz);
+        if (distance == 0) {
+            return 0;
+        }
+        return new TheoreticalVariogram().calculateVGM(ITheoreticalVariogram.EXPONENTIAL, distance, SILL, RANGE, NUGGET);
+    }
+
+}
@@ -3,6 +3,7 @@ package org.hortonmachine.hmachine.models.hm;
 import java.util.HashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.modules.geomorphology.multitca.OmsMultiTca;
 import org.hortonmachine.hmachine.utils.HMTestCase;
@@ -10,13 +11,27 @@ import org.hortonmachine.hmachine.utils.HMTestMaps;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 public class TestMultiTca extends HMTestCase {
+    private static final double N = HMConstants.doubleNovalue;
+
+    private static final double[][] expectedMultiTcaData = new double[][]{ //
+            {N, N, N, N, N, N, N, N, N, N}, //
+            {N, N, N, 1.067669, 1.285714, 1.357143, 1.25, 1.0, 1.0, N}, //
+            {N, N, N, 2.719157, 2.831517, 2.31103, 2.103022, 2.410714, 1.125, N}, //
+            {N, 39.159683, 2.635251, 3.418332, 3.227847, 2.551168, 1.906822, 5.421213, 2.223901, N}, //
+            {N, 1.928969, 36.896626, 31.058397, 23.979515, 17.078283, 12.275179, 4.636037, 2.029218, N}, //
+            {N, 2.266663, 1.739976, 1.800248, 3.404443, 2.149075, 2.38054, 2.401235, 1.0, N}, //
+            {N, 1.238462, 1.192308, 1.0, 1.076923, 1.805659, 1.234568, 1.055556, 1.0, N}, //
+            {N, N, N, N, N, N, N, N, N, N} //
+    };
+
     public void testMultiTca() throws Exception {
         double[][] pitfillerData = HMTestMaps.pitData;
         HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
         CoordinateReferenceSystem crs = HMTestMaps.getCrs();
         GridCoverage2D pitfillerCoverage = CoverageUtilities.buildCoverage("pit", pitfillerData, envelopeParams, crs, true);
 
-
+        envelopeParams = HMTestMaps.getEnvelopeparams();
+        crs = HMTestMaps.getCrs();
         double[][] flowData = HMTestMaps.drainData1;
         GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", flowData, envelopeParams, crs, true);
 
@@ -32,6 +47,48 @@ public class TestMultiTca extends HMTestCase {
         tca.pm = pm;
         tca.process();
         GridCoverage2D tcaCoverage = tca.outMultiTca;
- //       checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.multiTcaData);
+        // the flat area at rows 3-4 drains along the flowdirections
+        checkMatrixEqual(tcaCoverage.getRenderedImage(), expectedMultiTcaData, 0.000_001);
+    }
+
+    /**
+     * The same maps with the flat area raised by small increments, which has no flats
+     * to resolve. The expected values are the output of the version before the
+     * flow accumulation engine.
+     */
+    public void testMultiTcaAsLegacy() throws Exception {
+        double[][] pitData = new double[][]{ //
+                {800, 900, 1000, 1000, 1200, 1250, 1300, 1350, 1450, 1500}, //
+                {600, N, 750, 850, 860, 900, 1000, 1200, 1250, 1500}, //
+                {500, 550, 700, 750, 800, 850, 900, 1000, 1100, 1500}, //
+                {400, 410, 650, 700, 750, 800, 850, 800.000002, 800.000004, 1500}, //
+                {450, 550, 430, 500, 600, 700, 800, 800.000002, 800.000004, 1500}, //
+                {500, 600, 700, 750, 760, 770, 850, 1000, 1150, 1500}, //
+                {600, 700, 750, 800, 780, 790, 1000, 1100, 1250, 1500}, //
+                {800, 910, 980, 1001, 1150, 1200, 1250, 1300, 1450, 1500} //
+        };
+        double[][] flowData = new double[][]{ //
+                {N, N, N, N, N, N, N, N, N, N}, //
+                {N, N, N, 6, 6, 6, 6, 6, 6, N}, //
+                {N, N, N, 6, 6, 6, 6, 7, 7, N}, //
+                {N, 5, 5, 7, 6, 6, 6, 6, 5, N}, //
+                {N, 3, 4, 5, 5, 5, 5, 5, 5, N}, //
+                {N, 2, 3, 3, 4, 4, 4, 3, 3, N}, //
+                {N, 4, 4, 4, 4, 4, 5, 4, 4, N}, //
+                {N, N, N, N, N, N, N, N, N, N} //
+        };
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D pitCoverage = CoverageUtilities.buildCoverage("pit", pitData, envelopeParams, crs, true);
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", flowData, envelopeParams, crs, true);
+        GridCoverage2D cp9Coverage = CoverageUtilities.buildCoverage("cp9", HMTestMaps.cp9Data, envelopeParams, crs, true);
+
+        OmsMultiTca tca = new OmsMultiTca();
+        tca.inPit = pitCoverage;
+        tca.inFlow = flowCoverage;
+        tca.inCp9 = cp9Coverage;
+        tca.pm = pm;
+        tca.process();
+        checkMatrixEqual(tca.outMultiTca.getRenderedImage(), expectedMultiTcaData, 0.000_001);
     }
 }
@@ -23,6 +23,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_AUTHORNAMES;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_DRAFT;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -48,7 +49,9 @@ import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.TinRasterizer;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -86,6 +89,10 @@ public class LasChmTriangulation extends HMModel {
     @Out
     public List<Geometry> trianglesList;
 
+    @Description("The triangles rasterized on the grid of the dtm, if available.")
+    @Out
+    public GridCoverage2D outChm;
+
     @Execute
     public void process() throws Exception {
         checkNull(inLasFile);
@@ -109,6 +116,16 @@ public class LasChmTriangulation extends HMModel {
 //            trianglesList = blanket(lasPoints, inDtm != null, pm);
              trianglesList = LasUtils.triangulate(lasPoints, pElevThres, inDtm != null, pm);
 
+            if (inDtm != null) {
+                RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inDtm);
+                TinRasterizer rasterizer = new TinRasterizer(regionMap);
+                rasterizer.addTriangles(trianglesList);
+                pm.beginTask("Rasterizing triangles...", regionMap.getCols() * regionMap.getRows());
+                WritableRaster chmWR = rasterizer.rasterizeToRaster(true, pm);
+                pm.done();
+                outChm = CoverageUtilities.buildCoverage("chm", chmWR, regionMap, crs);
+            }
+
             // int newNumTriangles = trianglesList.size();
             // pm.message("Created triangles: " + newNumTriangles);
         }
@@ -27,10 +27,8 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import javax.media.jai.iterator.RandomIter;
 
@@ -52,11 +50,14 @@ import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.geometry.DirectPosition2D;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.utils.LasPointIndex;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
 import org.hortonmachine.gears.libs.modules.GridNode;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridBlockScheduler;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -129,6 +130,8 @@ public class OmsPointCloudMaximaFinder extends HMModel {
     public static final String LABEL = HMConstants.LESTO + "/vegetation";
     // VARS DOCS END
 
+    private static final int MAXIMA_CHUNK_SIZE = 4096;
+
     private AtomicInteger index = new AtomicInteger();
 
     @Execute
@@ -170,11 +173,10 @@ public class OmsPointCloudMaximaFinder extends HMModel {
 
         try {
             doProcess(inLas, pMaxRadius, doDynamicRadius, helper, (DefaultFeatureCollection) outTops, lasBuilder, index, pm);
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            if (helper != null)
+                helper.dsmDtmDiffIter.done();
         }
-        if (helper != null)
-            helper.dsmDtmDiffIter.done();
 
     }
 
@@ -187,89 +189,81 @@ public class OmsPointCloudMaximaFinder extends HMModel {
          * - 0 = non maxima
          */
         final GeometryFactory gf = new GeometryFactory();
-        pm.beginTask("Mark local maxima...", pointsInTile.size());
-        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(getDefaultThreadsNum());
-        for( final LasRecord currentDot : pointsInTile ) {
-            Runnable runner = new Runnable(){
-                public void run() {
-                    try {
-                        // check if it is a local maxima
-                        boolean isLocalMaxima = true;
-                        for( LasRecord tmpDot : pointsInTile ) {
-                            double distance = LasUtils.distance(currentDot, tmpDot);
-                            double maxRadius = pMaxRadius;
-                            if (doDynamicRadius) {
-                                // use Popescu lowered to 70% (Popescu & Kini 2004 for mixed pines
-                                // and
-                                // deciduous trees)
-                                maxRadius = (2.51503 + 0.00901 * pow(currentDot.groundElevation, 2.0)) / 2.0 * 0.7;
-                                if (maxRadius > pMaxRadius) {
-                                    maxRadius = pMaxRadius;
-                                }
-                            }
-                            if (distance > maxRadius) {
-                                continue;
-                            }
-                            if (tmpDot.groundElevation > currentDot.groundElevation) {
-                                // not local maxima
-                                isLocalMaxima = false;
-                                break;
-                            }
-                        }
-                        // mark it
-                        if (isLocalMaxima) {
-                            if (helper != null) {
-                                // check if it is some border or noise
-                                GridCoordinates2D gridCoord = helper.gridGeometry
-                                        .worldToGrid(new DirectPosition2D(currentDot.x, currentDot.y));
-                                GridNode node = new GridNode(helper.dsmDtmDiffIter, helper.cols, helper.rows, helper.xres,
-                                        helper.yres, gridCoord.x, gridCoord.y, helper.novalue);
-                                double topElevation = node.elevation;
-                                if (!node.isValid() || node.touchesBound()) {
-                                    isLocalMaxima = false;
-                                } else {
-                                    List<GridNode> validSurroundingNodes = node.getValidSurroundingNodes();
-                                    for( GridNode tmpNode : validSurroundingNodes ) {
-                                        double tmpElevation = tmpNode.elevation;
-                                        if (abs(topElevation - tmpElevation) > helper.pElevDiffThres) {
-                                            isLocalMaxima = false;
-                                        }
-                                    }
-                                }
-                            }
-                            if (isLocalMaxima) {
-                                synchronized (lasBuilder) {
-                                    final Point point = gf.createPoint(new Coordinate(currentDot.x, currentDot.y));
-                                    double groundElevation = currentDot.groundElevation;
-                                    // round to meter with 1 decimal
-                                    groundElevation = ((int) round(groundElevation * 10)) / 10.0;
-                                    final Object[] values = new Object[]{point, index.getAndIncrement(), groundElevation,
-                                            currentDot.intensity, currentDot.classification, currentDot.returnNumber,
-                                            currentDot.numberOfReturns};
-                                    lasBuilder.addAll(values);
-                                    final SimpleFeature feature = lasBuilder.buildFeature(null);
-                                    outTopsFC.add(feature);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        pm.worked(1);
-                    }
+        final int size = pointsInTile.size();
+        final LasRecord[] dots = pointsInTile.toArray(new LasRecord[size]);
+        // the radius can only shrink, so the max radius is the best cell size
+        final LasPointIndex pointIndex = LasPointIndex.fromRecords(pointsInTile, pMaxRadius > 0 ? pMaxRadius : 1.0);
+        final boolean[] isLocalMaxima = new boolean[size];
+
+        pm.beginTask("Mark local maxima...", size);
+        int chunksCount = (size + MAXIMA_CHUNK_SIZE - 1) / MAXIMA_CHUNK_SIZE;
+        GridBlockScheduler.defaultPool.submit(() -> IntStream.range(0, chunksCount).parallel().forEach(chunk -> {
+            int from = chunk * MAXIMA_CHUNK_SIZE;
+            int to = Math.min(size, from + MAXIMA_CHUNK_SIZE);
+            for( int i = from; i < to; i++ ) {
+                try {
+                    isLocalMaxima[i] = isLocalMaxima(dots, i, pointIndex, pMaxRadius, doDynamicRadius, helper);
+                } catch (Exception e) {
+                    throw new ModelsRuntimeException("Unable to check the point at position " + dots[i].x + "/" + dots[i].y,
+                            OmsPointCloudMaximaFinder.class.getSimpleName(), e);
                 }
-            };
-            fixedThreadPool.execute(runner);
-        }
-        try {
-            fixedThreadPool.shutdown();
-            fixedThreadPool.awaitTermination(30, TimeUnit.DAYS);
-            fixedThreadPool.shutdownNow();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+            }
+            pm.worked(to - from);
+        })).get();
         pm.done();
 
+        // build the tops in the order of the points
+        for( int i = 0; i < size; i++ ) {
+            if (isLocalMaxima[i]) {
+                LasRecord currentDot = dots[i];
+                final Point point = gf.createPoint(new Coordinate(currentDot.x, currentDot.y));
+                double groundElevation = currentDot.groundElevation;
+                // round to meter with 1 decimal
+                groundElevation = ((int) round(groundElevation * 10)) / 10.0;
+                final Object[] values = new Object[]{point, index.getAndIncrement(), groundElevation, currentDot.intensity,
+                        currentDot.classification, currentDot.returnNumber, currentDot.numberOfReturns};
+                lasBuilder.addAll(values);
+                final SimpleFeature feature = lasBuilder.buildFeature(null);
+                outTopsFC.add(feature);
+            }
+        }
+    }
+
+    private static boolean isLocalMaxima( LasRecord[] dots, int i, LasPointIndex pointIndex, double pMaxRadius,
+            boolean doDynamicRadius, DsmDtmDiffHelper helper ) throws Exception {
+        LasRecord currentDot = dots[i];
+        double maxRadius = pMaxRadius;
+        if (doDynamicRadius) {
+            // use Popescu lowered to 70% (Popescu & Kini 2004 for mixed pines
+            // and
+            // deciduous trees)
+            maxRadius = (2.51503 + 0.00901 * pow(currentDot.groundElevation, 2.0)) / 2.0 * 0.7;
+            if (maxRadius > pMaxRadius) {
+                maxRadius = pMaxRadius;
+            }
+        }
+        // check if it is a local maxima, stop at the first higher point
+        boolean isLocalMaxima = pointIndex.visitInRadius(currentDot.x, currentDot.y, maxRadius,
+                tmpIndex -> !(dots[tmpIndex].groundElevation > currentDot.groundElevation));
+        if (isLocalMaxima && helper != null) {
+            // check if it is some border or noise
+            GridCoordinates2D gridCoord = helper.gridGeometry.worldToGrid(new DirectPosition2D(currentDot.x, currentDot.y));
+            GridNode node = new GridNode(helper.dsmDtmDiffIter, helper.cols, helper.rows, helper.xres, helper.yres, gridCoord.x,
+                    gridCoord.y, helper.novalue);
+            double topElevation = node.elevation;
+            if (!node.isValid() || node.touchesBound()) {
+                isLocalMaxima = false;
+            } else {
+                List<GridNode> validSurroundingNodes = node.getValidSurroundingNodes();
+                for( GridNode tmpNode : validSurroundingNodes ) {
+                    double tmpElevation = tmpNode.elevation;
+                    if (abs(topElevation - tmpElevation) > helper.pElevDiffThres) {
+                        isLocalMaxima = false;
+                    }
+                }
+            }
+        }
+        return isLocalMaxima;
     }
 
     static class DsmDtmDiffHelper {
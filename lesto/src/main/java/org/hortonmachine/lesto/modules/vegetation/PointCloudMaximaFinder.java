@@ -196,11 +196,7 @@ public class PointCloudMaximaFinder extends HMModel {
                     pm.errorMessage("No points processed in tile: " + regionPolygon);
                     continue;
                 }
-                try {
-                    doProcess(pointsInTile, pMaxRadius, doDynamicRadius, helper, outTopsFC, lasBuilder, featureIndex, pm);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                doProcess(pointsInTile, pMaxRadius, doDynamicRadius, helper, outTopsFC, lasBuilder, featureIndex, pm);
             }
             dumpVector(outTopsFC, outTops);
         }